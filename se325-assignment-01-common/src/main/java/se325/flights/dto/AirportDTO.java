@@ -78,7 +78,8 @@ public class AirportDTO {
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
+        // instanceof rather than getClass(), so that unmodifiable subclasses can equal ordinary instances
+        if (!(o instanceof AirportDTO)) return false;
         AirportDTO that = (AirportDTO) o;
         return Math.abs(that.latitude - latitude) < 1e-10 &&
                 Math.abs(that.longitude - longitude) < 1e-10 &&
@@ -100,7 +100,8 @@ public class FlightDTO {
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
+        // instanceof rather than getClass(), so that unmodifiable subclasses can equal ordinary instances
+        if (!(o instanceof FlightDTO)) return false;
         FlightDTO flightDTO = (FlightDTO) o;
         return Objects.equals(id, flightDTO.id) && Objects.equals(name, flightDTO.name) && departureTime.isEqual(flightDTO.departureTime) && Objects.equals(origin, flightDTO.origin) && arrivalTime.isEqual(flightDTO.arrivalTime) && Objects.equals(destination, flightDTO.destination) && Objects.equals(aircraftName, flightDTO.aircraftName);
     }
@@ -0,0 +1,107 @@
+package se325.flights.dto;
+
+import se325.flights.CabinClass;
+
+import java.util.Objects;
+
+/**
+ * Represents a request to be notified when any flight on a particular route, departing within a range of dates, has
+ * some number of seats available in a particular class.
+ * <p>
+ * Dates are in the format "YYYY-MM-DD" (e.g. "2021-08-16"), and are interpreted in the origin airport's timezone. The
+ * range is inclusive at both ends; if no end date is given, only the start date is considered.
+ * <p>
+ * Note: You don't need to set the user id from the client-side. The server can set this on authentication.
+ */
+public class RouteSeatsSubscriptionDTO {
+
+    private String originCode;
+    private String destinationCode;
+    private String departureDateFrom;
+    private String departureDateTo;
+    private CabinClass cabinClass;
+    private int numSeats;
+    private Long userId;
+
+    public RouteSeatsSubscriptionDTO() {
+    }
+
+    public RouteSeatsSubscriptionDTO(String originCode, String destinationCode, String departureDateFrom,
+                                     String departureDateTo, CabinClass cabinClass, int numSeats) {
+        this.originCode = originCode;
+        this.destinationCode = destinationCode;
+        this.departureDateFrom = departureDateFrom;
+        this.departureDateTo = departureDateTo;
+        this.cabinClass = cabinClass;
+        this.numSeats = numSeats;
+    }
+
+    public String getOriginCode() {
+        return originCode;
+    }
+
+    public void setOriginCode(String originCode) {
+        this.originCode = originCode;
+    }
+
+    public String getDestinationCode() {
+        return destinationCode;
+    }
+
+    public void setDestinationCode(String destinationCode) {
+        this.destinationCode = destinationCode;
+    }
+
+    public String getDepartureDateFrom() {
+        return departureDateFrom;
+    }
+
+    public void setDepartureDateFrom(String departureDateFrom) {
+        this.departureDateFrom = departureDateFrom;
+    }
+
+    public String getDepartureDateTo() {
+        return departureDateTo;
+    }
+
+    public void setDepartureDateTo(String departureDateTo) {
+        this.departureDateTo = departureDateTo;
+    }
+
+    public CabinClass getCabinClass() {
+        return cabinClass;
+    }
+
+    public void setCabinClass(CabinClass cabinClass) {
+        this.cabinClass = cabinClass;
+    }
+
+    public int getNumSeats() {
+        return numSeats;
+    }
+
+    public void setNumSeats(int numSeats) {
+        this.numSeats = numSeats;
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public void setUserId(Long userId) {
+        this.userId = userId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        RouteSeatsSubscriptionDTO that = (RouteSeatsSubscriptionDTO) o;
+        return numSeats == that.numSeats && Objects.equals(originCode, that.originCode) && Objects.equals(destinationCode, that.destinationCode) && Objects.equals(departureDateFrom, that.departureDateFrom) && Objects.equals(departureDateTo, that.departureDateTo) && cabinClass == that.cabinClass && Objects.equals(userId, that.userId);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(originCode, destinationCode, departureDateFrom, departureDateTo, cabinClass, numSeats, userId);
+    }
+}
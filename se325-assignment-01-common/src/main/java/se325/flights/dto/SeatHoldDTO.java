@@ -0,0 +1,70 @@
+package se325.flights.dto;
+
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import se325.flights.jackson.ZonedDateTimeDeserializer;
+import se325.flights.jackson.ZonedDateTimeSerializer;
+
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A DTO sent to a subscriber when its subscription is satisfied. The seats listed here are held for that subscriber
+ * alone until the given expiry time, so a booking request for them won't conflict with other subscribers.
+ */
+public class SeatHoldDTO {
+
+    private long flightId;
+    private List<String> seatCodes = new ArrayList<>();
+    private ZonedDateTime expiresAt;
+
+    public SeatHoldDTO() {
+    }
+
+    public SeatHoldDTO(long flightId, List<String> seatCodes, ZonedDateTime expiresAt) {
+        this.flightId = flightId;
+        this.seatCodes.addAll(seatCodes);
+        this.expiresAt = expiresAt;
+    }
+
+    public long getFlightId() {
+        return flightId;
+    }
+
+    public void setFlightId(long flightId) {
+        this.flightId = flightId;
+    }
+
+    public List<String> getSeatCodes() {
+        return seatCodes;
+    }
+
+    public void setSeatCodes(List<String> seatCodes) {
+        this.seatCodes = seatCodes;
+    }
+
+    @JsonSerialize(using = ZonedDateTimeSerializer.class)
+    @JsonDeserialize(using = ZonedDateTimeDeserializer.class)
+    public ZonedDateTime getExpiresAt() {
+        return expiresAt;
+    }
+
+    public void setExpiresAt(ZonedDateTime expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        SeatHoldDTO that = (SeatHoldDTO) o;
+        return flightId == that.flightId && Objects.equals(seatCodes, that.seatCodes) && Objects.equals(expiresAt, that.expiresAt);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(flightId, seatCodes, expiresAt);
+    }
+}
@@ -0,0 +1,295 @@
+package se325.flights.jackson;
+
+import java.time.LocalDateTime;
+import java.time.Month;
+import java.time.Year;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Set;
+
+/**
+ * Formats and parses {@link ZonedDateTime}s as {@link DateTimeFormatter#ISO_DATE_TIME} does, e.g.
+ * "2021-03-04T10:15:30.5+13:00[Pacific/Auckland]", without going through the formatter.
+ * <p>
+ * Formatting writes straight into a char array. Parsing reads straight from one, and looks zone ids up in a small cache
+ * rather than building a string for each. Both give exactly the same results as the formatter: anything this doesn't
+ * handle itself - years outside 0000 to 9999, lower case letters, offsets without minutes, zone ids which aren't
+ * regions, or anything invalid - is handed to the formatter, so errors are reported the same way too.
+ */
+public final class ZonedDateTimeCodec {
+
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ISO_DATE_TIME;
+
+    /**
+     * Enough for any date and time, offset, and zone id which {@link #format(ZonedDateTime, char[])} handles itself
+     */
+    public static final int MAX_LENGTH = 96;
+
+    private static final int MAX_ZONE_ID_LENGTH = MAX_LENGTH - 46;
+
+    private static final Set<String> REGION_IDS = ZoneId.getAvailableZoneIds();
+
+    /**
+     * Zones by the hash of their ids. A zone whose id's hash collides with another's just replaces it.
+     */
+    private static final ZoneId[] ZONES = new ZoneId[1024];
+
+    private ZonedDateTimeCodec() {
+    }
+
+    /**
+     * Formats the given date and time.
+     */
+    public static String format(ZonedDateTime dateTime) {
+        char[] buffer = new char[MAX_LENGTH];
+        int length = format(dateTime, buffer);
+        return length < 0 ? FORMATTER.format(dateTime) : new String(buffer, 0, length);
+    }
+
+    /**
+     * Formats the given date and time into the start of the given buffer, which must be at least {@link #MAX_LENGTH}
+     * long.
+     *
+     * @return the number of chars written, or -1 if nothing was written because the date and time needs formatting
+     * with {@link DateTimeFormatter#ISO_DATE_TIME}
+     */
+    public static int format(ZonedDateTime dateTime, char[] buffer) {
+        int year = dateTime.getYear();
+        ZoneId zone = dateTime.getZone();
+        String zoneId = zone instanceof ZoneOffset ? null : zone.getId();
+        if (year < 0 || year > 9999 || (zoneId != null && zoneId.length() > MAX_ZONE_ID_LENGTH)) {
+            return -1;
+        }
+
+        int pos = writeDigits(buffer, 0, year, 4);
+        buffer[pos++] = '-';
+        pos = writeDigits(buffer, pos, dateTime.getMonthValue(), 2);
+        buffer[pos++] = '-';
+        pos = writeDigits(buffer, pos, dateTime.getDayOfMonth(), 2);
+        buffer[pos++] = 'T';
+        pos = writeDigits(buffer, pos, dateTime.getHour(), 2);
+        buffer[pos++] = ':';
+        pos = writeDigits(buffer, pos, dateTime.getMinute(), 2);
+        buffer[pos++] = ':';
+        pos = writeDigits(buffer, pos, dateTime.getSecond(), 2);
+
+        int nano = dateTime.getNano();
+        if (nano != 0) {
+            buffer[pos++] = '.';
+            int digits = 9;
+            while (nano % 10 == 0) {
+                nano /= 10;
+                digits--;
+            }
+            pos = writeDigits(buffer, pos, nano, digits);
+        }
+
+        int offset = dateTime.getOffset().getTotalSeconds();
+        if (offset == 0) {
+            buffer[pos++] = 'Z';
+        } else {
+            buffer[pos++] = offset < 0 ? '-' : '+';
+            offset = Math.abs(offset);
+            pos = writeDigits(buffer, pos, offset / 3600, 2);
+            buffer[pos++] = ':';
+            pos = writeDigits(buffer, pos, offset / 60 % 60, 2);
+            if (offset % 60 != 0) {
+                buffer[pos++] = ':';
+                pos = writeDigits(buffer, pos, offset % 60, 2);
+            }
+        }
+
+        if (zoneId != null) {
+            buffer[pos++] = '[';
+            zoneId.getChars(0, zoneId.length(), buffer, pos);
+            pos += zoneId.length();
+            buffer[pos++] = ']';
+        }
+        return pos;
+    }
+
+    /**
+     * Parses the given date and time.
+     *
+     * @throws java.time.format.DateTimeParseException if it isn't a valid ISO-8601 date and time with an offset
+     */
+    public static ZonedDateTime parse(String text) {
+        return parse(text.toCharArray(), 0, text.length());
+    }
+
+    /**
+     * Parses the date and time in the given range of the given chars.
+     *
+     * @throws java.time.format.DateTimeParseException if it isn't a valid ISO-8601 date and time with an offset
+     */
+    public static ZonedDateTime parse(char[] text, int offset, int length) {
+        ZonedDateTime dateTime = tryParse(text, offset, offset + length);
+        return dateTime != null ? dateTime : ZonedDateTime.parse(new String(text, offset, length), FORMATTER);
+    }
+
+    /**
+     * Parses "yyyy-MM-ddTHH:mm[:ss[.nnnnnnnnn]]" followed by "Z" or "+HH:mm[:ss]", then optionally "[region id]".
+     *
+     * @return the date and time, or null if it needs parsing with the formatter
+     */
+    private static ZonedDateTime tryParse(char[] text, int pos, int end) {
+        if (end - pos < 17) {
+            return null;
+        }
+        int year = readDigits(text, pos, 4);
+        int month = readDigits(text, pos + 5, 2);
+        int day = readDigits(text, pos + 8, 2);
+        int hour = readDigits(text, pos + 11, 2);
+        int minute = readDigits(text, pos + 14, 2);
+        if ((year | month | day | hour | minute) < 0 || text[pos + 4] != '-' || text[pos + 7] != '-'
+                || text[pos + 10] != 'T' || text[pos + 13] != ':') {
+            return null;
+        }
+        if (month < 1 || month > 12 || day < 1 || day > Month.of(month).length(Year.isLeap(year)) || hour > 23
+                || minute > 59) {
+            return null;
+        }
+        pos += 16;
+
+        int second = 0;
+        int nano = 0;
+        if (text[pos] == ':') {
+            if (end - pos < 4 || (second = readDigits(text, pos + 1, 2)) < 0 || second > 59) {
+                return null;
+            }
+            pos += 3;
+            if (text[pos] == '.') {
+                int digits = 0;
+                pos++;
+                while (pos < end && isDigit(text[pos])) {
+                    if (++digits > 9) {
+                        return null;
+                    }
+                    nano = nano * 10 + text[pos++] - '0';
+                }
+                if (digits == 0 || pos == end) {
+                    return null;
+                }
+                for (; digits < 9; digits++) {
+                    nano *= 10;
+                }
+            }
+        }
+
+        ZoneOffset zoneOffset;
+        char sign = text[pos];
+        if (sign == 'Z') {
+            zoneOffset = ZoneOffset.UTC;
+            pos++;
+        } else if (sign == '+' || sign == '-') {
+            if (end - pos < 6 || text[pos + 3] != ':') {
+                return null;
+            }
+            int offsetHours = readDigits(text, pos + 1, 2);
+            int offsetMinutes = readDigits(text, pos + 4, 2);
+            int offsetSeconds = 0;
+            pos += 6;
+            if (pos < end && text[pos] == ':') {
+                if (end - pos < 3) {
+                    return null;
+                }
+                offsetSeconds = readDigits(text, pos + 1, 2);
+                pos += 3;
+            }
+            if ((offsetHours | offsetMinutes | offsetSeconds) < 0 || offsetMinutes > 59 || offsetSeconds > 59) {
+                return null;
+            }
+            int totalSeconds = offsetHours * 3600 + offsetMinutes * 60 + offsetSeconds;
+            if (totalSeconds > 18 * 3600) {
+                return null;
+            }
+            zoneOffset = ZoneOffset.ofTotalSeconds(sign == '-' ? -totalSeconds : totalSeconds);
+        } else {
+            return null;
+        }
+
+        ZoneId zone = zoneOffset;
+        if (pos < end) {
+            if (text[pos] != '[' || text[end - 1] != ']' || end - pos < 3) {
+                return null;
+            }
+            zone = regionFor(text, pos + 1, end - 1);
+            if (zone == null) {
+                return null;
+            }
+        }
+
+        LocalDateTime localDateTime = LocalDateTime.of(year, month, day, hour, minute, second, nano);
+        // As the formatter resolves it: the offset fixes the instant, and the zone only the local time shown
+        return ZonedDateTime.ofInstant(localDateTime, zoneOffset, zone);
+    }
+
+    /**
+     * Gets the region whose id is in the given range of chars.
+     *
+     * @return the region, or null if it isn't the id of an available region
+     */
+    private static ZoneId regionFor(char[] text, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + text[i];
+        }
+        int index = (hash ^ (hash >>> 16)) & (ZONES.length - 1);
+
+        // Zones are immutable, so it's safe to share them between threads like this
+        ZoneId zone = ZONES[index];
+        if (zone != null && matches(zone.getId(), text, start, end)) {
+            return zone;
+        }
+        String id = new String(text, start, end - start);
+        if (!REGION_IDS.contains(id)) {
+            return null;
+        }
+        zone = ZoneId.of(id);
+        ZONES[index] = zone;
+        return zone;
+    }
+
+    private static boolean matches(String id, char[] text, int start, int end) {
+        if (id.length() != end - start) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            if (id.charAt(i - start) != text[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int writeDigits(char[] buffer, int pos, int value, int digits) {
+        for (int i = pos + digits - 1; i >= pos; i--) {
+            buffer[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return pos + digits;
+    }
+
+    /**
+     * Reads the given number of digits.
+     *
+     * @return their value, or -1 if they aren't all digits
+     */
+    private static int readDigits(char[] text, int pos, int digits) {
+        int value = 0;
+        for (int i = pos; i < pos + digits; i++) {
+            char c = text[i];
+            if (!isDigit(c)) {
+                return -1;
+            }
+            value = value * 10 + c - '0';
+        }
+        return value;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
@@ -6,12 +6,13 @@ import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
 
 import java.io.IOException;
 import java.time.ZonedDateTime;
-import java.time.format.DateTimeFormatter;
 
+/**
+ * Reads {@link ZonedDateTime}s from ISO-8601 strings, using the {@link ZonedDateTimeCodec}. The text is parsed where it
+ * is in the parser's buffer, rather than being copied into a string first.
+ */
 public class ZonedDateTimeDeserializer extends StdDeserializer<ZonedDateTime> {
 
-    private static DateTimeFormatter FORMATTER = DateTimeFormatter.ISO_DATE_TIME;
-
     public ZonedDateTimeDeserializer() {
         this(null);
     }
@@ -22,6 +23,7 @@ public class ZonedDateTimeDeserializer extends StdDeserializer<ZonedDateTime> {
 
     @Override
     public ZonedDateTime deserialize(JsonParser jsonParser, DeserializationContext deserializationContext) throws IOException {
-        return ZonedDateTime.parse(jsonParser.getText(), FORMATTER);
+        return ZonedDateTimeCodec.parse(jsonParser.getTextCharacters(), jsonParser.getTextOffset(),
+                jsonParser.getTextLength());
     }
 }
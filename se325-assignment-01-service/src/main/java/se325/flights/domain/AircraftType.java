@@ -1,19 +1,36 @@
 package se325.flights.domain;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.Fetch;
+import org.hibernate.annotations.FetchMode;
 import se325.flights.CabinClass;
 
+import javax.persistence.*;
 import java.util.HashSet;
 import java.util.Set;
 
 /**
  * Represents a type of aircraft on which a {@link Flight} can be made.
+ * <p>
+ * Aircraft types are reference data which never change once created, so they're kept, along with their seating zones,
+ * in the second-level cache.
  */
+@Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_ONLY)
 public class AircraftType {
 
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
 
     private String name;
 
+    // When several aircraft types are loaded by a query, all of their seating zones are loaded at once
+    @ElementCollection(fetch = FetchType.EAGER)
+    @Fetch(FetchMode.SUBSELECT)
+    @Cache(usage = CacheConcurrencyStrategy.READ_ONLY)
     private Set<SeatingZone> seatingZones = new HashSet<>();
 
     public Long getId() {
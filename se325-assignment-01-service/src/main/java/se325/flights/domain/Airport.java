@@ -1,12 +1,29 @@
 package se325.flights.domain;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
+import javax.persistence.*;
+
 /**
- * Represents an Airport. Airports can be the origin / destination of {@link Flight}s.
+ * Represents an Airport. Airports can be the origin / destination of {@link Flight}s. Airport codes are unique.
+ * <p>
+ * Airports are reference data which never change once created, so they're kept in the second-level cache, and lookups
+ * by code are kept in the query cache.
  */
+@Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_ONLY)
+@Table(uniqueConstraints = @UniqueConstraint(name = "UK_AIRPORT_CODE", columnNames = "code"))
+@NamedQuery(name = "Airport.findByCode", query = "SELECT a FROM Airport a WHERE a.code = :code",
+        hints = @QueryHint(name = "org.hibernate.cacheable", value = "true"))
 public class Airport {
 
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
     private String name;
+    @Column(nullable = false)
     private String code;
     private double latitude;
     private double longitude;
@@ -0,0 +1,71 @@
+package se325.flights.domain;
+
+import org.hibernate.annotations.Fetch;
+import org.hibernate.annotations.FetchMode;
+
+import javax.persistence.*;
+import java.time.ZonedDateTime;
+
+/**
+ * A {@link Flight} which departed long enough ago to have been moved out of the FLIGHT table by the
+ * {@link se325.flights.service.archive.FlightArchiver}. Keeps the flight's id, and everything needed to show it in a
+ * user's booking history. Seat pricings aren't archived, since each archived seat records the price it was booked at.
+ * <p>
+ * Archived flights are never changed.
+ */
+@Entity
+@Table(name = "FLIGHT_ARCHIVE")
+public class ArchivedFlight {
+
+    @Id
+    private Long id;
+    private String name;
+    private ZonedDateTime departureTime;
+    private ZonedDateTime arrivalTime;
+
+    @ManyToOne
+    @Fetch(FetchMode.SELECT)
+    private AircraftType aircraftType;
+
+    @ManyToOne
+    @Fetch(FetchMode.SELECT)
+    private Airport origin;
+
+    @ManyToOne
+    @Fetch(FetchMode.SELECT)
+    private Airport destination;
+
+    /**
+     * Default constructor, required by JPA / Hibernate
+     */
+    protected ArchivedFlight() {
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public ZonedDateTime getDepartureTime() {
+        return departureTime;
+    }
+
+    public ZonedDateTime getArrivalTime() {
+        return arrivalTime;
+    }
+
+    public AircraftType getAircraftType() {
+        return aircraftType;
+    }
+
+    public Airport getOrigin() {
+        return origin;
+    }
+
+    public Airport getDestination() {
+        return destination;
+    }
+}
@@ -0,0 +1,63 @@
+package se325.flights.domain;
+
+import org.hibernate.annotations.Fetch;
+import org.hibernate.annotations.FetchMode;
+
+import javax.persistence.*;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A {@link FlightBooking} on an {@link ArchivedFlight}, moved out of the booking tables along with its flight. Keeps the
+ * booking's id, and its seats with the prices they were booked at.
+ * <p>
+ * Archived bookings are indexed by user, for looking up a user's booking history, and are never changed.
+ */
+@Entity
+@Table(name = "FLIGHTBOOKING_ARCHIVE",
+        indexes = @Index(name = "IDX_BOOKING_ARCHIVE_USER", columnList = "user_id"))
+@NamedQuery(name = "ArchivedFlightBooking.findByUser",
+        query = "SELECT b FROM ArchivedFlightBooking b JOIN FETCH b.flight f WHERE b.user.id = :userId " +
+                "ORDER BY f.departureTime")
+public class ArchivedFlightBooking {
+
+    @Id
+    private Long id;
+
+    @ManyToOne(optional = false)
+    private ArchivedFlight flight;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    private User user;
+
+    // When several bookings are loaded by a query, all of their seats are loaded at once
+    @ElementCollection
+    @Fetch(FetchMode.SUBSELECT)
+    @CollectionTable(name = "FLIGHTBOOKING_SEATS_ARCHIVE",
+            joinColumns = @JoinColumn(name = "FLIGHTBOOKING_ID"),
+            indexes = @Index(name = "IDX_SEAT_ARCHIVE_BOOKING", columnList = "FLIGHTBOOKING_ID"))
+    private Set<Seat> seats = new HashSet<>();
+
+    /**
+     * Default constructor, required by JPA / Hibernate
+     */
+    protected ArchivedFlightBooking() {
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public ArchivedFlight getFlight() {
+        return flight;
+    }
+
+    public User getUser() {
+        return user;
+    }
+
+    public Set<Seat> getSeats() {
+        return Collections.unmodifiableSet(seats);
+    }
+}
@@ -1,7 +1,10 @@
 package se325.flights.domain;
 
+import org.hibernate.annotations.Fetch;
+import org.hibernate.annotations.FetchMode;
 import se325.flights.CabinClass;
 
+import javax.persistence.*;
 import java.time.ZonedDateTime;
 import java.util.*;
 import java.util.stream.Collectors;
@@ -16,17 +19,65 @@ import java.util.stream.Collectors;
  * requests result in {@link FlightBooking} instances being created. The price of a particular booking depends on the
  * {@link CabinClass} of the seats being booked (determined by the {@link AircraftType} of a flight), and the
  * price-per-cabin-class for a particular cabin class on a flight.
+ * <p>
+ * Flights are indexed by (origin, destination, departure time), which serves searches for flights along a route within
+ * a range of departure times, and by departure time alone, which serves finding flights to archive.
+ * <p>
+ * A flight's airports and aircraft type are always loaded by id, so that they come from the second-level cache, and
+ * are never joined. The Flight.bookingInfo entity graph loads the rest of what a BookingInfoDTO needs - the seat
+ * pricings, and every booking with its seats - in a fixed number of statements (see
+ * {@link se325.flights.util.FetchGraphs}). Listing flights as FlightDTOs needs no graph.
  */
+@Entity
+@NamedEntityGraph(name = "Flight.bookingInfo", attributeNodes = {
+        @NamedAttributeNode("seatPricings"),
+        @NamedAttributeNode(value = "bookings", subgraph = "bookings")
+}, subgraphs = @NamedSubgraph(name = "bookings", attributeNodes = @NamedAttributeNode("seats")))
+@Table(indexes = {
+        @Index(name = "IDX_FLIGHT_ROUTE_DEPARTURE", columnList = "origin_id, destination_id, departureTime"),
+        @Index(name = "IDX_FLIGHT_DEPARTURE", columnList = "departureTime")
+})
+@NamedQueries({
+        @NamedQuery(name = "Flight.findByRouteAndDepartureRange",
+                query = "SELECT f FROM Flight f " +
+                        "WHERE f.origin.code = :origin AND f.destination.code = :destination " +
+                        "AND f.departureTime >= :start AND f.departureTime < :end " +
+                        "ORDER BY f.departureTime"),
+        @NamedQuery(name = "Flight.findIdsDepartedBefore",
+                query = "SELECT f.id FROM Flight f WHERE f.departureTime < :cutoff ORDER BY f.departureTime")
+})
 public class Flight {
 
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
+
+    // Incremented by Hibernate whenever the flight or its seat pricings change, but not when it's booked
+    @Version
+    private long version;
+
     private String name;
     private ZonedDateTime departureTime;
     private ZonedDateTime arrivalTime;
+
+    @OneToMany(mappedBy = "flight", cascade = CascadeType.ALL, orphanRemoval = true)
     private Set<FlightBooking> bookings = new HashSet<>();
+
+    // Loaded by id rather than joined, so that these cached reference entities come from the second-level cache. The
+    // entity graphs leave them out, so that they don't join them either
+    @ManyToOne
+    @Fetch(FetchMode.SELECT)
     private AircraftType aircraftType;
+
+    @ManyToOne
+    @Fetch(FetchMode.SELECT)
     private Airport origin;
+
+    @ManyToOne
+    @Fetch(FetchMode.SELECT)
     private Airport destination;
+
+    @ElementCollection
     private Set<SeatPricing> seatPricings = new HashSet<>();
 
     public Long getId() {
@@ -37,6 +88,10 @@ public class Flight {
         this.id = id;
     }
 
+    public long getVersion() {
+        return version;
+    }
+
     public String getName() {
         return name;
     }
@@ -107,6 +162,26 @@ public class Flight {
         return getTotalNumSeats() - getBookedSeats().size();
     }
 
+    /**
+     * Gets the number of seats remaining (i.e. unbooked seats) of the given cabin class on this flight. If the given
+     * cabin class is null, returns the number of unbooked seats of all classes.
+     *
+     * @param cabinClass the cabin class to check
+     * @return the number of unbooked seats of the given cabin class on this flight
+     */
+    public int getNumSeatsRemaining(CabinClass cabinClass) {
+        if (cabinClass == null) {
+            return getNumSeatsRemaining();
+        }
+        List<SeatingZone> zones = this.aircraftType.getSeatingZones().stream()
+                .filter(z -> z.getCabinClass().equals(cabinClass))
+                .collect(Collectors.toList());
+        long numBooked = getBookedSeats().stream()
+                .filter(seat -> zones.stream().anyMatch(z -> z.isValidSeatCode(seat.getSeatCode())))
+                .count();
+        return this.aircraftType.getTotalNumSeats(cabinClass) - (int) numBooked;
+    }
+
     /**
      * Gets the price of seats of the given cabin class on this flight. If the given cabin class isn't found for this
      * flight, then the seat price for those seats will be $0
@@ -146,7 +221,26 @@ public class Flight {
      */
     public FlightBooking makeBooking(User user, List<String> seatCodes) throws BookingException {
 
-        throw new UnsupportedOperationException("TODO: Implement this method.");
+        ensureNotEmptyBooking(seatCodes);
+        if (new HashSet<>(seatCodes).size() != seatCodes.size()) {
+            throw new BookingException("Cannot book the same seat more than once");
+        }
+        ensureUnbooked(seatCodes);
+
+        // Validate every seat before changing anything, so that a failed booking leaves this flight untouched
+        List<Seat> seats = new ArrayList<>();
+        for (String seatCode : seatCodes) {
+            CabinClass cabinClass = aircraftType.getCabinClass(seatCode);
+            Seat seat = new Seat(seatCode, getPriceFor(cabinClass));
+            seat.setFlightId(id);
+            seats.add(seat);
+        }
+
+        FlightBooking booking = new FlightBooking(user, this);
+        booking.getSeats().addAll(seats);
+        bookings.add(booking);
+        user.getBookings().add(booking);
+        return booking;
     }
 
     public FlightBooking makeBooking(User user, String... seatCodes) throws BookingException {
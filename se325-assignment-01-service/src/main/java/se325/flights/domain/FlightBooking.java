@@ -1,16 +1,57 @@
 package se325.flights.domain;
 
+import org.hibernate.annotations.Fetch;
+import org.hibernate.annotations.FetchMode;
+
+import javax.persistence.*;
 import java.util.HashSet;
 import java.util.Set;
 
 /**
  * Represents a booking by a particular {@link User} on a particular {@link Flight}.
+ * <p>
+ * Bookings are indexed by user and by flight. Seats are stored in their own table, indexed by booking, with a unique
+ * constraint on (flight, row, letter) so that no seat can be booked twice on the same flight.
+ * <p>
+ * The FlightBooking.withFlight entity graph loads a booking's flight along with the booking (see
+ * {@link se325.flights.util.FetchGraphs}); the flight's airports and aircraft type then come from the second-level
+ * cache. The seats of every booking loaded by a query are then
+ * loaded by one more select, so a user's whole list of bookings takes the same few statements as a single booking.
+ * The user who made a booking is only loaded when asked for.
  */
+@Entity
+@NamedEntityGraph(name = "FlightBooking.withFlight", attributeNodes = @NamedAttributeNode("flight"))
+@Table(indexes = {
+        @Index(name = "IDX_BOOKING_USER", columnList = "user_id"),
+        @Index(name = "IDX_BOOKING_FLIGHT", columnList = "flight_id")
+})
+@NamedQueries({
+        @NamedQuery(name = "FlightBooking.findByUser",
+                query = "SELECT b FROM FlightBooking b JOIN b.flight f WHERE b.user.id = :userId " +
+                        "ORDER BY f.departureTime"),
+        @NamedQuery(name = "FlightBooking.findSeatsByFlight",
+                query = "SELECT s FROM FlightBooking b JOIN b.seats s WHERE b.flight.id = :flightId")
+})
 public class FlightBooking {
 
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
+
+    @ManyToOne
     private Flight flight;
+
+    @ManyToOne(fetch = FetchType.LAZY)
     private User user;
+
+    // When several bookings are loaded by a query, all of their seats are loaded at once
+    @ElementCollection
+    @Fetch(FetchMode.SUBSELECT)
+    @CollectionTable(name = "FLIGHTBOOKING_SEATS",
+            joinColumns = @JoinColumn(name = "FLIGHTBOOKING_ID"),
+            uniqueConstraints = @UniqueConstraint(name = "UK_SEAT_FLIGHT_SEAT",
+                    columnNames = {"FLIGHT_ID", "ROWNUMBER", "LETTERCODE"}),
+            indexes = @Index(name = "IDX_SEAT_BOOKING", columnList = "FLIGHTBOOKING_ID"))
     private Set<Seat> seats = new HashSet<>();
 
     /**
@@ -1,17 +1,26 @@
 package se325.flights.domain;
 
+import javax.persistence.Column;
+import javax.persistence.Embeddable;
 import java.util.Objects;
 
 /**
  * Represents a single Seat in a {@link FlightBooking}. Unbooked seats do not have associated Seat instances in the
  * database, only booked ones.
+ * <p>
+ * Each seat also records the id of the {@link Flight} it's on, so that the database can ensure that a seat is only
+ * booked once on any flight, however many bookings are being made at the same time.
  */
+@Embeddable
 public class Seat implements Comparable<Seat> {
 
     private int rowNumber;
     private String letterCode;
     private int price;
 
+    @Column(name = "FLIGHT_ID")
+    private Long flightId;
+
     /**
      * Default constructor, required by JPA / Hibernate
      */
@@ -51,6 +60,10 @@ public class Seat implements Comparable<Seat> {
         return price;
     }
 
+    void setFlightId(Long flightId) {
+        this.flightId = flightId;
+    }
+
     /**
      * Gets a value indicating whether the given object is equal to this Seat. The given object is considered equal if
      * it is also a Seat instance, with the same row number, letter code, and price.
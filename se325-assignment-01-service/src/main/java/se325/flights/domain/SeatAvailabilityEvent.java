@@ -0,0 +1,72 @@
+package se325.flights.domain;
+
+import javax.persistence.*;
+
+/**
+ * Records that the seats available on a {@link Flight} have changed, e.g. because a booking was made or cancelled.
+ * Events are written to an outbox table in the same transaction as the change itself, so that an event exists if and
+ * only if the change was committed. They're then read back and delivered to subscribers by a dispatcher.
+ */
+@Entity
+@Table(name = "SEAT_AVAILABILITY_OUTBOX", indexes = {
+        @Index(name = "IDX_OUTBOX_NODE_DISPATCHED", columnList = "nodeId, dispatched, id")
+})
+public class SeatAvailabilityEvent {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false)
+    private long flightId;
+
+    /**
+     * The id of the service instance which wrote this event
+     */
+    @Column(nullable = false, length = 64)
+    private String nodeId;
+
+    /**
+     * The time this event was written, in milliseconds since the epoch
+     */
+    @Column(nullable = false)
+    private long createdAt;
+
+    /**
+     * Whether this event has been delivered by the node which wrote it
+     */
+    @Column(nullable = false)
+    private boolean dispatched;
+
+    /**
+     * Default constructor, required by JPA / Hibernate
+     */
+    public SeatAvailabilityEvent() {
+    }
+
+    public SeatAvailabilityEvent(long flightId, String nodeId) {
+        this.flightId = flightId;
+        this.nodeId = nodeId;
+        this.createdAt = System.currentTimeMillis();
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public long getFlightId() {
+        return flightId;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public boolean isDispatched() {
+        return dispatched;
+    }
+}
@@ -0,0 +1,76 @@
+package se325.flights.domain;
+
+import javax.persistence.*;
+
+/**
+ * Records that a seat on a {@link Flight} is held for a {@link User} until a certain time, so that no-one else can book
+ * it in the meantime. Holds are persisted, rather than kept by the service instance which granted them, so that a
+ * booking committed on any instance sees them. Each seat can only be held once; the seats of a single hold share a
+ * hold id.
+ */
+@Entity
+@Table(name = "SEAT_HOLD",
+        uniqueConstraints = @UniqueConstraint(name = "UK_SEAT_HOLD_FLIGHT_SEAT", columnNames = {"flightId", "seatCode"}),
+        indexes = @Index(name = "IDX_SEAT_HOLD_HOLD", columnList = "holdId"))
+@NamedQuery(name = "SeatHold.findByFlight", query = "SELECT h FROM SeatHold h WHERE h.flightId = :flightId")
+public class SeatHold {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false, length = 36)
+    private String holdId;
+
+    @Column(nullable = false)
+    private long flightId;
+
+    @Column(nullable = false, length = 8)
+    private String seatCode;
+
+    private Long userId;
+
+    /**
+     * The time the hold expires, in milliseconds since the epoch
+     */
+    @Column(nullable = false)
+    private long expiresAt;
+
+    /**
+     * Default constructor, required by JPA / Hibernate
+     */
+    public SeatHold() {
+    }
+
+    public SeatHold(String holdId, long flightId, String seatCode, Long userId, long expiresAt) {
+        this.holdId = holdId;
+        this.flightId = flightId;
+        this.seatCode = seatCode;
+        this.userId = userId;
+        this.expiresAt = expiresAt;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getHoldId() {
+        return holdId;
+    }
+
+    public long getFlightId() {
+        return flightId;
+    }
+
+    public String getSeatCode() {
+        return seatCode;
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+}
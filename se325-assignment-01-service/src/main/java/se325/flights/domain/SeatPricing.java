@@ -2,13 +2,18 @@ package se325.flights.domain;
 
 import se325.flights.CabinClass;
 
+import javax.persistence.Embeddable;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
 import java.util.Objects;
 
 /**
  * Represents the seat pricing for a particular {@link CabinClass} on a partcular {@link Flight}.
  */
+@Embeddable
 public class SeatPricing {
 
+    @Enumerated(EnumType.STRING)
     private CabinClass cabinClass;
     private int price;
 
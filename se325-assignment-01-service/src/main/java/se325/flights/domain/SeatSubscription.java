@@ -0,0 +1,74 @@
+package se325.flights.domain;
+
+import se325.flights.CabinClass;
+
+import javax.persistence.*;
+
+/**
+ * Represents an outstanding request by a {@link User} to be notified when a {@link Flight} has some number of seats
+ * available, optionally in a particular {@link CabinClass}. Persisted so that subscriptions survive a restart of the
+ * service; the rows are deliberately compact (ids rather than associations), since they're re-read in bulk at startup.
+ */
+@Entity
+@Table(name = "SEAT_SUBSCRIPTION", indexes = {
+        @Index(name = "IDX_SUBSCRIPTION_FLIGHT", columnList = "flightId, cabinClass, numSeats")
+})
+public class SeatSubscription {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false)
+    private long flightId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(length = 16)
+    private CabinClass cabinClass;
+
+    @Column(nullable = false)
+    private int numSeats;
+
+    private Long userId;
+
+    /**
+     * Default constructor, required by JPA / Hibernate
+     */
+    public SeatSubscription() {
+    }
+
+    /**
+     * Creates a new SeatSubscription
+     *
+     * @param flightId   the id of the flight on which seats are required
+     * @param cabinClass the required cabin class, or null if any cabin class will do
+     * @param numSeats   the number of seats required
+     * @param userId     the id of the user who made the request
+     */
+    public SeatSubscription(long flightId, CabinClass cabinClass, int numSeats, Long userId) {
+        this.flightId = flightId;
+        this.cabinClass = cabinClass;
+        this.numSeats = numSeats;
+        this.userId = userId;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public long getFlightId() {
+        return flightId;
+    }
+
+    public CabinClass getCabinClass() {
+        return cabinClass;
+    }
+
+    public int getNumSeats() {
+        return numSeats;
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+}
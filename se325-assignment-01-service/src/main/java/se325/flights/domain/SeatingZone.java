@@ -2,16 +2,23 @@ package se325.flights.domain;
 
 import se325.flights.CabinClass;
 
+import javax.persistence.Embeddable;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
 
 /**
  * Represents a particular seating zone on an {@link AircraftType}. A zone is a number of rows of seats on a plane,
  * which share a {@link CabinClass}.
  */
+@Embeddable
 public class SeatingZone {
 
     private int startingRowNumber;
     private int numRows;
+    @Enumerated(EnumType.STRING)
     private CabinClass cabinClass;
     private String seatCodeData;
 
@@ -47,6 +54,22 @@ public class SeatingZone {
         return numRows * seatCodeData.length();
     }
 
+    /**
+     * Gets all valid seat codes in this zone, front row first, and in the order of {@link #getSeatCodeData()} within
+     * a row.
+     *
+     * @return a list of seat codes, e.g. "1A", "1B", "2A", "2B"
+     */
+    public List<String> getSeatCodes() {
+        List<String> seatCodes = new ArrayList<>(getNumSeatsInZone());
+        for (int row = startingRowNumber; row < startingRowNumber + numRows; row++) {
+            for (char letter : seatCodeData.toCharArray()) {
+                seatCodes.add(row + String.valueOf(letter));
+            }
+        }
+        return seatCodes;
+    }
+
     /**
      * Gets a value indicating whether the given seat code is a valid seat code in this seating zone.
      *
@@ -0,0 +1,73 @@
+package se325.flights.domain;
+
+import javax.persistence.*;
+
+/**
+ * Records that auth tokens have been revoked: either a single token (e.g. on logout), or all of a user's tokens issued
+ * before a certain time (e.g. on a password change). Service instances poll this table so that a revocation made on
+ * one instance is honoured by all of them.
+ */
+@Entity
+@Table(name = "TOKEN_REVOCATION", indexes = {
+        @Index(name = "IDX_REVOCATION_CREATED", columnList = "createdAt")
+})
+public class TokenRevocation {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false)
+    private long userId;
+
+    /**
+     * The id of the revoked token, or null if all of the user's tokens issued before {@link #revokedBefore} are revoked
+     */
+    @Column(length = 64)
+    private String tokenId;
+
+    /**
+     * Tokens issued before this time, in milliseconds since the epoch, are revoked. Only used if there's no token id.
+     */
+    @Column(nullable = false)
+    private long revokedBefore;
+
+    /**
+     * The time this revocation was made, in milliseconds since the epoch
+     */
+    @Column(nullable = false)
+    private long createdAt;
+
+    /**
+     * Default constructor, required by JPA / Hibernate
+     */
+    public TokenRevocation() {
+    }
+
+    public TokenRevocation(long userId, String tokenId, long revokedBefore) {
+        this.userId = userId;
+        this.tokenId = tokenId;
+        this.revokedBefore = revokedBefore;
+        this.createdAt = System.currentTimeMillis();
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public long getUserId() {
+        return userId;
+    }
+
+    public String getTokenId() {
+        return tokenId;
+    }
+
+    public long getRevokedBefore() {
+        return revokedBefore;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+}
@@ -1,20 +1,37 @@
 package se325.flights.domain;
 
+import javax.persistence.*;
 import java.util.HashSet;
 import java.util.Set;
 
 /**
  * Represents a user of the system. Users are capable of authenticating and making {@link FlightBooking}s on
  * {@link Flight}s.
+ * <p>
+ * Usernames are unique. The index on (username, uuid) covers the lookup of a user by the claims in a legacy auth token.
  */
+@Entity
+@Table(name = "USER",
+        uniqueConstraints = @UniqueConstraint(name = "UK_USER_USERNAME", columnNames = "username"),
+        indexes = @Index(name = "IDX_USER_USERNAME_UUID", columnList = "username, uuid"))
+@NamedQuery(name = "User.findIdByUsernameAndUuid",
+        query = "SELECT u.id FROM User u WHERE u.username = :username AND u.uuid = :uuid")
 public class User {
 
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
 
+    @Column(nullable = false)
     private String username;
+
+    // Only needed to check a password, so not read whenever a user is loaded to make or list bookings - if the entity
+    // classes are enhanced (see the enhance profile in pom.xml); otherwise it's loaded along with the user
+    @Basic(fetch = FetchType.LAZY)
     private String passHash;
     private String uuid;
 
+    @OneToMany(mappedBy = "user")
     private Set<FlightBooking> bookings = new HashSet<>();
 
     /**
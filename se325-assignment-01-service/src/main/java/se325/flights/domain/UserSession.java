@@ -0,0 +1,75 @@
+package se325.flights.domain;
+
+import javax.persistence.*;
+
+/**
+ * A logged-in session of a {@link User}. Each login starts a new session, so a user can be logged in on several devices
+ * at once, and logging out of one doesn't affect the others. The session's id is carried in the user's auth token.
+ */
+@Entity
+@Table(name = "USER_SESSION", indexes = {
+        @Index(name = "IDX_SESSION_USER", columnList = "userId"),
+        @Index(name = "IDX_SESSION_EXPIRES", columnList = "expiresAt")
+})
+public class UserSession {
+
+    @Id
+    @Column(length = 64)
+    private String id;
+
+    @Column(nullable = false)
+    private long userId;
+
+    /**
+     * The time this session started, in milliseconds since the epoch
+     */
+    @Column(nullable = false)
+    private long createdAt;
+
+    /**
+     * The time this session expires, in milliseconds since the epoch
+     */
+    @Column(nullable = false)
+    private long expiresAt;
+
+    /**
+     * The time this session was last used, in milliseconds since the epoch. Updated in batches, so it may lag behind by
+     * a few seconds.
+     */
+    @Column(nullable = false)
+    private long lastSeen;
+
+    /**
+     * Default constructor, required by JPA / Hibernate
+     */
+    public UserSession() {
+    }
+
+    public UserSession(String id, long userId, long ttlMillis) {
+        this.id = id;
+        this.userId = userId;
+        this.createdAt = System.currentTimeMillis();
+        this.expiresAt = createdAt + ttlMillis;
+        this.lastSeen = createdAt;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public long getUserId() {
+        return userId;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    public long getLastSeen() {
+        return lastSeen;
+    }
+}
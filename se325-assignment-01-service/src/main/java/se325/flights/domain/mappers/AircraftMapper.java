@@ -2,16 +2,40 @@ package se325.flights.domain.mappers;
 
 import se325.flights.domain.AircraftType;
 import se325.flights.dto.AircraftTypeDTO;
+import se325.flights.util.Config;
 
 /**
  * A mapper to convert between {@link AircraftType} and {@link AircraftTypeDTO} instances
+ * <p>
+ * Aircraft types are read-only, so each aircraft type's DTO is made once and then shared (see {@link DTOCache}). The
+ * DTOs this returns can't be modified.
  */
 public class AircraftMapper {
 
+    private static final DTOCache<AircraftTypeDTO> CACHE = new DTOCache<>("AircraftTypeDTOCache",
+            Config.getInt("dto.aircraft-type-cache-size", 100));
+
     public static AircraftTypeDTO toDTO(AircraftType domainAT) {
-        return new AircraftTypeDTO(
+        return CACHE.get(domainAT.getId(), 0, () -> new UnmodifiableAircraftTypeDTO(
                 domainAT.getId(),
                 domainAT.getName()
-        );
+        ));
+    }
+
+    private static class UnmodifiableAircraftTypeDTO extends AircraftTypeDTO {
+
+        private UnmodifiableAircraftTypeDTO(Long id, String name) {
+            super(id, name);
+        }
+
+        @Override
+        public void setId(Long id) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void setName(String name) {
+            throw new UnsupportedOperationException();
+        }
     }
 }
@@ -2,20 +2,65 @@ package se325.flights.domain.mappers;
 
 import se325.flights.domain.Airport;
 import se325.flights.dto.AirportDTO;
+import se325.flights.util.Config;
 
 /**
  * A mapper to convert between {@link Airport} and {@link AirportDTO} instances
+ * <p>
+ * Airports are read-only, so each airport's DTO is made once and then shared by every flight which uses the airport
+ * (see {@link DTOCache}). The DTOs this returns can't be modified.
  */
 public class AirportMapper {
 
+    private static final DTOCache<AirportDTO> CACHE = new DTOCache<>("AirportDTOCache",
+            Config.getInt("dto.airport-cache-size", 1000));
+
     public static AirportDTO toDTO(Airport domainAirport) {
-        return new AirportDTO(
+        return CACHE.get(domainAirport.getId(), 0, () -> new UnmodifiableAirportDTO(
                 domainAirport.getId(),
                 domainAirport.getName(),
                 domainAirport.getCode(),
                 domainAirport.getLatitude(),
                 domainAirport.getLongitude(),
                 domainAirport.getTimeZone()
-        );
+        ));
+    }
+
+    private static class UnmodifiableAirportDTO extends AirportDTO {
+
+        private UnmodifiableAirportDTO(Long id, String name, String code, double latitude, double longitude,
+                                       String timeZone) {
+            super(id, name, code, latitude, longitude, timeZone);
+        }
+
+        @Override
+        public void setId(Long id) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void setName(String name) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void setCode(String code) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void setLatitude(double latitude) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void setLongitude(double longitude) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void setTimeZone(String timeZone) {
+            throw new UnsupportedOperationException();
+        }
     }
 }
@@ -1,5 +1,6 @@
 package se325.flights.domain.mappers;
 
+import se325.flights.domain.ArchivedFlightBooking;
 import se325.flights.domain.FlightBooking;
 import se325.flights.domain.Seat;
 import se325.flights.dto.FlightBookingDTO;
@@ -8,7 +9,8 @@ import java.util.Comparator;
 import java.util.stream.Collectors;
 
 /**
- * A mapper to convert between {@link FlightBooking} and {@link FlightBookingDTO} instances
+ * A mapper to convert between {@link FlightBooking} and {@link FlightBookingDTO} instances, and from
+ * {@link ArchivedFlightBooking} to {@link FlightBookingDTO} instances
  */
 public class BookingMapper {
 
@@ -26,4 +28,18 @@ public class BookingMapper {
         return dto;
     }
 
+    public static FlightBookingDTO toDTO(ArchivedFlightBooking domainBooking) {
+        FlightBookingDTO dto = new FlightBookingDTO(
+                domainBooking.getId(),
+                FlightMapper.toDTO(domainBooking.getFlight()),
+                domainBooking.getSeats().stream()
+                        .sorted(Comparator.naturalOrder())
+                        .map(Seat::getSeatCode)
+                        .collect(Collectors.toList())
+        );
+
+        dto.setTotalCost(domainBooking.getSeats().stream().mapToInt(Seat::getPrice).sum());
+        return dto;
+    }
+
 }
@@ -0,0 +1,134 @@
+package se325.flights.domain.mappers;
+
+import se325.flights.util.Metrics;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * A bounded, least-recently-used cache of DTOs made by the mappers, so that an entity which is mapped over and over -
+ * such as the two airports of every flight in a search result - is only mapped once, and every mapping shares the same
+ * DTO. The DTOs must therefore be unmodifiable.
+ * <p>
+ * Each DTO is stored along with the id and version of the entity it was made from, and is only returned for that same
+ * version, so an entity which changes gets a new DTO the next time it's mapped. Entities which never change (i.e.
+ * read-only reference data) are all at version 0. Entities can change without their versions changing when the
+ * database is reset, so {@link #clearAll()} must be called whenever that happens.
+ *
+ * @param <D> the type of DTO
+ */
+public class DTOCache<D> implements DTOCacheMXBean {
+
+    private static final List<DTOCache<?>> CACHES = new CopyOnWriteArrayList<>();
+
+    private final int capacity;
+
+    /**
+     * Guarded by itself. An access-ordered map, so that its eldest entry is always the least recently used.
+     */
+    private final LinkedHashMap<Long, Entry<D>> entries;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Creates a cache, and registers it for metrics under the given name.
+     */
+    public DTOCache(String name, int capacity) {
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Entry<D>> eldest) {
+                return size() > DTOCache.this.capacity;
+            }
+        };
+        CACHES.add(this);
+        Metrics.register(name, this);
+    }
+
+    /**
+     * Gets the DTO for the given version of the entity with the given id, making it with the given mapping if it
+     * isn't in the cache. The mapping isn't done while holding the lock, so two threads may both make a DTO for the
+     * same entity at once; the last one made is kept.
+     */
+    public D get(long id, long version, Supplier<D> mapping) {
+        Entry<D> entry;
+        synchronized (entries) {
+            entry = entries.get(id);
+        }
+        if (entry != null && entry.version == version) {
+            hits.incrementAndGet();
+            return entry.dto;
+        }
+        misses.incrementAndGet();
+        D dto = mapping.get();
+        synchronized (entries) {
+            entries.put(id, new Entry<>(version, dto));
+        }
+        return dto;
+    }
+
+    /**
+     * Removes the DTOs of the entities with the given ids, e.g. once the entities have been deleted.
+     */
+    public void evict(Collection<Long> ids) {
+        synchronized (entries) {
+            entries.keySet().removeAll(ids);
+        }
+    }
+
+    /**
+     * Removes all DTOs.
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * Removes all DTOs from every cache. Called when the database is reset.
+     */
+    public static void clearAll() {
+        for (DTOCache<?> cache : CACHES) {
+            cache.clear();
+        }
+    }
+
+    @Override
+    public int getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public int getSize() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    @Override
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    @Override
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    private static class Entry<D> {
+        private final long version;
+        private final D dto;
+
+        private Entry(long version, D dto) {
+            this.version = version;
+            this.dto = dto;
+        }
+    }
+}
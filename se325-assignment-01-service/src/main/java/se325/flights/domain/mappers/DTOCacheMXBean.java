@@ -0,0 +1,15 @@
+package se325.flights.domain.mappers;
+
+/**
+ * Metrics exported through JMX by each {@link DTOCache}.
+ */
+public interface DTOCacheMXBean {
+
+    int getCapacity();
+
+    int getSize();
+
+    long getHitCount();
+
+    long getMissCount();
+}
@@ -1,18 +1,54 @@
 package se325.flights.domain.mappers;
 
+import se325.flights.domain.ArchivedFlight;
 import se325.flights.domain.Flight;
 import se325.flights.domain.Seat;
+import se325.flights.dto.AirportDTO;
 import se325.flights.dto.BookingInfoDTO;
 import se325.flights.dto.FlightDTO;
+import se325.flights.util.Config;
 
+import java.time.ZonedDateTime;
+import java.util.Collection;
 import java.util.stream.Collectors;
 
 /**
- * A mapper to convert between {@link Flight} and {@link FlightDTO} or {@link BookingInfoDTO} instances
+ * A mapper to convert between {@link Flight} and {@link FlightDTO} or {@link BookingInfoDTO} instances, and from
+ * {@link ArchivedFlight} to {@link FlightDTO} instances
+ * <p>
+ * Every FlightDTO shares its airports' DTOs (see {@link AirportMapper}). FlightDTOs for flights are also cached by
+ * flight id and version (see {@link DTOCache}), unless "dto.cache-flights" is turned off (see {@link Config}), in which
+ * case they're made afresh every time. It's off by default when test schemas are enabled, since flights in different
+ * schemas can have the same id and version. Either way, the FlightDTOs made for flights can't be modified.
+ * <p>
+ * A flight's version only changes when it's flushed, so a flight which has been changed must be flushed before it's
+ * mapped, or its old version's DTO would be returned - or the changes cached under its old version.
  */
 public class FlightMapper {
 
+    private static final DTOCache<FlightDTO> CACHE = Config.getBoolean("dto.cache-flights",
+            !Config.getBoolean("db.test-schemas", false))
+            ? new DTOCache<>("FlightDTOCache", Config.getInt("dto.flight-cache-size", 10000))
+            : null;
+
     public static FlightDTO toDTO(Flight domainFlight) {
+        if (CACHE == null || domainFlight.getId() == null) {
+            return newDTO(domainFlight);
+        }
+        return CACHE.get(domainFlight.getId(), domainFlight.getVersion(), () -> newDTO(domainFlight));
+    }
+
+    /**
+     * Drops the cached DTOs of the flights with the given ids, e.g. once they've been archived, so that they don't
+     * take up room in the cache which current flights could use.
+     */
+    public static void evict(Collection<Long> flightIds) {
+        if (CACHE != null) {
+            CACHE.evict(flightIds);
+        }
+    }
+
+    public static FlightDTO toDTO(ArchivedFlight domainFlight) {
         return new FlightDTO(
                 domainFlight.getId(),
                 domainFlight.getName(),
@@ -31,4 +67,59 @@ public class FlightMapper {
                 domainFlight.getSeatPricings()
         );
     }
+
+    private static FlightDTO newDTO(Flight domainFlight) {
+        return new UnmodifiableFlightDTO(
+                domainFlight.getId(),
+                domainFlight.getName(),
+                domainFlight.getDepartureTime(),
+                AirportMapper.toDTO(domainFlight.getOrigin()),
+                domainFlight.getArrivalTime(),
+                AirportMapper.toDTO(domainFlight.getDestination()),
+                domainFlight.getAircraftType().getName()
+        );
+    }
+
+    private static class UnmodifiableFlightDTO extends FlightDTO {
+
+        private UnmodifiableFlightDTO(Long id, String name, ZonedDateTime departureTime, AirportDTO origin,
+                                      ZonedDateTime arrivalTime, AirportDTO destination, String aircraftName) {
+            super(id, name, departureTime, origin, arrivalTime, destination, aircraftName);
+        }
+
+        @Override
+        public void setId(Long id) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void setName(String name) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void setDepartureTime(ZonedDateTime departureTime) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void setArrivalTime(ZonedDateTime arrivalTime) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void setAircraftName(String aircraftName) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void setOrigin(AirportDTO origin) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void setDestination(AirportDTO destination) {
+            throw new UnsupportedOperationException();
+        }
+    }
 }
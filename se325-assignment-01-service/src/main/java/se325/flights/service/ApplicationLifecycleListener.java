@@ -0,0 +1,30 @@
+package se325.flights.service;
+
+import se325.flights.service.db.DatabaseServer;
+import se325.flights.service.journal.BookingJournal;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import javax.servlet.annotation.WebListener;
+
+/**
+ * Ties the lifecycle of the service's long-lived components to the web application. JAX-RS doesn't notify
+ * {@link FlightBookingApplication} when it's undeployed, so background threads and database connections are released
+ * here instead.
+ */
+@WebListener
+public class ApplicationLifecycleListener implements ServletContextListener {
+
+    @Override
+    public void contextInitialized(ServletContextEvent event) {
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent event) {
+        ServiceLifecycle.instance().stop();
+        SubscriptionManager.instance().shutdown();
+        BookingJournal.instance().close();
+        PersistenceManager.instance().close();
+        DatabaseServer.stop();
+    }
+}
@@ -1,8 +1,27 @@
 package se325.flights.service;
 
+import se325.flights.service.booking.BookingCommitter;
+import se325.flights.service.booking.BookingRequest;
+import se325.flights.service.events.OutboxDispatcher;
+import se325.flights.service.journal.BookingJournal;
+
 /**
  * A JAX-RS Resource class intended to contain methods with making and cancelling flight bookings, in
  * addition to retrieving information about existing flight bookings.
+ * <p>
+ * Bookings are only made through the {@link BookingCommitter}: pass a {@link BookingRequest} to
+ * {@link BookingCommitter#submit}, and don't book seats with an entity manager of the resource's own. The committer
+ * checks the seat holds, records the change with the {@link OutboxDispatcher} and the {@link BookingJournal}, and may
+ * commit several bookings at once, so the request should take a {@code @Suspended AsyncResponse} and resume it when the
+ * returned future completes: 201 Created with the new booking's id, 409 Conflict for a
+ * {@link se325.flights.domain.BookingException} (including one for seats held for another user, see
+ * {@link SubscriptionManager#getSeatHolds()}), or 404 Not Found for an {@link IllegalArgumentException}.
+ * <p>
+ * Cancellations are made by the resource itself. A cancellation must be recorded with {@link OutboxDispatcher#record}
+ * in its transaction, followed by {@link OutboxDispatcher#signal()} once that has committed, so that seat subscriptions
+ * on every service instance are processed, and then with {@link BookingJournal#recordCancellation}, which returns once
+ * the record is on disk. That is the only journal call a resource makes itself; the database remains the record of
+ * which seats are booked (see {@link BookingJournal}).
  */
 public class BookingsResource {
 
@@ -1,5 +1,13 @@
 package se325.flights.service;
 
+import se325.flights.service.archive.FlightArchiver;
+import se325.flights.service.booking.BookingCommitter;
+import se325.flights.service.auth.AuthenticationFilter;
+import se325.flights.service.events.OutboxDispatcher;
+import se325.flights.service.journal.BookingJournal;
+import se325.flights.service.ratelimit.RateLimitFilter;
+import se325.flights.service.schedule.ScheduleImportResource;
+
 import javax.ws.rs.ApplicationPath;
 import javax.ws.rs.core.Application;
 import java.util.HashSet;
@@ -19,11 +27,20 @@ public class FlightBookingApplication extends Application {
 
         singletons.add(PersistenceManager.instance());
         singletons.add(SubscriptionManager.instance());
-
+        singletons.add(OutboxDispatcher.instance());
+        singletons.add(FlightArchiver.instance());
+        singletons.add(BookingJournal.instance());
+        singletons.add(BookingCommitter.instance());
+
+        classes.add(RateLimitFilter.class);
+        classes.add(AuthenticationFilter.class);
+        classes.add(RateLimitFilter.Authenticated.class);
         classes.add(TestResource.class);
         classes.add(UserResource.class);
         classes.add(FlightsResource.class);
         classes.add(BookingsResource.class);
+        classes.add(SubscriptionsResource.class);
+        classes.add(ScheduleImportResource.class);
 
     }
 
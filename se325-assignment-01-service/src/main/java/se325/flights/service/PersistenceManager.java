@@ -1,11 +1,27 @@
 package se325.flights.service;
 
+import org.hibernate.SessionFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import se325.flights.domain.mappers.DTOCache;
+import se325.flights.service.db.CacheStatistics;
+import se325.flights.service.db.DatabaseSnapshot;
+import se325.flights.service.db.DatabaseServer;
+import se325.flights.service.db.SchemaMigrator;
+import se325.flights.service.db.StorageProfile;
+import se325.flights.service.db.TestSchemaConnectionProvider;
+import se325.flights.service.db.TestSchemas;
+import se325.flights.util.Config;
+import se325.flights.util.Metrics;
 
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.Persistence;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Singleton class that manages an EntityManagerFactory. When a
@@ -15,49 +31,190 @@ import javax.persistence.Persistence;
  * <p>
  * When a Web service application component (e.g. a resource object) requires a
  * persistence context, it should call the PersistentManager's
- * createEntityManager() method to acquire one.
+ * createEntityManager() method to acquire one. Code handling a request should use the
+ * {@link RequestEntityManager} instead, so that the request only checks out one connection.
+ * <p>
+ * The instance is created by the JVM's class initialization (see {@link Holder}), so every thread sees the same, fully
+ * constructed instance without locking.
+ * <p>
+ * How {@link #reset()} wipes the database is chosen with the "db.reset" setting (see {@link Config}):
+ * <ul>
+ *     <li>snapshot (default) - the data is put back from a {@link DatabaseSnapshot} captured when the
+ *     EntityManagerFactory was created, keeping the factory, its metadata and its connections</li>
+ *     <li>rebuild - the factory is closed and created again, after the database has been wiped, migrated and
+ *     filled from db-init.sql</li>
+ * </ul>
+ * Before the EntityManagerFactory is created, the database is brought up to date by the {@link SchemaMigrator}, and
+ * Hibernate then only validates the schema against the entity mappings; existing data is kept. With the "db.seed"
+ * setting - for tests, demos and the embedded Jetty - the database is instead wiped, migrated from scratch and filled
+ * from db-init.sql each time, and a snapshot of it is captured for {@link #reset()}.
+ * <p>
+ * With the "db.test-schemas" setting as well, integration tests may work in schemas of their own (see
+ * {@link TestSchemas}), through Hibernate's schema-based multi-tenancy.
  */
 public class PersistenceManager {
-    private static PersistenceManager instance = null;
 
-    private EntityManagerFactory entityManagerFactory;
+    public enum ResetMode {
+        SNAPSHOT, REBUILD
+    }
+
+    private volatile EntityManagerFactory entityManagerFactory;
+    private DatabaseSnapshot snapshot;
     private static final Logger LOGGER = LoggerFactory.getLogger(PersistenceManager.class);
 
+    private static class Holder {
+        private static final PersistenceManager INSTANCE = new PersistenceManager();
+    }
+
     public static PersistenceManager instance() {
-        if (instance == null) {
-            instance = new PersistenceManager();
-        }
-        return instance;
+        return Holder.INSTANCE;
     }
 
     protected PersistenceManager() {
-        init();
+        init(Config.getBoolean("db.seed", false));
     }
 
+    /**
+     * Creates an EntityManager. If the EntityManagerFactory is being rebuilt by {@link #reset()}, waits until the new
+     * one has been created, rather than failing because the old one has been closed.
+     *
+     * @throws IllegalStateException if the persistence manager has been closed
+     */
     public EntityManager createEntityManager() {
-        return entityManagerFactory.createEntityManager();
+        EntityManagerFactory factory = entityManagerFactory;
+        if (factory != null) {
+            try {
+                return factory.createEntityManager();
+            } catch (IllegalStateException e) {
+                // Closed by a rebuild after it was read; anything else is a real failure
+                if (factory.isOpen()) {
+                    throw e;
+                }
+            }
+        }
+        return awaitEntityManagerFactory().createEntityManager();
+    }
+
+    /**
+     * Gets the EntityManagerFactory once no rebuild is in progress, since {@link #reset()} holds the lock throughout.
+     */
+    private synchronized EntityManagerFactory awaitEntityManagerFactory() {
+        if (entityManagerFactory == null) {
+            throw new IllegalStateException("The persistence manager has been closed");
+        }
+        return entityManagerFactory;
     }
 
-    private void init() {
+    /**
+     * Migrates the database and creates the EntityManagerFactory.
+     *
+     * @param seed true to wipe the database and fill it from db-init.sql after migrating it
+     */
+    private synchronized void init(boolean seed) {
         try {
-            entityManagerFactory = Persistence.createEntityManagerFactory("se325.flights");
+            Map<String, Object> overrides = new HashMap<>();
+
+            // Chooses where the database is stored, or lets several service instances share one database
+            String user = Config.getString("db.user", "sa");
+            String password = Config.getString("db.password", "sa");
+            DatabaseServer.startIfConfigured(user, password);
+            String url = StorageProfile.currentUrl();
+            overrides.put("javax.persistence.jdbc.url", url);
+            overrides.put("javax.persistence.jdbc.user", user);
+            overrides.put("javax.persistence.jdbc.password", password);
+            if (TestSchemas.isEnabled()) {
+                overrides.put("hibernate.multiTenancy", "SCHEMA");
+                overrides.put("hibernate.multi_tenant_connection_provider",
+                        TestSchemaConnectionProvider.class.getName());
+                overrides.put("hibernate.tenant_identifier_resolver", new TestSchemas.Resolver());
+            }
+
+            migrate(url, user, password, seed);
+            entityManagerFactory = Persistence.createEntityManagerFactory("se325.flights", overrides);
+            Metrics.register("Cache", new CacheStatistics(entityManagerFactory.unwrap(SessionFactory.class)));
+
+            // Only seeded data can be put back by reset(); anything else would be wiped by it anyway
+            if (seed && Config.getEnum("db.reset", ResetMode.class, ResetMode.SNAPSHOT) == ResetMode.SNAPSHOT) {
+                snapshot = DatabaseSnapshot.capture(entityManagerFactory);
+            }
         } catch (Exception ex) {
             LOGGER.error("Failed to create persistence manager", ex);
             throw ex;
         }
     }
 
-    public void close() {
+    private static void migrate(String url, String user, String password, boolean seed) {
+        long start = System.nanoTime();
+        SchemaMigrator migrator = new SchemaMigrator();
+        try (Connection connection = DriverManager.getConnection(url, user, password)) {
+            if (seed) {
+                SchemaMigrator.clean(connection);
+            }
+            int applied = migrator.migrate(connection);
+            if (seed) {
+                SchemaMigrator.runScript(connection, "db-init.sql");
+                if (TestSchemas.isEnabled()) {
+                    TestSchemas.createTemplate(connection);
+                }
+            }
+            LOGGER.info("Database schema is at version {} ({} migrations applied{}) after {} ms",
+                    migrator.getLatestVersion(), applied, seed ? ", seeded from db-init.sql" : "",
+                    (System.nanoTime() - start) / 1_000_000);
+        } catch (SQLException e) {
+            throw new IllegalStateException("Failed to migrate the database", e);
+        }
+    }
+
+    public synchronized void close() {
+        if (entityManagerFactory == null) {
+            return;
+        }
+        // Cached reference data and query results refer to rows which are about to be wiped
+        entityManagerFactory.unwrap(SessionFactory.class).getCache().evictAllRegions();
         entityManagerFactory.close();
         entityManagerFactory = null;
+        snapshot = null;
     }
 
     /**
-     * Wipes the database.
+     * Puts the given test schema back to the data from db-init.sql, leaving every other schema alone.
+     *
+     * @param schema the schema, as returned by {@link TestSchemas#schemaFor}
+     * @throws IllegalStateException if test schemas aren't enabled
      */
-    public void reset() {
+    public void resetTestSchema(String schema) {
+        if (!TestSchemas.isEnabled()) {
+            throw new IllegalStateException("Test schemas aren't enabled");
+        }
+        long start = System.nanoTime();
+        TestSchemas.reset(entityManagerFactory, schema);
+        LOGGER.debug("Reset test schema {} in {} ms", schema, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * Wipes the database, putting back the data from db-init.sql. Falls back to rebuilding the database if it can't be
+     * restored from the snapshot.
+     */
+    public synchronized void reset() {
+        // Ids are reused once the database has been reset, so DTOs made before then could be returned for new entities
+        DTOCache.clearAll();
+        if (entityManagerFactory != null && snapshot != null) {
+            try {
+                long start = System.nanoTime();
+                snapshot.restore(entityManagerFactory);
+                SessionFactory sessionFactory = entityManagerFactory.unwrap(SessionFactory.class);
+                sessionFactory.getCache().evictAllRegions();
+                sessionFactory.getStatistics().clear();
+                LOGGER.debug("Restored database snapshot in {} ms", (System.nanoTime() - start) / 1_000_000);
+                return;
+            } catch (RuntimeException e) {
+                LOGGER.warn("Failed to restore database snapshot, rebuilding the database instead", e);
+            }
+        }
+        // The old factory is closed before the new one is created, since closing it also closes the cache manager which
+        // both factories' second-level caches would share. Entity managers requested meanwhile wait for the new factory
         close();
-        init();
+        init(true);
     }
 
 }
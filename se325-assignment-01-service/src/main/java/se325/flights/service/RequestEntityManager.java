@@ -0,0 +1,126 @@
+package se325.flights.service;
+
+import javax.persistence.EntityManager;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Gives each request a single {@link EntityManager}, shared by authentication and the resource method which handles the
+ * request. The entity manager is only opened when something first asks for it, so requests which don't touch the
+ * database never check a connection out of the pool. The {@link RequestEntityManagerFilter} closes it once the request
+ * has been handled, whether or not that succeeded, rolling back any transaction left active.
+ * <p>
+ * The entity manager is bound to the thread handling the request. Code which runs on other threads, such as
+ * subscription processing and the response to a suspended request, must create and close its own.
+ */
+public final class RequestEntityManager {
+
+    private static final ThreadLocal<Scope> SCOPE = new ThreadLocal<>();
+
+    private RequestEntityManager() {
+    }
+
+    /**
+     * Gets the current request's entity manager, opening it if this is the first time it's been asked for.
+     *
+     * @throws IllegalStateException if no request is being handled by this thread
+     */
+    public static EntityManager get() {
+        Scope scope = SCOPE.get();
+        if (scope == null) {
+            throw new IllegalStateException("No request is being handled by this thread");
+        }
+        if (scope.em == null) {
+            scope.em = PersistenceManager.instance().createEntityManager();
+        }
+        return scope.em;
+    }
+
+    /**
+     * Gets a value indicating whether a request is being handled by this thread, i.e. whether {@link #get()} may be
+     * called.
+     */
+    public static boolean isActive() {
+        return SCOPE.get() != null;
+    }
+
+    /**
+     * Calls the given function with the current request's entity manager if there is one, or else with a new entity
+     * manager which is closed afterwards. Lets code which is usually called while handling a request also be called
+     * from elsewhere.
+     */
+    public static <T> T apply(Function<EntityManager, T> function) {
+        if (isActive()) {
+            return function.apply(get());
+        }
+        EntityManager em = PersistenceManager.instance().createEntityManager();
+        try {
+            return function.apply(em);
+        } finally {
+            close(em);
+        }
+    }
+
+    /**
+     * Like {@link #apply(Function)}, for code which doesn't return anything.
+     */
+    public static void run(Consumer<EntityManager> consumer) {
+        apply(em -> {
+            consumer.accept(em);
+            return null;
+        });
+    }
+
+    /**
+     * Like {@link #run(Consumer)}, for code which begins and ends its own transaction. If the request's entity manager
+     * already has a transaction active, which only its owner may end, the consumer is given a new entity manager
+     * instead, which is closed afterwards.
+     */
+    public static void runWithoutTransaction(Consumer<EntityManager> consumer) {
+        if (isActive() && !get().getTransaction().isActive()) {
+            consumer.accept(get());
+            return;
+        }
+        EntityManager em = PersistenceManager.instance().createEntityManager();
+        try {
+            consumer.accept(em);
+        } finally {
+            close(em);
+        }
+    }
+
+    /**
+     * Starts a request's scope on this thread. Called by the {@link RequestEntityManagerFilter}.
+     */
+    static void begin() {
+        SCOPE.set(new Scope());
+    }
+
+    /**
+     * Ends the current request's scope on this thread, closing its entity manager if one was opened. Called by the
+     * {@link RequestEntityManagerFilter}.
+     */
+    static void end() {
+        Scope scope = SCOPE.get();
+        SCOPE.remove();
+        if (scope != null && scope.em != null) {
+            close(scope.em);
+        }
+    }
+
+    private static void close(EntityManager em) {
+        try {
+            if (em.isOpen() && em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+        } finally {
+            if (em.isOpen()) {
+                em.close();
+            }
+        }
+    }
+
+    private static class Scope {
+        private EntityManager em;
+    }
+}
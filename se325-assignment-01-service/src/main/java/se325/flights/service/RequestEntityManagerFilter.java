@@ -0,0 +1,57 @@
+package se325.flights.service;
+
+import se325.flights.service.db.TestSchemas;
+
+import javax.servlet.*;
+import javax.servlet.annotation.WebFilter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Opens a {@link RequestEntityManager} scope around each request to the service, and closes it afterwards.
+ * <p>
+ * This is a servlet filter rather than a JAX-RS one so that it wraps everything JAX-RS does with the request, including
+ * the {@link se325.flights.service.auth.AuthenticationFilter} and any exception that escapes a resource method. For a
+ * suspended request, the scope ends when the resource method returns, not when the response is eventually sent.
+ * <p>
+ * When {@link TestSchemas} are enabled, the schema named by a request's {@link TestSchemas#HEADER} header is made
+ * current for the thread while it handles the request.
+ */
+@WebFilter(urlPatterns = "/services/*", asyncSupported = true)
+public class RequestEntityManagerFilter implements Filter {
+
+    @Override
+    public void init(FilterConfig filterConfig) {
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        String testSchema = null;
+        if (TestSchemas.isEnabled()) {
+            String name = ((HttpServletRequest) request).getHeader(TestSchemas.HEADER);
+            if (name != null) {
+                try {
+                    testSchema = TestSchemas.schemaFor(name);
+                } catch (IllegalArgumentException e) {
+                    ((HttpServletResponse) response).sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+                    return;
+                }
+            }
+        }
+
+        TestSchemas.setCurrent(testSchema);
+        RequestEntityManager.begin();
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            RequestEntityManager.end();
+            TestSchemas.setCurrent(null);
+        }
+    }
+
+    @Override
+    public void destroy() {
+    }
+}
@@ -0,0 +1,304 @@
+package se325.flights.service;
+
+import se325.flights.domain.Airport;
+import se325.flights.domain.Flight;
+import se325.flights.dto.RouteSeatsSubscriptionDTO;
+import se325.flights.dto.SeatHoldDTO;
+import se325.flights.util.Config;
+
+import javax.persistence.EntityManager;
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.NotFoundException;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.CompletionCallback;
+import javax.ws.rs.core.Response;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds subscriptions for seats on any flight along a route, within a range of departure dates. Owned by the
+ * {@link SubscriptionManager}.
+ * <p>
+ * Subscriptions are indexed by route-day: (origin code, destination code, local departure date at the origin). A
+ * subscription covering several days is added to the bucket of each of those days. When the seats available on a
+ * flight change, only the bucket for that flight's route-day is checked. A flight's route-day never changes, so it's
+ * cached after the flight is first looked up.
+ * <p>
+ * Within a bucket, subscriptions are processed in the order in which they were made, and each satisfied subscriber is
+ * granted a {@link SeatHolds hold} on its seats.
+ * <p>
+ * Route subscriptions aren't persisted, so a client which goes away can't come back for its subscription. Each one
+ * therefore only waits for "subscriptions.route.timeout-ms" (default 5 minutes, see {@link Config}), after which its
+ * client receives a 503 Service Unavailable response and may subscribe again. However a subscription's request ends -
+ * notified, timed out, or failed because its client disconnected - it's removed from every bucket it was in.
+ */
+public class RouteSubscriptions {
+
+    /**
+     * The maximum number of days a single subscription may cover
+     */
+    private final int maxDays = Config.getInt("subscriptions.route.max-days", 31);
+
+    private final long timeoutMillis = Config.getLong("subscriptions.route.timeout-ms", 300000);
+
+    private final AtomicLong nextId = new AtomicLong();
+
+    /**
+     * Holds all subscriptions, grouped by route-day. Within a route-day, subscriptions are ordered by id, which is the
+     * order in which they were made.
+     */
+    private final Map<RouteDay, ConcurrentSkipListMap<Long, RouteSubscription>> buckets = new ConcurrentHashMap<>();
+
+    /**
+     * Caches the route-day of each flight which has been processed
+     */
+    private final Map<Long, RouteDay> flightRouteDays = new ConcurrentHashMap<>();
+
+    private final SeatHolds holds;
+
+    public RouteSubscriptions(SeatHolds holds) {
+        this.holds = holds;
+    }
+
+    public boolean isEmpty() {
+        return buckets.isEmpty();
+    }
+
+    /**
+     * Adds the given subscription, then checks the flights it covers in case one of them already has the required
+     * seats available. The subscription is indexed before it's checked, so that a change made while the check is
+     * underway can't be missed.
+     *
+     * @param subInfo the route, dates, cabin class and number of seats required
+     * @param sub     the {@link AsyncResponse} object that will eventually be used to send the response back to the
+     *                client
+     * @param em      the {@link EntityManager} to use to access the database
+     * @throws BadRequestException if the number of seats isn't positive, the dates are invalid, or the range is longer
+     *                             than the maximum allowed
+     * @throws NotFoundException   if the origin or destination airport doesn't exist
+     */
+    public void add(RouteSeatsSubscriptionDTO subInfo, AsyncResponse sub, EntityManager em) {
+        if (subInfo.getNumSeats() <= 0) {
+            throw new BadRequestException("Number of seats must be at least 1");
+        }
+        LocalDate from;
+        LocalDate to;
+        try {
+            from = LocalDate.parse(subInfo.getDepartureDateFrom(), DateTimeFormatter.ISO_DATE);
+            to = subInfo.getDepartureDateTo() == null ? from :
+                    LocalDate.parse(subInfo.getDepartureDateTo(), DateTimeFormatter.ISO_DATE);
+        } catch (DateTimeException | NullPointerException e) {
+            throw new BadRequestException("Invalid departure dates");
+        }
+        if (to.isBefore(from) || ChronoUnit.DAYS.between(from, to) >= maxDays) {
+            throw new BadRequestException("Departure date range must cover between 1 and " + maxDays + " days");
+        }
+
+        ZoneId originZone = ZoneId.of(findAirport(subInfo.getOriginCode(), em).getTimeZone());
+        findAirport(subInfo.getDestinationCode(), em);
+
+        RouteSubscription subscription = new RouteSubscription(nextId.incrementAndGet(), subInfo, sub);
+        sub.setTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+        sub.setTimeoutHandler(response -> {
+            if (subscription.done.compareAndSet(false, true)) {
+                remove(subscription);
+                response.cancel();
+            }
+        });
+        sub.register((CompletionCallback) throwable -> {
+            subscription.done.set(true);
+            remove(subscription);
+        });
+        for (LocalDate date = from; !date.isAfter(to); date = date.plusDays(1)) {
+            RouteDay day = new RouteDay(subInfo.getOriginCode(), subInfo.getDestinationCode(), date);
+            subscription.days.add(day);
+            buckets.computeIfAbsent(day, d -> new ConcurrentSkipListMap<>()).put(subscription.id, subscription);
+        }
+
+        List<Flight> candidates = em.createNamedQuery("Flight.findByRouteAndDepartureRange", Flight.class)
+                .setParameter("origin", subInfo.getOriginCode())
+                .setParameter("destination", subInfo.getDestinationCode())
+                .setParameter("start", ZonedDateTime.of(from, LocalTime.MIN, originZone))
+                .setParameter("end", ZonedDateTime.of(to.plusDays(1), LocalTime.MIN, originZone))
+                .getResultList();
+
+        for (Flight flight : candidates) {
+            if (tryComplete(subscription, flight, em)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Checks the subscriptions in the route-day bucket of the given flight, and notifies those which the flight now
+     * satisfies.
+     *
+     * @param flightId the id of the flight whose seat availability has changed
+     * @param em       the {@link EntityManager} to use to access the database
+     */
+    public void process(long flightId, EntityManager em) {
+        if (buckets.isEmpty()) {
+            return;
+        }
+
+        Flight flight = null;
+        RouteDay day = flightRouteDays.get(flightId);
+        if (day == null) {
+            flight = em.find(Flight.class, flightId);
+            if (flight == null) {
+                return;
+            }
+            day = routeDayOf(flight);
+            flightRouteDays.put(flightId, day);
+        }
+
+        Map<Long, RouteSubscription> bucket = buckets.get(day);
+        if (bucket == null || bucket.isEmpty()) {
+            return;
+        }
+        if (flight == null) {
+            flight = em.find(Flight.class, flightId);
+            if (flight == null) {
+                return;
+            }
+        }
+
+        for (RouteSubscription subscription : bucket.values()) {
+            tryComplete(subscription, flight, em);
+        }
+    }
+
+    /**
+     * Forgets the route-day of the given flight, e.g. once it's been archived. Subscriptions themselves cover route-days
+     * rather than flights, so none are dropped.
+     */
+    public void forgetFlight(long flightId) {
+        flightRouteDays.remove(flightId);
+    }
+
+    /**
+     * Drops all subscriptions. Clients waiting on them receive a 503 Service Unavailable response.
+     */
+    public void clear() {
+        Set<RouteSubscription> all = new HashSet<>();
+        buckets.values().forEach(bucket -> all.addAll(bucket.values()));
+        buckets.clear();
+        flightRouteDays.clear();
+        for (RouteSubscription subscription : all) {
+            if (subscription.done.compareAndSet(false, true)) {
+                subscription.sub.cancel();
+            }
+        }
+    }
+
+    /**
+     * Tries to hold the seats the given subscription requires on the given flight. If they can be held, removes the
+     * subscription from all its buckets, and notifies its client with the hold. Only one thread can complete a
+     * subscription, so a client is never notified twice.
+     *
+     * @return true if the subscription was completed
+     */
+    private boolean tryComplete(RouteSubscription subscription, Flight flight, EntityManager em) {
+        if (subscription.done.get() || flight.getNumSeatsRemaining(subscription.info.getCabinClass()) <
+                subscription.info.getNumSeats()) {
+            return false;
+        }
+        SeatHoldDTO hold = holds.grant(em, flight, subscription.info.getCabinClass(), subscription.info.getNumSeats(),
+                subscription.info.getUserId());
+        if (hold == null) {
+            return false;
+        }
+        if (!subscription.done.compareAndSet(false, true)) {
+            holds.release(em, flight.getId(), subscription.info.getUserId(), hold.getSeatCodes());
+            return false;
+        }
+        remove(subscription);
+        if (!subscription.sub.resume(Response.ok(hold).build())) {
+            holds.release(em, flight.getId(), subscription.info.getUserId(), hold.getSeatCodes());
+        }
+        return true;
+    }
+
+    /**
+     * Removes the given subscription from all its buckets, if it's still in them.
+     */
+    private void remove(RouteSubscription subscription) {
+        for (RouteDay day : subscription.days) {
+            buckets.computeIfPresent(day, (d, bucket) -> {
+                bucket.remove(subscription.id);
+                return bucket.isEmpty() ? null : bucket;
+            });
+        }
+    }
+
+    private static Airport findAirport(String code, EntityManager em) {
+        List<Airport> airports = em.createNamedQuery("Airport.findByCode", Airport.class)
+                .setParameter("code", code)
+                .getResultList();
+        if (airports.isEmpty()) {
+            throw new NotFoundException("No airport with code " + code);
+        }
+        return airports.get(0);
+    }
+
+    private static RouteDay routeDayOf(Flight flight) {
+        ZoneId originZone = ZoneId.of(flight.getOrigin().getTimeZone());
+        return new RouteDay(flight.getOrigin().getCode(), flight.getDestination().getCode(),
+                flight.getDepartureTime().withZoneSameInstant(originZone).toLocalDate());
+    }
+
+    /**
+     * A route between two airports on a particular local date at the origin.
+     */
+    private static class RouteDay {
+
+        private final String originCode;
+        private final String destinationCode;
+        private final LocalDate date;
+
+        RouteDay(String originCode, String destinationCode, LocalDate date) {
+            this.originCode = originCode;
+            this.destinationCode = destinationCode;
+            this.date = date;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            RouteDay routeDay = (RouteDay) o;
+            return originCode.equals(routeDay.originCode) && destinationCode.equals(routeDay.destinationCode) && date.equals(routeDay.date);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(originCode, destinationCode, date);
+        }
+    }
+
+    private static class RouteSubscription {
+
+        private final long id;
+        private final RouteSeatsSubscriptionDTO info;
+        private final AsyncResponse sub;
+        private final List<RouteDay> days = new ArrayList<>();
+        private final AtomicBoolean done = new AtomicBoolean();
+
+        RouteSubscription(long id, RouteSeatsSubscriptionDTO info, AsyncResponse sub) {
+            this.id = id;
+            this.info = info;
+            this.sub = sub;
+        }
+    }
+}
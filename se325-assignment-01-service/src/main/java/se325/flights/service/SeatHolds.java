@@ -0,0 +1,233 @@
+package se325.flights.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se325.flights.CabinClass;
+import se325.flights.domain.BookingException;
+import se325.flights.domain.Flight;
+import se325.flights.domain.Seat;
+import se325.flights.domain.SeatHold;
+import se325.flights.domain.SeatingZone;
+import se325.flights.dto.SeatHoldDTO;
+import se325.flights.service.events.OutboxDispatcher;
+import se325.flights.util.Config;
+
+import javax.persistence.EntityManager;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Holds seats for subscribers whose subscriptions have been satisfied. Owned by the {@link SubscriptionManager}.
+ * <p>
+ * When seats are freed, subscriptions are processed in the order in which they were made, and each satisfied subscriber
+ * is granted a short, exclusive hold on specific seats. Seats held by one subscriber aren't offered to the next, so
+ * each freed seat goes to exactly one subscriber, rather than every subscriber racing to book the same seats. Holds
+ * which aren't booked before they expire are released, and the flight's seat availability change is recorded with the
+ * {@link OutboxDispatcher}, so that its subscriptions are processed again on every service instance.
+ * <p>
+ * Holds are persisted as {@link SeatHold} rows, so that a booking committed on any service instance sees them.
+ * Granting holds and making bookings both lock the flight's row first, so that neither sees seats which the other is
+ * in the middle of taking. Each instance expires the holds it granted; if it stops first, its holds are ignored once
+ * they've expired, and deleted when holds on the same flight are next granted.
+ * <p>
+ * The hold duration is set with "subscriptions.hold-ms" (see {@link Config}).
+ */
+public class SeatHolds {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SeatHolds.class);
+
+    private final long holdMillis = Config.getLong("subscriptions.hold-ms", 30000);
+
+    private final ScheduledExecutorService expiryScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "seat-hold-expiry");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Grants the given user a hold on the given number of seats of the given cabin class on the given flight, if that
+     * many seats are neither booked nor held. Seats are chosen from the front of the cabin. The hold is granted in its
+     * own transaction, so the given entity manager mustn't have one active.
+     *
+     * @param em         the entity manager to use to access the database
+     * @param flight     the flight to hold seats on
+     * @param cabinClass the required cabin class, or null for any cabin class
+     * @param numSeats   the number of seats required
+     * @param userId     the user the seats will be held for
+     * @return the hold, or null if not enough seats are available
+     */
+    public SeatHoldDTO grant(EntityManager em, Flight flight, CabinClass cabinClass, int numSeats, Long userId) {
+        long flightId = flight.getId();
+        String holdId = UUID.randomUUID().toString();
+        long expiresAt = System.currentTimeMillis() + holdMillis;
+        List<String> seatCodes;
+        try {
+            em.getTransaction().begin();
+            lockFlight(em, flightId);
+
+            // Expired holds no longer stop their seats being held again
+            em.createQuery("DELETE FROM SeatHold h WHERE h.flightId = :flightId AND h.expiresAt <= :now")
+                    .setParameter("flightId", flightId)
+                    .setParameter("now", System.currentTimeMillis())
+                    .executeUpdate();
+
+            // Booked and held seats are read now that the flight is locked, rather than from the flight as loaded
+            Set<String> unavailable = em.createNamedQuery("SeatHold.findByFlight", SeatHold.class)
+                    .setParameter("flightId", flightId)
+                    .getResultStream()
+                    .map(SeatHold::getSeatCode)
+                    .collect(Collectors.toSet());
+            em.createNamedQuery("FlightBooking.findSeatsByFlight", Seat.class)
+                    .setParameter("flightId", flightId)
+                    .getResultStream()
+                    .forEach(seat -> unavailable.add(seat.getSeatCode()));
+
+            seatCodes = flight.getAircraftType().getSeatingZones().stream()
+                    .filter(z -> cabinClass == null || z.getCabinClass().equals(cabinClass))
+                    .sorted(Comparator.comparingInt(SeatingZone::getStartingRowNumber))
+                    .flatMap(z -> z.getSeatCodes().stream())
+                    .filter(seatCode -> !unavailable.contains(seatCode))
+                    .limit(numSeats)
+                    .collect(Collectors.toList());
+            if (seatCodes.size() < numSeats) {
+                em.getTransaction().rollback();
+                return null;
+            }
+
+            for (String seatCode : seatCodes) {
+                em.persist(new SeatHold(holdId, flightId, seatCode, userId, expiresAt));
+            }
+            em.getTransaction().commit();
+        } finally {
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+        }
+
+        expiryScheduler.schedule(() -> expire(flightId, holdId), holdMillis, TimeUnit.MILLISECONDS);
+        return new SeatHoldDTO(flightId, seatCodes,
+                ZonedDateTime.ofInstant(Instant.ofEpochMilli(expiresAt), ZoneOffset.UTC));
+    }
+
+    /**
+     * Ensures that none of the given seats are held for a different user, in the transaction which is booking them.
+     * Called by the {@link se325.flights.service.booking.BookingCommitter} before it makes each booking. Locks the
+     * flight's row until the transaction ends, so that no holds are granted on the flight in the meantime. Nothing is
+     * changed: the booking's seats are only taken out of their holds by {@link #claim}, once the booking has been made.
+     *
+     * @param em        the entity manager whose transaction is making the booking
+     * @param flightId  the id of the flight being booked
+     * @param userId    the user making the booking
+     * @param seatCodes the seats being booked
+     * @throws BookingException if any of the seats are held for another user
+     */
+    public void ensureNotHeldByOthers(EntityManager em, long flightId, Long userId, Collection<String> seatCodes)
+            throws BookingException {
+        lockFlight(em, flightId);
+        long now = System.currentTimeMillis();
+        for (SeatHold hold : findHolds(em, flightId, seatCodes)) {
+            if (hold.getExpiresAt() > now && !Objects.equals(hold.getUserId(), userId)) {
+                throw new BookingException("One or more seats are held for another user");
+            }
+        }
+    }
+
+    /**
+     * Takes the given seats out of any holds on them, in the transaction which has just booked them. The seats must
+     * have been checked with {@link #ensureNotHeldByOthers} in the same transaction, so the only holds left on them are
+     * the booking user's own, or expired ones.
+     *
+     * @param em        the entity manager whose transaction has booked the seats
+     * @param flightId  the id of the flight
+     * @param seatCodes the booked seats
+     */
+    public void claim(EntityManager em, long flightId, Collection<String> seatCodes) {
+        findHolds(em, flightId, seatCodes).forEach(em::remove);
+    }
+
+    /**
+     * Releases the given user's holds on the given seats, e.g. if they couldn't be notified of the hold. Seats held for
+     * other users stay held. The holds are released in their own transaction, so the given entity manager mustn't have
+     * one active.
+     *
+     * @param em        the entity manager to use to access the database
+     * @param flightId  the id of the flight
+     * @param userId    the user whose holds to release
+     * @param seatCodes the seats to release
+     */
+    public void release(EntityManager em, long flightId, Long userId, Collection<String> seatCodes) {
+        try {
+            em.getTransaction().begin();
+            em.createNamedQuery("SeatHold.findByFlight", SeatHold.class)
+                    .setParameter("flightId", flightId)
+                    .getResultStream()
+                    .filter(hold -> seatCodes.contains(hold.getSeatCode()) && Objects.equals(hold.getUserId(), userId))
+                    .forEach(em::remove);
+            em.getTransaction().commit();
+        } finally {
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+        }
+    }
+
+    /**
+     * Stops expiring holds. Called when the application is undeployed.
+     */
+    public void shutdown() {
+        expiryScheduler.shutdownNow();
+    }
+
+    /**
+     * Releases whichever seats are still held by the given hold, and if there were any, records that the flight's seats
+     * have changed, since those seats are available once more.
+     */
+    private void expire(long flightId, String holdId) {
+        EntityManager em = PersistenceManager.instance().createEntityManager();
+        try {
+            em.getTransaction().begin();
+            int released = em.createQuery("DELETE FROM SeatHold h WHERE h.holdId = :holdId")
+                    .setParameter("holdId", holdId)
+                    .executeUpdate();
+            if (released > 0) {
+                OutboxDispatcher.instance().record(em, flightId);
+            }
+            em.getTransaction().commit();
+            if (released > 0) {
+                OutboxDispatcher.instance().signal();
+            }
+        } catch (RuntimeException e) {
+            // Left to be deleted when holds on the flight are next granted
+            LOGGER.warn("Failed to expire hold {} on flight {}", holdId, flightId, e);
+        } finally {
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+            em.close();
+        }
+    }
+
+    private static List<SeatHold> findHolds(EntityManager em, long flightId, Collection<String> seatCodes) {
+        return em.createNamedQuery("SeatHold.findByFlight", SeatHold.class)
+                .setParameter("flightId", flightId)
+                .getResultStream()
+                .filter(hold -> seatCodes.contains(hold.getSeatCode()))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Locks the given flight's row until the entity manager's transaction ends. Only the id is read, so nothing about
+     * the flight is loaded or checked.
+     */
+    private static void lockFlight(EntityManager em, long flightId) {
+        em.createNativeQuery("SELECT id FROM Flight WHERE id = ? FOR UPDATE")
+                .setParameter(1, flightId)
+                .getResultList();
+    }
+}
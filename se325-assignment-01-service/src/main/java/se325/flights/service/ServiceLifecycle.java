@@ -0,0 +1,102 @@
+package se325.flights.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se325.flights.service.archive.FlightArchiver;
+import se325.flights.service.auth.SessionStore;
+import se325.flights.service.auth.TokenRevocations;
+import se325.flights.service.booking.BookingCommitter;
+import se325.flights.service.events.OutboxDispatcher;
+
+import java.util.List;
+
+/**
+ * Owns the start and stop order of the service's components which run in the background. Components are started in
+ * the order they're registered, and stopped in the reverse order, so that nothing is stopped while a component started
+ * after it could still depend on it: bookings stop being committed before their events stop being dispatched, and
+ * both stop before the revocations and sessions which authenticate requests.
+ * <p>
+ * Used by the {@link TestResource}, which stops the components while it resets the database and then starts them
+ * again, and by the {@link ApplicationLifecycleListener}, which stops them when the application is undeployed. Each
+ * component starts itself when it's first used, so nothing needs to start them when the application is deployed.
+ * <p>
+ * Singleton so that stopping and starting never interleave.
+ */
+public class ServiceLifecycle {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ServiceLifecycle.class);
+
+    private static class Holder {
+        private static final ServiceLifecycle INSTANCE = new ServiceLifecycle(List.of(
+                new Component("token revocations",
+                        () -> TokenRevocations.instance().start(), () -> TokenRevocations.instance().stop()),
+                new Component("session store",
+                        () -> SessionStore.instance().start(), () -> SessionStore.instance().stop()),
+                new Component("outbox dispatcher",
+                        () -> OutboxDispatcher.instance().start(), () -> OutboxDispatcher.instance().stop()),
+                new Component("flight archiver",
+                        () -> FlightArchiver.instance().start(), () -> FlightArchiver.instance().stop()),
+                new Component("booking committer",
+                        () -> BookingCommitter.instance().start(), () -> BookingCommitter.instance().stop())));
+    }
+
+    public static ServiceLifecycle instance() {
+        return Holder.INSTANCE;
+    }
+
+    private final List<Component> components;
+
+    private ServiceLifecycle(List<Component> components) {
+        this.components = components;
+    }
+
+    /**
+     * Starts every component, in the order they were registered.
+     */
+    public synchronized void start() {
+        for (Component component : components) {
+            component.start.run();
+        }
+    }
+
+    /**
+     * Stops every component, in the reverse of the order they were registered. A component which fails to stop is
+     * logged, and the rest are still stopped.
+     */
+    public synchronized void stop() {
+        for (int i = components.size() - 1; i >= 0; i--) {
+            Component component = components.get(i);
+            try {
+                component.stop.run();
+            } catch (RuntimeException e) {
+                LOGGER.warn("Failed to stop the {}", component.name, e);
+            }
+        }
+    }
+
+    /**
+     * Stops every component, runs the given action, then starts every component again, even if the action failed.
+     *
+     * @param whileStopped the action to run while nothing is running in the background, e.g. resetting the database
+     */
+    public synchronized void restart(Runnable whileStopped) {
+        stop();
+        try {
+            whileStopped.run();
+        } finally {
+            start();
+        }
+    }
+
+    private static class Component {
+        private final String name;
+        private final Runnable start;
+        private final Runnable stop;
+
+        private Component(String name, Runnable start, Runnable stop) {
+            this.name = name;
+            this.start = start;
+            this.stop = stop;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package se325.flights.service;
+
+import se325.flights.dto.AvailableSeatsSubscriptionDTO;
+
+import javax.ws.rs.container.AsyncResponse;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * An entry in the {@link SubscriptionManager}'s in-memory index of outstanding subscriptions. A subscription may or may
+ * not have a client attached to it - for example, subscriptions reloaded from the database at startup have none until
+ * their client re-attaches.
+ */
+public class Subscription {
+
+    private final long id;
+    private final AvailableSeatsSubscriptionDTO info;
+    private final AtomicReference<AsyncResponse> response = new AtomicReference<>();
+
+    public Subscription(long id, AvailableSeatsSubscriptionDTO info) {
+        this.id = id;
+        this.info = info;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public AvailableSeatsSubscriptionDTO getInfo() {
+        return info;
+    }
+
+    /**
+     * Attaches the given client to this subscription, replacing (and cancelling) any client which was previously
+     * attached.
+     *
+     * @param sub the {@link AsyncResponse} that will be used to notify the client
+     */
+    public void attach(AsyncResponse sub) {
+        AsyncResponse previous = response.getAndSet(sub);
+        if (previous != null && previous != sub) {
+            previous.cancel();
+        }
+    }
+
+    /**
+     * Re-attaches a client which was previously {@link #detach() detached}, unless it has timed out in the meantime, in
+     * which case it's dropped, or another client has attached, in which case the old client is stale and is cancelled.
+     *
+     * @param sub the {@link AsyncResponse} to re-attach
+     */
+    public void restore(AsyncResponse sub) {
+        if (!sub.isSuspended()) {
+            return;
+        }
+        if (!response.compareAndSet(null, sub)) {
+            sub.cancel();
+        }
+    }
+
+    /**
+     * Detaches and returns the client attached to this subscription, so that no other thread can resume it.
+     *
+     * @return the attached {@link AsyncResponse}, or null if there isn't one
+     */
+    public AsyncResponse detach() {
+        return response.getAndSet(null);
+    }
+
+    /**
+     * Detaches the given client, if it's still the one attached to this subscription.
+     *
+     * @return true if the client was detached, so that no other thread can resume it
+     */
+    public boolean detach(AsyncResponse sub) {
+        return response.compareAndSet(sub, null);
+    }
+
+    public boolean isAttached() {
+        return response.get() != null;
+    }
+}
@@ -0,0 +1,284 @@
+package se325.flights.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se325.flights.util.Config;
+
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongConsumer;
+
+/**
+ * Runs subscription processing for flights in the background, on behalf of the {@link SubscriptionManager}.
+ * <p>
+ * Work is identified by flight id, and is coalesced: if processing for a flight is already queued but hasn't started
+ * yet, further requests for that flight are dropped, since the queued task will see the latest state of the flight
+ * anyway. When the bounded queue is full, the flight is parked in an overflow set instead, and is resubmitted as soon as
+ * a running task finishes. This means bursts of bookings never block the caller and never lose a flight, while the
+ * amount of memory used stays bounded by the number of distinct flights.
+ * <p>
+ * Two modes are supported, selected with the "subscriptions.executor.mode" setting (see {@link Config}):
+ * <ul>
+ *     <li>pool (default) - a fixed pool of "subscriptions.executor.pool-size" threads, with a queue holding up to
+ *     "subscriptions.executor.queue-capacity" tasks</li>
+ *     <li>virtual - one virtual thread per task. Only available on JDK 21+; falls back to pool mode otherwise</li>
+ * </ul>
+ */
+public class SubscriptionExecutor implements SubscriptionExecutorMXBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SubscriptionExecutor.class);
+
+    public enum Mode {
+        POOL, VIRTUAL
+    }
+
+    private final Mode mode;
+    private final int poolSize;
+    private final int queueCapacity;
+    private final ExecutorService executor;
+
+    /**
+     * The executor's work queue. Null in virtual-thread mode.
+     */
+    private final BlockingQueue<Runnable> queue;
+
+    private final LongConsumer task;
+
+    /**
+     * Flights which have a task queued (or parked in {@link #overflow}) which hasn't started yet
+     */
+    private final Set<Long> pendingFlights = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Flights which were rejected by a full queue, in the order they were rejected
+     */
+    private final Queue<Long> overflow = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger activeTasks = new AtomicInteger();
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder totalLatencyNanos = new LongAdder();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+    /**
+     * Creates a new executor configured from the "subscriptions.executor.*" settings.
+     *
+     * @param task the processing to run for each flight id
+     */
+    public static SubscriptionExecutor fromConfig(LongConsumer task) {
+        return new SubscriptionExecutor(
+                Config.getEnum("subscriptions.executor.mode", Mode.class, Mode.POOL),
+                Config.getInt("subscriptions.executor.pool-size", 5),
+                Config.getInt("subscriptions.executor.queue-capacity", 1000),
+                task);
+    }
+
+    public SubscriptionExecutor(Mode mode, int poolSize, int queueCapacity, LongConsumer task) {
+        this.task = task;
+        this.poolSize = poolSize;
+        this.queueCapacity = queueCapacity;
+
+        ExecutorService virtual = mode == Mode.VIRTUAL ? createVirtualThreadExecutor() : null;
+        if (virtual != null) {
+            this.mode = Mode.VIRTUAL;
+            this.executor = virtual;
+            this.queue = null;
+        } else {
+            this.mode = Mode.POOL;
+            this.queue = new ArrayBlockingQueue<>(queueCapacity);
+            this.executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS, queue,
+                    new SubscriptionThreadFactory(), new ThreadPoolExecutor.AbortPolicy());
+        }
+        LOGGER.info("Subscription executor started in {} mode", this.mode);
+    }
+
+    /**
+     * Requests that the given flight's subscriptions be processed. Never blocks.
+     *
+     * @param flightId the id of the flight to process
+     */
+    public void submit(long flightId) {
+        if (!pendingFlights.add(flightId)) {
+            coalesced.increment();
+            return;
+        }
+        enqueue(flightId);
+    }
+
+    private void enqueue(long flightId) {
+        final long submittedAt = System.nanoTime();
+        try {
+            executor.execute(() -> run(flightId, submittedAt));
+            submitted.increment();
+        } catch (RejectedExecutionException e) {
+            if (executor.isShutdown()) {
+                pendingFlights.remove(flightId);
+                return;
+            }
+            rejected.increment();
+            overflow.add(flightId);
+
+            // If every task finished between the rejection and now, nothing else will drain the overflow.
+            if (activeTasks.get() == 0 && getQueueDepth() == 0) {
+                drainOverflow();
+            }
+        }
+    }
+
+    private void run(long flightId, long submittedAt) {
+
+        // Any changes made from now on must be seen by a fresh task, so stop coalescing into this one.
+        pendingFlights.remove(flightId);
+        activeTasks.incrementAndGet();
+        try {
+            task.accept(flightId);
+        } catch (RuntimeException e) {
+            failed.increment();
+            LOGGER.warn("Failed to process subscriptions for flight " + flightId, e);
+        } finally {
+            long latency = System.nanoTime() - submittedAt;
+            totalLatencyNanos.add(latency);
+            maxLatencyNanos.accumulateAndGet(latency, Math::max);
+            completed.increment();
+            activeTasks.decrementAndGet();
+            drainOverflow();
+        }
+    }
+
+    /**
+     * Moves flights from the overflow set back into the queue, oldest first, while the queue has room.
+     */
+    private void drainOverflow() {
+        while (queue == null || queue.remainingCapacity() > 0) {
+            Long next = overflow.poll();
+            if (next == null) {
+                return;
+            }
+            enqueue(next);
+        }
+    }
+
+    /**
+     * Stops accepting work, and waits up to the given time for running and queued tasks to finish. Tasks which haven't
+     * finished by then are interrupted.
+     *
+     * @param timeout the maximum time to wait
+     * @param unit    the unit of the timeout argument
+     */
+    public void shutdown(long timeout, TimeUnit unit) {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(timeout, unit)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        overflow.clear();
+        pendingFlights.clear();
+    }
+
+    /**
+     * Creates an executor which starts a new virtual thread for each task, if running on JDK 21+. The service is built
+     * for Java 11, so the factory method is looked up reflectively.
+     *
+     * @return the executor, or null if virtual threads aren't supported by this runtime
+     */
+    private static ExecutorService createVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            LOGGER.warn("Virtual threads are not supported by this runtime, falling back to a thread pool");
+            return null;
+        }
+    }
+
+    @Override
+    public String getMode() {
+        return mode.name();
+    }
+
+    @Override
+    public int getPoolSize() {
+        return mode == Mode.POOL ? poolSize : 0;
+    }
+
+    @Override
+    public int getQueueCapacity() {
+        return mode == Mode.POOL ? queueCapacity : 0;
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return queue == null ? 0 : queue.size();
+    }
+
+    @Override
+    public int getOverflowDepth() {
+        return overflow.size();
+    }
+
+    @Override
+    public int getActiveTasks() {
+        return activeTasks.get();
+    }
+
+    @Override
+    public long getSubmittedTasks() {
+        return submitted.sum();
+    }
+
+    @Override
+    public long getCompletedTasks() {
+        return completed.sum();
+    }
+
+    @Override
+    public long getFailedTasks() {
+        return failed.sum();
+    }
+
+    @Override
+    public long getCoalescedRequests() {
+        return coalesced.sum();
+    }
+
+    @Override
+    public long getRejectedTasks() {
+        return rejected.sum();
+    }
+
+    @Override
+    public double getMeanTaskLatencyMillis() {
+        long count = completed.sum();
+        return count == 0 ? 0 : totalLatencyNanos.sum() / (count * 1_000_000.0);
+    }
+
+    @Override
+    public double getMaxTaskLatencyMillis() {
+        return maxLatencyNanos.get() / 1_000_000.0;
+    }
+
+    /**
+     * Creates named daemon threads, so they're easy to spot in a thread dump and never keep the JVM alive.
+     */
+    private static class SubscriptionThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "subscriptions-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package se325.flights.service;
+
+/**
+ * Metrics exported through JMX by the {@link SubscriptionExecutor}.
+ */
+public interface SubscriptionExecutorMXBean {
+
+    String getMode();
+
+    int getPoolSize();
+
+    int getQueueCapacity();
+
+    /**
+     * Gets the number of tasks waiting to be run. In virtual-thread mode there is no queue, so this is always 0.
+     */
+    int getQueueDepth();
+
+    /**
+     * Gets the number of flights whose processing was rejected by a full queue, and is waiting for a free slot.
+     */
+    int getOverflowDepth();
+
+    int getActiveTasks();
+
+    long getSubmittedTasks();
+
+    long getCompletedTasks();
+
+    long getFailedTasks();
+
+    /**
+     * Gets the number of requests which were folded into a task that was already queued for the same flight.
+     */
+    long getCoalescedRequests();
+
+    /**
+     * Gets the number of times the queue was full when a task was submitted.
+     */
+    long getRejectedTasks();
+
+    /**
+     * Gets the mean time between a task being submitted and it finishing, in milliseconds.
+     */
+    double getMeanTaskLatencyMillis();
+
+    double getMaxTaskLatencyMillis();
+}
@@ -1,43 +1,106 @@
 package se325.flights.service;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se325.flights.CabinClass;
+import se325.flights.domain.Flight;
+import se325.flights.domain.SeatSubscription;
 import se325.flights.dto.AvailableSeatsSubscriptionDTO;
+import se325.flights.dto.RouteSeatsSubscriptionDTO;
+import se325.flights.dto.SeatHoldDTO;
+import se325.flights.util.Config;
+import se325.flights.util.Metrics;
 
 import javax.persistence.EntityManager;
 import javax.ws.rs.container.AsyncResponse;
-import java.util.HashMap;
-import java.util.List;
+import javax.ws.rs.core.Response;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 /**
  * A central place to hold all the subscriptions and subscription management / processing methods. Singleton so that
  * any resource instance can access the same subscription service.
+ * <p>
+ * Subscriptions are stored in the database as {@link SeatSubscription}s, so they survive a restart of the service. An
+ * in-memory index of those rows, grouped by flight, is what's actually used to process them; it's rebuilt from the
+ * database when this manager is created.
+ * <p>
+ * A flight's subscriptions are processed in the order in which they were made. Each satisfied subscriber is granted an
+ * exclusive {@link SeatHolds hold} on the seats it asked for, so that freed seats go to the earliest subscribers rather
+ * than to whichever of them wins a race to book.
  */
 public class SubscriptionManager {
 
-    private static SubscriptionManager instance;
+    private static final Logger LOGGER = LoggerFactory.getLogger(SubscriptionManager.class);
+
+    /**
+     * The number of rows to fetch from the database at a time while rebuilding the in-memory index
+     */
+    private static final int RELOAD_FETCH_SIZE = 1000;
+
+    /**
+     * How long a client may wait on a durable subscription, after which it receives a 503 Service Unavailable response
+     * and may wait again
+     */
+    private final long waitTimeoutMillis = Config.getLong("subscriptions.wait-timeout-ms", 300000);
+
+    private static class Holder {
+        private static final SubscriptionManager INSTANCE = new SubscriptionManager();
+    }
 
     public static SubscriptionManager instance() {
-        if (instance == null) {
-            instance = new SubscriptionManager();
-        }
-        return instance;
+        return Holder.INSTANCE;
     }
 
     private SubscriptionManager() {
+        reload();
+        startExecutor();
     }
 
     /**
-     * In charge of executing subscription processing
+     * In charge of executing subscription processing. Replaced with a fresh executor by {@link #reset()}.
+     */
+    private volatile SubscriptionExecutor executor;
+
+    /**
+     * Holds all subscriptions, grouped by flight id. Within a flight, subscriptions are ordered by id, which is the
+     * order in which they were made.
+     */
+    private final Map<Long, ConcurrentSkipListMap<Long, Subscription>> subsByFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Holds all subscriptions, by subscription id
      */
-    private final ExecutorService threadPool = Executors.newFixedThreadPool(5);
+    private final Map<Long, Subscription> subsById = new ConcurrentHashMap<>();
 
     /**
-     * Holds all subscriptions
+     * Holds seats for satisfied subscribers. When a hold expires unused, the flight's subscriptions are processed
+     * again.
      */
-    private final Map<AvailableSeatsSubscriptionDTO, AsyncResponse> subs = new HashMap<>();
+    private final SeatHolds holds = new SeatHolds();
+
+    /**
+     * Holds all subscriptions for seats on any flight along a route
+     */
+    private final RouteSubscriptions routeSubs = new RouteSubscriptions(holds);
+
+    /**
+     * Gets the seats held for satisfied subscribers. The {@link se325.flights.service.booking.BookingCommitter} claims
+     * each booking's seats from these in the transaction which makes the booking.
+     */
+    public SeatHolds getSeatHolds() {
+        return holds;
+    }
+
+    private void startExecutor() {
+        executor = SubscriptionExecutor.fromConfig(this::processSubscriptionsNow);
+        Metrics.register("SubscriptionExecutor", executor);
+    }
 
     /**
      * Adds the given subscription to the collection of ongoing subs.
@@ -46,50 +109,298 @@ public class SubscriptionManager {
      *                cabin class of those seats (if any), and the user who made the request
      * @param sub     the {@link AsyncResponse} object that will eventually be used to send the response back to the
      *                client
+     * @return the new subscription
+     */
+    public Subscription addSubscription(AvailableSeatsSubscriptionDTO subInfo, AsyncResponse sub) {
+        Subscription subscription = createSubscription(subInfo);
+        subscription.attach(sub);
+        return subscription;
+    }
+
+    /**
+     * Saves the given subscription to the database and adds it to the collection of ongoing subs, without attaching a
+     * client to it. A client can attach to it later using {@link #attach(long, AsyncResponse)}.
+     *
+     * @param subInfo info about the flight for which seats are required, the number of required seats, the required
+     *                cabin class of those seats (if any), and the user who made the request
+     * @return the new subscription
      */
-    public void addSubscription(AvailableSeatsSubscriptionDTO subInfo, AsyncResponse sub) {
-        this.subs.put(subInfo, sub);
+    public Subscription createSubscription(AvailableSeatsSubscriptionDTO subInfo) {
+        SeatSubscription entity = new SeatSubscription(
+                subInfo.getFlightId(), subInfo.getCabinClass(), subInfo.getNumSeats(), subInfo.getUserId());
+
+        RequestEntityManager.run(em -> {
+            try {
+                em.getTransaction().begin();
+                em.persist(entity);
+                em.getTransaction().commit();
+            } finally {
+                if (em.getTransaction().isActive()) {
+                    em.getTransaction().rollback();
+                }
+            }
+        });
+
+        Subscription subscription = new Subscription(entity.getId(), subInfo);
+        index(subscription);
+        return subscription;
+    }
+
+    /**
+     * Adds a subscription for seats on any flight along a route, within a range of departure dates. If a flight
+     * already has the required seats available, the client is notified straight away. Route subscriptions aren't
+     * persisted.
+     *
+     * @param subInfo the route, dates, cabin class and number of seats required, and the user who made the request
+     * @param sub     the {@link AsyncResponse} object that will eventually be used to send a hold on seats on the
+     *                matching flight back to the client
+     * @throws javax.ws.rs.BadRequestException if the number of seats isn't positive, or the dates are invalid
+     * @throws javax.ws.rs.NotFoundException   if the origin or destination airport doesn't exist
+     */
+    public void addRouteSubscription(RouteSeatsSubscriptionDTO subInfo, AsyncResponse sub) {
+        RequestEntityManager.run(em -> routeSubs.add(subInfo, sub, em));
+    }
+
+    /**
+     * Gets the subscription with the given id.
+     *
+     * @param subscriptionId the id of the subscription to get
+     * @return the subscription, or null if there's no such outstanding subscription
+     */
+    public Subscription getSubscription(long subscriptionId) {
+        return subsById.get(subscriptionId);
+    }
+
+    /**
+     * Attaches a client to the subscription with the given id, and processes the subscription's flight straight away,
+     * in case seats have become available while no client was attached. If the subscription isn't satisfied within
+     * "subscriptions.wait-timeout-ms" (see {@link Config}), the client is detached and receives a 503 Service
+     * Unavailable response; the subscription itself remains.
+     *
+     * @param subscriptionId the id of the subscription to attach to
+     * @param sub            the {@link AsyncResponse} object that will eventually be used to send the response back to
+     *                       the client
+     * @return false if there's no such outstanding subscription, true otherwise
+     */
+    public boolean attach(long subscriptionId, AsyncResponse sub) {
+        Subscription subscription = subsById.get(subscriptionId);
+        if (subscription == null) {
+            return false;
+        }
+        sub.setTimeout(waitTimeoutMillis, TimeUnit.MILLISECONDS);
+        sub.setTimeoutHandler(response -> {
+            // If it's being processed, it's either resumed with a hold, or dropped rather than restored afterwards
+            if (subscription.detach(response)) {
+                response.cancel();
+            }
+        });
+        subscription.attach(sub);
+        processSubscriptions(subscription.getInfo().getFlightId());
+        return true;
+    }
+
+    /**
+     * Removes the subscription with the given id, both from memory and from the database. Any attached client is
+     * cancelled.
+     *
+     * @param subscriptionId the id of the subscription to remove
+     * @return false if there's no such outstanding subscription, true otherwise
+     */
+    public boolean removeSubscription(long subscriptionId) {
+        Subscription subscription = subsById.get(subscriptionId);
+        if (subscription == null) {
+            return false;
+        }
+        AsyncResponse sub = subscription.detach();
+        if (sub != null) {
+            sub.cancel();
+        }
+
+        RequestEntityManager.run(em -> delete(subscription, em));
+        return true;
+    }
+
+    /**
+     * Drops everything held in memory for the given flights, once they've been archived: their subscriptions (whose
+     * rows are deleted along with the flights, as are their seat holds) and cached route-days. Clients waiting on one of the
+     * subscriptions receive a 404 Not Found response, as they would if the flight were looked up.
+     *
+     * @param flightIds the ids of the archived flights
+     */
+    public void evictFlights(Collection<Long> flightIds) {
+        for (long flightId : flightIds) {
+            Map<Long, Subscription> flightSubs = subsByFlight.remove(flightId);
+            if (flightSubs != null) {
+                for (Subscription subscription : flightSubs.values()) {
+                    subsById.remove(subscription.getId());
+                    AsyncResponse sub = subscription.detach();
+                    if (sub != null) {
+                        sub.resume(Response.status(Response.Status.NOT_FOUND).build());
+                    }
+                }
+            }
+            routeSubs.forgetFlight(flightId);
+        }
     }
 
     /**
      * Runs through all subscriptions pertaining to the flight with the given id, and processes them. This is done on a
      * different Thread.
+     * <p>
+     * Bookings and cancellations shouldn't call this directly, but should record the change with the
+     * {@link se325.flights.service.events.OutboxDispatcher}, which calls this method on every service instance once the
+     * change has committed.
      *
      * @param flightId the id of the flight whose subs should be processed
      */
     public void processSubscriptions(final long flightId) {
-        threadPool.submit(() -> {
-            final EntityManager em = PersistenceManager.instance().createEntityManager();
-            try {
+        executor.submit(flightId);
+    }
+
+    /**
+     * Runs through all subscriptions pertaining to the flight with the given id, and processes them, on the calling
+     * Thread. Subscriptions with no client attached are skipped; they'll be processed when a client attaches. Route
+     * subscriptions covering the flight's route and departure date are processed too.
+     *
+     * @param flightId the id of the flight whose subs should be processed
+     */
+    private void processSubscriptionsNow(final long flightId) {
+        Map<Long, Subscription> flightSubs = subsByFlight.get(flightId);
+        if ((flightSubs == null || flightSubs.isEmpty()) && routeSubs.isEmpty()) {
+            return;
+        }
 
-                // Find all subscriptions for the given flight
-                List<Map.Entry<AvailableSeatsSubscriptionDTO, AsyncResponse>> subsToProcess = subs.entrySet().stream()
-                        .filter(entry -> flightId == entry.getKey().getFlightId())
-                        .collect(Collectors.toList());
+        final EntityManager em = PersistenceManager.instance().createEntityManager();
+        try {
 
-                // For each of those subscriptions, process them. If they were successfully processed, remove them
-                // from the collection, so they won't be processed again.
-                subsToProcess.forEach(entry -> {
-                    if (processSingleSubscription(entry.getKey(), entry.getValue(), em)) {
-                        subs.remove(entry.getKey());
+            // For each subscription, process it. If it was successfully processed, remove it from the collection,
+            // so it won't be processed again.
+            if (flightSubs != null) {
+                for (Subscription subscription : new ArrayList<>(flightSubs.values())) {
+                    AsyncResponse sub = subscription.detach();
+                    if (sub == null) {
+                        continue;
                     }
-                });
-            } finally {
-                em.close();
+                    if (processSingleSubscription(subscription.getInfo(), sub, em)) {
+                        delete(subscription, em);
+                    } else {
+                        subscription.restore(sub);
+                    }
+                }
             }
+
+            routeSubs.process(flightId, em);
+        } finally {
+            em.close();
+        }
+    }
+
+    /**
+     * Rebuilds the in-memory index of subscriptions from the database. The rows are streamed as scalar projections, so
+     * that no entities are loaded into the persistence context, and memory use doesn't depend on the number of rows.
+     */
+    private void reload() {
+        EntityManager em = PersistenceManager.instance().createEntityManager();
+        long start = System.currentTimeMillis();
+        try (Stream<Object[]> rows = em.createQuery(
+                        "SELECT s.id, s.flightId, s.cabinClass, s.numSeats, s.userId FROM SeatSubscription s",
+                        Object[].class)
+                .setHint("org.hibernate.fetchSize", RELOAD_FETCH_SIZE)
+                .setHint("org.hibernate.readOnly", true)
+                .getResultStream()) {
+
+            rows.forEach(row -> {
+                AvailableSeatsSubscriptionDTO info = new AvailableSeatsSubscriptionDTO(
+                        (Long) row[1], (CabinClass) row[2], (Integer) row[3]);
+                info.setUserId((Long) row[4]);
+                index(new Subscription((Long) row[0], info));
+            });
+        } finally {
+            em.close();
+        }
+        LOGGER.info("Reloaded {} subscriptions in {} ms", subsById.size(), System.currentTimeMillis() - start);
+    }
+
+    private void index(Subscription subscription) {
+        subsById.put(subscription.getId(), subscription);
+        subsByFlight.computeIfAbsent(subscription.getInfo().getFlightId(), id -> new ConcurrentSkipListMap<>())
+                .put(subscription.getId(), subscription);
+    }
+
+    private void unindex(Subscription subscription) {
+        subsById.remove(subscription.getId());
+        subsByFlight.computeIfPresent(subscription.getInfo().getFlightId(), (id, flightSubs) -> {
+            flightSubs.remove(subscription.getId());
+            return flightSubs.isEmpty() ? null : flightSubs;
         });
     }
 
+    /**
+     * Removes the given subscription from memory and deletes its row, without loading it as an entity.
+     */
+    private void delete(Subscription subscription, EntityManager em) {
+        unindex(subscription);
+        try {
+            em.getTransaction().begin();
+            em.createQuery("DELETE FROM SeatSubscription s WHERE s.id = :id")
+                    .setParameter("id", subscription.getId())
+                    .executeUpdate();
+            em.getTransaction().commit();
+        } finally {
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+        }
+    }
+
+    /**
+     * Detaches all clients and restarts the executor. Any processing which is already underway is allowed to finish
+     * first, so that it doesn't run against a database which is being reset. Clients waiting on a subscription receive
+     * a 503 Service Unavailable response. The in-memory index is cleared, since the database reset removes the rows
+     * it was built from.
+     */
+    public void reset() {
+        executor.shutdown(5, TimeUnit.SECONDS);
+        cancelAll(subsById.values());
+        subsById.clear();
+        subsByFlight.clear();
+        routeSubs.clear();
+        startExecutor();
+    }
+
+    /**
+     * Stops processing subscriptions, and detaches all clients. Called when the application is undeployed. The
+     * subscriptions themselves remain in the database, to be reloaded when the application next starts.
+     */
+    public void shutdown() {
+        executor.shutdown(5, TimeUnit.SECONDS);
+        cancelAll(subsById.values());
+        routeSubs.clear();
+        holds.shutdown();
+        Metrics.unregister("SubscriptionExecutor");
+    }
+
+    private void cancelAll(Collection<Subscription> subscriptions) {
+        for (Subscription subscription : subscriptions) {
+            AsyncResponse sub = subscription.detach();
+            if (sub != null) {
+                sub.cancel();
+            }
+        }
+    }
+
     /**
      * Processes a single subscription. Search for that subscription's flight and check how many seats it has of the
      * given cabin class.
      * <p>
      * If the flight doesn't exist, resumes the AsyncResponse with a 404 response, and returns true
      * <p>
-     * If the flight contains at least the required number of unbooked seats of the required cabin class (or any cabin
-     * class if the provided class is null), resumes the AsyncResponse with a 204 No Content response, and returns true
+     * If the flight contains at least the required number of unbooked, unheld seats of the required cabin class (or any
+     * cabin class if the provided class is null), holds those seats for the subscriber, resumes the AsyncResponse with a
+     * 200 OK response containing the {@link SeatHoldDTO}, and returns true
      * <p>
-     * Otherwise, returns false.
+     * Otherwise, returns false. If the client has gone away by the time it's resumed, the hold is released and false
+     * is returned.
      *
      * @param subInfo the subscription to process
      * @param sub     the {@link AsyncResponse} to use to send a response back to the client
@@ -98,8 +409,20 @@ public class SubscriptionManager {
      * false otherwise.
      */
     public boolean processSingleSubscription(AvailableSeatsSubscriptionDTO subInfo, AsyncResponse sub, EntityManager em) {
+        Flight flight = em.find(Flight.class, subInfo.getFlightId());
+        if (flight == null) {
+            sub.resume(Response.status(Response.Status.NOT_FOUND).build());
+            return true;
+        }
 
-        // TODO: Implement this method
-        return false;
+        SeatHoldDTO hold = holds.grant(em, flight, subInfo.getCabinClass(), subInfo.getNumSeats(), subInfo.getUserId());
+        if (hold == null) {
+            return false;
+        }
+        if (!sub.resume(Response.ok(hold).build())) {
+            holds.release(em, flight.getId(), subInfo.getUserId(), hold.getSeatCodes());
+            return false;
+        }
+        return true;
     }
 }
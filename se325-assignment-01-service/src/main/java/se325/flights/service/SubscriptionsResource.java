@@ -0,0 +1,116 @@
+package se325.flights.service;
+
+import se325.flights.domain.Flight;
+import se325.flights.dto.AvailableSeatsSubscriptionDTO;
+import se325.flights.dto.RouteSeatsSubscriptionDTO;
+import se325.flights.service.auth.UserPrincipal;
+
+import javax.ws.rs.*;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.*;
+import java.net.URI;
+
+/**
+ * A JAX-RS Resource class for durable seat subscriptions. Unlike a subscription made by a single long-poll request,
+ * a subscription created here outlives the request that created it (and restarts of the service). Clients wait for
+ * it to be satisfied with GET /subscriptions/{id}/wait, and can re-attach with the same request if they're
+ * disconnected.
+ */
+@Path("/subscriptions")
+public class SubscriptionsResource {
+
+    @Context
+    private UriInfo uriInfo;
+
+    /**
+     * Creates a new durable subscription for the authenticated user.
+     *
+     * @return a 201 Created response whose Location points at the new subscription, 404 Not Found if the flight
+     * doesn't exist, or 401 Unauthorized if the user isn't authenticated.
+     */
+    @POST
+    @Consumes(MediaType.APPLICATION_JSON)
+    public Response createSubscription(AvailableSeatsSubscriptionDTO subInfo,
+                                       @Context SecurityContext securityContext) {
+        UserPrincipal user = UserPrincipal.of(securityContext);
+        Flight flight = RequestEntityManager.get().find(Flight.class, subInfo.getFlightId());
+        if (flight == null) {
+            throw new NotFoundException();
+        }
+
+        subInfo.setUserId(user.getUserId());
+        Subscription subscription = SubscriptionManager.instance().createSubscription(subInfo);
+
+        URI location = uriInfo.getAbsolutePathBuilder().path(Long.toString(subscription.getId())).build();
+        return Response.created(location).build();
+    }
+
+    /**
+     * Waits for any flight along the given route, departing within the given range of dates, to have the required seats
+     * available. Those seats are then held for the user for a short time, and the response contains the hold, including
+     * the matching flight's id. If several flights match, seats are only held on one of them.
+     *
+     * @return (eventually) a 200 OK response containing a {@link se325.flights.dto.SeatHoldDTO}, 400 Bad Request if the
+     * number of seats isn't positive or the dates are invalid,
+     * 404 Not Found if either airport doesn't exist, 401 Unauthorized if the user isn't authenticated, or 503 Service
+     * Unavailable if no seats became available before the subscription timed out.
+     */
+    @POST
+    @Path("/route")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public void subscribeToRoute(RouteSeatsSubscriptionDTO subInfo,
+                                 @Context SecurityContext securityContext,
+                                 @Suspended AsyncResponse sub) {
+        subInfo.setUserId(UserPrincipal.of(securityContext).getUserId());
+        SubscriptionManager.instance().addRouteSubscription(subInfo, sub);
+    }
+
+    /**
+     * Waits for the given subscription to be satisfied. If the required seats are already available, the response is
+     * sent immediately. Waiting again on a subscription replaces the previous waiting request.
+     * <p>
+     * The response is a 200 OK containing a {@link se325.flights.dto.SeatHoldDTO}: the seats listed in it are held for
+     * the user until the hold expires. If the subscription isn't satisfied in time, the response is a 503 Service
+     * Unavailable, and the client may wait again.
+     */
+    @GET
+    @Path("/{id}/wait")
+    public void waitForSubscription(@PathParam("id") long subscriptionId,
+                                    @Context SecurityContext securityContext,
+                                    @Suspended AsyncResponse sub) {
+        getOwnSubscription(subscriptionId, securityContext);
+        if (!SubscriptionManager.instance().attach(subscriptionId, sub)) {
+            sub.resume(new NotFoundException());
+        }
+    }
+
+    /**
+     * Removes the given subscription.
+     */
+    @DELETE
+    @Path("/{id}")
+    public void deleteSubscription(@PathParam("id") long subscriptionId,
+                                   @Context SecurityContext securityContext) {
+        getOwnSubscription(subscriptionId, securityContext);
+        if (!SubscriptionManager.instance().removeSubscription(subscriptionId)) {
+            throw new NotFoundException();
+        }
+    }
+
+    /**
+     * Gets the subscription with the given id, making sure that it belongs to the authenticated user.
+     *
+     * @throws NotFoundException      if there's no such subscription, or it belongs to another user
+     * @throws NotAuthorizedException if the user isn't authenticated
+     */
+    private Subscription getOwnSubscription(long subscriptionId, SecurityContext securityContext) {
+        UserPrincipal user = UserPrincipal.of(securityContext);
+        Subscription subscription = SubscriptionManager.instance().getSubscription(subscriptionId);
+        if (subscription == null || !Long.valueOf(user.getUserId()).equals(subscription.getInfo().getUserId())) {
+            throw new NotFoundException();
+        }
+        return subscription;
+    }
+}
@@ -1,19 +1,44 @@
 package se325.flights.service;
 
+import se325.flights.service.auth.PrincipalCache;
+import se325.flights.service.auth.SessionStore;
+import se325.flights.service.auth.TokenRevocations;
+import se325.flights.service.journal.BookingJournal;
+
+import se325.flights.service.db.TestSchemas;
+
 import javax.ws.rs.DELETE;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.Path;
 
 /**
  * A Jax-RS resource only for testing purposes. When this resource's single method is called, it will reset the
- * persistence context which, according to the config in persistence.xml, will cause the database to be deleted and
- * re-created. This allows us to start each unit / integration test with the same data.
+ * database to the data in db-init.sql - by default from a snapshot, in milliseconds, rather than by deleting and
+ * re-creating it (see {@link PersistenceManager#reset()}). Any outstanding seat subscriptions are dropped too, the
+ * second-level and query caches are emptied, and the booking journal is started afresh. This allows us to start each
+ * unit / integration test with the same data. The background components are stopped while this happens, and started
+ * again afterwards (see {@link ServiceLifecycle}).
+ * <p>
+ * A request with a {@link TestSchemas#HEADER} header only resets that test schema, leaving the default schema and
+ * everything else alone for the tests working in other schemas.
  */
 @Path("/test")
 public class TestResource {
 
     @Path("/reset-db")
     @DELETE
-    public void resetDatabase() {
-        PersistenceManager.instance().reset();
+    public void resetDatabase(@HeaderParam(TestSchemas.HEADER) String testSchema) {
+        if (testSchema != null && TestSchemas.isEnabled()) {
+            PersistenceManager.instance().resetTestSchema(TestSchemas.schemaFor(testSchema));
+            return;
+        }
+        ServiceLifecycle.instance().restart(() -> {
+            SubscriptionManager.instance().reset();
+            PersistenceManager.instance().reset();
+            BookingJournal.instance().reset();
+            PrincipalCache.instance().clear();
+            TokenRevocations.instance().clear();
+            SessionStore.instance().clear();
+        });
     }
 }
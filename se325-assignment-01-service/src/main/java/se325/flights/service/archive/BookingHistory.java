@@ -0,0 +1,30 @@
+package se325.flights.service.archive;
+
+import se325.flights.domain.ArchivedFlightBooking;
+import se325.flights.domain.mappers.BookingMapper;
+import se325.flights.dto.FlightBookingDTO;
+
+import javax.persistence.EntityManager;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Reads users' archived bookings (see {@link FlightArchiver}). This is a separate, slower path from reading current
+ * bookings, for requests which ask for a user's booking history as well: the archive tables aren't cached, and keep
+ * growing.
+ */
+public class BookingHistory {
+
+    /**
+     * Gets the given user's archived bookings, ordered by departure time.
+     */
+    public static List<FlightBookingDTO> findArchivedBookings(EntityManager em, long userId) {
+        return em.createNamedQuery("ArchivedFlightBooking.findByUser", ArchivedFlightBooking.class)
+                .setParameter("userId", userId)
+                .setHint("org.hibernate.readOnly", true)
+                .getResultList()
+                .stream()
+                .map(BookingMapper::toDTO)
+                .collect(Collectors.toList());
+    }
+}
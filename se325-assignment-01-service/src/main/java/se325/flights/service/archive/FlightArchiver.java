@@ -0,0 +1,274 @@
+package se325.flights.service.archive;
+
+import org.hibernate.query.NativeQuery;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se325.flights.domain.ArchivedFlight;
+import se325.flights.domain.ArchivedFlightBooking;
+import se325.flights.domain.Flight;
+import se325.flights.domain.FlightBooking;
+import se325.flights.domain.mappers.FlightMapper;
+import se325.flights.service.PersistenceManager;
+import se325.flights.service.SubscriptionManager;
+import se325.flights.service.journal.BookingJournal;
+import se325.flights.util.Config;
+import se325.flights.util.Metrics;
+
+import javax.persistence.EntityManager;
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Moves flights which departed more than "archive.after-days" days ago (see {@link Config}), along with their bookings
+ * and booked seats, out of the tables which searches and bookings use and into archive tables ({@link ArchivedFlight}
+ * and {@link ArchivedFlightBooking}). Users' archived bookings can still be read through {@link BookingHistory}.
+ * <p>
+ * Flights are archived in batches of "archive.batch-size", each batch copied and deleted in its own transaction with
+ * bulk INSERT ... SELECT and DELETE statements, so that no entities are loaded and locks are only held briefly. The
+ * archived flights' seat pricings, subscriptions and seat holds are deleted; in-memory subscriptions and cached DTOs
+ * for them are evicted from this instance, and their seats are dropped from the {@link BookingJournal}.
+ * <p>
+ * Archiving runs every "archive.interval-ms", and is off unless that's set.
+ * <p>
+ * Singleton so that every run is counted in the same metrics, and runs never overlap.
+ */
+public class FlightArchiver implements FlightArchiverMXBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FlightArchiver.class);
+
+    private static final String[] ARCHIVE_STATEMENTS = {
+            "INSERT INTO FLIGHT_ARCHIVE " +
+                    "(id, name, departureTime, arrivalTime, aircraftType_id, origin_id, destination_id) " +
+                    "SELECT id, name, departureTime, arrivalTime, aircraftType_id, origin_id, destination_id " +
+                    "FROM Flight WHERE id IN (:ids)",
+            "INSERT INTO FLIGHTBOOKING_ARCHIVE (id, flight_id, user_id) " +
+                    "SELECT id, flight_id, user_id FROM FlightBooking WHERE flight_id IN (:ids)",
+            "INSERT INTO FLIGHTBOOKING_SEATS_ARCHIVE (FLIGHTBOOKING_ID, FLIGHT_ID, rowNumber, letterCode, price) " +
+                    "SELECT FLIGHTBOOKING_ID, FLIGHT_ID, rowNumber, letterCode, price " +
+                    "FROM FLIGHTBOOKING_SEATS WHERE FLIGHT_ID IN (:ids)",
+            "DELETE FROM FLIGHTBOOKING_SEATS WHERE FLIGHT_ID IN (:ids)",
+            "DELETE FROM FlightBooking WHERE flight_id IN (:ids)",
+            "DELETE FROM Flight_seatPricings WHERE Flight_id IN (:ids)",
+            "DELETE FROM SEAT_SUBSCRIPTION WHERE flightId IN (:ids)",
+            "DELETE FROM SEAT_HOLD WHERE flightId IN (:ids)",
+            "DELETE FROM Flight WHERE id IN (:ids)"
+    };
+
+    /**
+     * The index in {@link #ARCHIVE_STATEMENTS} of the statement which copies the bookings
+     */
+    private static final int COPY_BOOKINGS = 1;
+
+    private static class Holder {
+        private static final FlightArchiver INSTANCE = new FlightArchiver(
+                Config.getLong("archive.interval-ms", 0),
+                Config.getInt("archive.after-days", 30),
+                Config.getInt("archive.batch-size", 100));
+
+        static {
+            Metrics.register("FlightArchiver", INSTANCE);
+        }
+    }
+
+    public static FlightArchiver instance() {
+        return Holder.INSTANCE;
+    }
+
+    private final long intervalMillis;
+    private final int afterDays;
+    private final int batchSize;
+
+    private final AtomicLong flightsArchived = new AtomicLong();
+    private final AtomicLong bookingsArchived = new AtomicLong();
+    private final AtomicLong runs = new AtomicLong();
+    private final AtomicLong failedRuns = new AtomicLong();
+    private volatile long lastRunMillis;
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Creates an archiver, and starts it if intervalMillis is positive.
+     *
+     * @param intervalMillis the time between runs, or 0 to only archive when asked
+     * @param afterDays      the number of days after departure at which flights are archived
+     * @param batchSize      the number of flights to archive per transaction
+     */
+    public FlightArchiver(long intervalMillis, int afterDays, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1");
+        }
+        this.intervalMillis = intervalMillis;
+        this.afterDays = afterDays;
+        this.batchSize = batchSize;
+        start();
+    }
+
+    /**
+     * Starts archiving on a schedule. Called when this object is created, and after the database has been reset.
+     */
+    public synchronized void start() {
+        if (scheduler != null || intervalMillis <= 0) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "flight-archiver");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::archiveSafely, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops archiving on a schedule, waiting for a run which is underway to finish its current batch.
+     */
+    public void stop() {
+        ScheduledExecutorService scheduler;
+        synchronized (this) {
+            scheduler = this.scheduler;
+            this.scheduler = null;
+        }
+        if (scheduler == null) {
+            return;
+        }
+        scheduler.shutdownNow();
+        try {
+            scheduler.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public int archiveNow() {
+        return archiveDepartedBefore(ZonedDateTime.now(ZoneOffset.UTC).minusDays(afterDays));
+    }
+
+    /**
+     * Archives every flight which departed before the given time, a batch at a time. Stops early if the calling thread
+     * is interrupted; batches already archived stay archived.
+     *
+     * @return the number of flights archived
+     */
+    public synchronized int archiveDepartedBefore(ZonedDateTime cutoff) {
+        long start = System.nanoTime();
+        int archived = 0;
+        try {
+            EntityManager em = PersistenceManager.instance().createEntityManager();
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    List<Long> flightIds = em.createNamedQuery("Flight.findIdsDepartedBefore", Long.class)
+                            .setParameter("cutoff", cutoff)
+                            .setMaxResults(batchSize)
+                            .getResultList();
+                    if (flightIds.isEmpty()) {
+                        break;
+                    }
+                    archiveBatch(em, flightIds);
+                    archived += flightIds.size();
+                }
+            } finally {
+                em.close();
+            }
+            runs.incrementAndGet();
+        } catch (RuntimeException e) {
+            failedRuns.incrementAndGet();
+            throw e;
+        } finally {
+            lastRunMillis = Duration.ofNanos(System.nanoTime() - start).toMillis();
+        }
+        if (archived > 0) {
+            LOGGER.info("Archived {} flights departed before {} in {} ms", archived, cutoff, lastRunMillis);
+        }
+        return archived;
+    }
+
+    private void archiveBatch(EntityManager em, List<Long> flightIds) {
+        int bookings = 0;
+        try {
+            em.getTransaction().begin();
+            for (int i = 0; i < ARCHIVE_STATEMENTS.length; i++) {
+                // Naming the entities the statement affects stops Hibernate from emptying every cache region
+                int rows = em.createNativeQuery(ARCHIVE_STATEMENTS[i])
+                        .unwrap(NativeQuery.class)
+                        .addSynchronizedEntityClass(Flight.class)
+                        .addSynchronizedEntityClass(FlightBooking.class)
+                        .addSynchronizedEntityClass(ArchivedFlight.class)
+                        .addSynchronizedEntityClass(ArchivedFlightBooking.class)
+                        .setParameter("ids", flightIds)
+                        .executeUpdate();
+                if (i == COPY_BOOKINGS) {
+                    bookings = rows;
+                }
+            }
+            em.getTransaction().commit();
+        } finally {
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+            em.clear();
+        }
+        flightsArchived.addAndGet(flightIds.size());
+        bookingsArchived.addAndGet(bookings);
+        evict(flightIds);
+        try {
+            BookingJournal.instance().recordArchival(flightIds);
+        } catch (RuntimeException e) {
+            // The flights are archived; the journal drops their seats from the database when it's next opened
+            LOGGER.warn("Failed to journal {} archived flights", flightIds.size(), e);
+        }
+    }
+
+    /**
+     * Drops the archived flights' cached DTOs and in-memory subscriptions. Flights aren't in the second-level cache, and
+     * the archive statements name the entities they affect, so Hibernate has already invalidated the cached queries
+     * over them.
+     */
+    private static void evict(List<Long> flightIds) {
+        FlightMapper.evict(flightIds);
+        SubscriptionManager.instance().evictFlights(flightIds);
+    }
+
+    private void archiveSafely() {
+        try {
+            archiveNow();
+        } catch (RuntimeException e) {
+            LOGGER.warn("Failed to archive departed flights", e);
+        }
+    }
+
+    @Override
+    public int getAfterDays() {
+        return afterDays;
+    }
+
+    @Override
+    public long getFlightsArchived() {
+        return flightsArchived.get();
+    }
+
+    @Override
+    public long getBookingsArchived() {
+        return bookingsArchived.get();
+    }
+
+    @Override
+    public long getRuns() {
+        return runs.get();
+    }
+
+    @Override
+    public long getFailedRuns() {
+        return failedRuns.get();
+    }
+
+    @Override
+    public long getLastRunMillis() {
+        return lastRunMillis;
+    }
+}
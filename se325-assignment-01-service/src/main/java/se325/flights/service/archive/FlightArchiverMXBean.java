@@ -0,0 +1,32 @@
+package se325.flights.service.archive;
+
+/**
+ * Metrics and operations exported through JMX by {@link FlightArchiver}.
+ */
+public interface FlightArchiverMXBean {
+
+    /**
+     * Gets the number of days after departure at which flights are archived.
+     */
+    int getAfterDays();
+
+    long getFlightsArchived();
+
+    long getBookingsArchived();
+
+    long getRuns();
+
+    long getFailedRuns();
+
+    /**
+     * Gets the duration of the last run, in milliseconds.
+     */
+    long getLastRunMillis();
+
+    /**
+     * Archives every flight which is due, without waiting for the next scheduled run.
+     *
+     * @return the number of flights archived
+     */
+    int archiveNow();
+}
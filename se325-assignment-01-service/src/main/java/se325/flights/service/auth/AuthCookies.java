@@ -0,0 +1,66 @@
+package se325.flights.service.auth;
+
+import se325.flights.domain.User;
+import se325.flights.util.SecurityUtils;
+
+import javax.persistence.EntityManager;
+import javax.ws.rs.NotAuthorizedException;
+import javax.ws.rs.core.Cookie;
+import javax.ws.rs.core.NewCookie;
+import javax.ws.rs.core.Response;
+
+/**
+ * Auth cookie operations for resource classes which need more than the {@link UserPrincipal} set by the
+ * {@link AuthenticationFilter}, keeping the {@link PrincipalCache} consistent with the tokens that are issued.
+ */
+public class AuthCookies {
+
+    /**
+     * Creates an auth cookie carrying the user's single uuid, like
+     * {@link SecurityUtils#generateAuthCookie(String, String)}, and drops the user's previous token from the cache, since
+     * it's being rotated out and mustn't be accepted from the cache.
+     *
+     * @param username the username of the authenticated user
+     * @param uuid     a random string which should also be saved to the user's "uuid" field in the database.
+     */
+    public static NewCookie generateAuthCookie(String username, String uuid) {
+        PrincipalCache.instance().invalidateUser(username);
+        return SecurityUtils.generateAuthCookie(username, uuid);
+    }
+
+    /**
+     * Gets the {@link User} object with the given auth cookie. The cookie's value should be a valid JWT which was
+     * originally created with one of the {@link SecurityUtils} createJWT methods. The token is verified (or found in the
+     * {@link PrincipalCache}) by {@link AuthenticationFilter#authenticate(Cookie)}, and the user then loaded by id.
+     * <p>
+     * Resource methods which only need the user's id or username should use the {@link UserPrincipal} set by the
+     * {@link AuthenticationFilter} instead, which doesn't need an entity manager.
+     * <p>
+     * The entity manager's transaction, if any, is left for the caller to commit or roll back.
+     *
+     * @param em         the entity manager to use to load the user
+     * @param authCookie the auth cookie to check
+     * @return the {@link User} whose username and uuid in the database match the username and uuid claims in
+     * the cookie's valid JWT.
+     * @throws NotAuthorizedException if there's no such user or the cookie doesn't contain a valid JWT.
+     */
+    public static User getUserWithAuthCookie(EntityManager em, Cookie authCookie) throws NotAuthorizedException {
+
+        // Check for non-null auth cookie
+        if (authCookie == null) {
+            throw new NotAuthorizedException(Response.status(401, "Not authenticated").build());
+        }
+
+        UserPrincipal principal = AuthenticationFilter.authenticate(authCookie);
+        if (principal == null) {
+            throw new NotAuthorizedException(Response.status(401, "Not authenticated").build());
+        }
+
+        User user = em.find(User.class, principal.getUserId());
+        if (user == null) {
+            PrincipalCache.instance().invalidate(authCookie.getValue());
+            throw new NotAuthorizedException(Response.status(401, "Not authenticated").build());
+        }
+        return user;
+    }
+}
@@ -0,0 +1,250 @@
+package se325.flights.service.auth;
+
+import com.auth0.jwt.exceptions.JWTVerificationException;
+import com.auth0.jwt.interfaces.DecodedJWT;
+import se325.flights.domain.UserSession;
+import se325.flights.service.RequestEntityManager;
+import se325.flights.util.Config;
+import se325.flights.util.SecurityUtils;
+
+import javax.annotation.Priority;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityTransaction;
+import javax.ws.rs.NotAuthorizedException;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.core.Cookie;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.SecurityContext;
+import javax.ws.rs.ext.Provider;
+import java.security.Principal;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Authenticates each request once, before it reaches a resource method. If the request carries a valid auth cookie,
+ * its user is exposed as a {@link UserPrincipal} through the request's {@link SecurityContext}; resource methods that
+ * require authentication get it with {@link UserPrincipal#of(SecurityContext)}. Requests without a valid cookie are let
+ * through unauthenticated, since not every endpoint requires authentication.
+ * <p>
+ * Verified tokens are kept in the {@link PrincipalCache}, so only the first request with a given token pays for
+ * checking its signature and looking up its user. That lookup uses the request's {@link RequestEntityManager}, which
+ * the resource method then shares.
+ * <p>
+ * How a token is first verified depends on the "auth.mode" setting (see {@link se325.flights.util.Config}):
+ * <ul>
+ *     <li>database (default) - the token's session is looked up in the {@link SessionStore}</li>
+ *     <li>stateless - the token's signature is trusted, without looking its user up. Tokens which don't carry a user
+ *     id (see {@link SecurityUtils#generateAuthCookie(String, String)}) are checked against the database
+ *     instead</li>
+ * </ul>
+ * In either mode, every request's token is checked against the {@link TokenRevocations}, so that a token revoked on
+ * another instance isn't accepted from this instance's cache.
+ */
+@Provider
+@Priority(Priorities.AUTHENTICATION)
+public class AuthenticationFilter implements ContainerRequestFilter {
+
+    public enum Mode {
+        DATABASE, STATELESS
+    }
+
+    private static final Mode MODE = Config.getEnum("auth.mode", Mode.class, Mode.DATABASE);
+
+    @Override
+    public void filter(ContainerRequestContext requestContext) {
+        Cookie authCookie = requestContext.getCookies().get(SecurityUtils.AUTH_COOKIE_NAME);
+        if (authCookie == null || authCookie.getValue() == null || authCookie.getValue().isEmpty()) {
+            return;
+        }
+
+        UserPrincipal principal = authenticate(authCookie);
+        if (principal != null) {
+            requestContext.setSecurityContext(
+                    new UserSecurityContext(principal, requestContext.getSecurityContext().isSecure()));
+        }
+    }
+
+    /**
+     * Gets the user authenticated by the given cookie, from the cache if possible.
+     *
+     * @return the user, or null if the cookie isn't valid, has expired, or has been revoked
+     */
+    public static UserPrincipal authenticate(Cookie authCookie) {
+        PrincipalCache cache = PrincipalCache.instance();
+        String token = authCookie.getValue();
+        UserPrincipal principal = cache.get(token);
+        if (principal == null) {
+            principal = verify(authCookie);
+            if (principal == null) {
+                return null;
+            }
+            cache.put(token, principal);
+        }
+
+        if (principal.isExpired() || TokenRevocations.instance().isRevoked(principal)) {
+            cache.invalidate(token);
+            return null;
+        }
+        if (principal.getTokenId() != null) {
+            SessionStore.instance().touch(principal.getTokenId());
+        }
+        return principal;
+    }
+
+    private static UserPrincipal verify(Cookie authCookie) {
+        UserPrincipal principal;
+        if (MODE == Mode.STATELESS) {
+            try {
+                principal = verifyStateless(authCookie.getValue());
+            } catch (NotAuthorizedException e) {
+                return null;
+            }
+            if (principal != null) {
+                return principal;
+            }
+        }
+
+        return RequestEntityManager.apply(em -> verify(em, authCookie));
+    }
+
+    /**
+     * Verifies the given cookie against the database. If the caller already has a transaction underway, the lookup is
+     * part of it; otherwise the lookup gets a transaction of its own.
+     */
+    private static UserPrincipal verify(EntityManager em, Cookie authCookie) {
+        EntityTransaction tx = em.getTransaction();
+        boolean ownTransaction = !tx.isActive();
+        try {
+            if (ownTransaction) {
+                tx.begin();
+            }
+            UserPrincipal principal = verifyAuthCookie(em, authCookie);
+            if (ownTransaction) {
+                tx.commit();
+            }
+            return principal;
+        } catch (NotAuthorizedException e) {
+            return null;
+        } finally {
+            if (ownTransaction && tx.isActive()) {
+                tx.rollback();
+            }
+        }
+    }
+
+    /**
+     * Verifies the given auth cookie, without consulting the {@link PrincipalCache}. The cookie's JWT is decoded with
+     * {@link SecurityUtils#decodeJWT(String)}, and its "uuid" claim looked up as a session id by primary key. Tokens
+     * created before sessions existed carry the user's single uuid instead, and are checked against the user's row by
+     * username and uuid.
+     *
+     * @param em         the entity manager to use to execute the database query
+     * @param authCookie the auth cookie to check
+     * @return the user whose username and uuid in the database match the claims in the cookie's valid JWT
+     * @throws NotAuthorizedException if there's no such user or the cookie doesn't contain a valid JWT.
+     */
+    private static UserPrincipal verifyAuthCookie(EntityManager em, Cookie authCookie) throws NotAuthorizedException {
+        DecodedJWT decodedJWT;
+        try {
+            decodedJWT = SecurityUtils.decodeJWT(authCookie.getValue());
+        } catch (JWTVerificationException e) {
+            throw new NotAuthorizedException(Response.status(401, "Not authenticated").build());
+        }
+
+        // Pull out username and uuid from JWT
+        String username = decodedJWT.getClaim("username").asString();
+        String uuid = decodedJWT.getClaim("uuid").asString();
+        if (uuid == null) {
+            throw new NotAuthorizedException(Response.status(401, "Not authenticated").build());
+        }
+
+        UserSession session = SessionStore.instance().findSession(em, uuid);
+        if (session != null) {
+            Long userId = decodedJWT.getClaim("userId").asLong();
+            if (userId != null && userId != session.getUserId()) {
+                throw new NotAuthorizedException(Response.status(401, "Not authenticated").build());
+            }
+            return toPrincipal(session.getUserId(), decodedJWT);
+        }
+
+        List<Long> ids = em.createNamedQuery("User.findIdByUsernameAndUuid", Long.class)
+                .setParameter("username", username)
+                .setParameter("uuid", uuid)
+                .getResultList();
+        if (ids.size() != 1) {
+            throw new NotAuthorizedException(Response.status(401, "Not authenticated").build());
+        }
+        return toPrincipal(ids.get(0), decodedJWT);
+    }
+
+    /**
+     * Verifies the given encoded JWT by its signature alone, trusting its claims without checking them against the
+     * database. Only tokens created by {@link SecurityUtils#createJWT(long, String, String)} carry enough claims to be
+     * verified this way. Callers are responsible for checking that the token hasn't been revoked.
+     *
+     * @param token the encoded JWT
+     * @return the user identified by the token's claims, or null if the token doesn't carry a user id
+     * @throws NotAuthorizedException if the token is invalid, has been tampered with, or has expired
+     */
+    private static UserPrincipal verifyStateless(String token) throws NotAuthorizedException {
+        DecodedJWT decodedJWT;
+        try {
+            decodedJWT = SecurityUtils.decodeJWT(token);
+        } catch (JWTVerificationException e) {
+            throw new NotAuthorizedException(Response.status(401, "Not authenticated").build());
+        }
+
+        Long userId = decodedJWT.getClaim("userId").asLong();
+        if (userId == null || decodedJWT.getClaim("issuedAtMillis").isMissing()) {
+            return null;
+        }
+        return toPrincipal(userId, decodedJWT);
+    }
+
+    /**
+     * The standard "iat" claim only has a precision of seconds, which isn't enough to tell whether a token was issued
+     * just before or just after a revocation, so the issue time is also carried in milliseconds.
+     */
+    private static UserPrincipal toPrincipal(long userId, DecodedJWT decodedJWT) {
+        Long issuedAtMillis = decodedJWT.getClaim("issuedAtMillis").asLong();
+        Instant expiresAt = decodedJWT.getExpiresAtAsInstant();
+        return new UserPrincipal(userId,
+                decodedJWT.getClaim("username").asString(),
+                decodedJWT.getClaim("uuid").asString(),
+                issuedAtMillis == null ? 0 : issuedAtMillis,
+                expiresAt == null ? Long.MAX_VALUE : expiresAt.toEpochMilli());
+    }
+
+    private static class UserSecurityContext implements SecurityContext {
+
+        private final UserPrincipal principal;
+        private final boolean secure;
+
+        UserSecurityContext(UserPrincipal principal, boolean secure) {
+            this.principal = principal;
+            this.secure = secure;
+        }
+
+        @Override
+        public Principal getUserPrincipal() {
+            return principal;
+        }
+
+        @Override
+        public boolean isUserInRole(String role) {
+            return false;
+        }
+
+        @Override
+        public boolean isSecure() {
+            return secure;
+        }
+
+        @Override
+        public String getAuthenticationScheme() {
+            return "COOKIE";
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package se325.flights.service.auth;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-size, thread-safe Bloom filter of strings. {@link #mightContain(String)} never returns false for a string
+ * which has been added, but may return true for one which hasn't; it's used to rule out most lookups in an exact set
+ * without touching it. Strings can't be removed - to drop entries, build a new filter.
+ */
+public class BloomFilter {
+
+    private final AtomicLongArray words;
+    private final int numBits;
+    private final int numHashes;
+
+    /**
+     * @param numBits   the size of the filter, in bits
+     * @param numHashes the number of bits set for each string
+     */
+    public BloomFilter(int numBits, int numHashes) {
+        this.words = new AtomicLongArray((numBits + 63) / 64);
+        this.numBits = words.length() * 64;
+        this.numHashes = numHashes;
+    }
+
+    public void add(String value) {
+        long hash = hash64(value);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < numHashes; i++) {
+            int bit = Math.floorMod(h1 + i * h2, numBits);
+            long mask = 1L << bit;
+            int index = bit >>> 6;
+            long word;
+            do {
+                word = words.get(index);
+            } while ((word & mask) == 0 && !words.compareAndSet(index, word, word | mask));
+        }
+    }
+
+    public boolean mightContain(String value) {
+        long hash = hash64(value);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < numHashes; i++) {
+            int bit = Math.floorMod(h1 + i * h2, numBits);
+            if ((words.get(bit >>> 6) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 64-bit FNV-1a over the string's UTF-8 bytes, followed by a final mix so that both halves are well distributed.
+     * The two halves are used as the two base hashes for double hashing.
+     */
+    private static long hash64(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,224 @@
+package se325.flights.service.auth;
+
+import se325.flights.util.Config;
+import se325.flights.util.Metrics;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded cache of verified auth tokens, mapping each token to the user it authenticates. A token found here has
+ * already had its signature checked and its claims matched against the database, so a repeat request with the same
+ * token costs a single hash lookup.
+ * <p>
+ * Tokens are held in a {@link ConcurrentHashMap}, so looking one up takes no lock; each entry just records when it was
+ * last used. When the cache grows past its capacity, whichever thread added the entry that overflowed it evicts the
+ * least recently used sixteenth or so of the entries in one go, while other threads carry on - so eviction is only
+ * approximately least-recently-used, and the cache can briefly hold a few more entries than its capacity.
+ * <p>
+ * Entries must be invalidated whenever a token stops being valid, with {@link #invalidate(String)} or
+ * {@link #invalidateUser(String)}. Tokens are also indexed by username, so that invalidating a user's tokens doesn't
+ * scan the cache. The capacity is set with "auth.principal-cache-size" (see {@link Config}).
+ * <p>
+ * Singleton so that the filter and the code which issues and ends tokens share the same cache.
+ */
+public class PrincipalCache implements PrincipalCacheMXBean {
+
+    private static class Holder {
+        private static final PrincipalCache INSTANCE =
+                new PrincipalCache(Config.getInt("auth.principal-cache-size", 10000));
+
+        static {
+            Metrics.register("PrincipalCache", INSTANCE);
+        }
+    }
+
+    public static PrincipalCache instance() {
+        return Holder.INSTANCE;
+    }
+
+    private final int capacity;
+
+    /**
+     * The number of entries to leave once the cache has overflowed and been trimmed
+     */
+    private final int trimmedSize;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * The tokens of each user in the cache. Each user's set is only modified, or iterated once removed, within an
+     * atomic operation on this map.
+     */
+    private final Map<String, Set<String>> tokensByUser = new ConcurrentHashMap<>();
+
+    /**
+     * Held while trimming the cache, so that only one thread trims it at once
+     */
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    // Counted by every request, so they're adders rather than atomics, which every request would contend on
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public PrincipalCache(int capacity) {
+        this.capacity = capacity;
+        this.trimmedSize = capacity - capacity / 16;
+    }
+
+    /**
+     * Gets the user authenticated by the given token, if it's been verified before.
+     *
+     * @param token the encoded token
+     * @return the user, or null if the token isn't in the cache
+     */
+    public UserPrincipal get(String token) {
+        Entry entry = entries.get(token);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        entry.lastUsed = System.nanoTime();
+        hits.increment();
+        return entry.principal;
+    }
+
+    /**
+     * Adds a verified token to the cache, evicting the least recently used tokens if the cache is full.
+     */
+    public void put(String token, UserPrincipal principal) {
+        Entry previous = entries.put(token, new Entry(principal));
+        if (previous != null && !previous.principal.getName().equals(principal.getName())) {
+            unindex(previous.principal.getName(), token);
+        }
+        tokensByUser.compute(principal.getName(), (username, tokens) -> {
+            if (tokens == null) {
+                tokens = new HashSet<>();
+            }
+            tokens.add(token);
+            return tokens;
+        });
+        if (entries.size() > capacity) {
+            trim();
+        }
+    }
+
+    /**
+     * Removes the given token, e.g. when its session ends.
+     */
+    public void invalidate(String token) {
+        Entry entry = entries.remove(token);
+        if (entry != null) {
+            unindex(entry.principal.getName(), token);
+        }
+    }
+
+    /**
+     * Removes all tokens for the given user, e.g. when {@link AuthCookies} issues the user a new token.
+     */
+    public void invalidateUser(String username) {
+        Set<String> tokens = tokensByUser.remove(username);
+        if (tokens != null) {
+            tokens.forEach(entries::remove);
+        }
+    }
+
+    /**
+     * Removes all tokens. Called when the database is reset.
+     */
+    public void clear() {
+        entries.clear();
+        tokensByUser.clear();
+    }
+
+    /**
+     * Evicts the least recently used entries until no more than {@link #trimmedSize} are left, unless another thread
+     * is already doing so.
+     */
+    private void trim() {
+        if (!evictionLock.tryLock()) {
+            return;
+        }
+        try {
+            int excess = entries.size() - trimmedSize;
+            if (excess <= 0) {
+                return;
+            }
+            // Entries are sorted by when they were last used as of now, since other threads keep using them
+            List<Candidate> candidates = new ArrayList<>(entries.size());
+            entries.forEach((token, entry) -> candidates.add(new Candidate(token, entry)));
+            candidates.sort(Comparator.comparingLong(candidate -> candidate.lastUsed));
+            for (Candidate candidate : candidates.subList(0, Math.min(excess, candidates.size()))) {
+                // Only evict the entry if it hasn't been replaced since it was copied
+                if (entries.remove(candidate.token, candidate.entry)) {
+                    unindex(candidate.entry.principal.getName(), candidate.token);
+                    evictions.incrementAndGet();
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private void unindex(String username, String token) {
+        tokensByUser.computeIfPresent(username, (name, tokens) -> {
+            tokens.remove(token);
+            return tokens.isEmpty() ? null : tokens;
+        });
+    }
+
+    @Override
+    public int getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public int getSize() {
+        return entries.size();
+    }
+
+    @Override
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    @Override
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    private static class Entry {
+        private final UserPrincipal principal;
+        private volatile long lastUsed = System.nanoTime();
+
+        private Entry(UserPrincipal principal) {
+            this.principal = principal;
+        }
+    }
+
+    private static class Candidate {
+        private final String token;
+        private final Entry entry;
+        private final long lastUsed;
+
+        private Candidate(String token, Entry entry) {
+            this.token = token;
+            this.entry = entry;
+            this.lastUsed = entry.lastUsed;
+        }
+    }
+}
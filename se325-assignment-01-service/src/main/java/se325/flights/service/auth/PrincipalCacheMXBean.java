@@ -0,0 +1,17 @@
+package se325.flights.service.auth;
+
+/**
+ * Metrics exported through JMX by the {@link PrincipalCache}.
+ */
+public interface PrincipalCacheMXBean {
+
+    int getCapacity();
+
+    int getSize();
+
+    long getHitCount();
+
+    long getMissCount();
+
+    long getEvictionCount();
+}
@@ -0,0 +1,260 @@
+package se325.flights.service.auth;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se325.flights.domain.User;
+import se325.flights.domain.UserSession;
+import se325.flights.service.PersistenceManager;
+import se325.flights.service.RequestEntityManager;
+import se325.flights.util.Config;
+import se325.flights.util.Metrics;
+import se325.flights.util.SecurityUtils;
+
+import javax.persistence.EntityManager;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stores users' logged-in sessions as {@link UserSession} rows, so that each login gets its own token, and a session
+ * can be ended without affecting the user's other sessions.
+ * <p>
+ * A session is looked up by its primary key when its token is first verified; after that the token's
+ * {@link UserPrincipal} is served from the {@link PrincipalCache}, which holds exactly one entry per session in use, so
+ * sessions aren't cached a second time here. Ending a session drops its cache entry, and revokes its token on every
+ * instance through {@link TokenRevocations}.
+ * <p>
+ * Each request records that its session was used, in memory. The last-seen times of all sessions used since the
+ * previous flush are written in a single statement every "auth.session.flush-ms" (see {@link Config}), rather than one
+ * update per request. Expired sessions are deleted every "auth.session.sweep-ms".
+ * <p>
+ * Singleton so that the filter and the code which logs users in and out share the same store.
+ */
+public class SessionStore implements SessionStoreMXBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SessionStore.class);
+
+    /**
+     * The maximum number of ids in a single IN list when flushing last-seen times
+     */
+    private static final int FLUSH_CHUNK_SIZE = 500;
+
+    private static class Holder {
+        private static final SessionStore INSTANCE = new SessionStore();
+
+        static {
+            Metrics.register("SessionStore", INSTANCE);
+        }
+    }
+
+    public static SessionStore instance() {
+        return Holder.INSTANCE;
+    }
+
+    private final long ttlMillis = TimeUnit.SECONDS.toMillis(SecurityUtils.AUTH_TOKEN_TTL_SECONDS);
+    private final long flushIntervalMillis = Config.getLong("auth.session.flush-ms", 5000);
+    private final long sweepIntervalMillis = Config.getLong("auth.session.sweep-ms", 60000);
+
+    /**
+     * Ids of sessions used since the last flush
+     */
+    private volatile Set<String> touched = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong swept = new AtomicLong();
+
+    private ScheduledExecutorService scheduler;
+
+    private SessionStore() {
+        start();
+    }
+
+    /**
+     * Starts a new session for the given user. Must be called inside a transaction, e.g. the one which checks the
+     * user's password.
+     *
+     * @param em   the entity manager whose transaction is logging the user in
+     * @param user the user logging in
+     * @return the new session, whose id should be put in the user's auth token
+     */
+    public UserSession startSession(EntityManager em, User user) {
+        UserSession session = new UserSession(SecurityUtils.generateRandomUUIDString(), user.getId(), ttlMillis);
+        em.persist(session);
+        return session;
+    }
+
+    /**
+     * Finds the unexpired session with the given id.
+     *
+     * @param em        the entity manager to use to execute the database query
+     * @param sessionId the session's id
+     * @return the session, or null if there's no such unexpired session
+     */
+    public UserSession findSession(EntityManager em, String sessionId) {
+        UserSession session = em.find(UserSession.class, sessionId);
+        if (session == null || session.getExpiresAt() <= System.currentTimeMillis()) {
+            return null;
+        }
+        return session;
+    }
+
+    /**
+     * Ends the given session, e.g. when its user logs out.
+     *
+     * @param principal the principal of the session to end
+     * @param token     the session's encoded auth token
+     */
+    public void endSession(UserPrincipal principal, String token) {
+        RequestEntityManager.run(em -> {
+            try {
+                em.getTransaction().begin();
+                em.createQuery("DELETE FROM UserSession s WHERE s.id = :id")
+                        .setParameter("id", principal.getTokenId())
+                        .executeUpdate();
+                em.getTransaction().commit();
+            } finally {
+                if (em.getTransaction().isActive()) {
+                    em.getTransaction().rollback();
+                }
+            }
+        });
+        touched.remove(principal.getTokenId());
+        PrincipalCache.instance().invalidate(token);
+        TokenRevocations.instance().revokeToken(principal.getUserId(), principal.getTokenId());
+    }
+
+    /**
+     * Records that the given session has just been used. The session's last-seen time is written at the next flush.
+     */
+    public void touch(String sessionId) {
+        touched.add(sessionId);
+    }
+
+    /**
+     * Starts flushing last-seen times and sweeping expired sessions. Called when this object is created, and after the
+     * database has been reset.
+     */
+    public synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "session-store");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::flushSafely, flushIntervalMillis, flushIntervalMillis,
+                TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::sweepSafely, sweepIntervalMillis, sweepIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the background tasks, flushing any last-seen times which haven't been written yet.
+     */
+    public void stop() {
+        ScheduledExecutorService scheduler;
+        synchronized (this) {
+            scheduler = this.scheduler;
+            this.scheduler = null;
+        }
+        if (scheduler == null) {
+            return;
+        }
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushSafely();
+    }
+
+    /**
+     * Forgets any last-seen times which haven't been written yet. Called when the database is reset.
+     */
+    public void clear() {
+        touched = ConcurrentHashMap.newKeySet();
+    }
+
+    private void flushSafely() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            LOGGER.warn("Failed to write session last-seen times", e);
+        }
+    }
+
+    /**
+     * Writes the last-seen times of all sessions used since the last flush. They're all given the current time, which
+     * is at most one flush interval later than their actual last use.
+     */
+    private synchronized void flush() {
+        Set<String> batch = touched;
+        if (batch.isEmpty()) {
+            return;
+        }
+        touched = ConcurrentHashMap.newKeySet();
+
+        List<String> ids = new ArrayList<>(batch);
+        long now = System.currentTimeMillis();
+        EntityManager em = PersistenceManager.instance().createEntityManager();
+        try {
+            em.getTransaction().begin();
+            for (int i = 0; i < ids.size(); i += FLUSH_CHUNK_SIZE) {
+                em.createQuery("UPDATE UserSession s SET s.lastSeen = :now WHERE s.id IN :ids")
+                        .setParameter("now", now)
+                        .setParameter("ids", ids.subList(i, Math.min(i + FLUSH_CHUNK_SIZE, ids.size())))
+                        .executeUpdate();
+            }
+            em.getTransaction().commit();
+            flushes.incrementAndGet();
+        } finally {
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+            em.close();
+        }
+    }
+
+    private void sweepSafely() {
+        try {
+            EntityManager em = PersistenceManager.instance().createEntityManager();
+            try {
+                em.getTransaction().begin();
+                int count = em.createQuery("DELETE FROM UserSession s WHERE s.expiresAt <= :now")
+                        .setParameter("now", System.currentTimeMillis())
+                        .executeUpdate();
+                em.getTransaction().commit();
+                swept.addAndGet(count);
+            } finally {
+                if (em.getTransaction().isActive()) {
+                    em.getTransaction().rollback();
+                }
+                em.close();
+            }
+        } catch (RuntimeException e) {
+            LOGGER.warn("Failed to sweep expired sessions", e);
+        }
+    }
+
+    @Override
+    public int getPendingTouchCount() {
+        return touched.size();
+    }
+
+    @Override
+    public long getFlushCount() {
+        return flushes.get();
+    }
+
+    @Override
+    public long getSweptSessionCount() {
+        return swept.get();
+    }
+}
@@ -0,0 +1,16 @@
+package se325.flights.service.auth;
+
+/**
+ * Metrics exported through JMX by the {@link SessionStore}.
+ */
+public interface SessionStoreMXBean {
+
+    /**
+     * Gets the number of sessions used since the last flush, whose last-seen times haven't been written yet.
+     */
+    int getPendingTouchCount();
+
+    long getFlushCount();
+
+    long getSweptSessionCount();
+}
@@ -0,0 +1,304 @@
+package se325.flights.service.auth;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se325.flights.domain.TokenRevocation;
+import se325.flights.service.PersistenceManager;
+import se325.flights.util.Config;
+import se325.flights.util.Metrics;
+import se325.flights.util.SecurityUtils;
+
+import javax.persistence.EntityManager;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps track of revoked auth tokens, so that tokens can be trusted without looking their user up in the database. A
+ * single token is revoked on logout; all of a user's tokens issued before a certain time are revoked on a password
+ * change. Tokens which don't carry their issue time, i.e. those created before it was added to them, are only revoked
+ * singly.
+ * <p>
+ * Revocations are held in exact in-memory maps, fronted by a {@link BloomFilter} so that checking a token which hasn't
+ * been revoked - nearly every check - doesn't touch the maps. Each revocation is also written to the
+ * {@link TokenRevocation} table, which every instance polls (every "auth.revocation.poll-ms", see {@link Config}) so
+ * that revocations made on other instances are picked up. Revocations are idempotent, so each poll simply re-reads the
+ * rows written since shortly before the newest one it's seen, which tolerates rows committing out of order.
+ * <p>
+ * A revocation only matters until the tokens it covers expire, so revocations older than the token lifetime are pruned.
+ * <p>
+ * Singleton so that the filter and the code which logs users out share the same revocations.
+ */
+public class TokenRevocations implements TokenRevocationsMXBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TokenRevocations.class);
+
+    /**
+     * How far before the newest revocation seen each poll starts reading
+     */
+    private static final long SETTLE_MILLIS = 5000;
+
+    private static class Holder {
+        private static final TokenRevocations INSTANCE = new TokenRevocations();
+
+        static {
+            Metrics.register("TokenRevocations", INSTANCE);
+        }
+    }
+
+    public static TokenRevocations instance() {
+        return Holder.INSTANCE;
+    }
+
+    private final int bloomBits = Config.getInt("auth.revocation.bloom-bits", 1 << 20);
+    private final int bloomHashes = Config.getInt("auth.revocation.bloom-hashes", 5);
+    private final long pollIntervalMillis = Config.getLong("auth.revocation.poll-ms", 1000);
+    private final long ttlMillis = TimeUnit.SECONDS.toMillis(SecurityUtils.AUTH_TOKEN_TTL_SECONDS);
+
+    /**
+     * Revoked token ids, mapped to the time they were revoked
+     */
+    private final Map<String, Long> revokedTokens = new ConcurrentHashMap<>();
+
+    /**
+     * User ids, mapped to the time before which all their tokens are revoked
+     */
+    private final Map<Long, Long> revokedUsers = new ConcurrentHashMap<>();
+
+    private volatile BloomFilter bloom;
+
+    private final AtomicLong checks = new AtomicLong();
+    private final AtomicLong falsePositives = new AtomicLong();
+
+    private ScheduledExecutorService poller;
+
+    /**
+     * The creation time of the newest revocation read from the database. Only accessed by the poller.
+     */
+    private long newestSeen;
+
+    private TokenRevocations() {
+        bloom = new BloomFilter(bloomBits, bloomHashes);
+        start();
+    }
+
+    /**
+     * Revokes the token with the given id, e.g. when its user logs out.
+     *
+     * @param userId  the user the token was issued to
+     * @param tokenId the token's id (its "uuid" claim)
+     */
+    public void revokeToken(long userId, String tokenId) {
+        TokenRevocation revocation = new TokenRevocation(userId, tokenId, 0);
+        save(revocation);
+        apply(revocation);
+    }
+
+    /**
+     * Revokes all of the given user's tokens issued before now, e.g. when the user changes their password.
+     *
+     * @param userId the user whose tokens should be revoked
+     */
+    public void revokeUser(long userId) {
+        TokenRevocation revocation = new TokenRevocation(userId, null, System.currentTimeMillis());
+        save(revocation);
+        apply(revocation);
+    }
+
+    /**
+     * Gets a value indicating whether the given token has been revoked.
+     *
+     * @param principal the principal decoded from the token
+     * @return true if the token has been revoked, false otherwise
+     */
+    public boolean isRevoked(UserPrincipal principal) {
+        checks.incrementAndGet();
+        BloomFilter bloom = this.bloom;
+        String tokenId = principal.getTokenId();
+
+        boolean maybeToken = tokenId != null && bloom.mightContain(tokenKey(tokenId));
+        boolean maybeUser = bloom.mightContain(userKey(principal.getUserId()));
+        if (!maybeToken && !maybeUser) {
+            return false;
+        }
+
+        if (maybeToken && revokedTokens.containsKey(tokenId)) {
+            return true;
+        }
+        // A token whose issue time is unknown can't be placed before or after a revocation of all its user's tokens,
+        // so it's only ever revoked by its id
+        Long revokedBefore = maybeUser ? revokedUsers.get(principal.getUserId()) : null;
+        if (revokedBefore != null && principal.getIssuedAt() != 0 && principal.getIssuedAt() < revokedBefore) {
+            return true;
+        }
+        falsePositives.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Starts polling for revocations made by other instances. Called when this object is created, and after the
+     * database has been reset.
+     */
+    public synchronized void start() {
+        if (poller != null || pollIntervalMillis <= 0) {
+            return;
+        }
+        newestSeen = System.currentTimeMillis() - ttlMillis;
+        poller = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "token-revocation-poller");
+            thread.setDaemon(true);
+            return thread;
+        });
+        poller.scheduleWithFixedDelay(this::pollSafely, 0, pollIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops polling. Revocations already read are kept.
+     */
+    public void stop() {
+        ScheduledExecutorService poller;
+        synchronized (this) {
+            poller = this.poller;
+            this.poller = null;
+        }
+        if (poller == null) {
+            return;
+        }
+        poller.shutdownNow();
+        try {
+            poller.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Forgets all revocations. Called when the database is reset.
+     */
+    public synchronized void clear() {
+        revokedTokens.clear();
+        revokedUsers.clear();
+        bloom = new BloomFilter(bloomBits, bloomHashes);
+    }
+
+    private void save(TokenRevocation revocation) {
+        EntityManager em = PersistenceManager.instance().createEntityManager();
+        try {
+            em.getTransaction().begin();
+            em.persist(revocation);
+            em.getTransaction().commit();
+        } finally {
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+            em.close();
+        }
+    }
+
+    /**
+     * Adds the given revocation to the exact maps, then to the Bloom filter. In that order, a check which gets past
+     * the filter always finds the revocation in the maps. Synchronized with rebuilding the filter, so that a revocation
+     * can't be added to a filter which is being replaced.
+     */
+    private synchronized void apply(TokenRevocation revocation) {
+        if (revocation.getTokenId() != null) {
+            revokedTokens.merge(revocation.getTokenId(), revocation.getCreatedAt(), Math::max);
+            bloom.add(tokenKey(revocation.getTokenId()));
+        } else {
+            revokedUsers.merge(revocation.getUserId(), revocation.getRevokedBefore(), Math::max);
+            bloom.add(userKey(revocation.getUserId()));
+        }
+    }
+
+    private void pollSafely() {
+        try {
+            poll();
+            prune();
+        } catch (RuntimeException e) {
+            LOGGER.warn("Failed to poll for token revocations", e);
+        }
+    }
+
+    private void poll() {
+        EntityManager em = PersistenceManager.instance().createEntityManager();
+        try {
+            List<TokenRevocation> revocations = em.createQuery(
+                            "SELECT r FROM TokenRevocation r WHERE r.createdAt >= :since", TokenRevocation.class)
+                    .setParameter("since", newestSeen - SETTLE_MILLIS)
+                    .setHint("org.hibernate.readOnly", true)
+                    .getResultList();
+            for (TokenRevocation revocation : revocations) {
+                apply(revocation);
+                newestSeen = Math.max(newestSeen, revocation.getCreatedAt());
+            }
+        } finally {
+            em.close();
+        }
+    }
+
+    /**
+     * Drops revocations older than the token lifetime, since every token they cover has expired. A new Bloom filter is
+     * built from what's left, and swapped in.
+     */
+    private void prune() {
+        long cutoff = System.currentTimeMillis() - ttlMillis;
+        boolean pruned = revokedTokens.values().removeIf(revokedAt -> revokedAt < cutoff);
+        pruned |= revokedUsers.values().removeIf(revokedBefore -> revokedBefore < cutoff);
+        if (!pruned) {
+            return;
+        }
+
+        synchronized (this) {
+            BloomFilter rebuilt = new BloomFilter(bloomBits, bloomHashes);
+            revokedTokens.keySet().forEach(tokenId -> rebuilt.add(tokenKey(tokenId)));
+            revokedUsers.keySet().forEach(userId -> rebuilt.add(userKey(userId)));
+            bloom = rebuilt;
+        }
+
+        EntityManager em = PersistenceManager.instance().createEntityManager();
+        try {
+            em.getTransaction().begin();
+            em.createQuery("DELETE FROM TokenRevocation r WHERE r.createdAt < :cutoff")
+                    .setParameter("cutoff", cutoff)
+                    .executeUpdate();
+            em.getTransaction().commit();
+        } finally {
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+            em.close();
+        }
+    }
+
+    private static String tokenKey(String tokenId) {
+        return "t:" + tokenId;
+    }
+
+    private static String userKey(long userId) {
+        return "u:" + userId;
+    }
+
+    @Override
+    public int getRevokedTokenCount() {
+        return revokedTokens.size();
+    }
+
+    @Override
+    public int getRevokedUserCount() {
+        return revokedUsers.size();
+    }
+
+    @Override
+    public long getFalsePositiveCount() {
+        return falsePositives.get();
+    }
+
+    @Override
+    public long getCheckCount() {
+        return checks.get();
+    }
+}
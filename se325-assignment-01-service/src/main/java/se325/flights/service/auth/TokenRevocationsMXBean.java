@@ -0,0 +1,18 @@
+package se325.flights.service.auth;
+
+/**
+ * Metrics exported through JMX by {@link TokenRevocations}.
+ */
+public interface TokenRevocationsMXBean {
+
+    int getRevokedTokenCount();
+
+    int getRevokedUserCount();
+
+    /**
+     * Gets the number of checks which the Bloom filter couldn't rule out, but which weren't revocations.
+     */
+    long getFalsePositiveCount();
+
+    long getCheckCount();
+}
@@ -0,0 +1,88 @@
+package se325.flights.service.auth;
+
+import javax.ws.rs.NotAuthorizedException;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.SecurityContext;
+import java.security.Principal;
+import java.util.Objects;
+
+/**
+ * The authenticated user of a request, as established by the {@link AuthenticationFilter}. Holds just enough about the
+ * user to identify them, so it can be cached and shared between requests without touching the database.
+ */
+public class UserPrincipal implements Principal {
+
+    private final long userId;
+    private final String username;
+    private final String tokenId;
+    private final long issuedAt;
+    private final long expiresAt;
+
+    public UserPrincipal(long userId, String username) {
+        this(userId, username, null, 0, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param userId    the user's id
+     * @param username  the user's username
+     * @param tokenId   the id of the token the user authenticated with, or null if it's unknown
+     * @param issuedAt  the time the token was issued, in milliseconds since the epoch, or 0 if it's unknown
+     * @param expiresAt the time the token expires, in milliseconds since the epoch
+     */
+    public UserPrincipal(long userId, String username, String tokenId, long issuedAt, long expiresAt) {
+        this.userId = userId;
+        this.username = username;
+        this.tokenId = tokenId;
+        this.issuedAt = issuedAt;
+        this.expiresAt = expiresAt;
+    }
+
+    /**
+     * Gets the authenticated user of the request with the given security context.
+     *
+     * @param securityContext the request's security context
+     * @return the authenticated user
+     * @throws NotAuthorizedException if the request isn't authenticated
+     */
+    public static UserPrincipal of(SecurityContext securityContext) throws NotAuthorizedException {
+        Principal principal = securityContext == null ? null : securityContext.getUserPrincipal();
+        if (!(principal instanceof UserPrincipal)) {
+            throw new NotAuthorizedException(Response.status(401, "Not authenticated").build());
+        }
+        return (UserPrincipal) principal;
+    }
+
+    public long getUserId() {
+        return userId;
+    }
+
+    @Override
+    public String getName() {
+        return username;
+    }
+
+    public String getTokenId() {
+        return tokenId;
+    }
+
+    public long getIssuedAt() {
+        return issuedAt;
+    }
+
+    public boolean isExpired() {
+        return System.currentTimeMillis() >= expiresAt;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        UserPrincipal that = (UserPrincipal) o;
+        return userId == that.userId && Objects.equals(username, that.username);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(userId, username);
+    }
+}
@@ -0,0 +1,384 @@
+package se325.flights.service.booking;
+
+import org.hibernate.exception.ConstraintViolationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se325.flights.domain.BookingException;
+import se325.flights.domain.Flight;
+import se325.flights.domain.FlightBooking;
+import se325.flights.domain.User;
+import se325.flights.service.RequestEntityManager;
+import se325.flights.service.SeatHolds;
+import se325.flights.service.SubscriptionManager;
+import se325.flights.service.events.OutboxDispatcher;
+import se325.flights.service.journal.BookingJournal;
+import se325.flights.util.Config;
+import se325.flights.util.FetchGraphs;
+import se325.flights.util.Metrics;
+
+import javax.persistence.EntityManager;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Commits validated {@link BookingRequest}s: makes each booking, unless any of its seats are {@link SeatHolds held} for
+ * another user, claims the booking user's holds on the booked seats and records the seat availability change in the
+ * outbox in the same transaction, commits, then signals the {@link OutboxDispatcher}, and records the booking in the
+ * {@link BookingJournal}. Each booking's future completes once it has committed: the database, not the journal, is the
+ * record of which seats are booked. With "bookings.await-journal" set, the future doesn't complete until the booking's
+ * journal record is on disk too, but the committer still goes straight on to the next booking rather than wait for it.
+ * <p>
+ * With "bookings.group-commit" set (see {@link Config}), requests from every thread are queued for a single committer
+ * thread, which makes up to "bookings.group-commit.max-size" of them - or as many as arrive within
+ * "bookings.group-commit.max-wait-us" microseconds of the first - in one transaction, so that they share the cost of
+ * the commit. Otherwise each request is committed in its own transaction, in the calling thread, using the request's
+ * {@link RequestEntityManager} rather than checking out a second connection, unless the caller has a transaction of its
+ * own active on it, which is left alone.
+ * <p>
+ * A request for seats which are taken or invalid is rejected on its own, without changing anything, and the rest of
+ * its group is committed. If the group's transaction fails anyway, e.g. because another service instance booked one of
+ * the seats first, it's rolled back and each of its bookings is retried in its own transaction, so that only the
+ * offending bookings fail.
+ * <p>
+ * Singleton so that requests from every resource instance can be grouped together.
+ */
+public class BookingCommitter implements BookingCommitterMXBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BookingCommitter.class);
+
+    private static class Holder {
+        private static final BookingCommitter INSTANCE = new BookingCommitter(
+                Config.getBoolean("bookings.group-commit", false),
+                Config.getInt("bookings.group-commit.max-size", 64),
+                Config.getLong("bookings.group-commit.max-wait-us", 500));
+
+        static {
+            Metrics.register("BookingCommitter", INSTANCE);
+        }
+    }
+
+    public static BookingCommitter instance() {
+        return Holder.INSTANCE;
+    }
+
+    private final boolean groupCommit;
+    private final int maxGroupSize;
+    private final long maxWaitMicros;
+    private final boolean awaitJournal = Config.getBoolean("bookings.await-journal", false);
+
+    private final BlockingQueue<PendingBooking> queue = new LinkedBlockingQueue<>();
+    private Thread committerThread;
+
+    private final AtomicLong commits = new AtomicLong();
+    private final AtomicLong bookingsCommitted = new AtomicLong();
+    private final AtomicLong bookingsFailed = new AtomicLong();
+    private final AtomicLong groupsRetried = new AtomicLong();
+
+    /**
+     * Creates a committer, and starts its thread if group commit is on.
+     *
+     * @param groupCommit   true to commit requests in groups on a committer thread, false to commit each in its caller's
+     *                      thread
+     * @param maxGroupSize  the most requests to commit in one transaction
+     * @param maxWaitMicros how long to wait for more requests to arrive after the first of a group
+     */
+    public BookingCommitter(boolean groupCommit, int maxGroupSize, long maxWaitMicros) {
+        if (maxGroupSize < 1) {
+            throw new IllegalArgumentException("Group size must be at least 1");
+        }
+        this.groupCommit = groupCommit;
+        this.maxGroupSize = maxGroupSize;
+        this.maxWaitMicros = maxWaitMicros;
+        start();
+    }
+
+    /**
+     * Starts the committer thread, if group commit is on. Called when this object is created, and after the database
+     * has been reset.
+     */
+    public synchronized void start() {
+        if (!groupCommit || committerThread != null) {
+            return;
+        }
+        committerThread = new Thread(this::commitLoop, "booking-committer");
+        committerThread.setDaemon(true);
+        committerThread.start();
+    }
+
+    /**
+     * Stops the committer thread, once it has finished the group it's committing. Requests still queued are failed
+     * with an {@link IllegalStateException}.
+     */
+    public void stop() {
+        Thread thread;
+        synchronized (this) {
+            thread = committerThread;
+            committerThread = null;
+        }
+        if (thread == null) {
+            return;
+        }
+        thread.interrupt();
+        try {
+            thread.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        List<PendingBooking> abandoned = new ArrayList<>();
+        queue.drainTo(abandoned);
+        for (PendingBooking pending : abandoned) {
+            fail(pending, new IllegalStateException("Bookings are not being accepted"));
+        }
+    }
+
+    /**
+     * Commits the given booking, in a group if group commit is on.
+     *
+     * @return a future which completes with the new booking's id once it has been committed, or
+     * exceptionally with a {@link BookingException} if its seats are taken or invalid, an
+     * {@link IllegalArgumentException} if the flight or user doesn't exist, or another exception if it couldn't be
+     * committed
+     */
+    public CompletableFuture<Long> submit(BookingRequest request) {
+        PendingBooking pending = new PendingBooking(request);
+        if (!groupCommit) {
+            commitSafely(List.of(pending));
+        } else {
+            synchronized (this) {
+                if (committerThread == null) {
+                    fail(pending, new IllegalStateException("Bookings are not being accepted"));
+                    return pending.result;
+                }
+                queue.add(pending);
+            }
+        }
+        return pending.result;
+    }
+
+    private void commitLoop() {
+        List<PendingBooking> group = new ArrayList<>(maxGroupSize);
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                group.add(queue.take());
+                long deadline = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(maxWaitMicros);
+                queue.drainTo(group, maxGroupSize - group.size());
+                while (group.size() < maxGroupSize) {
+                    PendingBooking next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    group.add(next);
+                    queue.drainTo(group, maxGroupSize - group.size());
+                }
+                commitSafely(group);
+                group.clear();
+            }
+        } catch (InterruptedException e) {
+            // Stopped; fail whatever was gathered for the next group
+            for (PendingBooking pending : group) {
+                fail(pending, new IllegalStateException("Bookings are not being accepted"));
+            }
+        }
+    }
+
+    private void commitSafely(List<PendingBooking> group) {
+        try {
+            commit(group);
+        } catch (RuntimeException e) {
+            LOGGER.error("Failed to commit a group of {} bookings", group.size(), e);
+            for (PendingBooking pending : group) {
+                if (!pending.result.isDone()) {
+                    fail(pending, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Makes the given bookings in one transaction, with the request's entity manager if a request is being handled by
+     * this thread and hasn't begun a transaction of its own, or else with a new one
+     */
+    private void commit(List<PendingBooking> group) {
+        RequestEntityManager.runWithoutTransaction(em -> commit(group, em));
+    }
+
+    /**
+     * Makes the given bookings in a new transaction of the given entity manager, retrying each on its own if the
+     * transaction fails. The entity manager mustn't have a transaction active.
+     */
+    private void commit(List<PendingBooking> group, EntityManager em) {
+        List<PendingBooking> booked = new ArrayList<>(group.size());
+        em.getTransaction().begin();
+        try {
+            for (PendingBooking pending : group) {
+                try {
+                    pending.booking = book(em, pending.request);
+                    booked.add(pending);
+                } catch (BookingException | IllegalArgumentException e) {
+                    fail(pending, e);
+                }
+            }
+            em.getTransaction().commit();
+        } catch (RuntimeException e) {
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+            // Nothing was saved, so the bookings made in memory mustn't linger in the persistence context
+            em.clear();
+            // Every booking which wasn't rejected by itself, including any which was being made when this was thrown
+            List<PendingBooking> unresolved = group.stream()
+                    .filter(pending -> !pending.result.isDone())
+                    .collect(Collectors.toList());
+            if (unresolved.size() > 1) {
+                LOGGER.debug("Group of {} bookings failed to commit, retrying them one at a time", unresolved.size(),
+                        e);
+                groupsRetried.incrementAndGet();
+                for (PendingBooking pending : unresolved) {
+                    commit(List.of(pending));
+                }
+            } else {
+                unresolved.forEach(pending -> fail(pending, rejection(e)));
+            }
+            return;
+        }
+        if (!booked.isEmpty()) {
+            commits.incrementAndGet();
+            afterCommit(booked);
+        }
+    }
+
+    /**
+     * Makes the requested booking in the given entity manager's transaction. If the booking is rejected, nothing is
+     * changed.
+     */
+    private static FlightBooking book(EntityManager em, BookingRequest request) throws BookingException {
+        // Loads the flight's bookings and seats, which are checked to see whether the seats are free
+        Flight flight = em.find(Flight.class, request.getFlightId(), FetchGraphs.hints(em, "Flight.bookingInfo"));
+        if (flight == null) {
+            throw new IllegalArgumentException("No flight with id " + request.getFlightId());
+        }
+        User user = em.find(User.class, request.getUserId());
+        if (user == null) {
+            throw new IllegalArgumentException("No user with id " + request.getUserId());
+        }
+        // Nothing is changed until every check has passed, since the transaction commits even if this booking fails
+        SeatHolds holds = SubscriptionManager.instance().getSeatHolds();
+        holds.ensureNotHeldByOthers(em, request.getFlightId(), request.getUserId(), request.getSeatCodes());
+        FlightBooking booking = flight.makeBooking(user, request.getSeatCodes());
+        holds.claim(em, request.getFlightId(), request.getSeatCodes());
+        OutboxDispatcher.instance().record(em, request.getFlightId());
+        return booking;
+    }
+
+    /**
+     * Journals the committed bookings, and completes their futures, or if required, arranges for them to be completed
+     * once the journal records are on disk. Doesn't wait for the records to be written either way.
+     */
+    private void afterCommit(List<PendingBooking> booked) {
+        OutboxDispatcher.instance().signal();
+        bookingsCommitted.addAndGet(booked.size());
+        CompletableFuture<Void> durable;
+        try {
+            BookingJournal journal = BookingJournal.instance();
+            long lastSequence = 0;
+            for (PendingBooking pending : booked) {
+                BookingRequest request = pending.request;
+                lastSequence = journal.appendBooking(request.getFlightId(), request.getUserId(),
+                        request.getSeatCodes());
+            }
+            // Wait for the whole group's journal records at once, so that they share one fsync
+            durable = awaitJournal ? journal.whenDurable(lastSequence) : CompletableFuture.completedFuture(null);
+        } catch (RuntimeException e) {
+            durable = CompletableFuture.failedFuture(e);
+        }
+        durable.whenComplete((ignored, e) -> {
+            if (e != null) {
+                // The bookings are committed; a reconciling journal picks them up from the database when next opened
+                LOGGER.warn("Failed to journal {} committed bookings", booked.size(), e);
+            }
+            for (PendingBooking pending : booked) {
+                pending.result.complete(pending.booking.getId());
+            }
+        });
+    }
+
+    private void fail(PendingBooking pending, Throwable e) {
+        bookingsFailed.incrementAndGet();
+        pending.result.completeExceptionally(e);
+    }
+
+    /**
+     * Gets the exception to fail a single booking with, when its transaction has failed
+     */
+    private static Throwable rejection(RuntimeException e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConstraintViolationException) {
+                // The seats were booked by a transaction this one couldn't see
+                return new BookingException("One or more seats are already booked");
+            }
+        }
+        return e;
+    }
+
+    @Override
+    public boolean isGroupCommit() {
+        return groupCommit;
+    }
+
+    @Override
+    public int getMaxGroupSize() {
+        return maxGroupSize;
+    }
+
+    @Override
+    public long getMaxWaitMicros() {
+        return maxWaitMicros;
+    }
+
+    @Override
+    public int getQueueLength() {
+        return queue.size();
+    }
+
+    @Override
+    public long getCommits() {
+        return commits.get();
+    }
+
+    @Override
+    public long getBookingsCommitted() {
+        return bookingsCommitted.get();
+    }
+
+    @Override
+    public long getBookingsFailed() {
+        return bookingsFailed.get();
+    }
+
+    @Override
+    public long getGroupsRetried() {
+        return groupsRetried.get();
+    }
+
+    @Override
+    public double getAverageGroupSize() {
+        long commits = this.commits.get();
+        return commits == 0 ? 0 : (double) bookingsCommitted.get() / commits;
+    }
+
+    private static class PendingBooking {
+        private final BookingRequest request;
+        private final CompletableFuture<Long> result = new CompletableFuture<>();
+        private FlightBooking booking;
+
+        private PendingBooking(BookingRequest request) {
+            this.request = request;
+        }
+    }
+}
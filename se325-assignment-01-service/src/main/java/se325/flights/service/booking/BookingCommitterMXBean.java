@@ -0,0 +1,45 @@
+package se325.flights.service.booking;
+
+/**
+ * Metrics exported through JMX by {@link BookingCommitter}.
+ */
+public interface BookingCommitterMXBean {
+
+    /**
+     * Gets a value indicating whether bookings are committed in groups ("bookings.group-commit"), rather than each in
+     * the caller's thread.
+     */
+    boolean isGroupCommit();
+
+    int getMaxGroupSize();
+
+    long getMaxWaitMicros();
+
+    /**
+     * Gets the number of requests waiting for the committer thread.
+     */
+    int getQueueLength();
+
+    /**
+     * Gets the number of transactions committed, each holding one or more bookings.
+     */
+    long getCommits();
+
+    long getBookingsCommitted();
+
+    /**
+     * Gets the number of bookings rejected, because their seats were taken or invalid, or because they couldn't be
+     * committed even on their own.
+     */
+    long getBookingsFailed();
+
+    /**
+     * Gets the number of groups whose shared transaction failed, and whose bookings were retried one at a time.
+     */
+    long getGroupsRetried();
+
+    /**
+     * Gets the average number of bookings committed per transaction.
+     */
+    double getAverageGroupSize();
+}
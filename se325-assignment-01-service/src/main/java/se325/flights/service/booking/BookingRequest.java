@@ -0,0 +1,37 @@
+package se325.flights.service.booking;
+
+import java.util.List;
+
+/**
+ * A request by a user to book seats on a flight. Committed by the {@link BookingCommitter}, which also checks it
+ * against seat holds.
+ */
+public final class BookingRequest {
+
+    private final long flightId;
+    private final long userId;
+    private final List<String> seatCodes;
+
+    public BookingRequest(long flightId, long userId, List<String> seatCodes) {
+        this.flightId = flightId;
+        this.userId = userId;
+        this.seatCodes = List.copyOf(seatCodes);
+    }
+
+    public long getFlightId() {
+        return flightId;
+    }
+
+    public long getUserId() {
+        return userId;
+    }
+
+    public List<String> getSeatCodes() {
+        return seatCodes;
+    }
+
+    @Override
+    public String toString() {
+        return "user " + userId + " booking " + seatCodes + " on flight " + flightId;
+    }
+}
@@ -0,0 +1,54 @@
+package se325.flights.service.db;
+
+/**
+ * Chooses how many connections may be checked out at once, from what was observed over the last interval.
+ * <p>
+ * Time spent waiting for a connection is compared with the time connections are held for, which approximates the time
+ * spent running queries. If the whole pool was in use at some point, and requests waited for more than "wait ratio"
+ * times as long as they then held their connection, the pool is the bottleneck, so it grows by a quarter. If the
+ * busiest moment used less than half the pool, it shrinks by one. Growing quickly and shrinking slowly keeps the pool
+ * from oscillating, and settles the size where more connections stop reducing waits - which, for an embedded database,
+ * is roughly the number of cores.
+ */
+public class AdaptivePoolSizer {
+
+    private final int minSize;
+    private final int maxSize;
+    private final double waitRatio;
+
+    public AdaptivePoolSizer(int minSize, int maxSize, double waitRatio) {
+        if (minSize < 1 || maxSize < minSize) {
+            throw new IllegalArgumentException("Invalid pool bounds: " + minSize + ".." + maxSize);
+        }
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.waitRatio = waitRatio;
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Chooses the next pool size.
+     *
+     * @param size          the current pool size
+     * @param meanWaitNanos the mean time taken to check out a connection over the last interval
+     * @param meanHoldNanos the mean time connections were held for over the last interval
+     * @param peakInUse     the largest number of connections checked out at once over the last interval
+     * @return the new pool size, between the minimum and maximum sizes
+     */
+    public int nextSize(int size, double meanWaitNanos, double meanHoldNanos, int peakInUse) {
+        int next = size;
+        if (peakInUse >= size && meanWaitNanos > waitRatio * meanHoldNanos) {
+            next = size + Math.max(1, size / 4);
+        } else if (peakInUse < size / 2.0) {
+            next = size - 1;
+        }
+        return Math.max(minSize, Math.min(maxSize, next));
+    }
+}
@@ -0,0 +1,83 @@
+package se325.flights.service.db;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Exports the second-level and query cache statistics of a {@link SessionFactory} through JMX, as "Cache". Statistics
+ * are only gathered if "hibernate.generate_statistics" is set in persistence.xml.
+ */
+public class CacheStatistics implements CacheStatisticsMXBean {
+
+    private final Statistics statistics;
+
+    public CacheStatistics(SessionFactory sessionFactory) {
+        this.statistics = sessionFactory.getStatistics();
+    }
+
+    @Override
+    public long getSecondLevelCacheHitCount() {
+        return statistics.getSecondLevelCacheHitCount();
+    }
+
+    @Override
+    public long getSecondLevelCacheMissCount() {
+        return statistics.getSecondLevelCacheMissCount();
+    }
+
+    @Override
+    public long getSecondLevelCachePutCount() {
+        return statistics.getSecondLevelCachePutCount();
+    }
+
+    @Override
+    public double getSecondLevelCacheHitRatio() {
+        long hits = statistics.getSecondLevelCacheHitCount();
+        long lookups = hits + statistics.getSecondLevelCacheMissCount();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public long getQueryCacheHitCount() {
+        return statistics.getQueryCacheHitCount();
+    }
+
+    @Override
+    public long getQueryCacheMissCount() {
+        return statistics.getQueryCacheMissCount();
+    }
+
+    @Override
+    public long getQueryCachePutCount() {
+        return statistics.getQueryCachePutCount();
+    }
+
+    @Override
+    public Map<String, Long> getRegionHitCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        for (String region : statistics.getSecondLevelCacheRegionNames()) {
+            CacheRegionStatistics regionStatistics = statistics.getDomainDataRegionStatistics(region);
+            if (regionStatistics != null) {
+                counts.put(region, regionStatistics.getHitCount());
+            }
+        }
+        return counts;
+    }
+
+    @Override
+    public Map<String, Long> getRegionEntryCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        for (String region : statistics.getSecondLevelCacheRegionNames()) {
+            CacheRegionStatistics regionStatistics = statistics.getDomainDataRegionStatistics(region);
+            if (regionStatistics != null) {
+                long count = regionStatistics.getElementCountInMemory();
+                counts.put(region, count == CacheRegionStatistics.NO_EXTENDED_STAT_SUPPORT_RETURN ? -1 : count);
+            }
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,38 @@
+package se325.flights.service.db;
+
+import java.util.Map;
+
+/**
+ * Second-level and query cache metrics exported through JMX by {@link CacheStatistics}. Counts start again from zero
+ * whenever the database is reset.
+ */
+public interface CacheStatisticsMXBean {
+
+    long getSecondLevelCacheHitCount();
+
+    long getSecondLevelCacheMissCount();
+
+    long getSecondLevelCachePutCount();
+
+    /**
+     * Gets the fraction of second-level cache lookups which were hits, or 0 if there haven't been any lookups.
+     */
+    double getSecondLevelCacheHitRatio();
+
+    long getQueryCacheHitCount();
+
+    long getQueryCacheMissCount();
+
+    long getQueryCachePutCount();
+
+    /**
+     * Gets the number of hits in each second-level cache region, by region name.
+     */
+    Map<String, Long> getRegionHitCounts();
+
+    /**
+     * Gets the number of entries held in each second-level cache region, by region name. Regions whose provider can't
+     * count their entries are reported as -1.
+     */
+    Map<String, Long> getRegionEntryCounts();
+}
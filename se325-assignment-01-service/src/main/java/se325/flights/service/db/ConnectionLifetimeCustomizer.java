@@ -0,0 +1,52 @@
+package se325.flights.service.db;
+
+import com.mchange.v2.c3p0.AbstractConnectionCustomizer;
+
+import java.sql.Connection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records how long c3p0 keeps each physical connection open. c3p0 creates this class itself, by name (see the
+ * "hibernate.c3p0.connectionCustomizerClassName" property in persistence.xml), so the figures are kept statically and
+ * read by the {@link InstrumentedConnectionProvider}.
+ */
+public class ConnectionLifetimeCustomizer extends AbstractConnectionCustomizer {
+
+    private static final Map<Connection, Long> OPENED_AT = new ConcurrentHashMap<>();
+    private static final LongAdder DESTROYED = new LongAdder();
+    private static final LongAdder TOTAL_LIFETIME_NANOS = new LongAdder();
+    private static final AtomicLong MAX_LIFETIME_NANOS = new AtomicLong();
+
+    @Override
+    public void onAcquire(Connection connection, String parentDataSourceIdentityToken) {
+        OPENED_AT.put(connection, System.nanoTime());
+    }
+
+    @Override
+    public void onDestroy(Connection connection, String parentDataSourceIdentityToken) {
+        Long openedAt = OPENED_AT.remove(connection);
+        if (openedAt == null) {
+            return;
+        }
+        long lifetime = System.nanoTime() - openedAt;
+        DESTROYED.increment();
+        TOTAL_LIFETIME_NANOS.add(lifetime);
+        MAX_LIFETIME_NANOS.accumulateAndGet(lifetime, Math::max);
+    }
+
+    static long getDestroyedConnections() {
+        return DESTROYED.sum();
+    }
+
+    static double getMeanLifetimeMillis() {
+        long count = DESTROYED.sum();
+        return count == 0 ? 0 : TOTAL_LIFETIME_NANOS.sum() / (count * 1_000_000.0);
+    }
+
+    static double getMaxLifetimeMillis() {
+        return MAX_LIFETIME_NANOS.get() / 1_000_000.0;
+    }
+}
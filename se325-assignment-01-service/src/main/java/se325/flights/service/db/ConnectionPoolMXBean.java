@@ -0,0 +1,57 @@
+package se325.flights.service.db;
+
+/**
+ * Metrics exported through JMX by the {@link InstrumentedConnectionProvider}. Counts read from the pool itself are -1 if
+ * the pool couldn't be queried.
+ */
+public interface ConnectionPoolMXBean {
+
+    boolean isAdaptive();
+
+    /**
+     * Gets the number of connections which may be checked out at once. In adaptive mode this is the size chosen by the
+     * {@link AdaptivePoolSizer}; otherwise it's the pool's maximum size.
+     */
+    int getTargetPoolSize();
+
+    int getTotalConnections();
+
+    int getActiveConnections();
+
+    int getIdleConnections();
+
+    /**
+     * Gets the number of threads waiting for a connection, whether for the pool or for the adaptive limit.
+     */
+    int getPendingRequests();
+
+    long getCheckouts();
+
+    long getFailedCheckouts();
+
+    /**
+     * Gets the mean time taken to check a connection out, including any time spent waiting, in milliseconds.
+     */
+    double getMeanAcquireMillis();
+
+    double getMaxAcquireMillis();
+
+    /**
+     * Gets the mean time a connection is held between being checked out and checked back in, in milliseconds.
+     */
+    double getMeanHoldMillis();
+
+    double getMaxHoldMillis();
+
+    /**
+     * Gets the number of physical connections which have been closed by the pool.
+     */
+    long getDestroyedConnections();
+
+    /**
+     * Gets the mean time between a physical connection being opened and closed by the pool, in milliseconds.
+     */
+    double getMeanConnectionLifetimeMillis();
+
+    double getMaxConnectionLifetimeMillis();
+}
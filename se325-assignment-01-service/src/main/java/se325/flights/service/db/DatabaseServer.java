@@ -0,0 +1,65 @@
+package se325.flights.service.db;
+
+import org.h2.tools.Server;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se325.flights.util.Config;
+
+import java.sql.DriverManager;
+import java.sql.SQLException;
+
+/**
+ * Runs an H2 TCP server inside this JVM, for the {@link StorageProfile#SERVER server} storage profile. Only one of the
+ * service instances sharing a database should start the server, by setting "db.server.start" (see {@link Config}); the
+ * others just connect to it. The server listens on "db.port", and only accepts local connections unless
+ * "db.server.allow-others" is set.
+ * <p>
+ * The server doesn't let its clients create databases, since with "db.server.allow-others" that would let anyone who
+ * can reach the port create one. Instead, the instance which starts the server creates the database at "db.path"
+ * itself, through an embedded connection, before starting it.
+ */
+public class DatabaseServer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DatabaseServer.class);
+
+    private static Server server;
+
+    static int port() {
+        return Config.getInt("db.port", 9092);
+    }
+
+    /**
+     * Starts the server if the server profile is in use, "db.server.start" is set, and it isn't running already.
+     * Called before the database is first connected to.
+     *
+     * @param user     the user to create the database with, if it doesn't exist yet
+     * @param password the user's password
+     */
+    public static synchronized void startIfConfigured(String user, String password) {
+        if (server != null || StorageProfile.current() != StorageProfile.SERVER
+                || !Config.getBoolean("db.server.start", false)) {
+            return;
+        }
+        try {
+            // Opening the database embedded creates it if need be; it's closed again before the server opens it
+            DriverManager.getConnection(StorageProfile.localUrl(), user, password).close();
+            String[] args = Config.getBoolean("db.server.allow-others", false)
+                    ? new String[]{"-tcpPort", Integer.toString(port()), "-tcpDaemon", "-tcpAllowOthers"}
+                    : new String[]{"-tcpPort", Integer.toString(port()), "-tcpDaemon"};
+            server = Server.createTcpServer(args).start();
+            LOGGER.info("Started H2 TCP server on port {}", server.getPort());
+        } catch (SQLException e) {
+            throw new IllegalStateException("Failed to start H2 TCP server", e);
+        }
+    }
+
+    /**
+     * Stops the server, if this JVM started it.
+     */
+    public static synchronized void stop() {
+        if (server != null) {
+            server.stop();
+            server = null;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package se325.flights.service.db;
+
+import org.hibernate.Session;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The rows of every table, as captured just after the database has been created and filled from db-init.sql. Restoring
+ * the snapshot puts the data back as it was - truncating every table, re-inserting the captured rows and restarting
+ * identity columns after them - without closing the {@link EntityManagerFactory} or recreating the schema.
+ * <p>
+ * The rows are captured with H2's SCRIPT command, which writes them out as INSERT statements.
+ */
+public class DatabaseSnapshot {
+
+    private final List<String> tables;
+    private final List<String> inserts;
+
+    /**
+     * (table, column) pairs of the identity columns
+     */
+    private final List<String[]> identityColumns;
+
+    private DatabaseSnapshot(List<String> tables, List<String> inserts, List<String[]> identityColumns) {
+        this.tables = tables;
+        this.inserts = inserts;
+        this.identityColumns = identityColumns;
+    }
+
+    /**
+     * Captures the current contents of the database.
+     */
+    public static DatabaseSnapshot capture(EntityManagerFactory emf) {
+        List<String> tables = new ArrayList<>();
+        List<String> inserts = new ArrayList<>();
+        List<String[]> identityColumns = new ArrayList<>();
+        doWork(emf, connection -> {
+            try (Statement statement = connection.createStatement()) {
+                try (ResultSet rs = statement.executeQuery("SELECT TABLE_NAME FROM INFORMATION_SCHEMA.TABLES " +
+                        "WHERE TABLE_SCHEMA = SCHEMA() AND TABLE_TYPE = 'TABLE'")) {
+                    while (rs.next()) {
+                        tables.add(rs.getString(1));
+                    }
+                }
+                try (ResultSet rs = statement.executeQuery("SELECT TABLE_NAME, COLUMN_NAME FROM " +
+                        "INFORMATION_SCHEMA.COLUMNS WHERE TABLE_SCHEMA = SCHEMA() AND SEQUENCE_NAME IS NOT NULL")) {
+                    while (rs.next()) {
+                        identityColumns.add(new String[]{rs.getString(1), rs.getString(2)});
+                    }
+                }
+                // Only this schema's rows, not those of any test schemas (see TestSchemas)
+                try (ResultSet rs = statement.executeQuery("SCRIPT NOPASSWORDS NOSETTINGS SCHEMA "
+                        + quote(connection.getSchema()))) {
+                    while (rs.next()) {
+                        String sql = rs.getString(1);
+                        if (sql.startsWith("INSERT INTO ")) {
+                            inserts.add(sql);
+                        }
+                    }
+                }
+            }
+        });
+        return new DatabaseSnapshot(Collections.unmodifiableList(tables), Collections.unmodifiableList(inserts),
+                Collections.unmodifiableList(identityColumns));
+    }
+
+    /**
+     * Puts the contents of the database back to what they were when this snapshot was captured. Foreign keys on this
+     * schema's tables aren't checked while this runs, so nothing else should be using them; other schemas are left
+     * alone.
+     */
+    public void restore(EntityManagerFactory emf) {
+        doWork(emf, connection -> {
+            try (Statement statement = connection.createStatement()) {
+                // Per table rather than SET REFERENTIAL_INTEGRITY, which would affect every schema (see TestSchemas)
+                for (String table : tables) {
+                    statement.execute("ALTER TABLE " + quote(table) + " SET REFERENTIAL_INTEGRITY FALSE");
+                }
+                try {
+                    for (String table : tables) {
+                        statement.execute("TRUNCATE TABLE " + quote(table));
+                    }
+                    for (String insert : inserts) {
+                        statement.execute(insert);
+                    }
+                    for (String[] column : identityColumns) {
+                        long next;
+                        try (ResultSet rs = statement.executeQuery(
+                                "SELECT COALESCE(MAX(" + quote(column[1]) + "), 0) + 1 FROM " + quote(column[0]))) {
+                            rs.next();
+                            next = rs.getLong(1);
+                        }
+                        statement.execute("ALTER TABLE " + quote(column[0]) + " ALTER COLUMN " + quote(column[1])
+                                + " RESTART WITH " + next);
+                    }
+                } finally {
+                    // The snapshot's rows were consistent when captured, so they aren't checked again
+                    for (String table : tables) {
+                        statement.execute("ALTER TABLE " + quote(table) + " SET REFERENTIAL_INTEGRITY TRUE NOCHECK");
+                    }
+                }
+            }
+        });
+    }
+
+    public int getTableCount() {
+        return tables.size();
+    }
+
+    private static String quote(String identifier) {
+        return '"' + identifier.replace("\"", "\"\"") + '"';
+    }
+
+    private static void doWork(EntityManagerFactory emf, Work work) {
+        EntityManager em = emf.createEntityManager();
+        try {
+            em.getTransaction().begin();
+            em.unwrap(Session.class).doWork(work::execute);
+            em.getTransaction().commit();
+        } finally {
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+            em.close();
+        }
+    }
+
+    private interface Work {
+        void execute(Connection connection) throws SQLException;
+    }
+}
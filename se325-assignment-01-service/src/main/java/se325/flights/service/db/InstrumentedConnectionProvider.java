@@ -0,0 +1,321 @@
+package se325.flights.service.db;
+
+import com.mchange.v2.c3p0.PooledDataSource;
+import org.hibernate.c3p0.internal.C3P0ConnectionProvider;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se325.flights.util.Config;
+import se325.flights.util.Metrics;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hibernate's c3p0 connection provider, instrumented so that the pool can be sized from measurements rather than
+ * guesswork. Configured with the "hibernate.connection.provider_class" property in persistence.xml, and exported
+ * through JMX as "ConnectionPool" (see {@link ConnectionPoolMXBean}).
+ * <p>
+ * Each checkout is timed, including any time spent waiting for a free connection, as is the time each connection is
+ * held before it's checked back in. Active, idle and pending counts are read from c3p0, and connection lifetimes are
+ * recorded by the {@link ConnectionLifetimeCustomizer}.
+ * <p>
+ * If "db.pool.adaptive" is set (see {@link Config}), the number of connections that may be checked out at once is
+ * limited, and every "db.pool.adaptive.interval-ms" the {@link AdaptivePoolSizer} picks a new limit between
+ * "db.pool.adaptive.min" and "db.pool.adaptive.max" (by default, the pool's own minimum and maximum sizes). Connections
+ * above the limit sit idle, and c3p0 closes them after "maxIdleTimeExcessConnections". A checkout waits for the limit
+ * for at most the pool's "checkoutTimeout", like a checkout from c3p0 itself, then fails with an
+ * {@link SQLException}.
+ */
+public class InstrumentedConnectionProvider extends C3P0ConnectionProvider implements ConnectionPoolMXBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(InstrumentedConnectionProvider.class);
+
+    private final boolean adaptive = Config.getBoolean("db.pool.adaptive", false);
+    private final long adaptIntervalMillis = Config.getLong("db.pool.adaptive.interval-ms", 5000);
+    private final double waitRatio = Config.getDouble("db.pool.adaptive.wait-ratio", 0.1);
+
+    private PooledDataSource pool;
+
+    private AdaptivePoolSizer sizer;
+    private ResizableSemaphore limit;
+    private long checkoutTimeoutMillis;
+    private volatile int targetSize;
+    private ScheduledExecutorService adapter;
+
+    /**
+     * The time each checked-out connection was checked out
+     */
+    private final Map<Connection, Long> checkedOutAt = new ConcurrentHashMap<>();
+    private final AtomicInteger inUse = new AtomicInteger();
+
+    private final LongAdder checkouts = new LongAdder();
+    private final LongAdder failedCheckouts = new LongAdder();
+    private final LongAdder totalAcquireNanos = new LongAdder();
+    private final AtomicLong maxAcquireNanos = new AtomicLong();
+    private final LongAdder checkins = new LongAdder();
+    private final LongAdder totalHoldNanos = new LongAdder();
+    private final AtomicLong maxHoldNanos = new AtomicLong();
+
+    /**
+     * Figures for the current adaptive sizing interval, reset when the interval ends
+     */
+    private final LongAdder windowCheckouts = new LongAdder();
+    private final LongAdder windowAcquireNanos = new LongAdder();
+    private final LongAdder windowCheckins = new LongAdder();
+    private final LongAdder windowHoldNanos = new LongAdder();
+    private final AtomicInteger windowPeakInUse = new AtomicInteger();
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public void configure(Map props) {
+        super.configure(props);
+        DataSource dataSource = unwrap(DataSource.class);
+        pool = dataSource instanceof PooledDataSource ? (PooledDataSource) dataSource : null;
+
+        int minPoolSize = ConfigurationHelper.getInt("hibernate.c3p0.min_size", props, 1);
+        int maxPoolSize = ConfigurationHelper.getInt("hibernate.c3p0.max_size", props, 100);
+        // c3p0's own setting, so that waiting for the limit gives up when waiting for the pool would; 0 waits forever
+        checkoutTimeoutMillis = ConfigurationHelper.getInt("hibernate.c3p0.checkoutTimeout", props, 0);
+        targetSize = maxPoolSize;
+        if (adaptive) {
+            sizer = new AdaptivePoolSizer(Config.getInt("db.pool.adaptive.min", Math.max(1, minPoolSize)),
+                    Config.getInt("db.pool.adaptive.max", maxPoolSize), waitRatio);
+            targetSize = sizer.getMinSize();
+            limit = new ResizableSemaphore(targetSize);
+            adapter = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "connection-pool-sizer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            adapter.scheduleWithFixedDelay(this::adaptSafely, adaptIntervalMillis, adaptIntervalMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+        Metrics.register("ConnectionPool", this);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        long start = System.nanoTime();
+        if (limit != null) {
+            boolean acquired;
+            try {
+                if (checkoutTimeoutMillis > 0) {
+                    acquired = limit.tryAcquire(checkoutTimeoutMillis, TimeUnit.MILLISECONDS);
+                } else {
+                    limit.acquire();
+                    acquired = true;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failedCheckouts.increment();
+                throw new SQLException("Interrupted while waiting for a connection", e);
+            }
+            if (!acquired) {
+                failedCheckouts.increment();
+                throw new SQLException("Timed out after " + checkoutTimeoutMillis
+                        + " ms waiting for a connection within the pool's limit of " + targetSize);
+            }
+        }
+
+        Connection connection;
+        try {
+            connection = super.getConnection();
+        } catch (SQLException | RuntimeException e) {
+            if (limit != null) {
+                limit.release();
+            }
+            failedCheckouts.increment();
+            throw e;
+        }
+
+        long acquiredAt = System.nanoTime();
+        long acquireNanos = acquiredAt - start;
+        checkouts.increment();
+        totalAcquireNanos.add(acquireNanos);
+        maxAcquireNanos.accumulateAndGet(acquireNanos, Math::max);
+        windowCheckouts.increment();
+        windowAcquireNanos.add(acquireNanos);
+        windowPeakInUse.accumulateAndGet(inUse.incrementAndGet(), Math::max);
+        checkedOutAt.put(connection, acquiredAt);
+        return connection;
+    }
+
+    @Override
+    public void closeConnection(Connection connection) throws SQLException {
+        Long acquiredAt = checkedOutAt.remove(connection);
+        try {
+            super.closeConnection(connection);
+        } finally {
+            if (acquiredAt != null) {
+                long holdNanos = System.nanoTime() - acquiredAt;
+                checkins.increment();
+                totalHoldNanos.add(holdNanos);
+                maxHoldNanos.accumulateAndGet(holdNanos, Math::max);
+                windowCheckins.increment();
+                windowHoldNanos.add(holdNanos);
+                inUse.decrementAndGet();
+                if (limit != null) {
+                    limit.release();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (adapter != null) {
+            adapter.shutdownNow();
+        }
+        super.stop();
+    }
+
+    private void adaptSafely() {
+        try {
+            adapt();
+        } catch (RuntimeException e) {
+            LOGGER.warn("Failed to resize connection pool", e);
+        }
+    }
+
+    /**
+     * Ends the current sizing interval, and moves the limit to the size the {@link AdaptivePoolSizer} picks.
+     */
+    private void adapt() {
+        long numCheckouts = windowCheckouts.sumThenReset();
+        long acquireNanos = windowAcquireNanos.sumThenReset();
+        long numCheckins = windowCheckins.sumThenReset();
+        long holdNanos = windowHoldNanos.sumThenReset();
+        int peakInUse = windowPeakInUse.getAndSet(inUse.get());
+
+        double meanWait = numCheckouts == 0 ? 0 : (double) acquireNanos / numCheckouts;
+        double meanHold = numCheckins == 0 ? 0 : (double) holdNanos / numCheckins;
+        int size = targetSize;
+        int next = sizer.nextSize(size, meanWait, meanHold, peakInUse);
+        if (next > size) {
+            limit.release(next - size);
+        } else if (next < size) {
+            limit.reducePermits(size - next);
+        }
+        if (next != size) {
+            targetSize = next;
+            LOGGER.info("Connection pool resized from {} to {} (mean wait {} us, mean hold {} us, peak in use {})",
+                    size, next, (long) meanWait / 1000, (long) meanHold / 1000, peakInUse);
+        }
+    }
+
+    @Override
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    @Override
+    public int getTargetPoolSize() {
+        return targetSize;
+    }
+
+    @Override
+    public int getTotalConnections() {
+        try {
+            return pool == null ? -1 : pool.getNumConnectionsDefaultUser();
+        } catch (SQLException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public int getActiveConnections() {
+        try {
+            return pool == null ? -1 : pool.getNumBusyConnectionsDefaultUser();
+        } catch (SQLException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public int getIdleConnections() {
+        try {
+            return pool == null ? -1 : pool.getNumIdleConnectionsDefaultUser();
+        } catch (SQLException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public int getPendingRequests() {
+        try {
+            int waitingForLimit = limit == null ? 0 : limit.getQueueLength();
+            return pool == null ? -1 : pool.getNumThreadsAwaitingCheckoutDefaultUser() + waitingForLimit;
+        } catch (SQLException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public long getCheckouts() {
+        return checkouts.sum();
+    }
+
+    @Override
+    public long getFailedCheckouts() {
+        return failedCheckouts.sum();
+    }
+
+    @Override
+    public double getMeanAcquireMillis() {
+        long count = checkouts.sum();
+        return count == 0 ? 0 : totalAcquireNanos.sum() / (count * 1_000_000.0);
+    }
+
+    @Override
+    public double getMaxAcquireMillis() {
+        return maxAcquireNanos.get() / 1_000_000.0;
+    }
+
+    @Override
+    public double getMeanHoldMillis() {
+        long count = checkins.sum();
+        return count == 0 ? 0 : totalHoldNanos.sum() / (count * 1_000_000.0);
+    }
+
+    @Override
+    public double getMaxHoldMillis() {
+        return maxHoldNanos.get() / 1_000_000.0;
+    }
+
+    @Override
+    public long getDestroyedConnections() {
+        return ConnectionLifetimeCustomizer.getDestroyedConnections();
+    }
+
+    @Override
+    public double getMeanConnectionLifetimeMillis() {
+        return ConnectionLifetimeCustomizer.getMeanLifetimeMillis();
+    }
+
+    @Override
+    public double getMaxConnectionLifetimeMillis() {
+        return ConnectionLifetimeCustomizer.getMaxLifetimeMillis();
+    }
+
+    /**
+     * A semaphore whose number of permits can be reduced, for the adaptive limit.
+     */
+    private static class ResizableSemaphore extends Semaphore {
+
+        ResizableSemaphore(int permits) {
+            super(permits, true);
+        }
+
+        @Override
+        protected void reducePermits(int reduction) {
+            super.reducePermits(reduction);
+        }
+    }
+}
@@ -0,0 +1,341 @@
+package se325.flights.service.db;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * Brings the database schema up to date by applying versioned migration scripts, so that Hibernate only has to validate
+ * it rather than create it.
+ * <p>
+ * The scripts are the classpath resources V1.sql, V2.sql, ... in a migration directory (by default db/migration),
+ * applied in order of version. A comment on a script's first line describes it. Statements end with a semicolon at the
+ * end of a line, and may span several lines; lines starting with "--" are comments.
+ * <p>
+ * Each script applied is recorded in the SCHEMA_VERSION table along with a CRC32 checksum of its contents, so checking
+ * a database which is already up to date takes a single query. A script which has changed since it was applied, or a
+ * database at a version there's no script for, stops the migration with an {@link IllegalStateException}: once a
+ * script has been released it must never be edited - add another one instead.
+ * <p>
+ * A database which already has tables but no SCHEMA_VERSION table was created before migrations were introduced, when
+ * the service generated its schema from the mappings on every start. If it has every table V1.sql creates, it's
+ * baselined at V1 - recorded as if V1 had been applied to it - and the later scripts are applied as usual. Otherwise
+ * the migration stops with an {@link IllegalStateException} which says how to start afresh.
+ * <p>
+ * Several service instances sharing a database shouldn't be started together for the first time after a script is
+ * added, since each would try to apply it.
+ */
+public class SchemaMigrator {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SchemaMigrator.class);
+
+    public static final String HISTORY_TABLE = "SCHEMA_VERSION";
+
+    /**
+     * H2's SQL state for a table which doesn't exist
+     */
+    private static final String TABLE_NOT_FOUND = "42S02";
+
+    private static final Pattern CREATE_TABLE = Pattern.compile("^CREATE TABLE (?:IF NOT EXISTS )?\"?(\\w+)\"?",
+            Pattern.CASE_INSENSITIVE);
+
+    private final List<Migration> migrations;
+
+    /**
+     * Creates a migrator for the scripts in db/migration.
+     */
+    public SchemaMigrator() {
+        this("db/migration");
+    }
+
+    /**
+     * Creates a migrator for the scripts in the given classpath directory.
+     *
+     * @throws IllegalArgumentException if there are no scripts there
+     */
+    public SchemaMigrator(String location) {
+        migrations = Collections.unmodifiableList(load(location));
+        if (migrations.isEmpty()) {
+            throw new IllegalArgumentException("No migration scripts in " + location);
+        }
+    }
+
+    /**
+     * Gets the version of the latest migration script, which an up to date database is at.
+     */
+    public int getLatestVersion() {
+        return migrations.get(migrations.size() - 1).version;
+    }
+
+    /**
+     * Applies the scripts which haven't been applied to the given database yet, each in its own transaction.
+     *
+     * @return the number of scripts applied
+     * @throws IllegalStateException if a script has changed since it was applied, the database is at a later version
+     *                               than the latest script, or it has tables but no history and can't be baselined
+     */
+    public int migrate(Connection connection) throws SQLException {
+        List<long[]> applied = readHistory(connection);
+        if (applied == null) {
+            Set<String> existingTables = listTables(connection);
+            Migration baseline = migrations.get(0);
+            if (!existingTables.isEmpty()) {
+                Set<String> missing = new TreeSet<>(baseline.tables);
+                missing.removeAll(existingTables);
+                if (!missing.isEmpty()) {
+                    throw new IllegalStateException("The database has tables but no " + HISTORY_TABLE + " table, "
+                            + "and is missing tables which V1 creates: " + missing + ". If it was created by an "
+                            + "earlier version of the service, which re-created the schema on every start, its data "
+                            + "can be discarded: start once with db.seed=true (e.g. -Dse325.db.seed=true) to wipe and "
+                            + "re-create it, or point db.url at an empty database.");
+                }
+            }
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("CREATE TABLE " + HISTORY_TABLE + " (VERSION INT PRIMARY KEY, " +
+                        "DESCRIPTION VARCHAR(200), CHECKSUM BIGINT NOT NULL, APPLIED_AT TIMESTAMP NOT NULL, " +
+                        "EXECUTION_MS BIGINT NOT NULL)");
+            }
+            applied = Collections.emptyList();
+            if (!existingTables.isEmpty()) {
+                record(connection, baseline, "<< Baseline >> " + baseline.description, 0);
+                LOGGER.warn("Database has no schema history, but has V1's tables; baselined it at V1");
+                applied = List.of(new long[]{baseline.version, baseline.checksum});
+            }
+        }
+
+        for (long[] row : applied) {
+            int version = (int) row[0];
+            if (version > getLatestVersion()) {
+                throw new IllegalStateException("The database is at schema version " + version
+                        + ", but the latest migration is V" + getLatestVersion());
+            }
+            Migration migration = migrations.get(version - 1);
+            if (migration.checksum != row[1]) {
+                throw new IllegalStateException("Migration V" + version + " has changed since it was applied");
+            }
+        }
+        if (applied.size() == migrations.size()) {
+            return 0;
+        }
+
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            for (Migration migration : migrations.subList(applied.size(), migrations.size())) {
+                apply(connection, migration);
+            }
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+        return migrations.size() - applied.size();
+    }
+
+    /**
+     * Drops everything in the given database, including its schema history.
+     */
+    public static void clean(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("DROP ALL OBJECTS");
+        }
+    }
+
+    /**
+     * Runs the statements in the given classpath resource, e.g. db-init.sql, in one transaction.
+     */
+    public static void runScript(Connection connection, String resource) throws SQLException {
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try (Statement statement = connection.createStatement()) {
+            for (String sql : statements(read(resource))) {
+                statement.execute(sql);
+            }
+            connection.commit();
+        } catch (SQLException | RuntimeException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * Reads the (version, checksum) of each script applied to the database, in order of version.
+     *
+     * @return the history, or null if the database has no history table
+     */
+    private static List<long[]> readHistory(Connection connection) throws SQLException {
+        List<long[]> applied = new ArrayList<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT VERSION, CHECKSUM FROM " + HISTORY_TABLE
+                     + " ORDER BY VERSION")) {
+            while (rs.next()) {
+                applied.add(new long[]{rs.getInt(1), rs.getLong(2)});
+            }
+        } catch (SQLException e) {
+            if (TABLE_NOT_FOUND.equals(e.getSQLState())) {
+                return null;
+            }
+            throw e;
+        }
+        for (int i = 0; i < applied.size(); i++) {
+            if (applied.get(i)[0] != i + 1) {
+                throw new IllegalStateException("The schema history is missing version " + (i + 1));
+            }
+        }
+        return applied;
+    }
+
+    private static void apply(Connection connection, Migration migration) throws SQLException {
+        long start = System.nanoTime();
+        try (Statement statement = connection.createStatement()) {
+            for (String sql : migration.statements) {
+                statement.execute(sql);
+            }
+            long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+            record(connection, migration, migration.description, elapsedMillis);
+            connection.commit();
+            LOGGER.info("Applied migration V{} ({}) in {} ms", migration.version, migration.description,
+                    elapsedMillis);
+        } catch (SQLException | RuntimeException e) {
+            // DDL statements commit implicitly, so a script which fails part way may need repairing by hand
+            connection.rollback();
+            throw new IllegalStateException("Failed to apply migration V" + migration.version, e);
+        }
+    }
+
+    /**
+     * Records the given migration in the schema history.
+     */
+    private static void record(Connection connection, Migration migration, String description, long elapsedMillis)
+            throws SQLException {
+        try (PreparedStatement insert = connection.prepareStatement("INSERT INTO " + HISTORY_TABLE +
+                " (VERSION, DESCRIPTION, CHECKSUM, APPLIED_AT, EXECUTION_MS) VALUES (?, ?, ?, ?, ?)")) {
+            insert.setInt(1, migration.version);
+            insert.setString(2, description.length() > 200 ? description.substring(0, 200) : description);
+            insert.setLong(3, migration.checksum);
+            insert.setTimestamp(4, new Timestamp(System.currentTimeMillis()));
+            insert.setLong(5, elapsedMillis);
+            insert.executeUpdate();
+        }
+    }
+
+    /**
+     * Lists the names of the tables in the connection's current schema, in upper case.
+     */
+    private static Set<String> listTables(Connection connection) throws SQLException {
+        Set<String> tables = new HashSet<>();
+        DatabaseMetaData metaData = connection.getMetaData();
+        try (ResultSet rs = metaData.getTables(connection.getCatalog(), connection.getSchema(), "%",
+                new String[]{"TABLE"})) {
+            while (rs.next()) {
+                tables.add(rs.getString("TABLE_NAME").toUpperCase(Locale.ROOT));
+            }
+        }
+        return tables;
+    }
+
+    /**
+     * Loads V1.sql, V2.sql, ... from the given classpath directory, up to the first version which is missing.
+     */
+    private static List<Migration> load(String location) {
+        List<Migration> migrations = new ArrayList<>();
+        for (int version = 1; ; version++) {
+            String script = read(location + "/V" + version + ".sql");
+            if (script == null) {
+                return migrations;
+            }
+            migrations.add(new Migration(version, script));
+        }
+    }
+
+    /**
+     * Reads the given classpath resource, with Unix line endings so that its checksum doesn't depend on how it was
+     * checked out.
+     *
+     * @return the resource's contents, or null if there's no such resource
+     */
+    private static String read(String resource) {
+        try (InputStream in = SchemaMigrator.class.getClassLoader().getResourceAsStream(resource)) {
+            return in == null ? null : new String(in.readAllBytes(), StandardCharsets.UTF_8).replace("\r\n", "\n");
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read " + resource, e);
+        }
+    }
+
+    /**
+     * Splits a script into statements, each ending with a semicolon at the end of a line, leaving out comments.
+     */
+    private static List<String> statements(String script) {
+        List<String> statements = new ArrayList<>();
+        StringBuilder statement = new StringBuilder();
+        for (String line : script.split("\n")) {
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("--")) {
+                continue;
+            }
+            if (statement.length() > 0) {
+                statement.append('\n');
+            }
+            statement.append(trimmed);
+            if (trimmed.endsWith(";")) {
+                statement.setLength(statement.length() - 1);
+                statements.add(statement.toString());
+                statement.setLength(0);
+            }
+        }
+        if (statement.length() > 0) {
+            statements.add(statement.toString());
+        }
+        return statements;
+    }
+
+    private static class Migration {
+        private final int version;
+        private final String description;
+        private final long checksum;
+        private final List<String> statements;
+
+        /**
+         * The names of the tables the script creates, in upper case
+         */
+        private final Set<String> tables = new HashSet<>();
+
+        private Migration(int version, String script) {
+            this.version = version;
+            String firstLine = script.lines().findFirst().orElse("").trim();
+            String description = firstLine.startsWith("--") ? firstLine.substring(2).trim() : "V" + version;
+            this.description = description.length() > 200 ? description.substring(0, 200) : description;
+            CRC32 crc = new CRC32();
+            crc.update(script.getBytes(StandardCharsets.UTF_8));
+            this.checksum = crc.getValue();
+            this.statements = statements(script);
+            for (String statement : statements) {
+                Matcher matcher = CREATE_TABLE.matcher(statement);
+                if (matcher.find()) {
+                    tables.add(matcher.group(1).toUpperCase(Locale.ROOT));
+                }
+            }
+        }
+    }
+}
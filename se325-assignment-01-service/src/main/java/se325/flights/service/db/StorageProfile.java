@@ -0,0 +1,95 @@
+package se325.flights.service.db;
+
+import se325.flights.util.Config;
+
+/**
+ * Where and how H2 stores the database. The profile is chosen with the "db.profile" setting (see {@link Config}); a
+ * full JDBC URL given with "db.url" takes precedence over any profile.
+ * <ul>
+ *     <li>legacy (default) - the PageStore file ~/test, as originally configured in persistence.xml</li>
+ *     <li>memory - an in-memory database which lasts as long as the JVM. For tests.</li>
+ *     <li>file - an MVStore file at "db.path". For a single service instance.</li>
+ *     <li>server - a database at "db.path" on the H2 TCP server at "db.host":"db.port", shared by several service
+ *     instances. One instance can run the server itself, with "db.server.start" (see {@link DatabaseServer}).</li>
+ * </ul>
+ * Every profile waits up to "db.lock-timeout-ms" for a lock held by another transaction, rather than H2's default of
+ * one second, so that bursts of bookings for the same flight queue up instead of failing. The file and server profiles
+ * give H2 a page cache of "db.cache-kb" kilobytes.
+ */
+public enum StorageProfile {
+
+    LEGACY {
+        @Override
+        public String url() {
+            return "jdbc:h2:~/test;mv_store=false";
+        }
+    },
+
+    MEMORY {
+        @Override
+        public String url() {
+            // Keep the database open when its last connection closes, e.g. while the pool is being reset
+            return "jdbc:h2:mem:se325-flights;DB_CLOSE_DELAY=-1" + lockSettings();
+        }
+    },
+
+    FILE {
+        @Override
+        public String url() {
+            return "jdbc:h2:file:" + path() + ";MV_STORE=TRUE" + cacheSettings() + lockSettings();
+        }
+    },
+
+    SERVER {
+        @Override
+        public String url() {
+            return "jdbc:h2:tcp://" + Config.getString("db.host", "localhost") + ":" + DatabaseServer.port() + "/"
+                    + path() + cacheSettings() + lockSettings();
+        }
+    };
+
+    /**
+     * Gets the profile selected by the "db.profile" setting.
+     */
+    public static StorageProfile current() {
+        return Config.getEnum("db.profile", StorageProfile.class, LEGACY);
+    }
+
+    /**
+     * Gets the JDBC URL of the database: "db.url" if it's set, otherwise the URL of the current profile.
+     */
+    public static String currentUrl() {
+        return Config.getString("db.url", current().url());
+    }
+
+    /**
+     * Gets this profile's JDBC URL.
+     */
+    public abstract String url();
+
+    /**
+     * Gets the JDBC URL of the database which the {@link #SERVER} profile serves, for opening it embedded in this JVM
+     */
+    static String localUrl() {
+        return "jdbc:h2:file:" + path() + ";MV_STORE=TRUE";
+    }
+
+    /**
+     * Gets the longest a transaction waits for a lock held by another transaction, in milliseconds.
+     */
+    public static long lockTimeoutMillis() {
+        return Config.getLong("db.lock-timeout-ms", 10000);
+    }
+
+    private static String path() {
+        return Config.getString("db.path", "~/se325-flights");
+    }
+
+    private static String cacheSettings() {
+        return ";CACHE_SIZE=" + Config.getInt("db.cache-kb", 64 * 1024);
+    }
+
+    private static String lockSettings() {
+        return ";LOCK_TIMEOUT=" + lockTimeoutMillis();
+    }
+}
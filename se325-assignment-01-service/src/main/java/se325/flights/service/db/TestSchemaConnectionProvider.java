@@ -0,0 +1,90 @@
+package se325.flights.service.db;
+
+import org.hibernate.engine.jdbc.connections.spi.MultiTenantConnectionProvider;
+import org.hibernate.service.UnknownUnwrapTypeException;
+import org.hibernate.service.spi.Configurable;
+import org.hibernate.service.spi.ServiceRegistryAwareService;
+import org.hibernate.service.spi.ServiceRegistryImplementor;
+import org.hibernate.service.spi.Stoppable;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Map;
+
+/**
+ * Hands out connections from the {@link InstrumentedConnectionProvider}'s pool, switched to the schema Hibernate asks
+ * for. Used in place of that provider when {@link TestSchemas} are enabled.
+ * <p>
+ * Every connection is switched to a schema as it's checked out, so a connection last used for another schema is never
+ * handed out as it is.
+ */
+public class TestSchemaConnectionProvider implements MultiTenantConnectionProvider, Configurable, Stoppable,
+        ServiceRegistryAwareService {
+
+    private final InstrumentedConnectionProvider connections = new InstrumentedConnectionProvider();
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public void configure(Map props) {
+        connections.configure(props);
+    }
+
+    @Override
+    public void injectServices(ServiceRegistryImplementor serviceRegistry) {
+        connections.injectServices(serviceRegistry);
+    }
+
+    @Override
+    public void stop() {
+        connections.stop();
+    }
+
+    @Override
+    public Connection getAnyConnection() throws SQLException {
+        return getConnection(TestSchemas.DEFAULT_SCHEMA);
+    }
+
+    @Override
+    public void releaseAnyConnection(Connection connection) throws SQLException {
+        connections.closeConnection(connection);
+    }
+
+    @Override
+    public Connection getConnection(String schema) throws SQLException {
+        Connection connection = connections.getConnection();
+        try {
+            connection.setSchema(schema);
+        } catch (SQLException | RuntimeException e) {
+            connections.closeConnection(connection);
+            throw e;
+        }
+        return connection;
+    }
+
+    @Override
+    public void releaseConnection(String schema, Connection connection) throws SQLException {
+        connections.closeConnection(connection);
+    }
+
+    @Override
+    public boolean supportsAggressiveRelease() {
+        return connections.supportsAggressiveRelease();
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public boolean isUnwrappableAs(Class unwrapType) {
+        return unwrapType.isInstance(this) || connections.isUnwrappableAs(unwrapType);
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> unwrapType) {
+        if (unwrapType.isInstance(this)) {
+            return unwrapType.cast(this);
+        }
+        if (connections.isUnwrappableAs(unwrapType)) {
+            return connections.unwrap(unwrapType);
+        }
+        throw new UnknownUnwrapTypeException(unwrapType);
+    }
+}
@@ -0,0 +1,205 @@
+package se325.flights.service.db;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.context.spi.CurrentTenantIdentifierResolver;
+import se325.flights.util.Config;
+
+import javax.persistence.EntityManagerFactory;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Lets integration test classes each work in a database schema of their own, so that they can run in parallel against
+ * one service instance without seeing each other's data. Enabled with the "db.test-schemas" setting (see
+ * {@link Config}), along with "db.seed". Never enable it for a deployed service, since it lets any client choose which
+ * schema its requests use.
+ * <p>
+ * A request with the header "X-Test-Schema: BookingIT" is handled in the schema TEST_BOOKINGIT. The header is read by
+ * the {@link se325.flights.service.RequestEntityManagerFilter}, which makes that schema current for the thread handling
+ * the request. Hibernate's schema-based multi-tenancy then routes every connection which that thread checks out to it
+ * (see {@link TestSchemaConnectionProvider}), and keeps each schema's entities apart in the second-level cache.
+ * <p>
+ * Each test schema is created as a copy of SEED_TEMPLATE, which is copied from the default schema as soon as that's
+ * been filled from db-init.sql, and is copied again whenever the test resets its schema.
+ * <p>
+ * Only work done on the thread handling a request is routed. The service's background work - dispatching the outbox
+ * and processing the subscriptions it triggers, the booking journal, archiving flights, and flushing sessions and
+ * revocations - only ever sees the default schema, as do suspended requests which are resumed on another thread. Tests
+ * which rely on these must use the default schema, and can't run alongside each other.
+ */
+public final class TestSchemas {
+
+    public static final String HEADER = "X-Test-Schema";
+
+    public static final String DEFAULT_SCHEMA = "PUBLIC";
+
+    private static final String TEMPLATE_SCHEMA = "SEED_TEMPLATE";
+    private static final String PREFIX = "TEST_";
+    private static final Pattern NAME = Pattern.compile("[A-Za-z][A-Za-z0-9_]{0,47}");
+
+    private static final ThreadLocal<String> CURRENT = new ThreadLocal<>();
+
+    private TestSchemas() {
+    }
+
+    /**
+     * Gets a value indicating whether test schemas are enabled, i.e. "db.test-schemas" is set.
+     */
+    public static boolean isEnabled() {
+        return Config.getBoolean("db.test-schemas", false);
+    }
+
+    /**
+     * Gets the schema which requests with the given {@link #HEADER} value use.
+     *
+     * @throws IllegalArgumentException if the name isn't a letter followed by up to 47 letters, digits or underscores
+     */
+    public static String schemaFor(String name) {
+        if (name == null || !NAME.matcher(name).matches()) {
+            throw new IllegalArgumentException("Invalid test schema name: " + name);
+        }
+        return PREFIX + name.toUpperCase();
+    }
+
+    /**
+     * Gets the schema which connections checked out by this thread use.
+     */
+    public static String current() {
+        String schema = CURRENT.get();
+        return schema == null ? DEFAULT_SCHEMA : schema;
+    }
+
+    /**
+     * Sets the schema which connections checked out by this thread use, or goes back to the default schema if it's
+     * null. Called by the {@link se325.flights.service.RequestEntityManagerFilter} around each request.
+     */
+    public static void setCurrent(String schema) {
+        if (schema == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(schema);
+        }
+    }
+
+    /**
+     * Copies the default schema to the template which test schemas are copied from. Called once the default schema
+     * has been filled from db-init.sql.
+     */
+    public static void createTemplate(Connection connection) throws SQLException {
+        copy(connection, DEFAULT_SCHEMA, TEMPLATE_SCHEMA);
+    }
+
+    /**
+     * Puts the given test schema back to how it was when the database was seeded, creating it if it doesn't exist.
+     * Other schemas, including the default one, aren't affected.
+     *
+     * @param schema the schema, as returned by {@link #schemaFor}
+     */
+    public static void reset(EntityManagerFactory emf, String schema) {
+        if (!schema.startsWith(PREFIX)) {
+            throw new IllegalArgumentException("Not a test schema: " + schema);
+        }
+        // Not the current schema, which may not exist yet
+        try (Session session = emf.unwrap(SessionFactory.class).withOptions()
+                .tenantIdentifier(DEFAULT_SCHEMA)
+                .openSession()) {
+            session.beginTransaction();
+            session.doWork(connection -> copy(connection, TEMPLATE_SCHEMA, schema));
+            session.getTransaction().commit();
+        }
+    }
+
+    /**
+     * Replaces the target schema with a copy of the source schema: the target is created by the {@link SchemaMigrator},
+     * then every table's rows are copied, and identity columns are restarted after them.
+     */
+    private static void copy(Connection connection, String source, String target) throws SQLException {
+        String schema = connection.getSchema();
+        try (Statement statement = connection.createStatement()) {
+            if (!DEFAULT_SCHEMA.equals(source) && !schemaExists(statement, source)) {
+                throw new IllegalStateException("There's no " + source + " schema to copy; test schemas need db.seed");
+            }
+            statement.execute("DROP SCHEMA IF EXISTS " + quote(target) + " CASCADE");
+            statement.execute("CREATE SCHEMA " + quote(target));
+            connection.setSchema(target);
+            new SchemaMigrator().migrate(connection);
+
+            List<String> tables = new ArrayList<>();
+            try (ResultSet rs = statement.executeQuery("SELECT TABLE_NAME FROM INFORMATION_SCHEMA.TABLES " +
+                    "WHERE TABLE_SCHEMA = '" + source + "' AND TABLE_TYPE = 'TABLE' AND TABLE_NAME <> '"
+                    + SchemaMigrator.HISTORY_TABLE + "'")) {
+                while (rs.next()) {
+                    tables.add(rs.getString(1));
+                }
+            }
+            // Per table rather than SET REFERENTIAL_INTEGRITY, which would affect every schema
+            for (String table : tables) {
+                statement.execute("ALTER TABLE " + quote(target, table) + " SET REFERENTIAL_INTEGRITY FALSE");
+            }
+            for (String table : tables) {
+                statement.execute("INSERT INTO " + quote(target, table) + " SELECT * FROM " + quote(source, table));
+            }
+            for (String table : tables) {
+                statement.execute("ALTER TABLE " + quote(target, table) + " SET REFERENTIAL_INTEGRITY TRUE NOCHECK");
+            }
+
+            List<String[]> identityColumns = new ArrayList<>();
+            try (ResultSet rs = statement.executeQuery("SELECT TABLE_NAME, COLUMN_NAME FROM " +
+                    "INFORMATION_SCHEMA.COLUMNS WHERE TABLE_SCHEMA = '" + target + "' AND SEQUENCE_NAME IS NOT NULL")) {
+                while (rs.next()) {
+                    identityColumns.add(new String[]{rs.getString(1), rs.getString(2)});
+                }
+            }
+            for (String[] column : identityColumns) {
+                long next;
+                try (ResultSet rs = statement.executeQuery("SELECT COALESCE(MAX(" + quote(column[1]) + "), 0) + 1 "
+                        + "FROM " + quote(target, column[0]))) {
+                    rs.next();
+                    next = rs.getLong(1);
+                }
+                statement.execute("ALTER TABLE " + quote(target, column[0]) + " ALTER COLUMN " + quote(column[1])
+                        + " RESTART WITH " + next);
+            }
+        } finally {
+            connection.setSchema(schema);
+        }
+    }
+
+    private static boolean schemaExists(Statement statement, String schema) throws SQLException {
+        try (ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM INFORMATION_SCHEMA.SCHEMATA " +
+                "WHERE SCHEMA_NAME = '" + schema + "'")) {
+            rs.next();
+            return rs.getInt(1) > 0;
+        }
+    }
+
+    private static String quote(String schema, String table) {
+        return quote(schema) + '.' + quote(table);
+    }
+
+    private static String quote(String identifier) {
+        return '"' + identifier.replace("\"", "\"\"") + '"';
+    }
+
+    /**
+     * Tells Hibernate which schema a session opened by the current thread uses, if it isn't given one explicitly.
+     */
+    public static class Resolver implements CurrentTenantIdentifierResolver {
+
+        @Override
+        public String resolveCurrentTenantIdentifier() {
+            return current();
+        }
+
+        @Override
+        public boolean validateExistingCurrentSessions() {
+            return false;
+        }
+    }
+}
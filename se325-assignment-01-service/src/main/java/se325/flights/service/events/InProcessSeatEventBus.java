@@ -0,0 +1,36 @@
+package se325.flights.service.events;
+
+import java.util.Collection;
+import java.util.function.LongConsumer;
+
+/**
+ * A {@link SeatEventBus} for a single service instance, which delivers published changes straight to the local
+ * listener.
+ */
+public class InProcessSeatEventBus implements SeatEventBus {
+
+    private volatile LongConsumer listener;
+
+    @Override
+    public void start(LongConsumer listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void publish(Collection<Long> flightIds) {
+        LongConsumer listener = this.listener;
+        if (listener != null) {
+            flightIds.forEach(listener::accept);
+        }
+    }
+
+    @Override
+    public boolean retainsDispatchedEvents() {
+        return false;
+    }
+
+    @Override
+    public void stop() {
+        listener = null;
+    }
+}
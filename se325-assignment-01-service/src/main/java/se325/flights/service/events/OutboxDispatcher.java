@@ -0,0 +1,207 @@
+package se325.flights.service.events;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se325.flights.domain.SeatAvailabilityEvent;
+import se325.flights.service.PersistenceManager;
+import se325.flights.service.SubscriptionManager;
+import se325.flights.service.db.StorageProfile;
+import se325.flights.util.Config;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Implements the transactional outbox for seat availability changes. Code which books or cancels seats calls
+ * {@link #record(EntityManager, long)} inside its transaction, and {@link #signal()} once that transaction has
+ * committed. A background thread then reads this instance's undispatched outbox rows in batches, and publishes them on
+ * the configured {@link SeatEventBus}, which in turn hands them to the {@link SubscriptionManager}.
+ * <p>
+ * The bus is selected with the "events.bus" setting (see {@link Config}):
+ * <ul>
+ *     <li>in-process (default) - for a single service instance</li>
+ *     <li>shared-database - for several instances sharing one database. Each instance identifies the rows it writes
+ *     with "events.node-id", which must be set, and must stay the same when the instance restarts, so that it goes on
+ *     to dispatch the rows it wrote before it stopped</li>
+ * </ul>
+ * Singleton so that any resource instance can record events on the same dispatcher.
+ */
+public class OutboxDispatcher {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OutboxDispatcher.class);
+
+    public enum BusType {
+        IN_PROCESS, SHARED_DATABASE
+    }
+
+    private static class Holder {
+        private static final OutboxDispatcher INSTANCE = new OutboxDispatcher();
+    }
+
+    public static OutboxDispatcher instance() {
+        return Holder.INSTANCE;
+    }
+
+    private final String nodeId;
+    private final int batchSize = Config.getInt("events.batch-size", 100);
+    private final long pollIntervalMillis = Config.getLong("events.poll-interval-ms", 200);
+    private final SeatEventBus bus;
+
+    /**
+     * Released whenever there may be new rows to dispatch
+     */
+    private final Semaphore wakeUp = new Semaphore(0);
+
+    private volatile Thread dispatcherThread;
+
+    private OutboxDispatcher() {
+        BusType busType = Config.getEnum("events.bus", BusType.class, BusType.IN_PROCESS);
+        if (busType == BusType.SHARED_DATABASE) {
+            nodeId = Config.getString("events.node-id", null);
+            if (nodeId == null) {
+                throw new IllegalStateException("events.node-id must be set when events.bus is shared-database");
+            }
+            // A row's id can go unseen for as long as the transaction which wrote it waits for a lock, so it isn't
+            // given up on any sooner
+            long lockTimeoutMillis = StorageProfile.lockTimeoutMillis();
+            long settleMillis = Config.getLong("events.settle-ms", lockTimeoutMillis);
+            if (settleMillis < lockTimeoutMillis) {
+                LOGGER.warn("events.settle-ms ({}) is shorter than db.lock-timeout-ms, using {} instead", settleMillis,
+                        lockTimeoutMillis);
+                settleMillis = lockTimeoutMillis;
+            }
+            bus = new SharedDatabaseSeatEventBus(nodeId, batchSize, pollIntervalMillis, settleMillis,
+                    Config.getLong("events.retention-ms", 60000));
+        } else {
+            nodeId = Config.getString("events.node-id", UUID.randomUUID().toString());
+            bus = new InProcessSeatEventBus();
+        }
+        start();
+    }
+
+    /**
+     * Records a change to the seats available on the given flight. Must be called inside the transaction which makes
+     * the change, so that the event is committed (or rolled back) along with it.
+     *
+     * @param em       the entity manager whose transaction is making the change
+     * @param flightId the id of the flight whose seats have changed
+     */
+    public void record(EntityManager em, long flightId) {
+        em.persist(new SeatAvailabilityEvent(flightId, nodeId));
+    }
+
+    /**
+     * Wakes the dispatcher, so that events committed by the caller are delivered without waiting for the next poll.
+     */
+    public void signal() {
+        if (wakeUp.availablePermits() == 0) {
+            wakeUp.release();
+        }
+    }
+
+    /**
+     * Starts dispatching events. Called when the dispatcher is created, and after the database has been reset.
+     */
+    public synchronized void start() {
+        if (dispatcherThread != null) {
+            return;
+        }
+        bus.start(flightId -> SubscriptionManager.instance().processSubscriptions(flightId));
+        dispatcherThread = new Thread(this::run, "outbox-dispatcher");
+        dispatcherThread.setDaemon(true);
+        dispatcherThread.start();
+    }
+
+    /**
+     * Stops dispatching events, and waits for any dispatch which is underway to finish. Undispatched rows remain in the
+     * outbox, and are dispatched once the dispatcher is started again.
+     */
+    public synchronized void stop() {
+        Thread thread = dispatcherThread;
+        if (thread == null) {
+            return;
+        }
+        dispatcherThread = null;
+        bus.stop();
+        signal();
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        Thread self = Thread.currentThread();
+        while (dispatcherThread == self) {
+            try {
+                dispatchPending();
+            } catch (RuntimeException e) {
+                LOGGER.warn("Failed to dispatch seat availability events", e);
+            }
+            try {
+                wakeUp.tryAcquire(pollIntervalMillis, TimeUnit.MILLISECONDS);
+                wakeUp.drainPermits();
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Publishes this instance's undispatched outbox rows, oldest first, one batch at a time. Rows are only marked as
+     * dispatched (or deleted) after they've been published, so delivery is at-least-once; processing a flight's
+     * subscriptions twice is harmless. With a bus that doesn't share rows between instances, every undispatched row
+     * belongs to this instance, including rows left behind by a previous run.
+     */
+    private void dispatchPending() {
+        EntityManager em = PersistenceManager.instance().createEntityManager();
+        try {
+            List<Object[]> rows;
+            do {
+                TypedQuery<Object[]> query;
+                if (bus.retainsDispatchedEvents()) {
+                    query = em.createQuery("SELECT e.id, e.flightId FROM SeatAvailabilityEvent e " +
+                                    "WHERE e.nodeId = :nodeId AND e.dispatched = false ORDER BY e.id", Object[].class)
+                            .setParameter("nodeId", nodeId);
+                } else {
+                    query = em.createQuery("SELECT e.id, e.flightId FROM SeatAvailabilityEvent e " +
+                            "WHERE e.dispatched = false ORDER BY e.id", Object[].class);
+                }
+                rows = query.setMaxResults(batchSize).getResultList();
+                if (rows.isEmpty()) {
+                    return;
+                }
+
+                Set<Long> flightIds = new LinkedHashSet<>();
+                rows.forEach(row -> flightIds.add((Long) row[1]));
+                bus.publish(flightIds);
+
+                List<Long> ids = rows.stream().map(row -> (Long) row[0]).collect(Collectors.toList());
+                em.getTransaction().begin();
+                if (bus.retainsDispatchedEvents()) {
+                    em.createQuery("UPDATE SeatAvailabilityEvent e SET e.dispatched = true WHERE e.id IN :ids")
+                            .setParameter("ids", ids)
+                            .executeUpdate();
+                } else {
+                    em.createQuery("DELETE FROM SeatAvailabilityEvent e WHERE e.id IN :ids")
+                            .setParameter("ids", ids)
+                            .executeUpdate();
+                }
+                em.getTransaction().commit();
+            } while (rows.size() == batchSize);
+        } finally {
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+            em.close();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package se325.flights.service.events;
+
+import java.util.Collection;
+import java.util.function.LongConsumer;
+
+/**
+ * Delivers seat availability changes to the subscription processing of every service instance that needs to see them.
+ * The {@link OutboxDispatcher} publishes changes read from this instance's outbox; it's up to the bus to get them to
+ * the listener of this instance and, in a multi-node deployment, to the listeners of all other instances.
+ */
+public interface SeatEventBus {
+
+    /**
+     * Starts delivering events to the given listener.
+     *
+     * @param listener called with the id of each flight whose seat availability has changed
+     */
+    void start(LongConsumer listener);
+
+    /**
+     * Publishes changes which were committed on this instance.
+     *
+     * @param flightIds the ids of the flights whose seat availability has changed, without duplicates
+     */
+    void publish(Collection<Long> flightIds);
+
+    /**
+     * Gets a value indicating whether outbox rows must be kept after they've been published by this instance, because
+     * other instances still need to read them.
+     *
+     * @return true if dispatched rows should be kept, false if they can be deleted straight away
+     */
+    boolean retainsDispatchedEvents();
+
+    /**
+     * Stops delivering events.
+     */
+    void stop();
+}
@@ -0,0 +1,206 @@
+package se325.flights.service.events;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se325.flights.service.PersistenceManager;
+
+import javax.persistence.EntityManager;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+
+/**
+ * A {@link SeatEventBus} for several service instances sharing one database. Changes published by this instance are
+ * delivered to the local listener straight away; changes made by other instances are picked up by polling the shared
+ * outbox table for rows written by other nodes.
+ * <p>
+ * Outbox ids are allocated when a row is inserted, not when its transaction commits, so a row with a lower id can
+ * become visible after one with a higher id. Every id skipped over as rows are read is remembered as missing, and each
+ * poll looks for the missing ids again, until they turn up or the "settle" period has passed since they were first
+ * missed. Only this instance's clock is used to time that, not the times written by other instances. An id can also go
+ * missing for good, e.g. if its transaction was rolled back, so the settle period should be at least as long as the
+ * longest a transaction writing a row can last.
+ * <p>
+ * Rows are kept for a retention period so that every instance has a chance to read them, then deleted by whichever
+ * instance gets there first. An instance starts by reading every row still kept, so it delivers the changes made while
+ * it was stopped, if it wasn't stopped for longer than the retention period.
+ */
+public class SharedDatabaseSeatEventBus implements SeatEventBus {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SharedDatabaseSeatEventBus.class);
+
+    /**
+     * The most ids below a row which are remembered as missing, e.g. when the first row read has a high id because
+     * every row before it has been deleted
+     */
+    private static final long MAX_TRACKED_GAP = 1000;
+
+    private final String nodeId;
+    private final int batchSize;
+    private final long pollIntervalMillis;
+    private final long settleMillis;
+    private final long retentionMillis;
+
+    private volatile LongConsumer listener;
+    private ScheduledExecutorService poller;
+
+    /**
+     * The highest outbox id read so far. Starts at 0, so that every row still kept is read.
+     */
+    private long cursor;
+
+    /**
+     * Ids below the cursor which haven't been read yet, mapped to the time (by this instance's clock) they were first
+     * missed
+     */
+    private final NavigableMap<Long, Long> missing = new TreeMap<>();
+
+    private long lastPurge;
+
+    public SharedDatabaseSeatEventBus(String nodeId, int batchSize, long pollIntervalMillis, long settleMillis,
+                                      long retentionMillis) {
+        this.nodeId = nodeId;
+        this.batchSize = batchSize;
+        this.pollIntervalMillis = pollIntervalMillis;
+        this.settleMillis = settleMillis;
+        this.retentionMillis = retentionMillis;
+    }
+
+    @Override
+    public synchronized void start(LongConsumer listener) {
+        this.listener = listener;
+        this.cursor = 0;
+        this.missing.clear();
+        this.poller = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "seat-event-poller");
+            thread.setDaemon(true);
+            return thread;
+        });
+        poller.scheduleWithFixedDelay(this::pollSafely, 0, pollIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void publish(Collection<Long> flightIds) {
+        LongConsumer listener = this.listener;
+        if (listener != null) {
+            flightIds.forEach(listener::accept);
+        }
+    }
+
+    @Override
+    public boolean retainsDispatchedEvents() {
+        return true;
+    }
+
+    /**
+     * Stops polling, and waits for any poll which is underway to finish, so that nothing is delivered after this returns.
+     */
+    @Override
+    public void stop() {
+        ScheduledExecutorService poller;
+        synchronized (this) {
+            listener = null;
+            poller = this.poller;
+            this.poller = null;
+        }
+        if (poller == null) {
+            return;
+        }
+        poller.shutdownNow();
+        try {
+            poller.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void pollSafely() {
+        try {
+            poll();
+        } catch (RuntimeException e) {
+            LOGGER.warn("Failed to poll seat availability events", e);
+        }
+    }
+
+    private void poll() {
+        EntityManager em = PersistenceManager.instance().createEntityManager();
+        try {
+            long now = System.currentTimeMillis();
+            Set<Long> flightIds = new LinkedHashSet<>();
+
+            // Rows which committed late, behind rows already read. This instance's own rows are read too, since they
+            // fill gaps as well.
+            if (!missing.isEmpty()) {
+                List<Object[]> late = em.createQuery("SELECT e.id, e.flightId, e.nodeId FROM SeatAvailabilityEvent e " +
+                                "WHERE e.id >= :first AND e.id <= :last", Object[].class)
+                        .setParameter("first", missing.firstKey())
+                        .setParameter("last", missing.lastKey())
+                        .getResultList();
+                for (Object[] row : late) {
+                    if (missing.remove((Long) row[0]) != null) {
+                        collect(row, flightIds);
+                    }
+                }
+                missing.values().removeIf(missedAt -> missedAt < now - settleMillis);
+            }
+
+            // New rows, in batches
+            List<Object[]> rows;
+            do {
+                rows = em.createQuery("SELECT e.id, e.flightId, e.nodeId FROM SeatAvailabilityEvent e " +
+                                "WHERE e.id > :cursor ORDER BY e.id", Object[].class)
+                        .setParameter("cursor", cursor)
+                        .setMaxResults(batchSize)
+                        .getResultList();
+                for (Object[] row : rows) {
+                    long id = (Long) row[0];
+                    for (long gap = Math.max(cursor + 1, id - MAX_TRACKED_GAP); gap < id; gap++) {
+                        missing.put(gap, now);
+                    }
+                    cursor = id;
+                    collect(row, flightIds);
+                }
+            } while (rows.size() == batchSize);
+
+            LongConsumer listener = this.listener;
+            if (listener != null) {
+                flightIds.forEach(listener::accept);
+            }
+
+            if (now - lastPurge >= retentionMillis) {
+                purge(em, now - retentionMillis);
+                lastPurge = now;
+            }
+        } finally {
+            em.close();
+        }
+    }
+
+    /**
+     * Collects the flight id of the given row, unless this instance wrote it, and has published it already.
+     */
+    private void collect(Object[] row, Set<Long> flightIds) {
+        if (!nodeId.equals(row[2])) {
+            flightIds.add((Long) row[1]);
+        }
+    }
+
+    /**
+     * Deletes dispatched rows older than the given time.
+     */
+    private void purge(EntityManager em, long olderThan) {
+        em.getTransaction().begin();
+        try {
+            em.createQuery("DELETE FROM SeatAvailabilityEvent e WHERE e.dispatched = true AND e.createdAt < :olderThan")
+                    .setParameter("olderThan", olderThan)
+                    .executeUpdate();
+            em.getTransaction().commit();
+        } finally {
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+        }
+    }
+}
@@ -0,0 +1,629 @@
+package se325.flights.service.journal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se325.flights.service.PersistenceManager;
+import se325.flights.util.Config;
+import se325.flights.util.Metrics;
+
+import javax.persistence.EntityManager;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * An append-only journal of bookings and cancellations, kept alongside the database as a durable record of them that
+ * doesn't wait on the database's commits, along with the {@link SeatOccupancy} it implies.
+ * <p>
+ * Records (see {@link JournalRecord}) are appended to memory-mapped segment files of "journal.segment-bytes" bytes in
+ * the "journal.dir" directory (see {@link Config}). A single background thread forces the current segment to disk;
+ * callers wait for it, or are notified through {@link #whenDurable}, and every record appended while it's forcing is
+ * written by its next force, so concurrent bookings share one fsync rather than queueing for one each.
+ * <p>
+ * Every "journal.snapshot-interval-ms", and when the journal is closed, the seat occupancy is written to a snapshot
+ * file along with the sequence number of the last record it includes, and segments which only hold older records are
+ * deleted. Opening the journal loads the latest snapshot and replays the records after it. If there is neither a
+ * snapshot nor a journal yet, the occupancy is read from the database, with one query, and snapshotted.
+ * <p>
+ * The database remains the record of which seats are booked: bookings are committed to it before they're journaled,
+ * and a booking is acknowledged once it has committed, without waiting for its journal record to reach the disk (see
+ * {@link se325.flights.service.booking.BookingCommitter}). So the journal can miss changes - bookings committed just
+ * before a crash, bookings made by other service instances sharing the database, or bookings deleted in bulk other
+ * than through {@link #recordArchival}. With "journal.reconcile" set, opening the journal also reads the booked seats
+ * from the database, with one query, and corrects any flight which differs, snapshotting the result. That reads every
+ * booked seat, so it's off by default, and opening the journal reads nothing from the database unless there's no
+ * snapshot or journal yet. Between openings, the occupancy only reflects the changes recorded on this instance.
+ * <p>
+ * Nothing in the service makes booking decisions from the occupancy: it can be stale, and the database's seat
+ * constraint is what prevents double bookings. It's there to be inspected, and to be checked against the database.
+ * <p>
+ * The journal is off unless "journal.dir" is set, in which case recording does nothing.
+ * <p>
+ * Singleton so that every booking on this instance is appended to the same journal, in order.
+ */
+public class BookingJournal implements BookingJournalMXBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BookingJournal.class);
+
+    private static class Holder {
+        private static final BookingJournal INSTANCE = new BookingJournal(
+                directory(Config.getString("journal.dir", null)),
+                Config.getInt("journal.segment-bytes", 16 * 1024 * 1024),
+                Config.getLong("journal.snapshot-interval-ms", 60000),
+                Config.getBoolean("journal.reconcile", false));
+
+        static {
+            Metrics.register("BookingJournal", INSTANCE);
+        }
+
+        private static Path directory(String setting) {
+            if (setting == null) {
+                return null;
+            }
+            return setting.startsWith("~")
+                    ? Paths.get(System.getProperty("user.home"), setting.substring(1))
+                    : Paths.get(setting);
+        }
+    }
+
+    public static BookingJournal instance() {
+        return Holder.INSTANCE;
+    }
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final long snapshotIntervalMillis;
+    private final boolean reconcile;
+
+    private final SeatOccupancy occupancy = new SeatOccupancy();
+
+    /**
+     * Open segments, oldest first. Records are appended to the last one.
+     */
+    private final List<JournalSegment> segments = new ArrayList<>();
+
+    private boolean open;
+    private long nextSequence;
+    private volatile long writtenSequence;
+    private volatile long snapshotSequence;
+
+    /**
+     * Guards durableSequence, flushing and durableWaiters, and is notified when either of the first two changes
+     */
+    private final Object flushMonitor = new Object();
+    private long durableSequence;
+    private boolean flushing;
+
+    /**
+     * Futures returned by {@link #whenDurable}, by the sequence number they're waiting for
+     */
+    private final NavigableMap<Long, CompletableFuture<Void>> durableWaiters = new TreeMap<>();
+    private Thread flusher;
+
+    /**
+     * Stops two snapshots being written at once
+     */
+    private final Object snapshotLock = new Object();
+    private ScheduledExecutorService snapshotScheduler;
+
+    private final AtomicLong recordsAppended = new AtomicLong();
+    private final AtomicLong fsyncs = new AtomicLong();
+    private final AtomicLong snapshots = new AtomicLong();
+    private volatile long recordsReplayed;
+    private volatile long lastRecoveryMillis;
+    private volatile int flightsReconciled;
+
+    /**
+     * Creates a journal, and opens it if a directory is given.
+     *
+     * @param directory              the directory to keep the journal in, or null to disable it
+     * @param segmentBytes           the size of each segment file
+     * @param snapshotIntervalMillis the time between snapshots, or 0 to only snapshot when asked and when closed
+     * @param reconcile              true to correct the rebuilt seat occupancy from the database when opening
+     */
+    public BookingJournal(Path directory, int segmentBytes, long snapshotIntervalMillis, boolean reconcile) {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.snapshotIntervalMillis = snapshotIntervalMillis;
+        this.reconcile = reconcile;
+        open();
+    }
+
+    /**
+     * Rebuilds the seat occupancy from the latest snapshot and the journal after it, reconciles it with the database if
+     * required, and starts accepting records. Called when this object is created, and after the journal has been
+     * reset.
+     *
+     * @throws UncheckedIOException if the journal can't be read
+     */
+    public synchronized void open() {
+        if (!isEnabled() || open) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            Files.createDirectories(directory);
+            occupancy.clear();
+            List<Path> files = listSegments();
+            OccupancySnapshot snapshot = OccupancySnapshot.readLatest(directory);
+            boolean fromDatabase = snapshot == null && files.isEmpty();
+            if (fromDatabase) {
+                snapshot = readFromDatabase();
+                snapshot.write(directory);
+            } else if (snapshot == null) {
+                LOGGER.warn("No seat occupancy snapshot in {}, replaying the whole journal", directory);
+            }
+            long snapshotSeq = snapshot == null ? 0 : snapshot.getSequence();
+            if (snapshot != null) {
+                snapshot.getSeatsByFlight().forEach(occupancy::book);
+            }
+
+            long last = snapshotSeq;
+            long segmentLast = last;
+            long replayed = 0;
+            for (Path file : files) {
+                JournalSegment segment = JournalSegment.open(file);
+                segments.add(segment);
+                if (segment.getFirstSequence() > last + 1) {
+                    LOGGER.warn("Booking journal records {} to {} are missing", last + 1,
+                            segment.getFirstSequence() - 1);
+                }
+                long[] applied = {0};
+                segmentLast = segment.replay(record -> {
+                    if (record.getSequence() > snapshotSeq) {
+                        occupancy.apply(record);
+                        applied[0]++;
+                    }
+                });
+                replayed += applied[0];
+                last = Math.max(last, segmentLast);
+            }
+            if (!segments.isEmpty() && segmentLast == last) {
+                current().truncate();
+            } else {
+                // Start a new segment, rather than leave a gap in the sequence numbers within one
+                segments.add(JournalSegment.create(directory, last + 1, segmentBytes));
+            }
+
+            int reconciled = 0;
+            long latestSnapshot = snapshotSeq;
+            if (reconcile && !fromDatabase) {
+                reconciled = occupancy.reconcile(readFromDatabase().getSeatsByFlight());
+                if (reconciled > 0) {
+                    LOGGER.warn("Seat occupancy of {} flights differed from the database, and was corrected",
+                            reconciled);
+                    new OccupancySnapshot(last, occupancy.copy()).write(directory);
+                    latestSnapshot = last;
+                    deleteSegmentsBefore(last);
+                }
+            }
+
+            nextSequence = last + 1;
+            writtenSequence = last;
+            snapshotSequence = latestSnapshot;
+            synchronized (flushMonitor) {
+                durableSequence = last;
+                flushing = true;
+            }
+            open = true;
+            recordsReplayed = replayed;
+            flightsReconciled = reconciled;
+            lastRecoveryMillis = Duration.ofNanos(System.nanoTime() - start).toMillis();
+            LOGGER.info("Rebuilt seat occupancy of {} flights from snapshot #{} and {} journal records in {} ms",
+                    occupancy.getFlightCount(), snapshotSeq, replayed, lastRecoveryMillis);
+        } catch (IOException e) {
+            closeSegments();
+            throw new UncheckedIOException("Failed to open the booking journal in " + directory, e);
+        }
+
+        flusher = new Thread(this::flushLoop, "booking-journal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+        if (snapshotIntervalMillis > 0) {
+            snapshotScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "booking-journal-snapshot");
+                thread.setDaemon(true);
+                return thread;
+            });
+            snapshotScheduler.scheduleWithFixedDelay(this::snapshotSafely, snapshotIntervalMillis,
+                    snapshotIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Snapshots the seat occupancy, writes every outstanding record to disk, and closes the journal.
+     */
+    public void close() {
+        close(true);
+    }
+
+    /**
+     * Deletes the journal and its snapshots, and opens it again with the seat occupancy read from the database. Used
+     * when the database has been reset.
+     */
+    public void reset() {
+        if (!isEnabled()) {
+            return;
+        }
+        close(false);
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.collect(Collectors.toList())) {
+                Files.delete(file);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to delete the booking journal in " + directory, e);
+        }
+        open();
+    }
+
+    /**
+     * Records that the given seats on the given flight have been booked by the given user. Call this once the booking
+     * has committed. Returns once the record is on disk.
+     *
+     * @return the record's sequence number, or 0 if the journal is disabled
+     */
+    public long recordBooking(long flightId, long userId, List<String> seatCodes) {
+        return record(JournalRecord.Op.BOOK, flightId, userId, seatCodes);
+    }
+
+    /**
+     * Records that the given user's booking of the given seats on the given flight has been cancelled. Call this once
+     * the cancellation has committed. Returns once the record is on disk.
+     *
+     * @return the record's sequence number, or 0 if the journal is disabled
+     */
+    public long recordCancellation(long flightId, long userId, List<String> seatCodes) {
+        return record(JournalRecord.Op.CANCEL, flightId, userId, seatCodes);
+    }
+
+    /**
+     * Records that the given flights have been archived, so none of their seats are booked any more. Call this once
+     * the archival has committed. Returns once the records are on disk.
+     *
+     * @return the last record's sequence number, or 0 if the journal is disabled or no flights are given
+     */
+    public long recordArchival(Collection<Long> flightIds) {
+        if (!isEnabled()) {
+            return 0;
+        }
+        long sequence = 0;
+        for (long flightId : flightIds) {
+            sequence = append(JournalRecord.Op.ARCHIVE, flightId, 0, List.of());
+        }
+        awaitDurable(sequence);
+        return sequence;
+    }
+
+    /**
+     * Appends a record of a booking, like {@link #recordBooking}, but without waiting for it to be written to disk. Lets
+     * several records be appended and then waited for together, with {@link #awaitDurable}.
+     *
+     * @return the record's sequence number, or 0 if the journal is disabled
+     */
+    public long appendBooking(long flightId, long userId, List<String> seatCodes) {
+        return isEnabled() ? append(JournalRecord.Op.BOOK, flightId, userId, seatCodes) : 0;
+    }
+
+    /**
+     * Waits until every record up to the given sequence number has been written to disk.
+     *
+     * @throws IllegalStateException if the journal is closed first, or the calling thread is interrupted
+     */
+    public void awaitDurable(long sequence) {
+        synchronized (flushMonitor) {
+            while (durableSequence < sequence) {
+                if (!flushing) {
+                    throw new IllegalStateException("The booking journal was closed before record #" + sequence
+                            + " was written");
+                }
+                try {
+                    flushMonitor.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted waiting for record #" + sequence
+                            + " to be written", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets a future which completes once every record up to the given sequence number has been written to disk. Like
+     * {@link #awaitDurable}, but without blocking the calling thread: the future is completed by the thread which
+     * forces the journal.
+     *
+     * @return a future which completes once the record is on disk, or exceptionally with an
+     * {@link IllegalStateException} if the journal is closed first
+     */
+    public CompletableFuture<Void> whenDurable(long sequence) {
+        synchronized (flushMonitor) {
+            if (durableSequence >= sequence) {
+                return CompletableFuture.completedFuture(null);
+            }
+            if (!flushing) {
+                return CompletableFuture.failedFuture(new IllegalStateException(
+                        "The booking journal was closed before record #" + sequence + " was written"));
+            }
+            return durableWaiters.computeIfAbsent(sequence, s -> new CompletableFuture<>());
+        }
+    }
+
+    /**
+     * Gets the seats booked on each flight, as recorded in the journal, on top of the database as it was when the
+     * journal was opened. Empty if the journal is disabled.
+     */
+    public SeatOccupancy getOccupancy() {
+        return occupancy;
+    }
+
+    private long record(JournalRecord.Op op, long flightId, long userId, List<String> seatCodes) {
+        if (!isEnabled()) {
+            return 0;
+        }
+        long sequence = append(op, flightId, userId, seatCodes);
+        awaitDurable(sequence);
+        return sequence;
+    }
+
+    private synchronized long append(JournalRecord.Op op, long flightId, long userId, List<String> seatCodes) {
+        if (!open) {
+            throw new IllegalStateException("The booking journal is closed");
+        }
+        JournalRecord record = new JournalRecord(nextSequence, op, flightId, userId, seatCodes);
+        ByteBuffer encoded = record.encode();
+        if (!current().append(encoded)) {
+            // Force the full segment now, since the flusher only forces the current one
+            current().force();
+            try {
+                segments.add(JournalSegment.create(directory, record.getSequence(), segmentBytes));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to create a booking journal segment", e);
+            }
+            if (!current().append(encoded)) {
+                throw new IllegalArgumentException("Record is larger than a journal segment: " + record);
+            }
+        }
+        nextSequence++;
+        occupancy.apply(record);
+        writtenSequence = record.getSequence();
+        recordsAppended.incrementAndGet();
+        synchronized (flushMonitor) {
+            flushMonitor.notifyAll();
+        }
+        return record.getSequence();
+    }
+
+    /**
+     * Forces the current segment whenever records have been appended since it was last forced, until the journal is
+     * closed and every record has been forced.
+     */
+    private void flushLoop() {
+        while (true) {
+            synchronized (flushMonitor) {
+                while (durableSequence >= writtenSequence) {
+                    if (!flushing) {
+                        return;
+                    }
+                    try {
+                        flushMonitor.wait();
+                    } catch (InterruptedException e) {
+                        // Only interrupted by close, which stops the loop once everything has been forced
+                    }
+                }
+            }
+            JournalSegment segment;
+            long target;
+            synchronized (this) {
+                segment = current();
+                target = writtenSequence;
+            }
+            segment.force();
+            fsyncs.incrementAndGet();
+            List<CompletableFuture<Void>> written;
+            synchronized (flushMonitor) {
+                durableSequence = target;
+                flushMonitor.notifyAll();
+                Map<Long, CompletableFuture<Void>> waiters = durableWaiters.headMap(target, true);
+                written = new ArrayList<>(waiters.values());
+                waiters.clear();
+            }
+            // Completed outside the lock, since completing them runs whatever was waiting for them
+            written.forEach(future -> future.complete(null));
+        }
+    }
+
+    @Override
+    public void snapshot() {
+        if (!isEnabled()) {
+            return;
+        }
+        synchronized (snapshotLock) {
+            OccupancySnapshot snapshot;
+            synchronized (this) {
+                if (!open || writtenSequence == snapshotSequence) {
+                    return;
+                }
+                snapshot = new OccupancySnapshot(writtenSequence, occupancy.copy());
+            }
+            try {
+                snapshot.write(directory);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to write a seat occupancy snapshot", e);
+            }
+            snapshots.incrementAndGet();
+            synchronized (this) {
+                snapshotSequence = snapshot.getSequence();
+                deleteSegmentsBefore(snapshotSequence);
+            }
+        }
+    }
+
+    /**
+     * Deletes every segment, other than the current one, whose records are all included in the given snapshot
+     */
+    private void deleteSegmentsBefore(long snapshotSeq) {
+        while (segments.size() > 1 && segments.get(1).getFirstSequence() <= snapshotSeq + 1) {
+            JournalSegment segment = segments.remove(0);
+            try {
+                segment.close();
+                Files.delete(segment.getFile());
+            } catch (IOException e) {
+                LOGGER.warn("Failed to delete booking journal segment {}", segment.getFile(), e);
+            }
+        }
+    }
+
+    private void snapshotSafely() {
+        try {
+            snapshot();
+        } catch (RuntimeException e) {
+            LOGGER.warn("Failed to snapshot seat occupancy", e);
+        }
+    }
+
+    private void close(boolean takeSnapshot) {
+        if (takeSnapshot) {
+            snapshotSafely();
+        }
+        synchronized (this) {
+            if (!open) {
+                return;
+            }
+            open = false;
+        }
+        if (snapshotScheduler != null) {
+            snapshotScheduler.shutdownNow();
+            snapshotScheduler = null;
+        }
+        synchronized (flushMonitor) {
+            flushing = false;
+            flushMonitor.notifyAll();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        List<CompletableFuture<Void>> unwritten;
+        synchronized (flushMonitor) {
+            unwritten = new ArrayList<>(durableWaiters.values());
+            durableWaiters.clear();
+        }
+        unwritten.forEach(future -> future.completeExceptionally(
+                new IllegalStateException("The booking journal was closed before the record was written")));
+        synchronized (this) {
+            closeSegments();
+        }
+    }
+
+    private void closeSegments() {
+        for (JournalSegment segment : segments) {
+            try {
+                segment.close();
+            } catch (IOException e) {
+                LOGGER.warn("Failed to close booking journal segment {}", segment.getFile(), e);
+            }
+        }
+        segments.clear();
+    }
+
+    private JournalSegment current() {
+        return segments.get(segments.size() - 1);
+    }
+
+    private List<Path> listSegments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(JournalSegment::isSegment)
+                    .sorted(Comparator.comparingLong(JournalSegment::firstSequence))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Reads the booked seats on every flight from the database, as a snapshot which includes no journal records. Only
+     * the flight id and seat code of each booked seat are selected, so no bookings or flights are loaded.
+     */
+    private static OccupancySnapshot readFromDatabase() {
+        Map<Long, Set<String>> seatsByFlight = new HashMap<>();
+        EntityManager em = PersistenceManager.instance().createEntityManager();
+        try {
+            for (Object[] row : em.createQuery(
+                    "SELECT b.flight.id, s.rowNumber, s.letterCode FROM FlightBooking b JOIN b.seats s",
+                    Object[].class).getResultList()) {
+                seatsByFlight.computeIfAbsent((Long) row[0], id -> new HashSet<>()).add("" + row[1] + row[2]);
+            }
+        } finally {
+            em.close();
+        }
+        return new OccupancySnapshot(0, seatsByFlight);
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return directory != null;
+    }
+
+    @Override
+    public long getLastSequence() {
+        return writtenSequence;
+    }
+
+    @Override
+    public long getDurableSequence() {
+        synchronized (flushMonitor) {
+            return durableSequence;
+        }
+    }
+
+    @Override
+    public long getSnapshotSequence() {
+        return snapshotSequence;
+    }
+
+    @Override
+    public long getRecordsAppended() {
+        return recordsAppended.get();
+    }
+
+    @Override
+    public long getFsyncs() {
+        return fsyncs.get();
+    }
+
+    @Override
+    public long getSnapshots() {
+        return snapshots.get();
+    }
+
+    @Override
+    public long getRecordsReplayed() {
+        return recordsReplayed;
+    }
+
+    @Override
+    public long getLastRecoveryMillis() {
+        return lastRecoveryMillis;
+    }
+
+    @Override
+    public int getFlightsReconciled() {
+        return flightsReconciled;
+    }
+
+    @Override
+    public int getFlightCount() {
+        return occupancy.getFlightCount();
+    }
+}
@@ -0,0 +1,63 @@
+package se325.flights.service.journal;
+
+/**
+ * Metrics and operations exported through JMX by {@link BookingJournal}.
+ */
+public interface BookingJournalMXBean {
+
+    /**
+     * Gets a value indicating whether the journal is enabled, i.e. "journal.dir" is set.
+     */
+    boolean isEnabled();
+
+    /**
+     * Gets the sequence number of the last record appended.
+     */
+    long getLastSequence();
+
+    /**
+     * Gets the sequence number of the last record known to be on disk.
+     */
+    long getDurableSequence();
+
+    /**
+     * Gets the sequence number of the last record included in the latest snapshot.
+     */
+    long getSnapshotSequence();
+
+    long getRecordsAppended();
+
+    /**
+     * Gets the number of times the journal has been forced to disk. Records appended while the journal is being
+     * forced share the next force, so this grows more slowly than {@link #getRecordsAppended()} under load.
+     */
+    long getFsyncs();
+
+    long getSnapshots();
+
+    /**
+     * Gets the number of journal records replayed on top of the snapshot when the journal was last opened.
+     */
+    long getRecordsReplayed();
+
+    /**
+     * Gets the time it took to rebuild the seat occupancy when the journal was last opened, in milliseconds.
+     */
+    long getLastRecoveryMillis();
+
+    /**
+     * Gets the number of flights whose seat occupancy, as rebuilt from the journal, differed from the database and was
+     * corrected when the journal was last opened.
+     */
+    int getFlightsReconciled();
+
+    /**
+     * Gets the number of flights with booked seats.
+     */
+    int getFlightCount();
+
+    /**
+     * Writes a snapshot of the seat occupancy now, without waiting for the next scheduled one.
+     */
+    void snapshot();
+}
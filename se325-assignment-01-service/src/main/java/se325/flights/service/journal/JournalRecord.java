@@ -0,0 +1,144 @@
+package se325.flights.service.journal;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * A booking or cancellation recorded in the {@link BookingJournal}.
+ * <p>
+ * Records are written as a 4-byte body length, a 4-byte CRC32 of the body, then the body: the record's sequence number,
+ * op, flight id, user id, and the seat codes, each prefixed by its length. A length of zero marks the end of the
+ * records in a segment, since segments are created filled with zeros.
+ */
+public final class JournalRecord {
+
+    public enum Op {
+        BOOK, CANCEL, ARCHIVE
+    }
+
+    static final int HEADER_BYTES = 8;
+
+    private final long sequence;
+    private final Op op;
+    private final long flightId;
+    private final long userId;
+    private final List<String> seatCodes;
+
+    JournalRecord(long sequence, Op op, long flightId, long userId, List<String> seatCodes) {
+        this.sequence = sequence;
+        this.op = op;
+        this.flightId = flightId;
+        this.userId = userId;
+        this.seatCodes = Collections.unmodifiableList(new ArrayList<>(seatCodes));
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public Op getOp() {
+        return op;
+    }
+
+    public long getFlightId() {
+        return flightId;
+    }
+
+    public long getUserId() {
+        return userId;
+    }
+
+    public List<String> getSeatCodes() {
+        return seatCodes;
+    }
+
+    /**
+     * Encodes this record, header included, ready to be appended to a segment.
+     *
+     * @throws IllegalArgumentException if a seat code is longer than 255 bytes, or there are more than 32767 seats
+     */
+    ByteBuffer encode() {
+        if (seatCodes.size() > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many seats in one record: " + seatCodes.size());
+        }
+        List<byte[]> codes = new ArrayList<>(seatCodes.size());
+        int bodyBytes = Long.BYTES + 1 + Long.BYTES + Long.BYTES + Short.BYTES;
+        for (String seatCode : seatCodes) {
+            byte[] code = seatCode.getBytes(StandardCharsets.UTF_8);
+            if (code.length > 255) {
+                throw new IllegalArgumentException("Seat code too long: " + seatCode);
+            }
+            codes.add(code);
+            bodyBytes += 1 + code.length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + bodyBytes);
+        buffer.putInt(bodyBytes).putInt(0)
+                .putLong(sequence)
+                .put((byte) op.ordinal())
+                .putLong(flightId)
+                .putLong(userId)
+                .putShort((short) codes.size());
+        for (byte[] code : codes) {
+            buffer.put((byte) code.length).put(code);
+        }
+        buffer.putInt(Integer.BYTES, crc(buffer, HEADER_BYTES, bodyBytes));
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Decodes the record at the given buffer's position, advancing its position past the record.
+     *
+     * @return the record, or null if there's no complete, intact record at the buffer's position. The position is left
+     * unchanged in that case.
+     */
+    static JournalRecord decode(ByteBuffer buffer) {
+        int start = buffer.position();
+        if (buffer.remaining() < HEADER_BYTES) {
+            return null;
+        }
+        int bodyBytes = buffer.getInt(start);
+        if (bodyBytes <= 0 || bodyBytes > buffer.remaining() - HEADER_BYTES
+                || buffer.getInt(start + Integer.BYTES) != crc(buffer, start + HEADER_BYTES, bodyBytes)) {
+            return null;
+        }
+        try {
+            ByteBuffer body = buffer.duplicate();
+            body.position(start + HEADER_BYTES).limit(start + HEADER_BYTES + bodyBytes);
+            long sequence = body.getLong();
+            int op = body.get();
+            long flightId = body.getLong();
+            long userId = body.getLong();
+            int numSeats = body.getShort();
+            List<String> seatCodes = new ArrayList<>(numSeats);
+            for (int i = 0; i < numSeats; i++) {
+                byte[] code = new byte[body.get() & 0xFF];
+                body.get(code);
+                seatCodes.add(new String(code, StandardCharsets.UTF_8));
+            }
+            buffer.position(start + HEADER_BYTES + bodyBytes);
+            return new JournalRecord(sequence, Op.values()[op], flightId, userId, seatCodes);
+        } catch (RuntimeException e) {
+            // A body which matches its checksum but can't be decoded wasn't written by this class
+            return null;
+        }
+    }
+
+    private static int crc(ByteBuffer buffer, int offset, int length) {
+        CRC32 crc = new CRC32();
+        ByteBuffer body = buffer.duplicate();
+        body.position(offset).limit(offset + length);
+        crc.update(body);
+        return (int) crc.getValue();
+    }
+
+    @Override
+    public String toString() {
+        return "#" + sequence + " " + op + " flight " + flightId + " user " + userId + " " + seatCodes;
+    }
+}
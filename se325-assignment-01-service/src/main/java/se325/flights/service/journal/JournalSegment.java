@@ -0,0 +1,148 @@
+package se325.flights.service.journal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * One file of the {@link BookingJournal}, mapped into memory in full. Records are appended by copying them into the
+ * mapping; {@link #force()} writes them to the disk.
+ * <p>
+ * Segments are named after the sequence number of their first record, so that they sort in the order they were
+ * written.
+ */
+class JournalSegment {
+
+    private static final String PREFIX = "journal-";
+    private static final String SUFFIX = ".log";
+
+    private final Path file;
+    private final long firstSequence;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+
+    private JournalSegment(Path file, long firstSequence, FileChannel channel, MappedByteBuffer buffer) {
+        this.file = file;
+        this.firstSequence = firstSequence;
+        this.channel = channel;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Creates and maps a new, empty segment of the given size in the given directory.
+     */
+    static JournalSegment create(Path directory, long firstSequence, int sizeBytes) throws IOException {
+        Path file = directory.resolve(String.format("%s%020d%s", PREFIX, firstSequence, SUFFIX));
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        return map(file, firstSequence, channel, sizeBytes);
+    }
+
+    /**
+     * Maps an existing segment. Its position is at the start, ready for {@link #replay}.
+     */
+    static JournalSegment open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        return map(file, firstSequence(file), channel, (int) channel.size());
+    }
+
+    private static JournalSegment map(Path file, long firstSequence, FileChannel channel, int sizeBytes)
+            throws IOException {
+        try {
+            return new JournalSegment(file, firstSequence, channel,
+                    channel.map(FileChannel.MapMode.READ_WRITE, 0, sizeBytes));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    static boolean isSegment(Path file) {
+        String name = file.getFileName().toString();
+        return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+    }
+
+    static long firstSequence(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+
+    Path getFile() {
+        return file;
+    }
+
+    long getFirstSequence() {
+        return firstSequence;
+    }
+
+    /**
+     * Reads every intact record from the current position, passing each to the given consumer, and leaves the position
+     * after the last one. Reading stops at the end of the records, at a record which was only partly written, or at a
+     * record whose sequence number doesn't follow on from the one before.
+     *
+     * @return the sequence number of the last record read, or one less than this segment's first if there were none
+     */
+    long replay(Consumer<JournalRecord> consumer) {
+        long last = firstSequence - 1;
+        while (true) {
+            int start = buffer.position();
+            JournalRecord record = JournalRecord.decode(buffer);
+            if (record == null) {
+                return last;
+            }
+            if (record.getSequence() != last + 1) {
+                buffer.position(start);
+                return last;
+            }
+            last = record.getSequence();
+            consumer.accept(record);
+        }
+    }
+
+    /**
+     * Zeroes everything after the current position, so that the remains of a partly written record can't be mistaken
+     * for records written later.
+     */
+    void truncate() {
+        ByteBuffer rest = buffer.duplicate();
+        while (rest.remaining() >= Long.BYTES) {
+            rest.putLong(0);
+        }
+        while (rest.hasRemaining()) {
+            rest.put((byte) 0);
+        }
+    }
+
+    /**
+     * Appends the given encoded record, if there's room for it.
+     *
+     * @return false if this segment is full
+     */
+    boolean append(ByteBuffer record) {
+        // Always leave room for the zero length which marks the end of the records
+        if (buffer.remaining() - Integer.BYTES < record.remaining()) {
+            return false;
+        }
+        buffer.put(record);
+        return true;
+    }
+
+    /**
+     * Writes every record appended so far to the disk.
+     */
+    void force() {
+        buffer.force();
+    }
+
+    boolean isEmpty() {
+        return buffer.position() == 0;
+    }
+
+    void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,142 @@
+package se325.flights.service.journal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * The booked seats on every flight, as of a particular {@link BookingJournal} record, saved to a file so that the
+ * journal before that record needn't be replayed.
+ * <p>
+ * A snapshot file holds a magic number, the sequence number of the last record it includes, then for each flight its
+ * id, number of booked seats and their seat codes, followed by a CRC32 of everything before it. Snapshots are written
+ * to a temporary file which is then renamed, so that a snapshot file is either complete or absent.
+ */
+class OccupancySnapshot {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OccupancySnapshot.class);
+
+    private static final int MAGIC = 0x53454154;
+    private static final String PREFIX = "snapshot-";
+    private static final String SUFFIX = ".bin";
+
+    private final long sequence;
+    private final Map<Long, Set<String>> seatsByFlight;
+
+    OccupancySnapshot(long sequence, Map<Long, Set<String>> seatsByFlight) {
+        this.sequence = sequence;
+        this.seatsByFlight = seatsByFlight;
+    }
+
+    long getSequence() {
+        return sequence;
+    }
+
+    Map<Long, Set<String>> getSeatsByFlight() {
+        return seatsByFlight;
+    }
+
+    /**
+     * Writes this snapshot to the given directory, and deletes any older snapshots there.
+     */
+    void write(Path directory) throws IOException {
+        Path file = directory.resolve(String.format("%s%020d%s", PREFIX, sequence, SUFFIX));
+        Path temp = directory.resolve(file.getFileName() + ".tmp");
+        try (FileOutputStream fileOut = new FileOutputStream(temp.toFile())) {
+            CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(fileOut), new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(MAGIC);
+            out.writeLong(sequence);
+            out.writeInt(seatsByFlight.size());
+            for (Map.Entry<Long, Set<String>> flight : seatsByFlight.entrySet()) {
+                out.writeLong(flight.getKey());
+                out.writeInt(flight.getValue().size());
+                for (String seatCode : flight.getValue()) {
+                    out.writeUTF(seatCode);
+                }
+            }
+            out.writeInt((int) checked.getChecksum().getValue());
+            out.flush();
+            fileOut.getChannel().force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        for (Path older : list(directory)) {
+            if (sequence(older) < sequence) {
+                Files.deleteIfExists(older);
+            }
+        }
+    }
+
+    /**
+     * Reads the latest intact snapshot in the given directory.
+     *
+     * @return the snapshot, or null if there are none
+     */
+    static OccupancySnapshot readLatest(Path directory) throws IOException {
+        List<Path> files = list(directory);
+        Collections.reverse(files);
+        for (Path file : files) {
+            try {
+                return read(file);
+            } catch (IOException e) {
+                LOGGER.warn("Ignoring unreadable seat occupancy snapshot {}", file, e);
+            }
+        }
+        return null;
+    }
+
+    private static OccupancySnapshot read(Path file) throws IOException {
+        try (InputStream fileIn = Files.newInputStream(file)) {
+            CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(fileIn), new CRC32());
+            DataInputStream in = new DataInputStream(checked);
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a seat occupancy snapshot");
+            }
+            long sequence = in.readLong();
+            int numFlights = in.readInt();
+            Map<Long, Set<String>> seatsByFlight = new HashMap<>();
+            for (int i = 0; i < numFlights; i++) {
+                long flightId = in.readLong();
+                int numSeats = in.readInt();
+                Set<String> seats = new HashSet<>();
+                for (int j = 0; j < numSeats; j++) {
+                    seats.add(in.readUTF());
+                }
+                seatsByFlight.put(flightId, seats);
+            }
+            int expected = (int) checked.getChecksum().getValue();
+            if (in.readInt() != expected) {
+                throw new IOException("Checksum mismatch");
+            }
+            return new OccupancySnapshot(sequence, seatsByFlight);
+        }
+    }
+
+    /**
+     * Lists the snapshot files in the given directory, oldest first.
+     */
+    private static List<Path> list(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> {
+                        String name = file.getFileName().toString();
+                        return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+                    })
+                    .sorted(Comparator.comparingLong(OccupancySnapshot::sequence))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static long sequence(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+}
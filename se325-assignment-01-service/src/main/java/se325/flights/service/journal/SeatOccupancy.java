@@ -0,0 +1,106 @@
+package se325.flights.service.journal;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The booked seats on each flight, kept in memory and updated from {@link BookingJournal} records. Lets the seats
+ * booked on a flight be checked without loading its {@link se325.flights.domain.FlightBooking}s.
+ */
+public class SeatOccupancy {
+
+    private final Map<Long, Set<String>> seatsByFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Gets the seat codes booked on the given flight.
+     */
+    public Set<String> getBookedSeats(long flightId) {
+        Set<String> seats = seatsByFlight.get(flightId);
+        if (seats == null) {
+            return Collections.emptySet();
+        }
+        synchronized (seats) {
+            return Set.copyOf(seats);
+        }
+    }
+
+    public boolean isBooked(long flightId, String seatCode) {
+        Set<String> seats = seatsByFlight.get(flightId);
+        if (seats == null) {
+            return false;
+        }
+        synchronized (seats) {
+            return seats.contains(seatCode);
+        }
+    }
+
+    public int getFlightCount() {
+        return seatsByFlight.size();
+    }
+
+    void apply(JournalRecord record) {
+        if (record.getOp() == JournalRecord.Op.BOOK) {
+            book(record.getFlightId(), record.getSeatCodes());
+        } else if (record.getOp() == JournalRecord.Op.ARCHIVE) {
+            seatsByFlight.remove(record.getFlightId());
+        } else {
+            seatsByFlight.computeIfPresent(record.getFlightId(), (flightId, seats) -> {
+                synchronized (seats) {
+                    record.getSeatCodes().forEach(seats::remove);
+                    return seats.isEmpty() ? null : seats;
+                }
+            });
+        }
+    }
+
+    void book(long flightId, Collection<String> seatCodes) {
+        seatsByFlight.compute(flightId, (id, seats) -> {
+            if (seats == null) {
+                seats = new HashSet<>();
+            }
+            synchronized (seats) {
+                seats.addAll(seatCodes);
+            }
+            return seats;
+        });
+    }
+
+    /**
+     * Replaces the booked seats on each flight which differ from those given, i.e. those in the database.
+     *
+     * @return the number of flights whose booked seats were replaced
+     */
+    int reconcile(Map<Long, Set<String>> actual) {
+        Set<Long> flightIds = new HashSet<>(seatsByFlight.keySet());
+        flightIds.addAll(actual.keySet());
+        int replaced = 0;
+        for (Long flightId : flightIds) {
+            Set<String> expected = actual.getOrDefault(flightId, Collections.emptySet());
+            if (!getBookedSeats(flightId).equals(expected)) {
+                seatsByFlight.remove(flightId);
+                if (!expected.isEmpty()) {
+                    book(flightId, expected);
+                }
+                replaced++;
+            }
+        }
+        return replaced;
+    }
+
+    /**
+     * Copies the booked seats on every flight, for a snapshot.
+     */
+    Map<Long, Set<String>> copy() {
+        Map<Long, Set<String>> copy = new HashMap<>();
+        seatsByFlight.forEach((flightId, seats) -> {
+            synchronized (seats) {
+                copy.put(flightId, new HashSet<>(seats));
+            }
+        });
+        return copy;
+    }
+
+    void clear() {
+        seatsByFlight.clear();
+    }
+}
@@ -0,0 +1,256 @@
+package se325.flights.service.ratelimit;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import se325.flights.service.auth.UserPrincipal;
+import se325.flights.util.Config;
+import se325.flights.util.Metrics;
+
+import javax.annotation.Priority;
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.PreMatching;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.Provider;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Admission control for endpoints which are expensive and attractive to abuse: logging in (which hashes a password and
+ * queries the database) and making bookings. Each limited endpoint has two sets of {@link TokenBucketLimiter token
+ * buckets}: one keyed by the client's address, and one keyed by the username the request is for. A request which finds
+ * either bucket empty is rejected with 429 Too Many Requests and a Retry-After header, and takes no token from the
+ * other.
+ * <p>
+ * This filter runs before matching and before authentication, and works only from the raw request, so requests
+ * rejected by address never touch Hibernate. For logins, the username is read from the JSON body, so a client can't
+ * dodge its address's limit by lying about it. For bookings, the username is that of the authenticated user, so
+ * bookings are limited per user by {@link Authenticated}, which runs after the
+ * {@link se325.flights.service.auth.AuthenticationFilter}. A booking request which isn't authenticated is only limited
+ * by address, so nobody can drain another user's bucket with a forged auth cookie.
+ * <p>
+ * Limits are configured per endpoint (see {@link Config}), e.g. for logins: "ratelimit.login.user.capacity",
+ * "ratelimit.login.user.refill-per-second", "ratelimit.login.address.capacity" and
+ * "ratelimit.login.address.refill-per-second". The whole filter can be turned off with "ratelimit.enabled". The client
+ * address is taken from the X-Forwarded-For header only if "ratelimit.trust-forwarded-for" is set.
+ */
+@Provider
+@PreMatching
+@Priority(Priorities.AUTHENTICATION - 100)
+public class RateLimitFilter implements ContainerRequestFilter, RateLimitFilterMXBean {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /**
+     * The largest login body which will be read to find the username
+     */
+    private static final int MAX_LOGIN_BODY_BYTES = 4096;
+
+    /**
+     * The request property through which a request admitted by address is handed to {@link Authenticated}, to be
+     * limited by user
+     */
+    private static final String PENDING_PROPERTY = RateLimitFilter.class.getName() + ".pending";
+
+    private static final boolean ENABLED = Config.getBoolean("ratelimit.enabled", true);
+    private static final boolean TRUST_FORWARDED_FOR = Config.getBoolean("ratelimit.trust-forwarded-for", false);
+    private static final int NUM_STRIPES = Config.getInt("ratelimit.stripes", 16);
+    private static final int MAX_KEYS_PER_STRIPE = Config.getInt("ratelimit.max-keys-per-stripe", 4096);
+
+    private static final List<Endpoint> ENDPOINTS = new ArrayList<>();
+    private static final AtomicLong ADMITTED = new AtomicLong();
+    private static final AtomicLong REJECTED = new AtomicLong();
+
+    static {
+        ENDPOINTS.add(new Endpoint("login", "POST", "users/login", true, 10, 1, 100, 10));
+        ENDPOINTS.add(new Endpoint("bookings", "POST", "bookings", false, 20, 5, 200, 50));
+        Metrics.register("RateLimitFilter", new RateLimitFilter());
+    }
+
+    @Context
+    private HttpServletRequest servletRequest;
+
+    @Override
+    public void filter(ContainerRequestContext requestContext) throws IOException {
+        if (!ENABLED) {
+            return;
+        }
+        Endpoint endpoint = match(requestContext);
+        if (endpoint == null) {
+            return;
+        }
+
+        String address = clientAddress(requestContext);
+        long wait = endpoint.byAddress.tryAcquire(address);
+        if (wait != 0) {
+            reject(requestContext, wait);
+            return;
+        }
+        if (!endpoint.userFromBody) {
+            requestContext.setProperty(PENDING_PROPERTY, new Pending(endpoint, address));
+            return;
+        }
+        String username = usernameFromBody(requestContext);
+        limitUser(requestContext, endpoint, address, username);
+    }
+
+    /**
+     * Limits the request by the given user, unless it's null, putting back the token it took by address if it's
+     * rejected.
+     */
+    private static void limitUser(ContainerRequestContext requestContext, Endpoint endpoint, String address,
+                                  String username) {
+        long wait = username == null ? 0 : endpoint.byUser.tryAcquire(username);
+        if (wait == 0) {
+            ADMITTED.incrementAndGet();
+            return;
+        }
+        endpoint.byAddress.refund(address);
+        reject(requestContext, wait);
+    }
+
+    private static void reject(ContainerRequestContext requestContext, long wait) {
+        REJECTED.incrementAndGet();
+        requestContext.abortWith(Response.status(429)
+                .header("Retry-After", Math.max(1, TimeUnit.NANOSECONDS.toSeconds(wait + 999_999_999)))
+                .build());
+    }
+
+    private static Endpoint match(ContainerRequestContext requestContext) {
+        String method = requestContext.getMethod();
+        String path = requestContext.getUriInfo().getPath();
+        if (path.startsWith("/")) {
+            path = path.substring(1);
+        }
+        if (path.endsWith("/")) {
+            path = path.substring(0, path.length() - 1);
+        }
+        for (Endpoint endpoint : ENDPOINTS) {
+            if (endpoint.method.equals(method) && endpoint.path.equals(path)) {
+                return endpoint;
+            }
+        }
+        return null;
+    }
+
+    private String clientAddress(ContainerRequestContext requestContext) {
+        if (TRUST_FORWARDED_FOR) {
+            String forwardedFor = requestContext.getHeaderString("X-Forwarded-For");
+            if (forwardedFor != null && !forwardedFor.isBlank()) {
+                return forwardedFor.split(",")[0].trim();
+            }
+        }
+        return servletRequest == null ? "unknown" : servletRequest.getRemoteAddr();
+    }
+
+    /**
+     * Reads the username from a login request's JSON body, then puts the body back so the resource method can read it.
+     * Returns null if the body is too large or isn't a JSON object with a username.
+     */
+    private static String usernameFromBody(ContainerRequestContext requestContext) throws IOException {
+        if (!requestContext.hasEntity()) {
+            return null;
+        }
+        byte[] body = requestContext.getEntityStream().readNBytes(MAX_LOGIN_BODY_BYTES + 1);
+        requestContext.setEntityStream(new ByteArrayInputStream(body));
+        if (body.length > MAX_LOGIN_BODY_BYTES) {
+            return null;
+        }
+        try {
+            JsonNode username = MAPPER.readTree(body).get("username");
+            return username == null || !username.isTextual() ? null : username.asText();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public long getAdmittedCount() {
+        return ADMITTED.get();
+    }
+
+    @Override
+    public long getRejectedCount() {
+        return REJECTED.get();
+    }
+
+    @Override
+    public int getBucketCount() {
+        return ENDPOINTS.stream().mapToInt(e -> e.byUser.size() + e.byAddress.size()).sum();
+    }
+
+    /**
+     * Limits requests admitted by address by their authenticated user, once the
+     * {@link se325.flights.service.auth.AuthenticationFilter} has verified their auth cookie.
+     */
+    @Provider
+    @Priority(Priorities.AUTHENTICATION + 100)
+    public static class Authenticated implements ContainerRequestFilter {
+
+        @Override
+        public void filter(ContainerRequestContext requestContext) {
+            Object pending = requestContext.getProperty(PENDING_PROPERTY);
+            if (!(pending instanceof Pending)) {
+                return;
+            }
+            requestContext.removeProperty(PENDING_PROPERTY);
+            Principal principal = requestContext.getSecurityContext().getUserPrincipal();
+            String username = principal instanceof UserPrincipal ? principal.getName() : null;
+            limitUser(requestContext, ((Pending) pending).endpoint, ((Pending) pending).address, username);
+        }
+    }
+
+    /**
+     * A request admitted by address, still to be limited by user.
+     */
+    private static class Pending {
+
+        private final Endpoint endpoint;
+        private final String address;
+
+        Pending(Endpoint endpoint, String address) {
+            this.endpoint = endpoint;
+            this.address = address;
+        }
+    }
+
+    /**
+     * A limited endpoint, with its configured limits.
+     */
+    private static class Endpoint {
+
+        private final String method;
+        private final String path;
+        private final boolean userFromBody;
+        private final TokenBucketLimiter byUser;
+        private final TokenBucketLimiter byAddress;
+
+        /**
+         * @param userFromBody true to read the username from the request's JSON body, before authentication; false to
+         *                     use the authenticated user
+         */
+        Endpoint(String name, String method, String path, boolean userFromBody, int userCapacity,
+                 double userRefillPerSecond, int addressCapacity, double addressRefillPerSecond) {
+            this.method = method;
+            this.path = path;
+            this.userFromBody = userFromBody;
+            this.byUser = limiter(name + ".user", userCapacity, userRefillPerSecond);
+            this.byAddress = limiter(name + ".address", addressCapacity, addressRefillPerSecond);
+        }
+
+        private static TokenBucketLimiter limiter(String prefix, int capacity, double refillPerSecond) {
+            return new TokenBucketLimiter(
+                    Config.getInt("ratelimit." + prefix + ".capacity", capacity),
+                    Config.getDouble("ratelimit." + prefix + ".refill-per-second", refillPerSecond),
+                    NUM_STRIPES, MAX_KEYS_PER_STRIPE);
+        }
+    }
+}
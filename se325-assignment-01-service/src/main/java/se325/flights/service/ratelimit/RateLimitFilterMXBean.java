@@ -0,0 +1,16 @@
+package se325.flights.service.ratelimit;
+
+/**
+ * Metrics exported through JMX by the {@link RateLimitFilter}.
+ */
+public interface RateLimitFilterMXBean {
+
+    long getAdmittedCount();
+
+    long getRejectedCount();
+
+    /**
+     * Gets the number of token buckets currently held, across all limited endpoints.
+     */
+    int getBucketCount();
+}
@@ -0,0 +1,193 @@
+package se325.flights.service.ratelimit;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * A set of token buckets, one per key (e.g. per username, or per client address). Each bucket holds up to a fixed
+ * number of tokens and is refilled at a fixed rate; a request is admitted if it can take a token from its key's bucket.
+ * <p>
+ * A bucket is stored as a single {@link AtomicLong}: the time at which it will next be full (its "theoretical arrival
+ * time"). Taking a token pushes that time on by one refill interval, and is refused if it would end up more than the
+ * bucket's capacity worth of intervals in the future. This is equivalent to counting tokens, but lets a bucket be
+ * updated with one compare-and-set, without locking.
+ * <p>
+ * Buckets are spread over a number of stripes by the hash of their key, and each stripe holds at most a fixed number of
+ * buckets, so memory stays bounded however many distinct keys are seen. A bucket which is full again is
+ * indistinguishable from one which doesn't exist, so when a stripe fills up, its full buckets are evicted. If there's
+ * still no room, the least recently used bucket is evicted, so a flood of new keys can't lock out keys which haven't
+ * been seen before; at worst it gives the keys it evicts a full bucket again.
+ */
+public class TokenBucketLimiter {
+
+    /**
+     * How often a full stripe may be scanned for buckets to evict
+     */
+    private static final long EVICTION_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final long intervalNanos;
+    private final long burstNanos;
+    private final int maxKeysPerStripe;
+    private final Stripe[] stripes;
+    private final LongSupplier clock;
+
+    /**
+     * @param capacity         the maximum number of tokens in a bucket, i.e. the largest burst admitted at once
+     * @param refillPerSecond  the number of tokens added to a bucket each second
+     * @param numStripes       the number of stripes, rounded up to a power of two
+     * @param maxKeysPerStripe the maximum number of buckets in each stripe
+     * @param clock            the time source, in nanoseconds
+     */
+    public TokenBucketLimiter(int capacity, double refillPerSecond, int numStripes, int maxKeysPerStripe,
+                              LongSupplier clock) {
+        this.intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / refillPerSecond);
+        this.burstNanos = intervalNanos * capacity;
+        this.maxKeysPerStripe = maxKeysPerStripe;
+        this.clock = clock;
+
+        int size = numStripes <= 1 ? 1 : Integer.highestOneBit(numStripes - 1) << 1;
+        this.stripes = new Stripe[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    public TokenBucketLimiter(int capacity, double refillPerSecond, int numStripes, int maxKeysPerStripe) {
+        this(capacity, refillPerSecond, numStripes, maxKeysPerStripe, System::nanoTime);
+    }
+
+    /**
+     * Tries to take a token from the given key's bucket.
+     *
+     * @param key the key, e.g. a username
+     * @return 0 if a token was taken, otherwise the number of nanoseconds until one will be available
+     */
+    public long tryAcquire(String key) {
+        long now = clock.getAsLong();
+        AtomicLong bucket = bucketFor(key, now).tat;
+        while (true) {
+            long tat = bucket.get();
+            long newTat = Math.max(tat, now) + intervalNanos;
+            long wait = newTat - now - burstNanos;
+            if (wait > 0) {
+                return wait;
+            }
+            if (bucket.compareAndSet(tat, newTat)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Puts back a token taken from the given key's bucket, e.g. when a request which took it is rejected by another
+     * limiter after all. The bucket never holds more than its capacity.
+     *
+     * @param key the key the token was taken for
+     */
+    public void refund(String key) {
+        long now = clock.getAsLong();
+        bucketFor(key, now).tat.accumulateAndGet(intervalNanos, (tat, interval) -> Math.max(now, tat - interval));
+    }
+
+    /**
+     * Gets the number of buckets currently held.
+     */
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.buckets.size();
+        }
+        return size;
+    }
+
+    private Bucket bucketFor(String key, long now) {
+        int hash = key.hashCode();
+        Stripe stripe = stripes[(hash ^ (hash >>> 16)) & (stripes.length - 1)];
+
+        Bucket bucket = stripe.buckets.get(key);
+        if (bucket == null) {
+            bucket = stripe.add(key, now, maxKeysPerStripe);
+        }
+        bucket.lastUsed = now;
+        return bucket;
+    }
+
+    private static class Bucket {
+
+        /**
+         * The time at which the bucket will next be full
+         */
+        private final AtomicLong tat;
+
+        /**
+         * The time at which the bucket was last used. Only ever compared with other buckets', so races between
+         * updates don't matter.
+         */
+        private volatile long lastUsed;
+
+        Bucket(long now) {
+            this.tat = new AtomicLong(now);
+            this.lastUsed = now;
+        }
+    }
+
+    private static class Stripe {
+
+        private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+        private final AtomicLong lastEviction = new AtomicLong(Long.MIN_VALUE);
+
+        /**
+         * Adds a bucket for the given key, unless another thread just has, making room for it if the stripe is full.
+         * Buckets are only added and evicted with the stripe locked, so it never holds more than the given number,
+         * while existing buckets are still found without locking.
+         */
+        synchronized Bucket add(String key, long now, int maxKeys) {
+            Bucket bucket = buckets.get(key);
+            if (bucket != null) {
+                return bucket;
+            }
+            if (buckets.size() >= maxKeys) {
+                evictFull(now);
+                if (buckets.size() >= maxKeys) {
+                    evictLeastRecentlyUsed();
+                }
+            }
+            bucket = new Bucket(now);
+            buckets.put(key, bucket);
+            return bucket;
+        }
+
+        /**
+         * Removes the bucket which was used longest ago. Scans the whole stripe, which is bounded by its size.
+         */
+        private void evictLeastRecentlyUsed() {
+            Map.Entry<String, Bucket> oldest = null;
+            for (Map.Entry<String, Bucket> entry : buckets.entrySet()) {
+                if (oldest == null || entry.getValue().lastUsed < oldest.getValue().lastUsed) {
+                    oldest = entry;
+                }
+            }
+            if (oldest != null) {
+                buckets.remove(oldest.getKey(), oldest.getValue());
+            }
+        }
+
+        /**
+         * Removes buckets which have refilled completely. Only one thread scans a stripe at a time, at most once per
+         * eviction interval, so a stripe full of active buckets isn't rescanned for every new key.
+         */
+        void evictFull(long now) {
+            long last = lastEviction.get();
+            if (last != Long.MIN_VALUE && now - last < EVICTION_INTERVAL_NANOS) {
+                return;
+            }
+            if (!lastEviction.compareAndSet(last, now)) {
+                return;
+            }
+            buckets.values().removeIf(bucket -> bucket.tat.get() <= now);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package se325.flights.service.schedule;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The progress of a {@link ScheduleImporter schedule import}: how many flights have been read, imported and rejected
+ * so far, and how quickly. Only the first few rejected rows are kept, with the reason each was rejected, so that a
+ * schedule full of bad rows doesn't fill the heap.
+ */
+public class ImportReport {
+
+    /**
+     * A row which wasn't imported.
+     */
+    public static class Failure {
+
+        private final long line;
+        private final String message;
+
+        Failure(long line, String message) {
+            this.line = line;
+            this.message = message;
+        }
+
+        /**
+         * Gets the line of the schedule the row was on, starting from 1.
+         */
+        public long getLine() {
+            return line;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        @Override
+        public String toString() {
+            return "line " + line + ": " + message;
+        }
+    }
+
+    private final int maxFailures;
+    private final long startNanos = System.nanoTime();
+    private final List<Failure> failures = new ArrayList<>();
+
+    private long rowsRead;
+    private long rowsImported;
+    private long rowsFailed;
+    private long elapsedMillis;
+
+    ImportReport(int maxFailures) {
+        this.maxFailures = maxFailures;
+    }
+
+    void rowRead() {
+        rowsRead++;
+    }
+
+    void rowsImported(int count) {
+        rowsImported += count;
+        updateElapsed();
+    }
+
+    void rowFailed(long line, String message) {
+        rowsFailed++;
+        if (failures.size() < maxFailures) {
+            failures.add(new Failure(line, message));
+        }
+    }
+
+    void updateElapsed() {
+        elapsedMillis = (System.nanoTime() - startNanos) / 1_000_000;
+    }
+
+    public long getRowsRead() {
+        return rowsRead;
+    }
+
+    public long getRowsImported() {
+        return rowsImported;
+    }
+
+    public long getRowsFailed() {
+        return rowsFailed;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /**
+     * Gets the number of rows imported per second, on average since the import started.
+     */
+    public double getRowsPerSecond() {
+        return elapsedMillis == 0 ? 0 : rowsImported * 1000.0 / elapsedMillis;
+    }
+
+    /**
+     * Gets the first rows which weren't imported, in the order they appear in the schedule. There are at most
+     * "schedule.import.max-reported-failures" of these; {@link #getRowsFailed()} counts them all.
+     */
+    public List<Failure> getFailures() {
+        return Collections.unmodifiableList(failures);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d rows read, %d imported, %d failed in %.1f s (%.0f rows/s)",
+                rowsRead, rowsImported, rowsFailed, elapsedMillis / 1000.0, getRowsPerSecond());
+    }
+}
@@ -0,0 +1,11 @@
+package se325.flights.service.schedule;
+
+/**
+ * Thrown when a line of a schedule can't be turned into a flight. The rest of the schedule is still imported.
+ */
+class InvalidRowException extends Exception {
+
+    InvalidRowException(String message) {
+        super(message);
+    }
+}
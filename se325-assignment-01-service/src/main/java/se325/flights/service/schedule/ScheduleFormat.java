@@ -0,0 +1,43 @@
+package se325.flights.service.schedule;
+
+/**
+ * The formats a flight schedule can be imported from. Both hold one flight per line.
+ * <ul>
+ *     <li>CSV - a header line naming the columns name, aircraftType, origin, destination, departureTime, arrivalTime
+ *     and prices (in any order), followed by one line per flight. Fields can't be quoted, so can't contain commas.
+ *     Prices are written as "Economy=500;Business=1500".</li>
+ *     <li>JSON lines - one JSON object per line, with the same fields as the CSV columns. Prices are an object, e.g.
+ *     {"Economy": 500, "Business": 1500}.</li>
+ * </ul>
+ * Times are ISO-8601, e.g. "2022-08-11T13:00:00Z" or "2022-08-12T01:00:00+12:00". Times without an offset are taken to
+ * be in UTC, as in db-init.sql. Aircraft types are identified by name, and airports by code.
+ */
+public enum ScheduleFormat {
+
+    CSV("text/csv"), JSON_LINES("application/x-ndjson");
+
+    private final String mediaType;
+
+    ScheduleFormat(String mediaType) {
+        this.mediaType = mediaType;
+    }
+
+    public String getMediaType() {
+        return mediaType;
+    }
+
+    /**
+     * Gets the format of a file from its extension: .csv for CSV, or .jsonl / .ndjson for JSON lines.
+     *
+     * @return the format, or null if the extension isn't recognised
+     */
+    public static ScheduleFormat forFileName(String fileName) {
+        String lower = fileName.toLowerCase();
+        if (lower.endsWith(".csv")) {
+            return CSV;
+        } else if (lower.endsWith(".jsonl") || lower.endsWith(".ndjson")) {
+            return JSON_LINES;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,92 @@
+package se325.flights.service.schedule;
+
+import se325.flights.service.PersistenceManager;
+import se325.flights.service.db.DatabaseServer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Imports a flight schedule from a file into the database, from the command line:
+ * <pre>
+ * ScheduleImportCli &lt;file&gt; [--format csv|jsonl] [--chunk-size N]
+ * </pre>
+ * The format is taken from the file's extension unless it's given. The database is chosen with the same settings as
+ * the service's (see {@link se325.flights.service.db.StorageProfile}); to import into a database while the service is
+ * using it, use the server profile. The importer always keeps the existing data, even with the "db.seed" setting,
+ * though it brings the schema up to date first (see {@link se325.flights.service.db.SchemaMigrator}).
+ * <p>
+ * Exits with status 0 if every row was imported, 1 if the schedule couldn't be read, or 2 if some rows failed.
+ */
+public class ScheduleImportCli {
+
+    public static void main(String[] args) {
+        Path file = null;
+        ScheduleFormat format = null;
+        Integer chunkSize = null;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if ("--format".equals(args[i]) && i + 1 < args.length) {
+                    String value = args[++i];
+                    format = "csv".equalsIgnoreCase(value) ? ScheduleFormat.CSV
+                            : "jsonl".equalsIgnoreCase(value) || "ndjson".equalsIgnoreCase(value)
+                            ? ScheduleFormat.JSON_LINES : null;
+                    if (format == null) {
+                        usage("Unknown format: " + value);
+                    }
+                } else if ("--chunk-size".equals(args[i]) && i + 1 < args.length) {
+                    chunkSize = Integer.parseInt(args[++i]);
+                } else if (file == null && !args[i].startsWith("--")) {
+                    file = Paths.get(args[i]);
+                } else {
+                    usage("Unexpected argument: " + args[i]);
+                }
+            }
+        } catch (NumberFormatException e) {
+            usage("Invalid chunk size: " + e.getMessage());
+        }
+        if (file == null) {
+            usage("No schedule file given");
+        }
+        if (format == null) {
+            format = ScheduleFormat.forFileName(file.getFileName().toString());
+            if (format == null) {
+                usage("Can't tell the format of " + file + " from its extension, use --format");
+            }
+        }
+
+        // Never wipe the database being imported into
+        System.setProperty("se325.db.seed", "false");
+
+        int status;
+        try {
+            ScheduleImporter importer = chunkSize == null ? new ScheduleImporter() : new ScheduleImporter(chunkSize);
+            ImportReport report = importer.importSchedule(Files.newBufferedReader(file, StandardCharsets.UTF_8),
+                    format);
+            System.out.println(report);
+            for (ImportReport.Failure failure : report.getFailures()) {
+                System.out.println("  " + failure);
+            }
+            if (report.getFailures().size() < report.getRowsFailed()) {
+                System.out.println("  ... and " + (report.getRowsFailed() - report.getFailures().size()) + " more");
+            }
+            status = report.getRowsFailed() == 0 ? 0 : 2;
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Failed to import " + file + ": " + e.getMessage());
+            status = 1;
+        } finally {
+            PersistenceManager.instance().close();
+            DatabaseServer.stop();
+        }
+        System.exit(status);
+    }
+
+    private static void usage(String message) {
+        System.err.println(message);
+        System.err.println("Usage: ScheduleImportCli <file> [--format csv|jsonl] [--chunk-size N]");
+        System.exit(1);
+    }
+}
@@ -0,0 +1,65 @@
+package se325.flights.service.schedule;
+
+import se325.flights.util.Config;
+
+import javax.ws.rs.*;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * A JAX-RS resource for administrators to import flight schedules (see {@link ScheduleImporter}). The schedule is
+ * streamed from the request body into the database as it arrives, and the response is the {@link ImportReport}.
+ * <p>
+ * Requests must carry the administrator token set with "admin.token" (see {@link Config}) in an X-Admin-Token header.
+ * If no token is set, the resource rejects every request.
+ */
+@Path("/admin/schedules")
+public class ScheduleImportResource {
+
+    public static final String ADMIN_TOKEN_HEADER = "X-Admin-Token";
+
+    /**
+     * Imports the schedule in the request body, which is CSV (text/csv) or JSON lines (application/x-ndjson).
+     *
+     * @param chunkSize the number of flights to write per transaction, overriding "schedule.import.chunk-size"
+     * @return a 200 OK response containing the {@link ImportReport}, 400 Bad Request if the schedule can't be read, or
+     * 403 Forbidden if the administrator token is missing or wrong.
+     */
+    @POST
+    @Consumes({"text/csv", "application/x-ndjson"})
+    @Produces(MediaType.APPLICATION_JSON)
+    public ImportReport importSchedule(InputStream body, @Context HttpHeaders headers,
+                                       @HeaderParam(ADMIN_TOKEN_HEADER) String adminToken,
+                                       @QueryParam("chunkSize") Integer chunkSize) {
+        checkAdminToken(adminToken);
+
+        ScheduleFormat format = headers.getMediaType().isCompatible(MediaType.valueOf("text/csv"))
+                ? ScheduleFormat.CSV : ScheduleFormat.JSON_LINES;
+        ScheduleImporter importer;
+        try {
+            importer = chunkSize == null ? new ScheduleImporter() : new ScheduleImporter(chunkSize);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException(e.getMessage());
+        }
+
+        try {
+            return importer.importSchedule(new InputStreamReader(body, StandardCharsets.UTF_8), format);
+        } catch (IOException e) {
+            throw new BadRequestException(e.getMessage());
+        }
+    }
+
+    private static void checkAdminToken(String adminToken) {
+        String expected = Config.getString("admin.token", null);
+        if (expected == null || adminToken == null || !MessageDigest.isEqual(
+                expected.getBytes(StandardCharsets.UTF_8), adminToken.getBytes(StandardCharsets.UTF_8))) {
+            throw new ForbiddenException();
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package se325.flights.service.schedule;
+
+import org.hibernate.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se325.flights.CabinClass;
+import se325.flights.service.PersistenceManager;
+import se325.flights.util.Config;
+
+import javax.persistence.EntityManager;
+import java.io.IOException;
+import java.io.Reader;
+import java.sql.*;
+import java.util.*;
+
+/**
+ * Imports flights in bulk from a {@link ScheduleFormat schedule}, streaming it so that memory use doesn't depend on the
+ * size of the schedule.
+ * <p>
+ * Aircraft types and airports are looked up once, before the import starts, into maps of name / code to id. The
+ * flights are then written in chunks of "schedule.import.chunk-size" rows (see {@link Config}), each chunk in its own
+ * transaction, with JDBC batch inserts into the FLIGHT and FLIGHT_SEATPRICINGS tables. Flight ids are generated by the
+ * database (identity columns), which stops Hibernate from batching inserts of {@link se325.flights.domain.Flight}
+ * entities, so the importer writes the rows itself and reads the generated ids back from the batch.
+ * <p>
+ * Rows which can't be parsed, or which name an unknown aircraft type or airport, are skipped and counted as failed. If
+ * the database rejects a chunk, it's rolled back and its rows are inserted one at a time, so that only the offending
+ * rows fail. Progress is logged after every chunk.
+ */
+public class ScheduleImporter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ScheduleImporter.class);
+
+    private static final String INSERT_FLIGHT = "INSERT INTO FLIGHT "
+            + "(NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES (?, ?, ?, ?, ?, ?)";
+    private static final String INSERT_SEAT_PRICING = "INSERT INTO FLIGHT_SEATPRICINGS "
+            + "(FLIGHT_ID, CABINCLASS, PRICE) VALUES (?, ?, ?)";
+
+    /**
+     * Times are written in UTC, matching Hibernate's "hibernate.jdbc.time_zone" setting in persistence.xml
+     */
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    private final int chunkSize;
+    private final int maxFailures;
+
+    public ScheduleImporter() {
+        this(Config.getInt("schedule.import.chunk-size", 1000));
+    }
+
+    public ScheduleImporter(int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be at least 1");
+        }
+        this.chunkSize = chunkSize;
+        this.maxFailures = Config.getInt("schedule.import.max-reported-failures", 100);
+    }
+
+    /**
+     * Imports every flight in the given schedule. The reader is closed afterwards.
+     *
+     * @return a report of how many flights were imported, and which rows failed
+     * @throws IOException if the schedule can't be read, or a CSV schedule's header is invalid. Chunks already
+     *                     imported stay imported.
+     */
+    public ImportReport importSchedule(Reader input, ScheduleFormat format) throws IOException {
+        ImportReport report = new ImportReport(maxFailures);
+        EntityManager em = PersistenceManager.instance().createEntityManager();
+        try (ScheduleReader reader = new ScheduleReader(input, format)) {
+            Map<String, Long> aircraftTypes = loadIds(em, "SELECT a.name, a.id FROM AircraftType a");
+            Map<String, Long> airports = loadIds(em, "SELECT a.code, a.id FROM Airport a");
+
+            List<ResolvedRow> chunk = new ArrayList<>(chunkSize);
+            while (true) {
+                ScheduleRow row;
+                try {
+                    row = reader.next();
+                } catch (InvalidRowException e) {
+                    report.rowRead();
+                    report.rowFailed(reader.getLineNumber(), e.getMessage());
+                    continue;
+                }
+                if (row == null) {
+                    break;
+                }
+                report.rowRead();
+
+                ResolvedRow resolved = resolve(row, aircraftTypes, airports, report);
+                if (resolved != null) {
+                    chunk.add(resolved);
+                    if (chunk.size() == chunkSize) {
+                        writeChunk(em, chunk, report);
+                        chunk.clear();
+                    }
+                }
+            }
+            if (!chunk.isEmpty()) {
+                writeChunk(em, chunk, report);
+            }
+        } finally {
+            em.close();
+        }
+        report.updateElapsed();
+        LOGGER.info("Finished importing schedule: {}", report);
+        return report;
+    }
+
+    private static Map<String, Long> loadIds(EntityManager em, String query) {
+        Map<String, Long> ids = new HashMap<>();
+        for (Object[] result : em.createQuery(query, Object[].class).getResultList()) {
+            ids.put((String) result[0], (Long) result[1]);
+        }
+        return ids;
+    }
+
+    private static ResolvedRow resolve(ScheduleRow row, Map<String, Long> aircraftTypes, Map<String, Long> airports,
+                                       ImportReport report) {
+        Long aircraftTypeId = aircraftTypes.get(row.aircraftType);
+        Long originId = airports.get(row.origin);
+        Long destinationId = airports.get(row.destination);
+        if (aircraftTypeId == null) {
+            report.rowFailed(row.line, "Unknown aircraft type: " + row.aircraftType);
+        } else if (originId == null) {
+            report.rowFailed(row.line, "Unknown airport: " + row.origin);
+        } else if (destinationId == null) {
+            report.rowFailed(row.line, "Unknown airport: " + row.destination);
+        } else {
+            return new ResolvedRow(row, aircraftTypeId, originId, destinationId);
+        }
+        return null;
+    }
+
+    private void writeChunk(EntityManager em, List<ResolvedRow> chunk, ImportReport report) {
+        try {
+            insert(em, chunk);
+            report.rowsImported(chunk.size());
+        } catch (RuntimeException e) {
+            LOGGER.debug("Chunk ending at line {} was rejected, inserting its rows one at a time",
+                    chunk.get(chunk.size() - 1).row.line, e);
+            for (ResolvedRow row : chunk) {
+                try {
+                    insert(em, List.of(row));
+                    report.rowsImported(1);
+                } catch (RuntimeException rowException) {
+                    report.rowFailed(row.row.line, rootMessage(rowException));
+                }
+            }
+        }
+        LOGGER.info("Importing schedule: {}", report);
+    }
+
+    /**
+     * Inserts the given rows in a single transaction.
+     */
+    private static void insert(EntityManager em, List<ResolvedRow> rows) {
+        try {
+            em.getTransaction().begin();
+            em.unwrap(Session.class).doWork(connection -> insert(connection, rows));
+            em.getTransaction().commit();
+        } finally {
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+        }
+    }
+
+    private static void insert(Connection connection, List<ResolvedRow> rows) throws SQLException {
+        try (PreparedStatement flights = connection.prepareStatement(INSERT_FLIGHT, Statement.RETURN_GENERATED_KEYS);
+             PreparedStatement seatPricings = connection.prepareStatement(INSERT_SEAT_PRICING)) {
+            Calendar utc = Calendar.getInstance(UTC);
+            for (ResolvedRow resolved : rows) {
+                ScheduleRow row = resolved.row;
+                flights.setString(1, row.name);
+                flights.setLong(2, resolved.aircraftTypeId);
+                flights.setLong(3, resolved.originId);
+                flights.setLong(4, resolved.destinationId);
+                flights.setTimestamp(5, Timestamp.from(row.departureTime), utc);
+                flights.setTimestamp(6, Timestamp.from(row.arrivalTime), utc);
+                flights.addBatch();
+            }
+            flights.executeBatch();
+
+            boolean hasSeatPricings = false;
+            try (ResultSet keys = flights.getGeneratedKeys()) {
+                for (ResolvedRow resolved : rows) {
+                    if (!keys.next()) {
+                        throw new SQLException("Expected a generated id for each flight");
+                    }
+                    long flightId = keys.getLong(1);
+                    for (Map.Entry<CabinClass, Integer> price : resolved.row.prices.entrySet()) {
+                        seatPricings.setLong(1, flightId);
+                        seatPricings.setString(2, price.getKey().name());
+                        seatPricings.setInt(3, price.getValue());
+                        seatPricings.addBatch();
+                        hasSeatPricings = true;
+                    }
+                }
+            }
+            if (hasSeatPricings) {
+                seatPricings.executeBatch();
+            }
+        }
+    }
+
+    private static String rootMessage(Throwable e) {
+        while (e.getCause() != null) {
+            e = e.getCause();
+        }
+        return e.getMessage();
+    }
+
+    /**
+     * A row whose aircraft type and airports have been looked up
+     */
+    private static class ResolvedRow {
+        private final ScheduleRow row;
+        private final long aircraftTypeId;
+        private final long originId;
+        private final long destinationId;
+
+        private ResolvedRow(ScheduleRow row, long aircraftTypeId, long originId, long destinationId) {
+            this.row = row;
+            this.aircraftTypeId = aircraftTypeId;
+            this.originId = originId;
+            this.destinationId = destinationId;
+        }
+    }
+}
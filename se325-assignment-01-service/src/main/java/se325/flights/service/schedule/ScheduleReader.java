@@ -0,0 +1,212 @@
+package se325.flights.service.schedule;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import se325.flights.CabinClass;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+
+/**
+ * Reads a schedule one line at a time, so that only the current line is held in memory however large the schedule is.
+ * Blank lines are skipped.
+ */
+class ScheduleReader implements Closeable {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final List<String> COLUMNS = List.of(
+            "name", "aircraftType", "origin", "destination", "departureTime", "arrivalTime", "prices");
+
+    private final BufferedReader reader;
+    private final ScheduleFormat format;
+
+    /**
+     * For CSV, the index of each of {@link #COLUMNS} in the header
+     */
+    private int[] columnIndexes;
+    private int columnCount;
+
+    private long lineNumber;
+
+    ScheduleReader(Reader reader, ScheduleFormat format) {
+        this.reader = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+        this.format = format;
+    }
+
+    /**
+     * Gets the line number of the line last read, starting from 1.
+     */
+    long getLineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * Reads the next flight.
+     *
+     * @return the flight, or null at the end of the schedule
+     * @throws InvalidRowException if the next line isn't a valid flight. The line is skipped, so the following call
+     *                             reads the line after it.
+     * @throws IOException         if the schedule can't be read, or a CSV schedule's header is invalid
+     */
+    ScheduleRow next() throws IOException, InvalidRowException {
+        String line;
+        do {
+            line = reader.readLine();
+            if (line == null) {
+                return null;
+            }
+            lineNumber++;
+        } while (line.isBlank());
+
+        if (format == ScheduleFormat.CSV && columnIndexes == null) {
+            readHeader(line);
+            return next();
+        }
+        return format == ScheduleFormat.CSV ? parseCsv(line) : parseJson(line);
+    }
+
+    private void readHeader(String line) throws IOException {
+        String[] header = line.split(",", -1);
+        columnCount = header.length;
+        columnIndexes = new int[COLUMNS.size()];
+        Arrays.fill(columnIndexes, -1);
+        for (int i = 0; i < header.length; i++) {
+            int column = COLUMNS.indexOf(header[i].trim());
+            if (column >= 0) {
+                columnIndexes[column] = i;
+            }
+        }
+        for (int i = 0; i < columnIndexes.length; i++) {
+            if (columnIndexes[i] < 0) {
+                throw new IOException("CSV header is missing the column " + COLUMNS.get(i));
+            }
+        }
+    }
+
+    private ScheduleRow parseCsv(String line) throws InvalidRowException {
+        String[] fields = line.split(",", -1);
+        if (fields.length != columnCount) {
+            throw new InvalidRowException("Expected " + columnCount + " fields, found " + fields.length);
+        }
+        String[] values = new String[COLUMNS.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = fields[columnIndexes[i]].trim();
+        }
+
+        Map<CabinClass, Integer> prices = new EnumMap<>(CabinClass.class);
+        if (!values[6].isEmpty()) {
+            for (String price : values[6].split(";")) {
+                int separator = price.indexOf('=');
+                if (separator < 0) {
+                    throw new InvalidRowException("Invalid price: " + price);
+                }
+                putPrice(prices, price.substring(0, separator).trim(), price.substring(separator + 1).trim());
+            }
+        }
+        return createRow(values[0], values[1], values[2], values[3], values[4], values[5], prices);
+    }
+
+    private ScheduleRow parseJson(String line) throws InvalidRowException {
+        JsonNode node;
+        try {
+            node = MAPPER.readTree(line);
+        } catch (JsonProcessingException e) {
+            throw new InvalidRowException("Invalid JSON: " + e.getOriginalMessage());
+        }
+        if (node == null || !node.isObject()) {
+            throw new InvalidRowException("Expected a JSON object");
+        }
+
+        Map<CabinClass, Integer> prices = new EnumMap<>(CabinClass.class);
+        JsonNode pricesNode = node.path("prices");
+        if (!pricesNode.isMissingNode() && !pricesNode.isNull()) {
+            if (!pricesNode.isObject()) {
+                throw new InvalidRowException("Expected prices to be a JSON object");
+            }
+            Iterator<Map.Entry<String, JsonNode>> fields = pricesNode.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                putPrice(prices, field.getKey(), field.getValue().asText());
+            }
+        }
+        return createRow(text(node, "name"), text(node, "aircraftType"), text(node, "origin"),
+                text(node, "destination"), text(node, "departureTime"), text(node, "arrivalTime"), prices);
+    }
+
+    private static String text(JsonNode node, String field) {
+        JsonNode value = node.get(field);
+        return value == null || value.isNull() ? "" : value.asText().trim();
+    }
+
+    private ScheduleRow createRow(String name, String aircraftType, String origin, String destination,
+                                  String departureTime, String arrivalTime, Map<CabinClass, Integer> prices)
+            throws InvalidRowException {
+        require(name, "name");
+        require(aircraftType, "aircraftType");
+        require(origin, "origin");
+        require(destination, "destination");
+        Instant departure = parseTime(departureTime, "departureTime");
+        Instant arrival = parseTime(arrivalTime, "arrivalTime");
+        if (!arrival.isAfter(departure)) {
+            throw new InvalidRowException("arrivalTime must be after departureTime");
+        }
+        if (origin.equals(destination)) {
+            throw new InvalidRowException("origin and destination must be different");
+        }
+        return new ScheduleRow(lineNumber, name, aircraftType, origin, destination, departure, arrival, prices);
+    }
+
+    private static void require(String value, String field) throws InvalidRowException {
+        if (value.isEmpty()) {
+            throw new InvalidRowException(field + " is required");
+        }
+    }
+
+    private static Instant parseTime(String value, String field) throws InvalidRowException {
+        require(value, field);
+        try {
+            return ZonedDateTime.parse(value).toInstant();
+        } catch (DateTimeParseException e) {
+            try {
+                return LocalDateTime.parse(value).toInstant(ZoneOffset.UTC);
+            } catch (DateTimeParseException e2) {
+                throw new InvalidRowException("Invalid " + field + ": " + value);
+            }
+        }
+    }
+
+    private static void putPrice(Map<CabinClass, Integer> prices, String cabinClass, String price)
+            throws InvalidRowException {
+        CabinClass cabin;
+        try {
+            cabin = CabinClass.valueOf(cabinClass);
+        } catch (IllegalArgumentException e) {
+            throw new InvalidRowException("Unknown cabin class: " + cabinClass);
+        }
+        int value;
+        try {
+            value = Integer.parseInt(price);
+        } catch (NumberFormatException e) {
+            throw new InvalidRowException("Invalid price for " + cabinClass + ": " + price);
+        }
+        if (value < 0) {
+            throw new InvalidRowException("Invalid price for " + cabinClass + ": " + price);
+        }
+        prices.put(cabin, value);
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
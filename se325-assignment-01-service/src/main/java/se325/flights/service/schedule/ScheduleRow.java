@@ -0,0 +1,33 @@
+package se325.flights.service.schedule;
+
+import se325.flights.CabinClass;
+
+import java.time.Instant;
+import java.util.Map;
+
+/**
+ * One flight read from a schedule, before its aircraft type and airports have been looked up.
+ */
+class ScheduleRow {
+
+    final long line;
+    final String name;
+    final String aircraftType;
+    final String origin;
+    final String destination;
+    final Instant departureTime;
+    final Instant arrivalTime;
+    final Map<CabinClass, Integer> prices;
+
+    ScheduleRow(long line, String name, String aircraftType, String origin, String destination, Instant departureTime,
+                Instant arrivalTime, Map<CabinClass, Integer> prices) {
+        this.line = line;
+        this.name = name;
+        this.aircraftType = aircraftType;
+        this.origin = origin;
+        this.destination = destination;
+        this.departureTime = departureTime;
+        this.arrivalTime = arrivalTime;
+        this.prices = prices;
+    }
+}
@@ -0,0 +1,66 @@
+package se325.flights.util;
+
+/**
+ * Reads deployment settings. A setting with the key "subscriptions.pool-size" is looked up first as the system property
+ * "se325.subscriptions.pool-size", then as the environment variable "SE325_SUBSCRIPTIONS_POOL_SIZE". If neither is
+ * set, the given default value is used.
+ */
+public class Config {
+
+    private static final String PROPERTY_PREFIX = "se325.";
+    private static final String ENV_PREFIX = "SE325_";
+
+    /**
+     * Gets the raw value of the given setting.
+     *
+     * @param key          the setting's key, e.g. "subscriptions.pool-size"
+     * @param defaultValue the value to return if the setting isn't defined
+     * @return the setting's value, or defaultValue if it isn't defined
+     */
+    public static String getString(String key, String defaultValue) {
+        String value = System.getProperty(PROPERTY_PREFIX + key);
+        if (value == null) {
+            value = System.getenv(ENV_PREFIX + key.toUpperCase().replace('.', '_').replace('-', '_'));
+        }
+        return value == null || value.isBlank() ? defaultValue : value.trim();
+    }
+
+    public static int getInt(String key, int defaultValue) {
+        String value = getString(key, null);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    public static long getLong(String key, long defaultValue) {
+        String value = getString(key, null);
+        return value == null ? defaultValue : Long.parseLong(value);
+    }
+
+    public static double getDouble(String key, double defaultValue) {
+        String value = getString(key, null);
+        return value == null ? defaultValue : Double.parseDouble(value);
+    }
+
+    public static boolean getBoolean(String key, boolean defaultValue) {
+        String value = getString(key, null);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+
+    /**
+     * Gets the value of the given setting as an enum constant. Matching is case-insensitive, and dashes in the setting's
+     * value match underscores in the constant's name.
+     *
+     * @throws IllegalArgumentException if the setting is defined, but doesn't match any of the enum's constants
+     */
+    public static <E extends Enum<E>> E getEnum(String key, Class<E> enumType, E defaultValue) {
+        String value = getString(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        for (E constant : enumType.getEnumConstants()) {
+            if (constant.name().equalsIgnoreCase(value.replace('-', '_'))) {
+                return constant;
+            }
+        }
+        throw new IllegalArgumentException("Invalid value for setting " + key + ": " + value);
+    }
+}
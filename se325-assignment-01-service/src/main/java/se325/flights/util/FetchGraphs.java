@@ -0,0 +1,40 @@
+package se325.flights.util;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+import java.util.Map;
+
+/**
+ * Applies the domain model's named entity graphs, so that a read loads everything it's going to map to DTOs up front,
+ * rather than with a select per lazy association. Use the graph that matches what's being read:
+ * <ul>
+ *     <li>a user's bookings, or a single booking (FlightBookingDTOs) - FlightBooking.withFlight</li>
+ *     <li>a flight's booking info (BookingInfoDTO) - Flight.bookingInfo</li>
+ * </ul>
+ * Searching for flights (FlightDTOs) needs no graph. None of the graphs include airports or aircraft types: those are
+ * cached, read-only reference data, which is loaded by id from the second-level cache rather than joined.
+ * <p>
+ * The graphs are applied as fetch graphs, e.g.
+ * {@code FetchGraphs.apply(em.createNamedQuery("FlightBooking.findByUser", FlightBooking.class), em,
+ * "FlightBooking.withFlight")}, or {@code em.find(Flight.class, id, FetchGraphs.hints(em, "Flight.bookingInfo"))}.
+ */
+public class FetchGraphs {
+
+    public static final String FETCH_GRAPH_HINT = "javax.persistence.fetchgraph";
+
+    /**
+     * Gets the hints for {@link EntityManager#find(Class, Object, Map)} which apply the given named entity graph.
+     */
+    public static Map<String, Object> hints(EntityManager em, String graphName) {
+        return Map.of(FETCH_GRAPH_HINT, em.getEntityGraph(graphName));
+    }
+
+    /**
+     * Applies the given named entity graph to a query.
+     *
+     * @return the query
+     */
+    public static <T> TypedQuery<T> apply(TypedQuery<T> query, EntityManager em, String graphName) {
+        return query.setHint(FETCH_GRAPH_HINT, em.getEntityGraph(graphName));
+    }
+}
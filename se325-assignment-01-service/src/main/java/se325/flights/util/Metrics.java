@@ -0,0 +1,63 @@
+package se325.flights.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Exports metrics beans through JMX, under the "se325.flights" domain. Each component that wants to expose metrics
+ * implements an MXBean interface and registers itself here with a unique type name, e.g.
+ * "se325.flights:type=SubscriptionExecutor".
+ */
+public class Metrics {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Metrics.class);
+
+    private static final String DOMAIN = "se325.flights";
+
+    /**
+     * Registers the given bean under the given type name, replacing any bean which was previously registered under that
+     * name (e.g. by a component that has since been reset). Failures are logged rather than thrown, since metrics
+     * should never stop the service from working.
+     *
+     * @param type the type name to register the bean under
+     * @param bean the MXBean to register
+     */
+    public static void register(String type, Object bean) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = objectName(type);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(bean, name);
+        } catch (JMException e) {
+            LOGGER.warn("Failed to register metrics bean " + type, e);
+        }
+    }
+
+    /**
+     * Unregisters the bean with the given type name, if there is one.
+     *
+     * @param type the type name the bean was registered under
+     */
+    public static void unregister(String type) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = objectName(type);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            LOGGER.warn("Failed to unregister metrics bean " + type, e);
+        }
+    }
+
+    private static ObjectName objectName(String type) throws JMException {
+        return new ObjectName(DOMAIN + ":type=" + type);
+    }
+}
@@ -7,19 +7,32 @@ import com.auth0.jwt.exceptions.JWTVerificationException;
 import com.auth0.jwt.interfaces.DecodedJWT;
 import org.apache.commons.codec.digest.DigestUtils;
 import se325.flights.domain.User;
+import se325.flights.domain.UserSession;
 
-import javax.persistence.EntityManager;
-import javax.ws.rs.NotAuthorizedException;
-import javax.ws.rs.core.Cookie;
 import javax.ws.rs.core.NewCookie;
-import javax.ws.rs.core.Response;
+import java.time.Instant;
 import java.util.UUID;
 
 /**
- * Contains methods for generating SHA3-256 hashes and random UUID strings
+ * Contains methods for generating SHA3-256 hashes and random UUID strings, and for encoding and decoding the JWTs in
+ * auth cookies. Checking a token against the database, and caching the result, is up to the
+ * {@code se325.flights.service.auth} package.
  */
 public class SecurityUtils {
 
+    public static final String AUTH_COOKIE_NAME = "authToken";
+
+    /**
+     * How long auth cookies, and the tokens in them, last: about two weeks
+     */
+    public static final int AUTH_TOKEN_TTL_SECONDS = 604800 * 2;
+
+    /**
+     * The signing algorithm and verifier are thread-safe, so they're built once rather than for every token.
+     */
+    private static final Algorithm JWT_ALGORITHM = Algorithm.HMAC256("SE325A12024S2");
+    private static final JWTVerifier JWT_VERIFIER = JWT.require(JWT_ALGORITHM).build();
+
     private static final ThreadLocal<DigestUtils> THREAD_LOCAL_DIGEST =
             ThreadLocal.withInitial(() -> new DigestUtils("SHA3-256"));
 
@@ -55,6 +68,9 @@ public class SecurityUtils {
 
     /**
      * Creates a {@link NewCookie} instance suitable for an authentication token.
+     * <p>
+     * This doesn't drop the user's previous token from the cache of verified tokens, so until that expires, the
+     * previous token is still accepted. Logins should use {@code se325.flights.service.auth.AuthCookies}, which does.
      *
      * @param username the username of the authenticated user
      * @param uuid     a random string which should also be saved to the user's "uuid" field in the database.
@@ -64,12 +80,37 @@ public class SecurityUtils {
         String jwt = createJWT(username, uuid);
 
         return new NewCookie(
-                "authToken",
+                AUTH_COOKIE_NAME,
                 jwt,
                 "/",
                 null,
                 null,
-                604800 * 2, // About two weeks
+                AUTH_TOKEN_TTL_SECONDS,
+                false
+        );
+    }
+
+    /**
+     * Creates a {@link NewCookie} instance suitable for an authentication token, for the given session of the given
+     * user. The token carries the session's id, and also the user's id and its issue and expiry times, so that it can
+     * be verified without a database lookup in the stateless auth mode.
+     * <p>
+     * Unlike {@link #generateAuthCookie(String, String)}, the user's other sessions remain valid.
+     *
+     * @param user    the authenticated user
+     * @param session the session started when the user logged in
+     */
+    public static NewCookie generateAuthCookie(User user, UserSession session) {
+
+        String jwt = createJWT(user.getId(), user.getUsername(), session.getId());
+
+        return new NewCookie(
+                AUTH_COOKIE_NAME,
+                jwt,
+                "/",
+                null,
+                null,
+                AUTH_TOKEN_TTL_SECONDS,
                 false
         );
     }
@@ -78,7 +119,7 @@ public class SecurityUtils {
      * Creates a {@link NewCookie} instance suitable for deleting the authentication token.
      */
     public static NewCookie generateDeleteAuthCookie() {
-        return new NewCookie("authToken",
+        return new NewCookie(AUTH_COOKIE_NAME,
                 null,
                 "/",
                 null,
@@ -88,19 +129,44 @@ public class SecurityUtils {
     }
 
     /**
-     * Creates a new JWT (JSON Web Token) with the provided values for the "username" and "uuid" claims.
-     * Used by {@link #generateAuthCookie(String, String)} above.
+     * Creates a new JWT (JSON Web Token) with the provided values for the "username" and "uuid" claims, issued now.
+     * Used by {@link #generateAuthCookie(String, String)} above. The token carries its issue time so that revoking all
+     * of a user's tokens, e.g. on a password change, doesn't also revoke the ones issued after it.
      *
      * @param username the username claim value
      * @param uuid     the uuid claim value
      * @return a valid JWT which can be, for example, added to an auth cookie.
      */
     public static String createJWT(String username, String uuid) {
-        Algorithm algo = Algorithm.HMAC256("SE325A12024S2");
+        Instant now = Instant.now();
+        return JWT.create()
+                .withClaim("username", username)
+                .withClaim("uuid", uuid)
+                .withClaim("issuedAtMillis", now.toEpochMilli())
+                .withIssuedAt(now)
+                .sign(JWT_ALGORITHM);
+    }
+
+    /**
+     * Creates a new JWT with the provided values for the "userId", "username" and "uuid" claims, issued now and
+     * expiring when the auth cookie does. Used by {@link #generateAuthCookie(User, UserSession)} above.
+     *
+     * @param userId   the userId claim value
+     * @param username the username claim value
+     * @param uuid     the uuid claim value: the id of the user's session, which also identifies the token for
+     *                 revocation
+     * @return a valid JWT which can be, for example, added to an auth cookie.
+     */
+    public static String createJWT(long userId, String username, String uuid) {
+        Instant now = Instant.now();
         return JWT.create()
+                .withClaim("userId", userId)
                 .withClaim("username", username)
                 .withClaim("uuid", uuid)
-                .sign(algo);
+                .withClaim("issuedAtMillis", now.toEpochMilli())
+                .withIssuedAt(now)
+                .withExpiresAt(now.plusSeconds(AUTH_TOKEN_TTL_SECONDS))
+                .sign(JWT_ALGORITHM);
     }
 
     /**
@@ -112,54 +178,6 @@ public class SecurityUtils {
      *                                  otherwise not be verified.
      */
     public static DecodedJWT decodeJWT(String token) throws JWTVerificationException {
-        Algorithm algo = Algorithm.HMAC256("SE325A12024S2");
-        JWTVerifier verifier = JWT.require(algo).build();
-        return verifier.verify(token);
+        return JWT_VERIFIER.verify(token);
     }
-
-    /**
-     * Gets the {@link User} object with the given auth cookie. The cookie's value should be a valid JWT which was
-     * originally created with the {@link #createJWT(String, String)} method above. It will be decoded with the
-     * {@link #decodeJWT(String)} method, and its "username" and "uuid" claims checked against users in the
-     * database.
-     *
-     * @param em         the entity manager to use to execute the database query
-     * @param authCookie the auth cookie to check
-     * @return the {@link User} whose username and uuid in the database match the username and uuid claims in
-     * the cookie's valid JWT.
-     * @throws NotAuthorizedException if there's no such user or the cookie doesn't contain a valid JWT.
-     */
-    public static User getUserWithAuthCookie(EntityManager em, Cookie authCookie) throws NotAuthorizedException {
-
-        // Check for non-null auth cookie
-        if (authCookie == null) {
-            em.getTransaction().rollback();
-            throw new NotAuthorizedException(Response.status(401, "Not authenticated").build());
-        }
-
-        // Pull out JWT from cookie and decode
-        String encodedJWT = authCookie.getValue();
-        DecodedJWT decodedJWT;
-        try {
-            decodedJWT = decodeJWT(encodedJWT);
-        } catch (JWTVerificationException e) {
-            throw new NotAuthorizedException(Response.status(401, "Not authenticated").build());
-        }
-
-        try {
-
-            // Pull out username and uuid from JWT
-            String username = decodedJWT.getClaim("username").asString();
-            String uuid = decodedJWT.getClaim("uuid").asString();
-
-            return em.createQuery("SELECT u FROM User u WHERE u.username = :username AND u.uuid = :uuid", User.class)
-                    .setParameter("username", username)
-                    .setParameter("uuid", uuid)
-                    .getSingleResult();
-        } catch (Exception ex) {
-            em.getTransaction().rollback();
-            throw new NotAuthorizedException(Response.status(401, "Not authenticated").build());
-        }
-    }
-
 }
@@ -0,0 +1,161 @@
+-- Baseline schema: the tables, indexes and constraints mapped by the entity classes
+
+CREATE TABLE AircraftType (
+    id bigint generated by default as identity,
+    name varchar(255),
+    primary key (id)
+);
+
+CREATE TABLE AircraftType_seatingZones (
+    AircraftType_id bigint not null,
+    cabinClass varchar(255),
+    numRows integer not null,
+    seatCodeData varchar(255),
+    startingRowNumber integer not null
+);
+
+CREATE TABLE Airport (
+    id bigint generated by default as identity,
+    code varchar(255) not null,
+    latitude double not null,
+    longitude double not null,
+    name varchar(255),
+    timeZone varchar(255),
+    primary key (id)
+);
+
+CREATE TABLE Flight (
+    id bigint generated by default as identity,
+    arrivalTime timestamp,
+    departureTime timestamp,
+    name varchar(255),
+    aircraftType_id bigint,
+    destination_id bigint,
+    origin_id bigint,
+    primary key (id)
+);
+
+CREATE TABLE FLIGHT_ARCHIVE (
+    id bigint not null,
+    arrivalTime timestamp,
+    departureTime timestamp,
+    name varchar(255),
+    aircraftType_id bigint,
+    destination_id bigint,
+    origin_id bigint,
+    primary key (id)
+);
+
+CREATE TABLE Flight_seatPricings (
+    Flight_id bigint not null,
+    cabinClass varchar(255),
+    price integer not null
+);
+
+CREATE TABLE FlightBooking (
+    id bigint generated by default as identity,
+    flight_id bigint,
+    user_id bigint,
+    primary key (id)
+);
+
+CREATE TABLE FLIGHTBOOKING_ARCHIVE (
+    id bigint not null,
+    flight_id bigint not null,
+    user_id bigint,
+    primary key (id)
+);
+
+CREATE TABLE FLIGHTBOOKING_SEATS (
+    FLIGHTBOOKING_ID bigint not null,
+    FLIGHT_ID bigint,
+    letterCode varchar(255),
+    price integer not null,
+    rowNumber integer not null
+);
+
+CREATE TABLE FLIGHTBOOKING_SEATS_ARCHIVE (
+    FLIGHTBOOKING_ID bigint not null,
+    FLIGHT_ID bigint,
+    letterCode varchar(255),
+    price integer not null,
+    rowNumber integer not null
+);
+
+CREATE TABLE SEAT_AVAILABILITY_OUTBOX (
+    id bigint generated by default as identity,
+    createdAt bigint not null,
+    dispatched boolean not null,
+    flightId bigint not null,
+    nodeId varchar(64) not null,
+    primary key (id)
+);
+
+CREATE TABLE SEAT_SUBSCRIPTION (
+    id bigint generated by default as identity,
+    cabinClass varchar(16),
+    flightId bigint not null,
+    numSeats integer not null,
+    userId bigint,
+    primary key (id)
+);
+
+CREATE TABLE TOKEN_REVOCATION (
+    id bigint generated by default as identity,
+    createdAt bigint not null,
+    revokedBefore bigint not null,
+    tokenId varchar(64),
+    userId bigint not null,
+    primary key (id)
+);
+
+CREATE TABLE USER (
+    id bigint generated by default as identity,
+    passHash varchar(255),
+    username varchar(255) not null,
+    uuid varchar(255),
+    primary key (id)
+);
+
+CREATE TABLE USER_SESSION (
+    id varchar(64) not null,
+    createdAt bigint not null,
+    expiresAt bigint not null,
+    lastSeen bigint not null,
+    userId bigint not null,
+    primary key (id)
+);
+
+ALTER TABLE Airport ADD CONSTRAINT UK_AIRPORT_CODE UNIQUE (code);
+-- Indexes and unique constraints
+CREATE INDEX IDX_FLIGHT_ROUTE_DEPARTURE ON Flight (origin_id, destination_id, departureTime);
+CREATE INDEX IDX_FLIGHT_DEPARTURE ON Flight (departureTime);
+CREATE INDEX IDX_BOOKING_USER ON FlightBooking (user_id);
+CREATE INDEX IDX_BOOKING_FLIGHT ON FlightBooking (flight_id);
+CREATE INDEX IDX_BOOKING_ARCHIVE_USER ON FLIGHTBOOKING_ARCHIVE (user_id);
+CREATE INDEX IDX_SEAT_BOOKING ON FLIGHTBOOKING_SEATS (FLIGHTBOOKING_ID);
+ALTER TABLE FLIGHTBOOKING_SEATS ADD CONSTRAINT UK_SEAT_FLIGHT_SEAT UNIQUE (FLIGHT_ID, rowNumber, letterCode);
+CREATE INDEX IDX_SEAT_ARCHIVE_BOOKING ON FLIGHTBOOKING_SEATS_ARCHIVE (FLIGHTBOOKING_ID);
+CREATE INDEX IDX_OUTBOX_NODE_DISPATCHED ON SEAT_AVAILABILITY_OUTBOX (nodeId, dispatched, id);
+CREATE INDEX IDX_SUBSCRIPTION_FLIGHT ON SEAT_SUBSCRIPTION (flightId, cabinClass, numSeats);
+CREATE INDEX IDX_REVOCATION_CREATED ON TOKEN_REVOCATION (createdAt);
+CREATE INDEX IDX_USER_USERNAME_UUID ON USER (username, uuid);
+ALTER TABLE USER ADD CONSTRAINT UK_USER_USERNAME UNIQUE (username);
+CREATE INDEX IDX_SESSION_USER ON USER_SESSION (userId);
+CREATE INDEX IDX_SESSION_EXPIRES ON USER_SESSION (expiresAt);
+
+-- Foreign keys
+ALTER TABLE AircraftType_seatingZones ADD CONSTRAINT FKk4l7933tfs6b82sgi0jk8svf4 FOREIGN KEY (AircraftType_id) REFERENCES AircraftType;
+ALTER TABLE Flight ADD CONSTRAINT FKflo0ncx9ny9jm6qqp6lyfxcp FOREIGN KEY (aircraftType_id) REFERENCES AircraftType;
+ALTER TABLE Flight ADD CONSTRAINT FK5dis6my7uigtlf3yplj9a8tf2 FOREIGN KEY (destination_id) REFERENCES Airport;
+ALTER TABLE Flight ADD CONSTRAINT FKlnxosilekxmiqeqho86xox8pf FOREIGN KEY (origin_id) REFERENCES Airport;
+ALTER TABLE FLIGHT_ARCHIVE ADD CONSTRAINT FKmuc6hwtukmnelb8tq8pu7abbc FOREIGN KEY (aircraftType_id) REFERENCES AircraftType;
+ALTER TABLE FLIGHT_ARCHIVE ADD CONSTRAINT FK1ayup42l7a5ym7q8jy8pwmos9 FOREIGN KEY (destination_id) REFERENCES Airport;
+ALTER TABLE FLIGHT_ARCHIVE ADD CONSTRAINT FKk6e9qencbs91w2ug1uvxml47u FOREIGN KEY (origin_id) REFERENCES Airport;
+ALTER TABLE Flight_seatPricings ADD CONSTRAINT FKod3uwdss1aa71ahx3yba5euxk FOREIGN KEY (Flight_id) REFERENCES Flight;
+ALTER TABLE FlightBooking ADD CONSTRAINT FKmde4qbqbhoaxjtuwu1jsblckp FOREIGN KEY (flight_id) REFERENCES Flight;
+ALTER TABLE FlightBooking ADD CONSTRAINT FKh237uqy87yi27oho6lo47osbl FOREIGN KEY (user_id) REFERENCES USER;
+ALTER TABLE FLIGHTBOOKING_ARCHIVE ADD CONSTRAINT FKgx5f4t2atin9wpca5qb5fvf2e FOREIGN KEY (flight_id) REFERENCES FLIGHT_ARCHIVE;
+ALTER TABLE FLIGHTBOOKING_ARCHIVE ADD CONSTRAINT FKqglrrtm3ogcn2dq754wiv5f6i FOREIGN KEY (user_id) REFERENCES USER;
+ALTER TABLE FLIGHTBOOKING_SEATS ADD CONSTRAINT FKqboa8pnk2widnbi25nj9n792b FOREIGN KEY (FLIGHTBOOKING_ID) REFERENCES FlightBooking;
+ALTER TABLE FLIGHTBOOKING_SEATS_ARCHIVE ADD CONSTRAINT FKeofnst3asgprrnf6at3jg6kmk FOREIGN KEY (FLIGHTBOOKING_ID) REFERENCES FLIGHTBOOKING_ARCHIVE;
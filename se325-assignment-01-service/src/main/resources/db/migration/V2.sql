@@ -0,0 +1,3 @@
+-- Add a version to flights, which Hibernate increments whenever a flight changes
+
+ALTER TABLE Flight ADD COLUMN version bigint DEFAULT 0 NOT NULL;
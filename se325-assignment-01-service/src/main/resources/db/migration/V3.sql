@@ -0,0 +1,14 @@
+-- Persist seat holds, so that bookings committed on any service instance see them
+
+CREATE TABLE SEAT_HOLD (
+    id bigint generated by default as identity,
+    expiresAt bigint not null,
+    flightId bigint not null,
+    holdId varchar(36) not null,
+    seatCode varchar(8) not null,
+    userId bigint,
+    primary key (id)
+);
+
+ALTER TABLE SEAT_HOLD ADD CONSTRAINT UK_SEAT_HOLD_FLIGHT_SEAT UNIQUE (flightId, seatCode);
+CREATE INDEX IDX_SEAT_HOLD_HOLD ON SEAT_HOLD (holdId);
@@ -0,0 +1,111 @@
+package se325.flights.domain.test;
+
+import org.hibernate.engine.spi.SelfDirtinessTracker;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import se325.flights.domain.*;
+import se325.flights.service.PersistenceManager;
+import se325.flights.util.FetchGraphs;
+
+import javax.persistence.EntityManager;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Measures how long it takes to flush a new booking on a flight whose bookings, and their seats, are all loaded into
+ * the persistence context - as they are when the flight's bookings are checked before booking more seats.
+ * <p>
+ * The time depends on whether the entity classes were enhanced at build time: without enhancement, Hibernate compares
+ * every loaded entity with a snapshot of it when it flushes. To compare, run this once as built by default, and once
+ * after rebuilding with {@code -Denhance} (see the enhance profile in pom.xml).
+ * <p>
+ * Not run by the build. Run this class's main method from the IDE, or from Maven with
+ * {@code mvn test-compile exec:java -Dexec.mainClass=se325.flights.domain.test.FlushBenchmark
+ * -Dexec.classpathScope=test}.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 5)
+@Measurement(iterations = 5, time = 2)
+public class FlushBenchmark {
+
+    private static final long FLIGHT_ID = 1L;
+
+    @Param({"100", "250"})
+    public int numBookings;
+
+    private String freeSeatCode;
+
+    private EntityManager em;
+
+    @Setup(Level.Trial)
+    public void setUp() throws BookingException {
+        System.setProperty("se325.db.profile", "memory");
+        System.setProperty("se325.db.seed", "true");
+        System.out.println("Entity classes enhanced: " + SelfDirtinessTracker.class.isAssignableFrom(Flight.class));
+        PersistenceManager.instance().reset();
+
+        EntityManager em = PersistenceManager.instance().createEntityManager();
+        try {
+            em.getTransaction().begin();
+            Flight flight = em.find(Flight.class, FLIGHT_ID);
+            List<String> seatCodes = flight.getAircraftType().getSeatingZones().stream()
+                    .flatMap(zone -> zone.getSeatCodes().stream())
+                    .sorted()
+                    .collect(Collectors.toList());
+            if (seatCodes.size() <= numBookings) {
+                throw new IllegalStateException("Flight " + FLIGHT_ID + " only has " + seatCodes.size() + " seats");
+            }
+            User user = em.find(User.class, 1L);
+            for (int i = 0; i < numBookings; i++) {
+                flight.makeBooking(user, seatCodes.get(i));
+            }
+            em.getTransaction().commit();
+            freeSeatCode = seatCodes.get(numBookings);
+        } finally {
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+            em.close();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        PersistenceManager.instance().close();
+    }
+
+    /**
+     * Loads the flight with all of its bookings, and books a free seat, ready to be flushed.
+     */
+    @Setup(Level.Invocation)
+    public void bookFreeSeat() throws BookingException {
+        em = PersistenceManager.instance().createEntityManager();
+        em.getTransaction().begin();
+        Flight flight = em.find(Flight.class, FLIGHT_ID, FetchGraphs.hints(em, "Flight.bookingInfo"));
+        flight.makeBooking(em.getReference(User.class, 2L), freeSeatCode);
+    }
+
+    /**
+     * Rolls back the booking, so that the same seat is free for the next invocation.
+     */
+    @TearDown(Level.Invocation)
+    public void rollBack() {
+        em.getTransaction().rollback();
+        em.close();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void flush() {
+        em.flush();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(FlushBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,83 @@
+package se325.flights.domain.test;
+
+import org.junit.jupiter.api.*;
+import se325.flights.domain.Flight;
+import se325.flights.domain.mappers.FlightMapper;
+import se325.flights.dto.AirportDTO;
+import se325.flights.dto.FlightDTO;
+import se325.flights.service.PersistenceManager;
+
+import javax.persistence.EntityManager;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests that the mappers share DTOs for flights and airports, and that a flight gets a new DTO once it changes.
+ */
+public class TestDTOCache {
+
+    private static PersistenceManager PM;
+
+    @BeforeAll
+    public static void initPersistenceManager() {
+        PM = PersistenceManager.instance();
+    }
+
+    @AfterAll
+    public static void closePersistenceManager() {
+        PM.close();
+    }
+
+    @BeforeEach
+    public void resetDatabase() {
+        PM.reset();
+    }
+
+    @Test
+    public void testDTOsAreShared() {
+        FlightDTO first = inNewEntityManager(em -> FlightMapper.toDTO(em.find(Flight.class, 1L)));
+        FlightDTO second = inNewEntityManager(em -> FlightMapper.toDTO(em.find(Flight.class, 1L)));
+        FlightDTO other = inNewEntityManager(em -> FlightMapper.toDTO(em.find(Flight.class, 2L)));
+
+        assertSame(first, second);
+        assertSame(first.getOrigin(), other.getOrigin());
+        assertSame(first.getDestination(), other.getDestination());
+
+        assertThrows(UnsupportedOperationException.class, () -> first.setName("Changed"));
+        assertThrows(UnsupportedOperationException.class, () -> first.getOrigin().setCode("XXX"));
+
+        AirportDTO origin = first.getOrigin();
+        assertEquals(new AirportDTO(origin.getId(), origin.getName(), origin.getCode(), origin.getLatitude(),
+                origin.getLongitude(), origin.getTimeZone()), origin);
+    }
+
+    @Test
+    public void testChangedFlightGetsNewDTO() {
+        FlightDTO before = inNewEntityManager(em -> FlightMapper.toDTO(em.find(Flight.class, 1L)));
+
+        FlightDTO after = inNewEntityManager(em -> {
+            em.getTransaction().begin();
+            Flight flight = em.find(Flight.class, 1L);
+            flight.setDepartureTime(flight.getDepartureTime().plusHours(1));
+            em.getTransaction().commit();
+            return FlightMapper.toDTO(flight);
+        });
+
+        assertNotSame(before, after);
+        assertEquals(before.getDepartureTime().plusHours(1), after.getDepartureTime());
+        assertSame(after, inNewEntityManager(em -> FlightMapper.toDTO(em.find(Flight.class, 1L))));
+    }
+
+    private static <T> T inNewEntityManager(Function<EntityManager, T> work) {
+        EntityManager em = PM.createEntityManager();
+        try {
+            return work.apply(em);
+        } finally {
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+            em.close();
+        }
+    }
+}
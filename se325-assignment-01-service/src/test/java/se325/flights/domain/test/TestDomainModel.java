@@ -6,6 +6,7 @@ import se325.flights.service.PersistenceManager;
 import se325.flights.util.SecurityUtils;
 
 import javax.persistence.EntityManager;
+import javax.persistence.RollbackException;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -452,5 +453,74 @@ public class TestDomainModel {
                 em.getTransaction().commit();
             }
         }
+
+        /**
+         * Tests that each booked seat is priced by its cabin class on the flight being booked, and that the new
+         * booking is added to both the flight and the user.
+         */
+        @Test
+        public void testBookSeatsInEachCabinClass() throws BookingException {
+            em.getTransaction().begin();
+            User user = em.find(User.class, 2L);
+            Flight flight = em.find(Flight.class, 43L);
+
+            FlightBooking booking = flight.makeBooking(user, "2A", "23A", "40A");
+
+            assertSame(flight, booking.getFlight());
+            assertSame(user, booking.getUser());
+            assertEquals(3300 + 1650 + 550, booking.getPrice());
+            assertTrue(flight.getBookings().contains(booking));
+            assertTrue(user.getBookings().contains(booking));
+            assertEquals(8, flight.getBookedSeats().size());
+            em.getTransaction().commit();
+
+            // The booking and its seats are saved along with the flight
+            em.clear();
+            flight = em.find(Flight.class, 43L);
+            assertEquals(2, flight.getBookings().size());
+            assertEquals(294, flight.getNumSeatsRemaining());
+        }
+
+        /**
+         * Tests that we can't make a booking which asks for the same seat more than once.
+         */
+        @Test
+        public void testBookDuplicateSeats() {
+            em.getTransaction().begin();
+            User user = em.find(User.class, 2L);
+            Flight flight = em.find(Flight.class, 43L);
+            try {
+                flight.makeBooking(user, "2A", "23A", "2A");
+                fail("Booking the same seat twice in one request should not be successful.");
+
+            } catch (BookingException e) {
+                // Ensure state was not updated
+                assertEquals(1, flight.getBookings().size());
+                assertEquals(1, user.getBookings().size());
+                assertEquals(297, flight.getNumSeatsRemaining());
+            } finally {
+                em.getTransaction().commit();
+            }
+        }
+
+        /**
+         * Tests that booked seats record their flight, so that when two sessions book the same seat at the same
+         * time, the database rejects the second booking.
+         */
+        @Test
+        public void testConcurrentBookingsOfSameSeat() throws BookingException {
+            EntityManager other = PM.createEntityManager();
+            try {
+                em.getTransaction().begin();
+                other.getTransaction().begin();
+                em.find(Flight.class, 43L).makeBooking(em.find(User.class, 1L), "2A");
+                other.find(Flight.class, 43L).makeBooking(other.find(User.class, 2L), "2A");
+
+                em.getTransaction().commit();
+                assertThrows(RollbackException.class, () -> other.getTransaction().commit());
+            } finally {
+                other.close();
+            }
+        }
     }
 }
@@ -0,0 +1,184 @@
+package se325.flights.domain.test;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.*;
+import se325.flights.domain.*;
+import se325.flights.domain.mappers.BookingMapper;
+import se325.flights.domain.mappers.FlightMapper;
+import se325.flights.service.PersistenceManager;
+import se325.flights.util.FetchGraphs;
+
+import javax.persistence.EntityManager;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests that each read use case, loaded with its entity graph and mapped to DTOs, runs the same number of statements
+ * however many rows it reads. The second-level cache holds only the reference data (airports and aircraft types)
+ * before each read, as it would in a running service, so that reading it takes no statements at all.
+ */
+public class TestFetchGraphs {
+
+    /**
+     * Flights which use the 777-200ER, which has a seat 11A
+     */
+    private static final long[] FLIGHT_IDS = {1, 2, 3, 5, 7};
+
+    private static PersistenceManager PM;
+
+    @BeforeAll
+    public static void initPersistenceManager() {
+        PM = PersistenceManager.instance();
+    }
+
+    @AfterAll
+    public static void closePersistenceManager() {
+        PM.close();
+    }
+
+    @BeforeEach
+    public void resetDatabase() {
+        PM.reset();
+    }
+
+    @Test
+    public void testSearchListing() {
+        long oneFlight = countStatements(em -> assertEquals(1, searchAklToSyd(em, 11, 12).size()));
+        long fourFlights = countStatements(em -> assertEquals(4, searchAklToSyd(em, 1, 32).size()));
+        assertEquals(oneFlight, fourFlights);
+        // Just the search itself: the airports and aircraft types come from the cache
+        assertEquals(1, fourFlights);
+    }
+
+    @Test
+    public void testBookingList() throws BookingException {
+        bookSeats(1, 1L);
+        long oneBooking = countStatements(this::listUserOneBookings);
+
+        for (int i = 1; i < FLIGHT_IDS.length; i++) {
+            bookSeats(1, FLIGHT_IDS[i]);
+        }
+        long fiveBookings = countStatements(em -> assertEquals(FLIGHT_IDS.length, listUserOneBookings(em)));
+        assertEquals(oneBooking, fiveBookings);
+    }
+
+    @Test
+    public void testBookingDetail() throws BookingException {
+        long oneSeat = bookSeats(1, 1L);
+        long fourSeats = bookSeats(1, 2L, "11A", "11D", "11F", "11K");
+        assertEquals(countStatements(em -> assertEquals(List.of("11A"), getBookingDetail(em, oneSeat))),
+                countStatements(em -> assertEquals(4, getBookingDetail(em, fourSeats).size())));
+    }
+
+    @Test
+    public void testBookingInfo() throws BookingException {
+        bookSeats(1, 1L);
+        long oneBooking = countStatements(em -> assertEquals(1, bookedSeatsOnFlightOne(em)));
+
+        for (String seatCode : new String[]{"11D", "11F", "11K", "12A"}) {
+            bookSeats(createUser("user" + seatCode), 1L, seatCode);
+        }
+        long fiveBookings = countStatements(em -> assertEquals(5, bookedSeatsOnFlightOne(em)));
+        assertEquals(oneBooking, fiveBookings);
+    }
+
+    private static List<Flight> searchAklToSyd(EntityManager em, int fromDay, int toDay) {
+        List<Flight> flights = em.createNamedQuery("Flight.findByRouteAndDepartureRange", Flight.class)
+                .setParameter("origin", "AKL")
+                .setParameter("destination", "SYD")
+                .setParameter("start", ZonedDateTime.of(2022, 8, fromDay, 0, 0, 0, 0, ZoneOffset.UTC))
+                .setParameter("end", ZonedDateTime.of(2022, 8, 1, 0, 0, 0, 0, ZoneOffset.UTC).plusDays(toDay - 1))
+                .getResultList();
+        flights.forEach(FlightMapper::toDTO);
+        return flights;
+    }
+
+    private int listUserOneBookings(EntityManager em) {
+        List<FlightBooking> bookings = FetchGraphs.apply(
+                        em.createNamedQuery("FlightBooking.findByUser", FlightBooking.class), em,
+                        "FlightBooking.withFlight")
+                .setParameter("userId", 1L)
+                .getResultList();
+        return bookings.stream().map(BookingMapper::toDTO).collect(Collectors.toList()).size();
+    }
+
+    private List<String> getBookingDetail(EntityManager em, long bookingId) {
+        FlightBooking booking = em.find(FlightBooking.class, bookingId, FetchGraphs.hints(em, "FlightBooking.withFlight"));
+        return BookingMapper.toDTO(booking).getBookedSeats();
+    }
+
+    private int bookedSeatsOnFlightOne(EntityManager em) {
+        Flight flight = em.find(Flight.class, 1L, FetchGraphs.hints(em, "Flight.bookingInfo"));
+        return FlightMapper.toBookingInfoDTO(flight).getBookedSeats().size();
+    }
+
+    private long bookSeats(long userId, long flightId) throws BookingException {
+        return bookSeats(userId, flightId, "11A");
+    }
+
+    private long bookSeats(long userId, long flightId, String... seatCodes) throws BookingException {
+        EntityManager em = PM.createEntityManager();
+        try {
+            em.getTransaction().begin();
+            FlightBooking booking = em.find(Flight.class, flightId).makeBooking(em.find(User.class, userId), seatCodes);
+            em.getTransaction().commit();
+            return booking.getId();
+        } finally {
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+            em.close();
+        }
+    }
+
+    private long createUser(String username) {
+        EntityManager em = PM.createEntityManager();
+        try {
+            em.getTransaction().begin();
+            User user = new User(username, "password");
+            em.persist(user);
+            em.getTransaction().commit();
+            return user.getId();
+        } finally {
+            em.close();
+        }
+    }
+
+    /**
+     * Counts the statements prepared by the given work, run in a new persistence context with only the reference data
+     * in the second-level cache.
+     */
+    private static long countStatements(Consumer<EntityManager> work) {
+        EntityManager em = PM.createEntityManager();
+        try {
+            SessionFactory sessionFactory = em.getEntityManagerFactory().unwrap(SessionFactory.class);
+            sessionFactory.getCache().evictAllRegions();
+            loadReferenceData();
+            Statistics statistics = sessionFactory.getStatistics();
+            statistics.clear();
+            work.accept(em);
+            return statistics.getPrepareStatementCount();
+        } finally {
+            em.close();
+        }
+    }
+
+    /**
+     * Loads every airport and aircraft type, with its seating zones, into the second-level cache.
+     */
+    private static void loadReferenceData() {
+        EntityManager em = PM.createEntityManager();
+        try {
+            em.createQuery("SELECT a FROM Airport a", Airport.class).getResultList();
+            em.createQuery("SELECT t FROM AircraftType t", AircraftType.class).getResultList();
+        } finally {
+            em.close();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package se325.flights.domain.test;
+
+import org.hibernate.Session;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.hql.spi.QueryTranslator;
+import org.hibernate.hql.spi.QueryTranslatorFactory;
+import org.junit.jupiter.api.*;
+import se325.flights.service.PersistenceManager;
+
+import javax.persistence.EntityManager;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.metamodel.EntityType;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks the domain model's index plan: every named query declared on an entity is translated to SQL, and H2 is asked
+ * to EXPLAIN it. A query whose plan scans a whole table is missing an index.
+ */
+public class TestIndexPlan {
+
+    private static PersistenceManager PM;
+    private EntityManager em;
+
+    @BeforeAll
+    public static void initPersistenceManager() {
+        PM = PersistenceManager.instance();
+    }
+
+    @AfterAll
+    public static void closePersistenceManager() {
+        PM.close();
+    }
+
+    @BeforeEach
+    public void createEntityManager() {
+        PM.reset();
+        this.em = PM.createEntityManager();
+    }
+
+    @AfterEach
+    public void closeEntityManager() {
+        em.close();
+    }
+
+    /**
+     * Tests that no named query scans a whole table.
+     */
+    @Test
+    public void testNamedQueriesUseIndexes() {
+        List<NamedQuery> namedQueries = getNamedQueries();
+        assertFalse(namedQueries.isEmpty());
+
+        SessionFactoryImplementor sessionFactory = em.getEntityManagerFactory().unwrap(SessionFactoryImplementor.class);
+        QueryTranslatorFactory translatorFactory = sessionFactory.getServiceRegistry()
+                .getService(QueryTranslatorFactory.class);
+        Map<String, String> failures = new TreeMap<>();
+        for (NamedQuery namedQuery : namedQueries) {
+            QueryTranslator translator = translatorFactory.createQueryTranslator(namedQuery.name(), namedQuery.query(),
+                    Collections.emptyMap(), sessionFactory, null);
+            translator.compile(Collections.emptyMap(), false);
+            String plan = explain(translator.getSQLString());
+            if (plan.contains("tableScan")) {
+                failures.put(namedQuery.name(), plan);
+            }
+        }
+
+        assertTrue(failures.isEmpty(), "Named queries which scan a whole table: " + failures);
+    }
+
+    /**
+     * Gets all named queries declared on the entities in the persistence unit.
+     */
+    private List<NamedQuery> getNamedQueries() {
+        List<NamedQuery> namedQueries = new ArrayList<>();
+        for (EntityType<?> entity : em.getMetamodel().getEntities()) {
+            Class<?> type = entity.getJavaType();
+            NamedQuery namedQuery = type.getAnnotation(NamedQuery.class);
+            if (namedQuery != null) {
+                namedQueries.add(namedQuery);
+            }
+            NamedQueries group = type.getAnnotation(NamedQueries.class);
+            if (group != null) {
+                namedQueries.addAll(Arrays.asList(group.value()));
+            }
+        }
+        return namedQueries;
+    }
+
+    /**
+     * Asks H2 for the plan of the given SQL statement. Parameters are left unbound, so the plan doesn't depend on any
+     * particular values.
+     */
+    private String explain(String sql) {
+        StringBuilder plan = new StringBuilder();
+        em.unwrap(Session.class).doWork(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement("EXPLAIN " + sql)) {
+                int numParams = statement.getParameterMetaData().getParameterCount();
+                for (int i = 1; i <= numParams; i++) {
+                    statement.setObject(i, null);
+                }
+                try (ResultSet results = statement.executeQuery()) {
+                    while (results.next()) {
+                        plan.append(results.getString(1));
+                    }
+                }
+            }
+        });
+        return plan.toString();
+    }
+}
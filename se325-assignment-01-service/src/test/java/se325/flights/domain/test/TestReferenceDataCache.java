@@ -0,0 +1,105 @@
+package se325.flights.domain.test;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.*;
+import se325.flights.domain.AircraftType;
+import se325.flights.domain.Airport;
+import se325.flights.domain.Flight;
+import se325.flights.service.PersistenceManager;
+
+import javax.persistence.EntityManager;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests that airports and aircraft types are served from the second-level cache, and airport lookups from the query
+ * cache, once they've been loaded.
+ */
+public class TestReferenceDataCache {
+
+    private static PersistenceManager PM;
+
+    @BeforeAll
+    public static void initPersistenceManager() {
+        PM = PersistenceManager.instance();
+    }
+
+    @AfterAll
+    public static void closePersistenceManager() {
+        PM.close();
+    }
+
+    @BeforeEach
+    public void resetDatabase() {
+        PM.reset();
+    }
+
+    /**
+     * Tests that loading a flight a second time, in a new persistence context, gets its airports and aircraft type
+     * from the second-level cache rather than the database.
+     */
+    @Test
+    public void testFlightReferencesComeFromCache() {
+        inNewEntityManager(em -> em.find(Flight.class, 1L).getAircraftType().getSeatingZones().size());
+        Statistics statistics = getStatistics();
+        statistics.clear();
+
+        inNewEntityManager(em -> {
+            Flight flight = em.find(Flight.class, 1L);
+            assertNotNull(flight.getOrigin().getCode());
+            assertNotNull(flight.getDestination().getCode());
+            assertFalse(flight.getAircraftType().getSeatingZones().isEmpty());
+        });
+
+        for (Class<?> type : new Class<?>[]{Airport.class, AircraftType.class}) {
+            assertEquals(0, statistics.getEntityStatistics(type.getName()).getLoadCount());
+            assertEquals(0, statistics.getEntityStatistics(type.getName()).getFetchCount());
+        }
+        assertTrue(statistics.getSecondLevelCacheHitCount() >= 3);
+        assertEquals(0, statistics.getCollectionFetchCount());
+    }
+
+    /**
+     * Tests that looking an airport up by code a second time is answered by the query cache, and that resetting the
+     * database empties the cache.
+     */
+    @Test
+    public void testAirportLookupIsCachedUntilReset() {
+        inNewEntityManager(this::findAkl);
+        inNewEntityManager(this::findAkl);
+        assertEquals(1, getStatistics().getQueryCacheHitCount());
+
+        PM.reset();
+
+        inNewEntityManager(this::findAkl);
+        assertEquals(0, getStatistics().getQueryCacheHitCount());
+        assertEquals(1, getStatistics().getQueryCacheMissCount());
+    }
+
+    private void findAkl(EntityManager em) {
+        Airport airport = em.createNamedQuery("Airport.findByCode", Airport.class)
+                .setParameter("code", "AKL")
+                .getSingleResult();
+        assertEquals("AKL", airport.getCode());
+    }
+
+    private static void inNewEntityManager(Consumer<EntityManager> work) {
+        EntityManager em = PM.createEntityManager();
+        try {
+            work.accept(em);
+        } finally {
+            em.close();
+        }
+    }
+
+    private static Statistics getStatistics() {
+        EntityManager em = PM.createEntityManager();
+        try {
+            return em.getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics();
+        } finally {
+            em.close();
+        }
+    }
+}
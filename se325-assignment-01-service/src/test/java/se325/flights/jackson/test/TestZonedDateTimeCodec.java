@@ -0,0 +1,157 @@
+package se325.flights.jackson.test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import se325.flights.dto.FlightDTO;
+import se325.flights.jackson.ZonedDateTimeCodec;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests that the ZonedDateTime codec gives exactly the same results as {@link DateTimeFormatter#ISO_DATE_TIME}, for
+ * random dates and times in every zone as well as for text which it leaves to the formatter.
+ */
+public class TestZonedDateTimeCodec {
+
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ISO_DATE_TIME;
+
+    private static final List<ZoneId> ZONES = new ArrayList<>();
+
+    static {
+        ZoneId.getAvailableZoneIds().stream().sorted().map(ZoneId::of).forEach(ZONES::add);
+        for (int seconds = -18 * 3600; seconds <= 18 * 3600; seconds += 900) {
+            ZONES.add(ZoneOffset.ofTotalSeconds(seconds));
+        }
+        ZONES.add(ZoneOffset.ofHoursMinutesSeconds(5, 30, 15));
+        ZONES.add(ZoneOffset.ofHoursMinutesSeconds(-1, 0, -1));
+    }
+
+    @Test
+    public void testRoundTripRandomDateTimes() {
+        Random random = new Random(325);
+        for (int i = 0; i < 100_000; i++) {
+            ZonedDateTime dateTime = randomDateTime(random);
+            String expected = FORMATTER.format(dateTime);
+
+            String text = ZonedDateTimeCodec.format(dateTime);
+            assertEquals(expected, text);
+            assertEquals(dateTime, ZonedDateTimeCodec.parse(text), text);
+
+            // Parse from part of a larger buffer, as the deserializer does
+            char[] chars = ("\"" + text + "\"").toCharArray();
+            assertEquals(dateTime, ZonedDateTimeCodec.parse(chars, 1, text.length()), text);
+        }
+    }
+
+    @Test
+    public void testFormatOutsideFastPath() {
+        ZonedDateTime farFuture = ZonedDateTime.of(LocalDateTime.of(12345, 6, 7, 8, 9), ZoneId.of("Pacific/Auckland"));
+        ZonedDateTime bce = ZonedDateTime.of(LocalDateTime.of(-44, 3, 15, 12, 0), ZoneOffset.UTC);
+
+        for (ZonedDateTime dateTime : List.of(farFuture, bce)) {
+            assertEquals(-1, ZonedDateTimeCodec.format(dateTime, new char[ZonedDateTimeCodec.MAX_LENGTH]));
+            assertEquals(FORMATTER.format(dateTime), ZonedDateTimeCodec.format(dateTime));
+            assertEquals(dateTime, ZonedDateTimeCodec.parse(ZonedDateTimeCodec.format(dateTime)));
+        }
+    }
+
+    /**
+     * Text which is valid, but which the codec hands to the formatter, or which is the same as it is in every zone
+     */
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "2021-03-04T10:15Z",
+            "2021-03-04t10:15:30z",
+            "2021-03-04T10:15:30.123456789+13:00[Pacific/Auckland]",
+            "2021-03-04T10:15:30+01:00:00",
+            "2021-03-04T10:15:30-00:00",
+            "2021-03-04T10:15:30.Z",
+            "2021-03-04T10:15:30Z[UTC]",
+            "2021-03-04T10:15:30Z[GMT0]",
+            "2021-03-04T10:15:30+01:00[UTC+01:00]",
+            "2021-03-04T10:15:30+01:00[+01:00]",
+            "2021-07-04T10:15:30+13:00[Pacific/Auckland]",
+            "+12021-03-04T10:15:30Z"
+    })
+    public void testParseSameAsFormatter(String text) {
+        assertEquals(ZonedDateTime.parse(text, FORMATTER), ZonedDateTimeCodec.parse(text));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "",
+            "2021-03-04",
+            "2021-03-04T10:15:30",
+            "2021-02-29T10:15:30Z",
+            "2021-13-04T10:15:30Z",
+            "2021-03-04T24:00:00Z",
+            "2021-03-04T10:60:00Z",
+            "2021-03-04T10:15:60Z",
+            "2021-03-04T10:15:30.1234567890Z",
+            "2021-03-04T10:15:30+05",
+            "2021-03-04T10:15:30+19:00",
+            "2021-03-04T10:15:30+01:60",
+            "2021-03-04T10:15:30Z[Nowhere/Special]",
+            "2021-03-04T10:15:30Z[UTC",
+            "2021-03-04T10:15:30Z junk"
+    })
+    public void testRejectSameAsFormatter(String text) {
+        assertThrows(DateTimeParseException.class, () -> ZonedDateTime.parse(text, FORMATTER));
+        assertThrows(DateTimeParseException.class, () -> ZonedDateTimeCodec.parse(text));
+    }
+
+    @Test
+    public void testJsonRoundTrip() throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        ZonedDateTime departure = ZonedDateTime.of(2021, 3, 4, 10, 15, 0, 0, ZoneId.of("Pacific/Auckland"));
+        ZonedDateTime arrival = ZonedDateTime.of(2021, 3, 4, 11, 45, 30, 500_000_000, ZoneId.of("Australia/Sydney"));
+        FlightDTO flight = new FlightDTO(1L, "ZNJ-242", departure, null, arrival, null, "Boeing 787-9");
+
+        String json = mapper.writeValueAsString(flight);
+        assertTrue(json.contains("\"2021-03-04T10:15:00+13:00[Pacific/Auckland]\""), json);
+        assertTrue(json.contains("\"2021-03-04T11:45:30.5+11:00[Australia/Sydney]\""), json);
+
+        FlightDTO read = mapper.readValue(json, FlightDTO.class);
+        assertEquals(departure, read.getDepartureTime());
+        assertEquals(arrival, read.getArrivalTime());
+    }
+
+    /**
+     * Picks a date and time between 0000 and 9999 in a random zone, with a random precision down to nanoseconds
+     */
+    private static ZonedDateTime randomDateTime(Random random) {
+        LocalDateTime localDateTime = LocalDateTime.of(random.nextInt(10_000), 1, 1, 0, 0)
+                .plusSeconds(random.nextInt(366 * 24 * 3600));
+        int nano;
+        switch (random.nextInt(4)) {
+            case 0:
+                nano = 0;
+                break;
+            case 1:
+                nano = random.nextInt(1000) * 1_000_000;
+                break;
+            case 2:
+                nano = random.nextInt(1_000_000) * 1000;
+                break;
+            default:
+                nano = random.nextInt(1_000_000_000);
+        }
+        ZoneId zone = ZONES.get(random.nextInt(ZONES.size()));
+        ZonedDateTime dateTime = ZonedDateTime.of(localDateTime.withNano(nano), zone);
+        // Gaps and overlaps shift times near the ends of the range, so keep to the years the fast path handles
+        return dateTime.getYear() < 0 || dateTime.getYear() > 9999 ? dateTime.withYear(2000) : dateTime;
+    }
+}
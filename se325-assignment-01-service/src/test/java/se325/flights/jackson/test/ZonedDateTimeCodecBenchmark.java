@@ -0,0 +1,127 @@
+package se325.flights.jackson.test;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import se325.flights.dto.AirportDTO;
+import se325.flights.dto.FlightDTO;
+import se325.flights.jackson.ZonedDateTimeCodec;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares writing and reading ZonedDateTimes in JSON with {@link DateTimeFormatter#ISO_DATE_TIME} - as the
+ * ZonedDateTimeSerializer and ZonedDateTimeDeserializer used to - against the {@link ZonedDateTimeCodec} they use now,
+ * and measures serializing a page of flight search results, which have two timestamps per flight.
+ * <p>
+ * Run with {@code -prof gc} to compare how much each allocates, too.
+ * <p>
+ * Not run by the build. Run this class's main method from the IDE, or from Maven with
+ * {@code mvn test-compile exec:java -Dexec.mainClass=se325.flights.jackson.test.ZonedDateTimeCodecBenchmark
+ * -Dexec.classpathScope=test}.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ZonedDateTimeCodecBenchmark {
+
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ISO_DATE_TIME;
+
+    /**
+     * A zone region, as flights' times are in, and a plain offset
+     */
+    @Param({"Pacific/Auckland", "+05:30"})
+    public String zone;
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private ZonedDateTime dateTime;
+    private String json;
+    private List<FlightDTO> searchResults;
+
+    private JsonGenerator generator;
+
+    /**
+     * Reused, as the serializer reuses a buffer per thread
+     */
+    private final char[] buffer = new char[ZonedDateTimeCodec.MAX_LENGTH];
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dateTime = ZonedDateTime.of(2021, 3, 4, 10, 15, 30, 0, ZoneId.of(zone));
+        json = '"' + FORMATTER.format(dateTime) + '"';
+
+        AirportDTO origin = new AirportDTO(1L, "Auckland International Airport", "AKL", -37.008, 174.792,
+                "Pacific/Auckland");
+        AirportDTO destination = new AirportDTO(2L, "Sydney Kingsford Smith Airport", "SYD", -33.946, 151.177,
+                "Australia/Sydney");
+        searchResults = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            ZonedDateTime departure = dateTime.withZoneSameInstant(ZoneId.of("Pacific/Auckland")).plusHours(i);
+            ZonedDateTime arrival = departure.plusMinutes(195).withZoneSameInstant(ZoneId.of("Australia/Sydney"));
+            searchResults.add(new FlightDTO((long) i, "ZNJ-" + (200 + i), departure, origin, arrival, destination,
+                    "Boeing 787-9"));
+        }
+
+        generator = jsonFactory.createGenerator(Writer.nullWriter());
+        generator.writeStartArray();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        generator.close();
+    }
+
+    @Benchmark
+    public void writeWithFormatter() throws IOException {
+        generator.writeString(FORMATTER.format(dateTime));
+    }
+
+    @Benchmark
+    public void writeWithCodec() throws IOException {
+        generator.writeString(buffer, 0, ZonedDateTimeCodec.format(dateTime, buffer));
+    }
+
+    @Benchmark
+    public ZonedDateTime readWithFormatter() throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(json)) {
+            parser.nextToken();
+            return ZonedDateTime.parse(parser.getText(), FORMATTER);
+        }
+    }
+
+    @Benchmark
+    public ZonedDateTime readWithCodec() throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(json)) {
+            parser.nextToken();
+            return ZonedDateTimeCodec.parse(parser.getTextCharacters(), parser.getTextOffset(),
+                    parser.getTextLength());
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public byte[] serializeSearchResults() throws IOException {
+        return mapper.writeValueAsBytes(searchResults);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ZonedDateTimeCodecBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -7,10 +7,12 @@ import se325.flights.dto.AirportDTO;
 import se325.flights.dto.BookingRequestDTO;
 import se325.flights.dto.FlightDTO;
 import se325.flights.dto.UserDTO;
+import se325.flights.service.db.TestSchemas;
 import se325.flights.util.SecurityUtils;
 
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.ClientRequestFilter;
 import javax.ws.rs.client.Entity;
 import javax.ws.rs.client.Invocation;
 import javax.ws.rs.core.Response;
@@ -25,6 +27,9 @@ import static org.junit.jupiter.api.Assertions.*;
 
 /**
  * Code that's common to all Integration Tests.
+ * <p>
+ * Each test class works in a database schema of its own (see {@link #testSchema()}), so that test classes can run in
+ * parallel against the same service.
  */
 public abstract class BaseIntegrationTests {
 
@@ -121,11 +126,12 @@ public abstract class BaseIntegrationTests {
 
     /**
      * Runs before each unit test to create the web service client, and send a test request which will force-re-init
-     * the database. This ensures each unit test is starting with a clean playing field.
+     * the database (or just this test class's schema). This ensures each unit test is starting with a clean playing
+     * field.
      */
     @BeforeEach
     public void setUp() {
-        client = ClientBuilder.newClient();
+        client = newClient();
 
         Response response = clientRequest("/test/reset-db").delete();
 
@@ -141,6 +147,29 @@ public abstract class BaseIntegrationTests {
         client = null;
     }
 
+    /**
+     * Gets the name of the schema this test class works in, as sent in the {@link TestSchemas#HEADER} header of every
+     * request made with a client from {@link #newClient()}. Test classes which rely on the service's background work,
+     * e.g. subscription notifications, return null to use the default schema, and aren't run alongside other test
+     * classes.
+     */
+    protected String testSchema() {
+        return getClass().getSimpleName();
+    }
+
+    /**
+     * Creates a web service client whose requests work in this test class's schema.
+     */
+    protected Client newClient() {
+        Client client = ClientBuilder.newClient();
+        String schema = testSchema();
+        if (schema != null) {
+            client.register((ClientRequestFilter) request ->
+                    request.getHeaders().putSingle(TestSchemas.HEADER, schema));
+        }
+        return client;
+    }
+
     /**
      * Authorizes as user "Alice"
      */
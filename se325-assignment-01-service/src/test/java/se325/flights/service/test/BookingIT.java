@@ -4,7 +4,6 @@ import se325.flights.dto.BookingInfoDTO;
 import se325.flights.dto.BookingRequestDTO;
 import se325.flights.dto.FlightBookingDTO;
 
-import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.client.Entity;
 import javax.ws.rs.core.GenericType;
 import javax.ws.rs.core.Response;
@@ -117,7 +116,7 @@ public class BookingIT extends BaseIntegrationTests {
 
         // Clear the auth cookie
         client.close();
-        client = ClientBuilder.newClient();
+        client = newClient();
 
         try (Response response = client.target(bookingLink).request().get()) {
             assertEquals(Response.Status.UNAUTHORIZED.getStatusCode(), response.getStatus());
@@ -0,0 +1,72 @@
+package se325.flights.service.test;
+
+import org.junit.jupiter.api.Test;
+import se325.flights.CabinClass;
+import se325.flights.dto.AvailableSeatsSubscriptionDTO;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.Invocation;
+import javax.ws.rs.core.Response;
+import java.net.URI;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests that seat availability changes made on one service instance reach subscribers on another. Requires a second
+ * instance on port 10001 sharing the first instance's database, so is only run by the "multi-node" Maven profile.
+ */
+public class MultiNodeSubscriptionIT extends BaseIntegrationTests {
+
+    private static final String NODE_B_URI = "http://localhost:10001/services";
+
+    /**
+     * Subscription notifications are sent by the service's outbox dispatcher, which only sees the default schema.
+     */
+    @Override
+    protected String testSchema() {
+        return null;
+    }
+
+    /**
+     * Tests that a user subscribed on node B is notified when a booking is cancelled on node A.
+     */
+    @Test
+    public void testSubscription_NotifiedWhenSeatsFreedOnOtherNode() throws ExecutionException, InterruptedException, TimeoutException {
+        // First, have Alice book all the business class seats, on node A
+        logInAsAlice();
+        URI bookingUri = makeBooking(43, "1A", "1J", "1K", "2A", "2J", "2K", "3A", "3J", "3K", "4A", "4J", "4K", "5A", "5J", "5K", "6A", "6J", "6K");
+
+        // Now, have Bob subscribe to seat notifications on node B
+        Client clientForBob = ClientBuilder.newClient();
+        logInAs("Bob", "12345", clientForBob);
+        AvailableSeatsSubscriptionDTO request = new AvailableSeatsSubscriptionDTO(43, CabinClass.Business, 5);
+        Future<Response> future = nodeBRequest(clientForBob, "/flights/subscribe").async().post(Entity.json(request));
+
+        try {
+            future.get(2, TimeUnit.SECONDS);
+            fail("future.get() should have timed out, not succeeded.");
+        } catch (TimeoutException e) {
+
+            // Now, have Alice cancel their booking on node A
+            try (Response response = client.target(bookingUri).request().delete()) {
+                assertEquals(Response.Status.NO_CONTENT.getStatusCode(), response.getStatus());
+            }
+
+            // Node B should pick up the change from the shared outbox, and notify Bob
+            Response subResponse = future.get(5, TimeUnit.SECONDS);
+            assertEquals(Response.Status.NO_CONTENT.getStatusCode(), subResponse.getStatus());
+        } finally {
+            clientForBob.close();
+        }
+    }
+
+    private Invocation.Builder nodeBRequest(Client client, String path) {
+        return client.target(NODE_B_URI + path).request();
+    }
+}
@@ -0,0 +1,129 @@
+package se325.flights.service.test;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import se325.flights.domain.*;
+import se325.flights.service.PersistenceManager;
+import se325.flights.service.db.DatabaseServer;
+
+import javax.persistence.EntityManager;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Compares booking throughput and flight search latency across the H2 {@link se325.flights.service.db.StorageProfile
+ * storage profiles}. Each profile's database is created from db-init.sql in a temporary directory; the server profile
+ * starts its own TCP server on port 19092.
+ * <p>
+ * Not run by the build. Run this class's main method from the IDE, or from Maven with
+ * {@code mvn test-compile exec:java -Dexec.mainClass=se325.flights.service.test.StorageProfileBenchmark
+ * -Dexec.classpathScope=test}.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class StorageProfileBenchmark {
+
+    @Param({"memory", "file", "server"})
+    public String profile;
+
+    private Path directory;
+    private List<String> seatCodes;
+    private int nextSeat;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("se325-benchmark");
+        System.setProperty("se325.db.profile", profile);
+        System.setProperty("se325.db.seed", "true");
+        System.setProperty("se325.db.path", directory.resolve("flights").toString());
+        System.setProperty("se325.db.port", "19092");
+        System.setProperty("se325.db.server.start", "true");
+        PersistenceManager.instance().reset();
+
+        EntityManager em = PersistenceManager.instance().createEntityManager();
+        try {
+            seatCodes = em.find(Flight.class, 1L).getAircraftType().getSeatingZones().stream()
+                    .flatMap(zone -> zone.getSeatCodes().stream())
+                    .collect(Collectors.toList());
+        } finally {
+            em.close();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        PersistenceManager.instance().close();
+        DatabaseServer.stop();
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    /**
+     * Books a seat on a flight, then cancels the booking, each in its own transaction.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public long bookAndCancel() throws BookingException {
+        String seatCode = seatCodes.get(nextSeat++ % seatCodes.size());
+        EntityManager em = PersistenceManager.instance().createEntityManager();
+        try {
+            em.getTransaction().begin();
+            Flight flight = em.find(Flight.class, 1L);
+            User user = em.find(User.class, 1L);
+            FlightBooking booking = flight.makeBooking(user, seatCode);
+            em.getTransaction().commit();
+
+            em.getTransaction().begin();
+            flight.removeBooking(booking);
+            user.getBookings().remove(booking);
+            em.remove(booking);
+            em.getTransaction().commit();
+            return booking.getId();
+        } finally {
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+            em.close();
+        }
+    }
+
+    /**
+     * Searches for flights along a route within a month of departure times.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public List<Flight> searchRoute() {
+        EntityManager em = PersistenceManager.instance().createEntityManager();
+        try {
+            return em.createNamedQuery("Flight.findByRouteAndDepartureRange", Flight.class)
+                    .setParameter("origin", "AKL")
+                    .setParameter("destination", "SYD")
+                    .setParameter("start", ZonedDateTime.of(2022, 8, 1, 0, 0, 0, 0, ZoneOffset.UTC))
+                    .setParameter("end", ZonedDateTime.of(2022, 9, 1, 0, 0, 0, 0, ZoneOffset.UTC))
+                    .getResultList();
+        } finally {
+            em.close();
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(StorageProfileBenchmark.class.getSimpleName()).build()).run();
+    }
+}
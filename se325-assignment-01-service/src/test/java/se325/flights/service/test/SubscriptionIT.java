@@ -2,6 +2,7 @@ package se325.flights.service.test;
 
 import se325.flights.CabinClass;
 import se325.flights.dto.AvailableSeatsSubscriptionDTO;
+import se325.flights.dto.SeatHoldDTO;
 
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.ClientBuilder;
@@ -9,6 +10,7 @@ import javax.ws.rs.client.Entity;
 import javax.ws.rs.core.Response;
 
 import java.net.URI;
+import java.util.Collections;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
@@ -22,6 +24,14 @@ import static org.junit.jupiter.api.Assertions.*;
  */
 public class SubscriptionIT extends BaseIntegrationTests {
 
+    /**
+     * Subscription notifications are sent by the service's outbox dispatcher, which only sees the default schema.
+     */
+    @Override
+    protected String testSchema() {
+        return null;
+    }
+
     /**
      * Tests that we can subscribe to be notified when seats are available on a flight in a particular cabin class, and
      * that if those seats are already available at the time we make the request, we'll be immediately notified.
@@ -151,4 +161,46 @@ public class SubscriptionIT extends BaseIntegrationTests {
         
         return makeBooking(43, "1A", "1J", "1K", "2A", "2J", "2K", "3A", "3J", "3K", "4A", "4J", "4K", "5A", "5J", "5K", "6A", "6J", "6K");
     }
+
+    /**
+     * Tests that waiting on a durable subscription whose seats are available returns a hold on them, and that seats
+     * held for one subscriber aren't held for another.
+     */
+    @Test
+    public void testDurableSubscription_HeldSeatsNotHeldForOthers() {
+        Client clientForBob = ClientBuilder.newClient();
+        try {
+            logInAs("Bob", "12345", clientForBob);
+            SeatHoldDTO bobsHold = subscribeAndWait(clientForBob, 43, 2);
+
+            logInAsAlice();
+            SeatHoldDTO alicesHold = subscribeAndWait(client, 43, 2);
+
+            assertTrue(Collections.disjoint(bobsHold.getSeatCodes(), alicesHold.getSeatCodes()));
+        } finally {
+            clientForBob.close();
+        }
+    }
+
+    /**
+     * Creates a durable subscription for the given number of business class seats on the given flight, which are
+     * available already, and waits on it. Checks that the response holds that many seats on that flight.
+     */
+    private SeatHoldDTO subscribeAndWait(Client client, long flightId, int numSeats) {
+        AvailableSeatsSubscriptionDTO request =
+                new AvailableSeatsSubscriptionDTO(flightId, CabinClass.Business, numSeats);
+        URI subscriptionUri;
+        try (Response response = clientRequest(client, "/subscriptions").post(Entity.json(request))) {
+            assertEquals(Response.Status.CREATED.getStatusCode(), response.getStatus());
+            subscriptionUri = response.getLocation();
+        }
+
+        try (Response response = client.target(subscriptionUri).path("wait").request().get()) {
+            assertEquals(Response.Status.OK.getStatusCode(), response.getStatus());
+            SeatHoldDTO hold = response.readEntity(SeatHoldDTO.class);
+            assertEquals(flightId, hold.getFlightId());
+            assertEquals(numSeats, hold.getSeatCodes().size());
+            return hold;
+        }
+    }
 }
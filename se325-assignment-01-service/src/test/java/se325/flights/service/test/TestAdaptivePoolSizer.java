@@ -0,0 +1,40 @@
+package se325.flights.service.test;
+
+import org.junit.jupiter.api.Test;
+import se325.flights.service.db.AdaptivePoolSizer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the {@link AdaptivePoolSizer}'s sizing rule.
+ */
+public class TestAdaptivePoolSizer {
+
+    private final AdaptivePoolSizer sizer = new AdaptivePoolSizer(2, 16, 0.1);
+
+    /**
+     * Tests that a saturated pool whose requests wait longer than the ratio allows grows by a quarter, up to the
+     * maximum.
+     */
+    @Test
+    public void testGrowsWhenSaturatedAndWaiting() {
+        assertEquals(10, sizer.nextSize(8, 500_000, 1_000_000, 8));
+        assertEquals(3, sizer.nextSize(2, 500_000, 1_000_000, 2));
+        assertEquals(16, sizer.nextSize(15, 500_000, 1_000_000, 15));
+
+        // Saturated, but the wait is small compared with the time connections are held
+        assertEquals(8, sizer.nextSize(8, 50_000, 1_000_000, 8));
+
+        // Waiting, but the pool wasn't saturated, so more connections wouldn't help
+        assertEquals(8, sizer.nextSize(8, 500_000, 1_000_000, 6));
+    }
+
+    /**
+     * Tests that a pool which is mostly idle shrinks by one, down to the minimum.
+     */
+    @Test
+    public void testShrinksWhenUnderused() {
+        assertEquals(7, sizer.nextSize(8, 0, 1_000_000, 3));
+        assertEquals(2, sizer.nextSize(2, 0, 0, 0));
+    }
+}
@@ -0,0 +1,36 @@
+package se325.flights.service.test;
+
+import org.junit.jupiter.api.Test;
+import se325.flights.service.auth.BloomFilter;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the {@link BloomFilter} used to screen token revocation checks.
+ */
+public class TestBloomFilter {
+
+    /**
+     * Tests that every added string is reported as possibly present, and that, with the filter sized well above the
+     * number of strings, few strings which weren't added are.
+     */
+    @Test
+    public void testNoFalseNegativesAndFewFalsePositives() {
+        BloomFilter filter = new BloomFilter(1 << 16, 5);
+        for (int i = 0; i < 1000; i++) {
+            filter.add("t:" + i);
+        }
+
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(filter.mightContain("t:" + i));
+        }
+
+        int falsePositives = 0;
+        for (int i = 1000; i < 11000; i++) {
+            if (filter.mightContain("t:" + i)) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < 100, "Too many false positives: " + falsePositives);
+    }
+}
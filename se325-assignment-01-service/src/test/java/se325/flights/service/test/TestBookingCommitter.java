@@ -0,0 +1,225 @@
+package se325.flights.service.test;
+
+import org.junit.jupiter.api.*;
+import se325.flights.CabinClass;
+import se325.flights.domain.BookingException;
+import se325.flights.domain.Flight;
+import se325.flights.dto.SeatHoldDTO;
+import se325.flights.service.PersistenceManager;
+import se325.flights.service.SeatHolds;
+import se325.flights.service.SubscriptionManager;
+import se325.flights.service.booking.BookingCommitter;
+import se325.flights.service.booking.BookingRequest;
+import se325.flights.service.events.OutboxDispatcher;
+
+import javax.persistence.EntityManager;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests that the booking committer commits bookings submitted concurrently in groups, and that a booking for a seat
+ * which is already taken fails on its own without affecting the rest of its group. Also tests that seats held for one
+ * user can only be booked by that user.
+ */
+public class TestBookingCommitter {
+
+    private static PersistenceManager PM;
+
+    private BookingCommitter committer;
+
+    @BeforeAll
+    public static void initPersistenceManager() {
+        PM = PersistenceManager.instance();
+    }
+
+    @AfterAll
+    public static void closePersistenceManager() {
+        // Started by the committer's first booking, and would otherwise keep polling the outbox in later tests
+        OutboxDispatcher.instance().stop();
+        PM.close();
+    }
+
+    @BeforeEach
+    public void resetDatabase() {
+        PM.reset();
+        committer = new BookingCommitter(true, 16, 2000);
+    }
+
+    @AfterEach
+    public void stopCommitter() {
+        committer.stop();
+    }
+
+    @Test
+    public void testCommitInGroups() throws Exception {
+        List<CompletableFuture<Long>> results = submitConcurrently(List.of(
+                "11A", "11D", "11F", "11K", "12A", "12D", "12F", "12K", "14A", "14D", "14F", "14K"));
+
+        for (CompletableFuture<Long> result : results) {
+            assertNotNull(result.get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(12, committer.getBookingsCommitted());
+        assertEquals(0, committer.getBookingsFailed());
+        assertTrue(committer.getCommits() < 12);
+        assertEquals(12, countBookings(1L));
+    }
+
+    @Test
+    public void testRejectedBookingDoesNotFailGroup() throws Exception {
+        List<CompletableFuture<Long>> results = submitConcurrently(List.of(
+                "11A", "11D", "11F", "11K", "11D", "12A", "12D", "12F"));
+
+        int failed = 0;
+        for (CompletableFuture<Long> result : results) {
+            try {
+                assertNotNull(result.get(10, TimeUnit.SECONDS));
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof BookingException);
+                failed++;
+            }
+        }
+        assertEquals(1, failed);
+        assertEquals(7, committer.getBookingsCommitted());
+        assertEquals(7, countBookings(1L));
+    }
+
+    @Test
+    public void testHeldSeatsOnlyBookedByHolder() throws Exception {
+        SeatHolds holds = SubscriptionManager.instance().getSeatHolds();
+        SeatHoldDTO hold;
+        EntityManager em = PM.createEntityManager();
+        try {
+            hold = holds.grant(em, em.find(Flight.class, 1L), CabinClass.Business, 1, 1L);
+        } finally {
+            em.close();
+        }
+        assertNotNull(hold);
+        List<String> heldSeats = hold.getSeatCodes();
+
+        ExecutionException e = assertThrows(ExecutionException.class,
+                () -> committer.submit(new BookingRequest(1L, 2L, heldSeats)).get(10, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof BookingException);
+        assertEquals(0, countBookings(1L));
+
+        assertNotNull(committer.submit(new BookingRequest(1L, 1L, heldSeats)).get(10, TimeUnit.SECONDS));
+        assertEquals(1, countBookings(1L));
+
+        // The holder's booking claimed the hold
+        assertEquals(0, countHolds(1L, 1L));
+    }
+
+    @Test
+    public void testRejectedBookingKeepsHolds() throws Exception {
+        SeatHolds holds = SubscriptionManager.instance().getSeatHolds();
+        SeatHoldDTO hold;
+        EntityManager em = PM.createEntityManager();
+        try {
+            hold = holds.grant(em, em.find(Flight.class, 1L), CabinClass.Business, 1, 1L);
+        } finally {
+            em.close();
+        }
+        assertNotNull(hold);
+        assertFalse(hold.getSeatCodes().contains("12A"));
+        assertNotNull(committer.submit(new BookingRequest(1L, 2L, List.of("12A"))).get(10, TimeUnit.SECONDS));
+
+        // One of the seats is already booked, so the whole booking is rejected, and the held seat stays held
+        List<String> seatCodes = new ArrayList<>(hold.getSeatCodes());
+        seatCodes.add("12A");
+        ExecutionException e = assertThrows(ExecutionException.class,
+                () -> committer.submit(new BookingRequest(1L, 1L, seatCodes)).get(10, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof BookingException);
+        assertEquals(1, countHolds(1L, 1L));
+        assertEquals(1, countBookings(1L));
+    }
+
+    @Test
+    public void testReleaseKeepsOtherUsersHolds() throws Exception {
+        SeatHolds holds = SubscriptionManager.instance().getSeatHolds();
+        SeatHoldDTO hold;
+        EntityManager em = PM.createEntityManager();
+        try {
+            hold = holds.grant(em, em.find(Flight.class, 1L), CabinClass.Business, 1, 1L);
+            assertNotNull(hold);
+
+            holds.release(em, 1L, 2L, hold.getSeatCodes());
+            assertEquals(1, countHolds(1L, 1L));
+
+            holds.release(em, 1L, 1L, hold.getSeatCodes());
+            assertEquals(0, countHolds(1L, 1L));
+        } finally {
+            em.close();
+        }
+    }
+
+    @Test
+    public void testHoldsSkipBookedAndHeldSeats() throws Exception {
+        assertNotNull(committer.submit(new BookingRequest(1L, 2L, List.of("11A"))).get(10, TimeUnit.SECONDS));
+
+        SeatHolds holds = SubscriptionManager.instance().getSeatHolds();
+        EntityManager em = PM.createEntityManager();
+        try {
+            // The flight is loaded before the booking is committed, but the booked seat still isn't held
+            Flight flight = em.find(Flight.class, 1L);
+            SeatHoldDTO first = holds.grant(em, flight, CabinClass.Business, 1, 1L);
+            SeatHoldDTO second = holds.grant(em, flight, CabinClass.Business, 1, 1L);
+            assertNotEquals("11A", first.getSeatCodes().get(0));
+            assertNotEquals(first.getSeatCodes(), second.getSeatCodes());
+        } finally {
+            em.close();
+        }
+        assertEquals(2, countHolds(1L, 1L));
+    }
+
+    /**
+     * Submits a booking of each of the given seats on flight 1, alternately for users 1 and 2, from several threads
+     */
+    private List<CompletableFuture<Long>> submitConcurrently(List<String> seatCodes) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<CompletableFuture<Long>>> submitted = new ArrayList<>();
+            for (int i = 0; i < seatCodes.size(); i++) {
+                BookingRequest request = new BookingRequest(1L, 1L + i % 2, List.of(seatCodes.get(i)));
+                submitted.add(executor.submit(() -> committer.submit(request)));
+            }
+            List<CompletableFuture<Long>> results = new ArrayList<>();
+            for (Future<CompletableFuture<Long>> future : submitted) {
+                results.add(future.get());
+            }
+            return results;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static long countHolds(long flightId, long userId) {
+        EntityManager em = PM.createEntityManager();
+        try {
+            return em.createQuery("SELECT COUNT(h) FROM SeatHold h WHERE h.flightId = :flightId AND h.userId = :userId",
+                            Long.class)
+                    .setParameter("flightId", flightId)
+                    .setParameter("userId", userId)
+                    .getSingleResult();
+        } finally {
+            em.close();
+        }
+    }
+
+    private static long countBookings(long flightId) {
+        EntityManager em = PM.createEntityManager();
+        try {
+            return em.createQuery("SELECT COUNT(b) FROM FlightBooking b WHERE b.flight.id = :flightId", Long.class)
+                    .setParameter("flightId", flightId)
+                    .getSingleResult();
+        } finally {
+            em.close();
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package se325.flights.service.test;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import se325.flights.domain.BookingException;
+import se325.flights.domain.Flight;
+import se325.flights.domain.User;
+import se325.flights.service.PersistenceManager;
+import se325.flights.service.journal.BookingJournal;
+
+import javax.persistence.EntityManager;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests that the booking journal rebuilds the same seat occupancy after a crash, from its latest snapshot plus the
+ * records after it, and that it drops a record which was only partly written. A crash is simulated by copying the
+ * journal's files while it's still open. Also tests that opening the journal corrects whatever it missed from the
+ * database, when reconciling is turned on.
+ */
+public class TestBookingJournal {
+
+    private static final int SEGMENT_BYTES = 4096;
+
+    private static PersistenceManager PM;
+
+    @TempDir
+    Path directory;
+
+    @BeforeAll
+    public static void initPersistenceManager() {
+        PM = PersistenceManager.instance();
+    }
+
+    @AfterAll
+    public static void closePersistenceManager() {
+        PM.close();
+    }
+
+    @BeforeEach
+    public void resetDatabase() {
+        PM.reset();
+    }
+
+    @Test
+    public void testRecoverAfterCrash() throws Exception {
+        bookSeat(1L, 1L, "11A");
+        Path live = Files.createDirectory(directory.resolve("live"));
+        BookingJournal journal = new BookingJournal(live, SEGMENT_BYTES, 0, false);
+        try {
+            assertEquals(Set.of("11A"), journal.getOccupancy().getBookedSeats(1L));
+
+            recordConcurrently(journal, 0, 200);
+            journal.snapshot();
+            recordConcurrently(journal, 200, 300);
+            journal.recordCancellation(100L, 1L, List.of("1A", "5A"));
+            assertEquals(301, journal.getLastSequence());
+            assertTrue(journal.getFsyncs() <= journal.getRecordsAppended());
+
+            BookingJournal recovered = new BookingJournal(copy(live), SEGMENT_BYTES, 0, false);
+            try {
+                assertEquals(101, recovered.getRecordsReplayed());
+                assertEquals(Set.of("11A"), recovered.getOccupancy().getBookedSeats(1L));
+                for (long flightId = 100; flightId < 104; flightId++) {
+                    assertEquals(journal.getOccupancy().getBookedSeats(flightId),
+                            recovered.getOccupancy().getBookedSeats(flightId));
+                }
+                assertFalse(recovered.getOccupancy().isBooked(100L, "5A"));
+                assertTrue(recovered.getOccupancy().isBooked(100L, "9A"));
+            } finally {
+                recovered.close();
+            }
+
+            // Segments entirely covered by the snapshot were deleted
+            assertTrue(listFiles(live).stream().filter(name -> name.startsWith("journal-")).count() < 4);
+        } finally {
+            journal.close();
+        }
+    }
+
+    @Test
+    public void testDropPartlyWrittenRecord() throws IOException {
+        Path live = Files.createDirectory(directory.resolve("live"));
+        BookingJournal journal = new BookingJournal(live, SEGMENT_BYTES, 0, false);
+        Path crashed;
+        try {
+            journal.recordBooking(1L, 1L, List.of("11A"));
+            journal.recordBooking(1L, 2L, List.of("11D"));
+            journal.recordBooking(1L, 2L, List.of("LAST"));
+            crashed = copy(live);
+        } finally {
+            journal.close();
+        }
+        overwriteLast(crashed, "LAST", "XXXX");
+
+        BookingJournal recovered = new BookingJournal(crashed, SEGMENT_BYTES, 0, false);
+        try {
+            assertEquals(Set.of("11A", "11D"), recovered.getOccupancy().getBookedSeats(1L));
+            assertEquals(3, recovered.recordBooking(1L, 1L, List.of("12A")));
+        } finally {
+            recovered.close();
+        }
+        recovered = new BookingJournal(crashed, SEGMENT_BYTES, 0, false);
+        try {
+            assertEquals(Set.of("11A", "11D", "12A"), recovered.getOccupancy().getBookedSeats(1L));
+        } finally {
+            recovered.close();
+        }
+    }
+
+    @Test
+    public void testReconcileWithDatabase() throws Exception {
+        bookSeat(1L, 1L, "11A");
+        Path live = Files.createDirectory(directory.resolve("live"));
+        BookingJournal journal = new BookingJournal(live, SEGMENT_BYTES, 0, true);
+        try {
+            // Committed but never journaled, as if by another instance or just before a crash
+            bookSeat(2L, 1L, "11D");
+            // Journaled, but no longer in the database, as if archived by another instance
+            journal.recordBooking(2L, 1L, List.of("12A"));
+        } finally {
+            journal.close();
+        }
+
+        journal = new BookingJournal(live, SEGMENT_BYTES, 0, true);
+        try {
+            assertEquals(2, journal.getFlightsReconciled());
+            assertEquals(Set.of("11A", "11D"), journal.getOccupancy().getBookedSeats(1L));
+            assertEquals(Set.of(), journal.getOccupancy().getBookedSeats(2L));
+
+            journal.recordArchival(List.of(1L));
+            assertEquals(Set.of(), journal.getOccupancy().getBookedSeats(1L));
+        } finally {
+            journal.close();
+        }
+
+        // The corrected occupancy was snapshotted, and the archival replays without reconciling
+        journal = new BookingJournal(live, SEGMENT_BYTES, 0, false);
+        try {
+            assertEquals(0, journal.getFlightsReconciled());
+            assertEquals(0, journal.getOccupancy().getFlightCount());
+        } finally {
+            journal.close();
+        }
+    }
+
+    /**
+     * Tests that a future for appended records completes once they've been forced to disk, and that a future for
+     * records which will never be written fails once the journal is closed.
+     */
+    @Test
+    public void testWhenDurable() throws Exception {
+        BookingJournal journal = new BookingJournal(directory, SEGMENT_BYTES, 0, false);
+        CompletableFuture<Void> unwritten;
+        try {
+            long sequence = journal.appendBooking(1L, 1L, List.of("11A"));
+            journal.whenDurable(sequence).get(5, TimeUnit.SECONDS);
+            assertTrue(journal.getDurableSequence() >= sequence);
+
+            unwritten = journal.whenDurable(sequence + 1);
+            assertFalse(unwritten.isDone());
+        } finally {
+            journal.close();
+        }
+        ExecutionException e = assertThrows(ExecutionException.class, () -> unwritten.get(5, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof IllegalStateException);
+        assertTrue(journal.whenDurable(Long.MAX_VALUE).isCompletedExceptionally());
+    }
+
+    /**
+     * Records a booking of seat "(i + 1)A" on flight 100 + i % 4, for each i in [from, to), from several threads
+     */
+    private static void recordConcurrently(BookingJournal journal, int from, int to) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Long>> results = new ArrayList<>();
+            for (int i = from; i < to; i++) {
+                String seatCode = (i + 1) + "A";
+                long flightId = 100 + i % 4;
+                results.add(executor.submit(() -> journal.recordBooking(flightId, 1L, List.of(seatCode))));
+            }
+            for (Future<Long> result : results) {
+                assertTrue(result.get() > 0);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private Path copy(Path live) throws IOException {
+        Path copy = Files.createTempDirectory(directory, "crashed");
+        try (Stream<Path> files = Files.list(live)) {
+            for (Path file : files.collect(Collectors.toList())) {
+                Files.copy(file, copy.resolve(file.getFileName()));
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Overwrites the last occurrence of the given text in the last journal segment, corrupting the record holding it
+     */
+    private static void overwriteLast(Path journal, String text, String replacement) throws IOException {
+        Path segment = listFiles(journal).stream()
+                .filter(name -> name.startsWith("journal-"))
+                .max(String::compareTo)
+                .map(journal::resolve)
+                .orElseThrow();
+        byte[] bytes = Files.readAllBytes(segment);
+        String contents = new String(bytes, StandardCharsets.ISO_8859_1);
+        int index = contents.lastIndexOf(text);
+        assertTrue(index >= 0);
+        byte[] patch = replacement.getBytes(StandardCharsets.ISO_8859_1);
+        System.arraycopy(patch, 0, bytes, index, patch.length);
+        Files.write(segment, bytes);
+    }
+
+    private static List<String> listFiles(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString()).collect(Collectors.toList());
+        }
+    }
+
+    private static void bookSeat(long userId, long flightId, String seatCode) throws BookingException {
+        EntityManager em = PM.createEntityManager();
+        try {
+            em.getTransaction().begin();
+            em.find(Flight.class, flightId).makeBooking(em.find(User.class, userId), seatCode);
+            em.getTransaction().commit();
+        } finally {
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+            em.close();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package se325.flights.service.test;
+
+import org.junit.jupiter.api.*;
+import se325.flights.domain.*;
+import se325.flights.service.PersistenceManager;
+
+import javax.persistence.EntityManager;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests that resetting the database from its snapshot removes everything written since, keeps the seed data, and
+ * restarts generated ids after the seed data's ids.
+ */
+public class TestDatabaseSnapshot {
+
+    private static PersistenceManager PM;
+
+    @BeforeAll
+    public static void initPersistenceManager() {
+        PM = PersistenceManager.instance();
+    }
+
+    @AfterAll
+    public static void closePersistenceManager() {
+        PM.close();
+    }
+
+    @BeforeEach
+    public void resetDatabase() {
+        PM.reset();
+    }
+
+    @Test
+    public void testResetRestoresSeedData() throws BookingException {
+        long userCount = countUsers();
+        long firstBookingId = bookSeat("Carol");
+        assertEquals(userCount + 1, countUsers());
+
+        PM.reset();
+
+        assertEquals(userCount, countUsers());
+        EntityManager em = PM.createEntityManager();
+        try {
+            assertNull(em.find(FlightBooking.class, firstBookingId));
+            assertTrue(em.find(Flight.class, 1L).getBookings().isEmpty());
+            assertEquals("Alice", em.find(User.class, 1L).getUsername());
+        } finally {
+            em.close();
+        }
+
+        // Ids are handed out again from the same point, and the restored foreign keys still hold
+        assertEquals(firstBookingId, bookSeat("Carol"));
+    }
+
+    /**
+     * Tests that entity managers can be created while the database is being rebuilt rather than restored from its
+     * snapshot, which closes the EntityManagerFactory and creates a new one.
+     */
+    @Test
+    public void testCreateEntityManagerDuringRebuild() throws InterruptedException {
+        System.setProperty("se325.db.reset", "rebuild");
+        try {
+            PM.close();
+            PM.reset();
+
+            Thread resetter = new Thread(() -> {
+                for (int i = 0; i < 5; i++) {
+                    PM.reset();
+                }
+            });
+            resetter.start();
+            while (resetter.isAlive()) {
+                EntityManager em = PM.createEntityManager();
+                try {
+                    em.close();
+                } catch (IllegalStateException e) {
+                    // The factory it came from was closed by the rebuild in the meantime, so it's closed already
+                }
+            }
+            resetter.join();
+            assertEquals("Alice", findUsername(1L));
+        } finally {
+            System.clearProperty("se325.db.reset");
+            PM.close();
+            PM.reset();
+        }
+    }
+
+    private String findUsername(long id) {
+        EntityManager em = PM.createEntityManager();
+        try {
+            return em.find(User.class, id).getUsername();
+        } finally {
+            em.close();
+        }
+    }
+
+    private long bookSeat(String username) throws BookingException {
+        EntityManager em = PM.createEntityManager();
+        try {
+            em.getTransaction().begin();
+            User user = new User(username, "password");
+            em.persist(user);
+            FlightBooking booking = em.find(Flight.class, 1L).makeBooking(user, "11A");
+            em.getTransaction().commit();
+            return booking.getId();
+        } finally {
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+            em.close();
+        }
+    }
+
+    private long countUsers() {
+        EntityManager em = PM.createEntityManager();
+        try {
+            return em.createQuery("SELECT COUNT(u) FROM User u", Long.class).getSingleResult();
+        } finally {
+            em.close();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package se325.flights.service.test;
+
+import org.junit.jupiter.api.*;
+import se325.flights.domain.BookingException;
+import se325.flights.domain.Flight;
+import se325.flights.domain.FlightBooking;
+import se325.flights.domain.User;
+import se325.flights.dto.FlightBookingDTO;
+import se325.flights.service.PersistenceManager;
+import se325.flights.service.archive.BookingHistory;
+import se325.flights.service.archive.FlightArchiver;
+
+import javax.persistence.EntityManager;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests that the archiver moves departed flights and their bookings out of the hot tables, across several batches,
+ * and that archived bookings can still be read as a user's booking history.
+ */
+public class TestFlightArchiver {
+
+    private static final ZonedDateTime CUTOFF = ZonedDateTime.of(2022, 8, 12, 0, 0, 0, 0, ZoneOffset.UTC);
+
+    private static PersistenceManager PM;
+
+    @BeforeAll
+    public static void initPersistenceManager() {
+        PM = PersistenceManager.instance();
+    }
+
+    @AfterAll
+    public static void closePersistenceManager() {
+        PM.close();
+    }
+
+    @BeforeEach
+    public void resetDatabase() {
+        PM.reset();
+    }
+
+    @Test
+    public void testArchiveDepartedFlights() throws BookingException {
+        long bookingId = bookSeat(1L, 1L, "11A");
+        long departedBefore = countFlightsDepartedBefore(CUTOFF);
+        assertTrue(departedBefore > 2, "Expected several batches of departed flights");
+
+        FlightArchiver archiver = new FlightArchiver(0, 30, 2);
+        assertEquals(departedBefore, archiver.archiveDepartedBefore(CUTOFF));
+        assertEquals(departedBefore, archiver.getFlightsArchived());
+        assertEquals(1, archiver.getBookingsArchived());
+
+        EntityManager em = PM.createEntityManager();
+        try {
+            assertNull(em.find(Flight.class, 1L));
+            assertNull(em.find(FlightBooking.class, bookingId));
+            assertEquals(0, countFlightsDepartedBefore(CUTOFF));
+
+            List<FlightBookingDTO> history = BookingHistory.findArchivedBookings(em, 1L);
+            assertEquals(1, history.size());
+            assertEquals(bookingId, (long) history.get(0).getId());
+            assertEquals("ZNJ-242", history.get(0).getFlight().getName());
+            assertEquals(List.of("11A"), history.get(0).getBookedSeats());
+        } finally {
+            em.close();
+        }
+
+        assertEquals(0, archiver.archiveDepartedBefore(CUTOFF));
+    }
+
+    private long countFlightsDepartedBefore(ZonedDateTime cutoff) {
+        EntityManager em = PM.createEntityManager();
+        try {
+            return em.createNamedQuery("Flight.findIdsDepartedBefore", Long.class)
+                    .setParameter("cutoff", cutoff)
+                    .getResultList().size();
+        } finally {
+            em.close();
+        }
+    }
+
+    private long bookSeat(long userId, long flightId, String seatCode) throws BookingException {
+        EntityManager em = PM.createEntityManager();
+        try {
+            em.getTransaction().begin();
+            FlightBooking booking = em.find(Flight.class, flightId).makeBooking(em.find(User.class, userId), seatCode);
+            em.getTransaction().commit();
+            return booking.getId();
+        } finally {
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+            em.close();
+        }
+    }
+}
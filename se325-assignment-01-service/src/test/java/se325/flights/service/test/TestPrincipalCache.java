@@ -0,0 +1,94 @@
+package se325.flights.service.test;
+
+import org.junit.jupiter.api.Test;
+import se325.flights.service.auth.PrincipalCache;
+import se325.flights.service.auth.UserPrincipal;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the eviction and invalidation behaviour of the {@link PrincipalCache}.
+ */
+public class TestPrincipalCache {
+
+    private final UserPrincipal alice = new UserPrincipal(1, "Alice");
+    private final UserPrincipal bob = new UserPrincipal(2, "Bob");
+
+    /**
+     * Tests that when the cache is full, the least recently used token is evicted, rather than the oldest.
+     */
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        PrincipalCache cache = new PrincipalCache(2);
+        cache.put("token-a", alice);
+        cache.put("token-b", bob);
+        assertEquals(alice, cache.get("token-a"));
+
+        cache.put("token-c", bob);
+
+        assertEquals(2, cache.getSize());
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(alice, cache.get("token-a"));
+        assertNull(cache.get("token-b"));
+        assertEquals(bob, cache.get("token-c"));
+    }
+
+    /**
+     * Tests that invalidating a user removes all of that user's tokens, and nobody else's.
+     */
+    @Test
+    public void testInvalidateUser() {
+        PrincipalCache cache = new PrincipalCache(10);
+        cache.put("token-a1", alice);
+        cache.put("token-a2", alice);
+        cache.put("token-b", bob);
+
+        cache.invalidateUser("Alice");
+
+        assertNull(cache.get("token-a1"));
+        assertNull(cache.get("token-a2"));
+        assertEquals(bob, cache.get("token-b"));
+    }
+
+    /**
+     * Tests that when a larger cache overflows, it evicts a batch of its least recently used tokens at once, so that
+     * it isn't trimmed again on every put.
+     */
+    @Test
+    public void testEvictsInBatches() {
+        PrincipalCache cache = new PrincipalCache(32);
+        for (int i = 0; i < 32; i++) {
+            cache.put("token-" + i, alice);
+        }
+        assertEquals(alice, cache.get("token-0"));
+
+        cache.put("token-32", bob);
+
+        assertEquals(30, cache.getSize());
+        assertEquals(3, cache.getEvictionCount());
+        assertEquals(alice, cache.get("token-0"));
+        assertNull(cache.get("token-1"));
+        assertNull(cache.get("token-3"));
+        assertEquals(alice, cache.get("token-4"));
+        assertEquals(bob, cache.get("token-32"));
+    }
+
+    /**
+     * Tests that invalidating a user doesn't remove a token which has since been invalidated and cached for someone
+     * else.
+     */
+    @Test
+    public void testInvalidateUserAfterTokenChangesHands() {
+        PrincipalCache cache = new PrincipalCache(10);
+        cache.put("token-x", alice);
+        cache.invalidate("token-x");
+        cache.put("token-x", bob);
+
+        cache.invalidateUser("Alice");
+
+        assertEquals(bob, cache.get("token-x"));
+        cache.invalidateUser("Bob");
+        assertNull(cache.get("token-x"));
+        assertEquals(0, cache.getSize());
+    }
+}
@@ -0,0 +1,101 @@
+package se325.flights.service.test;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import se325.flights.service.ratelimit.RateLimitFilter;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the {@link RateLimitFilter} on its own, with login requests made up of just the parts of a request it reads.
+ * The filter's limits are read when it's loaded, so they're set before any test runs: one stripe of ten buckets, and
+ * client addresses taken from X-Forwarded-For, so that each request can come from an address of its own.
+ */
+public class TestRateLimitFilter {
+
+    private RateLimitFilter filter;
+
+    @BeforeAll
+    public static void configure() {
+        System.setProperty("se325.ratelimit.stripes", "1");
+        System.setProperty("se325.ratelimit.max-keys-per-stripe", "10");
+        System.setProperty("se325.ratelimit.trust-forwarded-for", "true");
+    }
+
+    /**
+     * Tests that once a flood of logins for made-up usernames has filled the filter's buckets, a user who hasn't logged
+     * in before can still log in, and is limited by their own bucket.
+     */
+    @Test
+    public void testFloodDoesNotLockOutNewUsers() throws IOException {
+        filter = new RateLimitFilter();
+        for (int i = 0; i < 100; i++) {
+            login("10.0.0." + i, "flood" + i);
+        }
+
+        for (int i = 0; i < 10; i++) {
+            assertNull(login("10.0.1.1", "alice"));
+        }
+        Response rejected = login("10.0.1.1", "alice");
+        assertNotNull(rejected);
+        assertEquals(429, rejected.getStatus());
+        assertNotNull(rejected.getHeaderString("Retry-After"));
+    }
+
+    /**
+     * Passes a login request for the given user from the given address through the filter.
+     *
+     * @return the response the request was aborted with, or null if it was admitted
+     */
+    private Response login(String address, String username) throws IOException {
+        Response[] aborted = {null};
+        InputStream[] body = {new ByteArrayInputStream(
+                ("{\"username\":\"" + username + "\",\"password\":\"pa55word\"}").getBytes(StandardCharsets.UTF_8))};
+
+        UriInfo uriInfo = (UriInfo) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{UriInfo.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("getPath")) {
+                        return "users/login";
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+        ContainerRequestContext request = (ContainerRequestContext) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class<?>[]{ContainerRequestContext.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getMethod":
+                            return "POST";
+                        case "getUriInfo":
+                            return uriInfo;
+                        case "getHeaderString":
+                            return "X-Forwarded-For".equals(args[0]) ? address : null;
+                        case "hasEntity":
+                            return true;
+                        case "getEntityStream":
+                            return body[0];
+                        case "setEntityStream":
+                            body[0] = (InputStream) args[0];
+                            return null;
+                        case "setProperty":
+                            return null;
+                        case "abortWith":
+                            aborted[0] = (Response) args[0];
+                            return null;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+
+        filter.filter(request);
+        return aborted[0];
+    }
+}
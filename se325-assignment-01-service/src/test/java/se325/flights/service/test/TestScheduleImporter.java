@@ -0,0 +1,112 @@
+package se325.flights.service.test;
+
+import org.junit.jupiter.api.*;
+import se325.flights.CabinClass;
+import se325.flights.domain.Flight;
+import se325.flights.service.PersistenceManager;
+import se325.flights.service.schedule.ImportReport;
+import se325.flights.service.schedule.ScheduleFormat;
+import se325.flights.service.schedule.ScheduleImporter;
+
+import javax.persistence.EntityManager;
+import java.io.IOException;
+import java.io.StringReader;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests that the schedule importer writes valid flights, with their prices, across several chunks, and reports the line
+ * and reason for each row it rejects - whether it's rejected while parsing, while looking up its airports, or by the
+ * database.
+ */
+public class TestScheduleImporter {
+
+    private static PersistenceManager PM;
+
+    @BeforeAll
+    public static void initPersistenceManager() {
+        PM = PersistenceManager.instance();
+    }
+
+    @AfterAll
+    public static void closePersistenceManager() {
+        PM.close();
+    }
+
+    @BeforeEach
+    public void resetDatabase() {
+        PM.reset();
+    }
+
+    @Test
+    public void testImportCsv() throws IOException {
+        String schedule = "name,aircraftType,origin,destination,departureTime,arrivalTime,prices\n"
+                + "IMP-1,777-200ER,AKL,NRT,2030-01-01T10:00:00Z,2030-01-01T21:00:00Z,Economy=500;Business=1500\n"
+                + "IMP-2,777-200ER,AKL,XXX,2030-01-02T10:00:00Z,2030-01-02T21:00:00Z,Economy=500\n"
+                + "IMP-3,777-200ER,AKL,NRT,not a time,2030-01-03T21:00:00Z,Economy=500\n"
+                + "\n"
+                + "IMP-4,787-9 Dreamliner,AKL,NRT,2030-01-04T23:00:00+12:00,2030-01-05T10:00:00Z,Economy=450\n"
+                + "IMP-" + "5".repeat(300) + ",777-200ER,AKL,NRT,2030-01-05T10:00:00Z,2030-01-05T21:00:00Z,\n"
+                + "IMP-6,777-200ER,AKL,NRT,2030-01-06T10:00:00Z,2030-01-06T21:00:00Z,\n";
+
+        ImportReport report = new ScheduleImporter(2).importSchedule(new StringReader(schedule), ScheduleFormat.CSV);
+
+        assertEquals(6, report.getRowsRead());
+        assertEquals(3, report.getRowsImported());
+        assertEquals(3, report.getRowsFailed());
+        assertEquals(List.of(3L, 4L, 7L),
+                report.getFailures().stream().map(ImportReport.Failure::getLine).collect(Collectors.toList()));
+        assertTrue(report.getFailures().get(0).getMessage().contains("XXX"));
+
+        List<Flight> flights = findFlightsToNarita();
+        assertEquals(3, flights.size());
+        Flight first = flights.get(0);
+        assertEquals("IMP-1", first.getName());
+        assertEquals(ZonedDateTime.of(2030, 1, 1, 10, 0, 0, 0, ZoneOffset.UTC).toInstant(),
+                first.getDepartureTime().toInstant());
+        assertEquals(1500, (int) first.getSeatPricings().get(CabinClass.Business));
+        assertEquals(ZonedDateTime.of(2030, 1, 4, 11, 0, 0, 0, ZoneOffset.UTC).toInstant(),
+                flights.get(1).getDepartureTime().toInstant());
+        assertEquals("787-9 Dreamliner", flights.get(1).getAircraftType().getName());
+    }
+
+    @Test
+    public void testImportJsonLines() throws IOException {
+        String schedule = "{\"name\": \"IMP-1\", \"aircraftType\": \"777-200ER\", \"origin\": \"AKL\", "
+                + "\"destination\": \"NRT\", \"departureTime\": \"2030-01-01T10:00:00Z\", "
+                + "\"arrivalTime\": \"2030-01-01T21:00:00Z\", \"prices\": {\"Economy\": 500, \"FirstClass\": 4000}}\n"
+                + "{\"name\": \"IMP-2\", \"aircraftType\": \"A380\"}\n"
+                + "{not json\n";
+
+        ImportReport report = new ScheduleImporter().importSchedule(new StringReader(schedule),
+                ScheduleFormat.JSON_LINES);
+
+        assertEquals(3, report.getRowsRead());
+        assertEquals(1, report.getRowsImported());
+        assertEquals(2, report.getRowsFailed());
+
+        List<Flight> flights = findFlightsToNarita();
+        assertEquals(1, flights.size());
+        assertEquals(4000, (int) flights.get(0).getSeatPricings().get(CabinClass.FirstClass));
+    }
+
+    private List<Flight> findFlightsToNarita() {
+        EntityManager em = PM.createEntityManager();
+        try {
+            List<Flight> flights = em.createNamedQuery("Flight.findByRouteAndDepartureRange", Flight.class)
+                    .setParameter("origin", "AKL")
+                    .setParameter("destination", "NRT")
+                    .setParameter("start", ZonedDateTime.of(2030, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC))
+                    .setParameter("end", ZonedDateTime.of(2031, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC))
+                    .getResultList();
+            flights.forEach(Flight::getSeatPricings);
+            return flights;
+        } finally {
+            em.close();
+        }
+    }
+}
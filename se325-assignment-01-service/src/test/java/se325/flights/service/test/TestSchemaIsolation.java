@@ -0,0 +1,118 @@
+package se325.flights.service.test;
+
+import org.junit.jupiter.api.*;
+import se325.flights.domain.BookingException;
+import se325.flights.domain.Flight;
+import se325.flights.domain.FlightBooking;
+import se325.flights.domain.User;
+import se325.flights.service.PersistenceManager;
+import se325.flights.service.db.TestSchemas;
+
+import javax.persistence.EntityManager;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests that test schemas are copies of the seeded database, that changes made in one aren't seen in any other or in
+ * the default schema, and that resetting one leaves the others alone.
+ */
+public class TestSchemaIsolation {
+
+    private static final String SCHEMA_A = TestSchemas.schemaFor("IsolationA");
+    private static final String SCHEMA_B = TestSchemas.schemaFor("IsolationB");
+
+    private static PersistenceManager PM;
+
+    @BeforeAll
+    public static void initPersistenceManager() {
+        System.setProperty("se325.db.test-schemas", "true");
+        PM = PersistenceManager.instance();
+        // Rebuilds the database with test schemas enabled, if it was created without them
+        PM.close();
+        PM.reset();
+    }
+
+    @AfterAll
+    public static void closePersistenceManager() {
+        PM.close();
+        System.clearProperty("se325.db.test-schemas");
+    }
+
+    @BeforeEach
+    public void resetDatabase() {
+        PM.reset();
+        PM.resetTestSchema(SCHEMA_A);
+        PM.resetTestSchema(SCHEMA_B);
+    }
+
+    @AfterEach
+    public void leaveTestSchema() {
+        TestSchemas.setCurrent(null);
+    }
+
+    @Test
+    public void testSchemasAreIsolated() throws BookingException {
+        TestSchemas.setCurrent(SCHEMA_A);
+        assertEquals("ZNJ-242", flightName(1L));
+        long bookingId = bookSeat(1L, 1L, "11A");
+
+        TestSchemas.setCurrent(SCHEMA_B);
+        assertEquals(0, countBookings());
+        // Identity columns carry on from the seed data in every schema, so ids are reused across schemas
+        assertEquals(bookingId, bookSeat(2L, 1L, "11A"));
+
+        TestSchemas.setCurrent(null);
+        assertEquals(0, countBookings());
+
+        TestSchemas.setCurrent(SCHEMA_A);
+        assertEquals(1, countBookings());
+    }
+
+    @Test
+    public void testResetOneSchema() throws BookingException {
+        TestSchemas.setCurrent(SCHEMA_A);
+        bookSeat(1L, 1L, "11A");
+        TestSchemas.setCurrent(SCHEMA_B);
+        bookSeat(1L, 1L, "11A");
+
+        PM.resetTestSchema(SCHEMA_A);
+
+        TestSchemas.setCurrent(SCHEMA_A);
+        assertEquals(0, countBookings());
+        TestSchemas.setCurrent(SCHEMA_B);
+        assertEquals(1, countBookings());
+    }
+
+    private static String flightName(long flightId) {
+        EntityManager em = PM.createEntityManager();
+        try {
+            return em.find(Flight.class, flightId).getName();
+        } finally {
+            em.close();
+        }
+    }
+
+    private static long countBookings() {
+        EntityManager em = PM.createEntityManager();
+        try {
+            return em.createQuery("SELECT COUNT(b) FROM FlightBooking b", Long.class).getSingleResult();
+        } finally {
+            em.close();
+        }
+    }
+
+    private static long bookSeat(long userId, long flightId, String seatCode) throws BookingException {
+        EntityManager em = PM.createEntityManager();
+        try {
+            em.getTransaction().begin();
+            FlightBooking booking = em.find(Flight.class, flightId).makeBooking(em.find(User.class, userId), seatCode);
+            em.getTransaction().commit();
+            return booking.getId();
+        } finally {
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+            em.close();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package se325.flights.service.test;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import se325.flights.service.db.SchemaMigrator;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests that the schema migrator applies its scripts to an empty database once, baselines a database created before
+ * migrations, and refuses to work with a database whose history doesn't match the scripts. Uses a database of its own,
+ * rather than the service's.
+ */
+public class TestSchemaMigrator {
+
+    private Connection connection;
+    private SchemaMigrator migrator;
+
+    /**
+     * Opens an empty in-memory database, which disappears when its connection is closed
+     */
+    @BeforeEach
+    public void openDatabase() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:h2:mem:migration-test", "sa", "sa");
+        migrator = new SchemaMigrator();
+    }
+
+    @AfterEach
+    public void closeDatabase() throws SQLException {
+        connection.close();
+    }
+
+    @Test
+    public void testMigrateOnce() throws SQLException {
+        assertEquals(migrator.getLatestVersion(), migrator.migrate(connection));
+        assertEquals(0, queryLong("SELECT COUNT(*) FROM FlightBooking"));
+        assertEquals(migrator.getLatestVersion(), queryLong("SELECT MAX(VERSION) FROM SCHEMA_VERSION"));
+
+        assertEquals(0, migrator.migrate(connection));
+
+        SchemaMigrator.runScript(connection, "db-init.sql");
+        assertEquals(2, queryLong("SELECT COUNT(*) FROM USER"));
+        assertEquals(0, new SchemaMigrator().migrate(connection));
+        assertEquals(2, queryLong("SELECT COUNT(*) FROM USER"));
+    }
+
+    @Test
+    public void testRejectChangedMigration() throws SQLException {
+        migrator.migrate(connection);
+        execute("UPDATE SCHEMA_VERSION SET CHECKSUM = CHECKSUM + 1 WHERE VERSION = 1");
+
+        assertThrows(IllegalStateException.class, () -> migrator.migrate(connection));
+    }
+
+    @Test
+    public void testRejectNewerDatabase() throws SQLException {
+        migrator.migrate(connection);
+        execute("INSERT INTO SCHEMA_VERSION (VERSION, DESCRIPTION, CHECKSUM, APPLIED_AT, EXECUTION_MS) VALUES ("
+                + (migrator.getLatestVersion() + 1) + ", 'From a later release', 0, CURRENT_TIMESTAMP, 0)");
+
+        assertThrows(IllegalStateException.class, () -> migrator.migrate(connection));
+    }
+
+    @Test
+    public void testBaselineLegacyDatabase() throws SQLException {
+        // A database as the service generated it from the mappings before migrations: V1's tables, with data
+        migrator.migrate(connection);
+        SchemaMigrator.runScript(connection, "db-init.sql");
+        execute("DROP TABLE SCHEMA_VERSION");
+        execute("ALTER TABLE Flight DROP COLUMN version");
+        execute("DROP TABLE SEAT_HOLD");
+
+        assertEquals(migrator.getLatestVersion() - 1, migrator.migrate(connection));
+        assertEquals(2, queryLong("SELECT COUNT(*) FROM USER"));
+        assertEquals(0, queryLong("SELECT MAX(version) FROM Flight"));
+        assertEquals(1, queryLong("SELECT COUNT(*) FROM SCHEMA_VERSION WHERE VERSION = 1 AND EXECUTION_MS = 0"));
+        assertEquals(migrator.getLatestVersion(), queryLong("SELECT MAX(VERSION) FROM SCHEMA_VERSION"));
+
+        assertEquals(0, migrator.migrate(connection));
+    }
+
+    @Test
+    public void testRejectUnrecognisedDatabase() throws SQLException {
+        execute("CREATE TABLE Flight (id bigint PRIMARY KEY)");
+
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> migrator.migrate(connection));
+        assertTrue(e.getMessage().contains("db.seed"), e.getMessage());
+        assertEquals(1, queryLong("SELECT COUNT(*) FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_SCHEMA = SCHEMA()"));
+    }
+
+    private long queryLong(String sql) throws SQLException {
+        try (Statement statement = connection.createStatement(); ResultSet rs = statement.executeQuery(sql)) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    private void execute(String sql) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+}
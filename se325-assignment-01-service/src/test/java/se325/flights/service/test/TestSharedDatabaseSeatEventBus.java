@@ -0,0 +1,123 @@
+package se325.flights.service.test;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import se325.flights.domain.SeatAvailabilityEvent;
+import se325.flights.service.PersistenceManager;
+import se325.flights.service.events.SharedDatabaseSeatEventBus;
+
+import javax.persistence.EntityManager;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for delivery of seat availability events between service instances through the shared outbox table.
+ */
+public class TestSharedDatabaseSeatEventBus {
+
+    private final List<Long> delivered = new CopyOnWriteArrayList<>();
+    private SharedDatabaseSeatEventBus bus;
+
+    @BeforeEach
+    public void startBus() throws InterruptedException {
+        PersistenceManager.instance().reset();
+        bus = new SharedDatabaseSeatEventBus("node-a", 2, 20, 2000, 60000);
+        bus.start(delivered::add);
+
+        // Let the first poll position the cursor
+        Thread.sleep(100);
+    }
+
+    @AfterEach
+    public void stopBus() {
+        bus.stop();
+    }
+
+    private void writeEvents(String nodeId, long... flightIds) {
+        EntityManager em = PersistenceManager.instance().createEntityManager();
+        try {
+            em.getTransaction().begin();
+            for (long flightId : flightIds) {
+                em.persist(new SeatAvailabilityEvent(flightId, nodeId));
+            }
+            em.getTransaction().commit();
+        } finally {
+            em.close();
+        }
+    }
+
+    private void awaitDelivered(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (delivered.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Tests that events written by other nodes are delivered once each, across several batches, and that events
+     * written by this node are left to be published locally.
+     */
+    @Test
+    public void testDeliversEventsFromOtherNodes() throws InterruptedException {
+        writeEvents("node-b", 1, 2, 3, 4, 5);
+        writeEvents("node-a", 6);
+
+        awaitDelivered(5);
+        Thread.sleep(200);
+
+        assertEquals(5, delivered.size());
+        assertEquals(Set.of(1L, 2L, 3L, 4L, 5L), Set.copyOf(delivered));
+    }
+
+    /**
+     * Tests that events written by other nodes while this node was stopped are delivered once it starts again.
+     */
+    @Test
+    public void testDeliversEventsWrittenWhileStopped() throws InterruptedException {
+        bus.stop();
+        writeEvents("node-b", 1, 2);
+
+        bus = new SharedDatabaseSeatEventBus("node-a", 2, 20, 2000, 60000);
+        bus.start(delivered::add);
+
+        awaitDelivered(2);
+        assertEquals(Set.of(1L, 2L), Set.copyOf(delivered));
+    }
+
+    /**
+     * Tests that an event whose transaction commits after one with a higher id has been delivered is still delivered.
+     */
+    @Test
+    public void testDeliversEventsWhichCommitLate() throws InterruptedException {
+        EntityManager em = PersistenceManager.instance().createEntityManager();
+        try {
+            em.getTransaction().begin();
+            em.persist(new SeatAvailabilityEvent(1, "node-b"));
+            em.flush();
+
+            writeEvents("node-b", 2);
+            awaitDelivered(1);
+            assertEquals(List.of(2L), delivered);
+
+            em.getTransaction().commit();
+        } finally {
+            em.close();
+        }
+
+        awaitDelivered(2);
+        assertEquals(List.of(2L, 1L), delivered);
+    }
+
+    /**
+     * Tests that changes published by this node reach the local listener directly.
+     */
+    @Test
+    public void testPublishDeliversLocally() {
+        bus.publish(List.of(7L, 8L));
+        assertEquals(List.of(7L, 8L), delivered);
+    }
+}
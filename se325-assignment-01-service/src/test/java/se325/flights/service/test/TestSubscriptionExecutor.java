@@ -0,0 +1,93 @@
+package se325.flights.service.test;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import se325.flights.service.SubscriptionExecutor;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the coalescing and back-pressure behaviour of the {@link SubscriptionExecutor}.
+ */
+public class TestSubscriptionExecutor {
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final List<Long> processed = new CopyOnWriteArrayList<>();
+    private SubscriptionExecutor executor;
+
+    @AfterEach
+    public void shutdown() {
+        release.countDown();
+        executor.shutdown(5, TimeUnit.SECONDS);
+    }
+
+    /**
+     * A task which records the flight it was run for, but blocks until the test releases it.
+     */
+    private void blockingTask(long flightId) {
+        try {
+            release.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        processed.add(flightId);
+    }
+
+    private void awaitCompleted(long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (executor.getCompletedTasks() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, executor.getCompletedTasks());
+    }
+
+    /**
+     * Tests that requests for a flight which already has a queued task are folded into that task.
+     */
+    @Test
+    public void testCoalescesQueuedFlights() throws InterruptedException {
+        executor = new SubscriptionExecutor(SubscriptionExecutor.Mode.POOL, 1, 10, this::blockingTask);
+
+        executor.submit(1); // Runs, and blocks the only thread
+        Thread.sleep(100);
+        executor.submit(2); // Queued
+        executor.submit(2); // Coalesced
+        executor.submit(2); // Coalesced
+
+        assertEquals(1, executor.getQueueDepth());
+        assertEquals(2, executor.getCoalescedRequests());
+
+        release.countDown();
+        awaitCompleted(2);
+        assertEquals(List.of(1L, 2L), processed);
+    }
+
+    /**
+     * Tests that flights rejected by a full queue are not lost, but run once there's room.
+     */
+    @Test
+    public void testRejectedFlightsAreResubmitted() throws InterruptedException {
+        executor = new SubscriptionExecutor(SubscriptionExecutor.Mode.POOL, 1, 1, this::blockingTask);
+
+        executor.submit(1); // Runs, and blocks the only thread
+        Thread.sleep(100);
+        executor.submit(2); // Queued
+        executor.submit(3); // Rejected
+        executor.submit(4); // Rejected
+        executor.submit(3); // Coalesced with the rejected task
+
+        assertEquals(2, executor.getRejectedTasks());
+        assertEquals(2, executor.getOverflowDepth());
+        assertEquals(1, executor.getCoalescedRequests());
+
+        release.countDown();
+        awaitCompleted(4);
+        assertEquals(List.of(1L, 2L, 3L, 4L), processed);
+        assertEquals(0, executor.getOverflowDepth());
+    }
+}
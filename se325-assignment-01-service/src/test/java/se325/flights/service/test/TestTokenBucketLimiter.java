@@ -0,0 +1,99 @@
+package se325.flights.service.test;
+
+import org.junit.jupiter.api.Test;
+import se325.flights.service.ratelimit.TokenBucketLimiter;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the {@link TokenBucketLimiter}, driven by a fake clock.
+ */
+public class TestTokenBucketLimiter {
+
+    private final AtomicLong now = new AtomicLong(TimeUnit.SECONDS.toNanos(1000));
+
+    /**
+     * Tests that a bucket admits a burst up to its capacity, then one request per refill interval, and that buckets for
+     * different keys are independent.
+     */
+    @Test
+    public void testBurstThenRefill() {
+        TokenBucketLimiter limiter = new TokenBucketLimiter(3, 2, 4, 100, now::get);
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, limiter.tryAcquire("alice"));
+        }
+        long wait = limiter.tryAcquire("alice");
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(500), wait);
+        assertEquals(0, limiter.tryAcquire("bob"));
+
+        now.addAndGet(wait);
+        assertEquals(0, limiter.tryAcquire("alice"));
+        assertTrue(limiter.tryAcquire("alice") > 0);
+    }
+
+    /**
+     * Tests that a refunded token can be taken again, and that refunds don't fill a bucket beyond its capacity.
+     */
+    @Test
+    public void testRefund() {
+        TokenBucketLimiter limiter = new TokenBucketLimiter(2, 1, 4, 100, now::get);
+
+        assertEquals(0, limiter.tryAcquire("alice"));
+        assertEquals(0, limiter.tryAcquire("alice"));
+        assertTrue(limiter.tryAcquire("alice") > 0);
+
+        limiter.refund("alice");
+        assertEquals(0, limiter.tryAcquire("alice"));
+        assertTrue(limiter.tryAcquire("alice") > 0);
+
+        for (int i = 0; i < 5; i++) {
+            limiter.refund("bob");
+        }
+        assertEquals(0, limiter.tryAcquire("bob"));
+        assertEquals(0, limiter.tryAcquire("bob"));
+        assertTrue(limiter.tryAcquire("bob") > 0);
+    }
+
+    /**
+     * Tests that the number of buckets stays bounded however many keys are seen, and that buckets which have refilled
+     * are evicted to make room for new keys.
+     */
+    @Test
+    public void testBoundedByEviction() {
+        TokenBucketLimiter limiter = new TokenBucketLimiter(1, 1, 1, 10, now::get);
+
+        for (int i = 0; i < 100; i++) {
+            limiter.tryAcquire("user" + i);
+        }
+        assertEquals(10, limiter.size());
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(5));
+        assertEquals(0, limiter.tryAcquire("newcomer"));
+        assertEquals(1, limiter.size());
+    }
+
+    /**
+     * Tests that when a stripe is full of buckets which haven't refilled, a new key evicts the least recently used one
+     * and gets a bucket of its own, rather than sharing one with every other new key.
+     */
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        TokenBucketLimiter limiter = new TokenBucketLimiter(1, 1, 1, 2, now::get);
+
+        assertEquals(0, limiter.tryAcquire("alice"));
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(1));
+        assertEquals(0, limiter.tryAcquire("bob"));
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(1));
+        assertTrue(limiter.tryAcquire("alice") > 0);
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(1));
+
+        assertEquals(0, limiter.tryAcquire("carol"));
+        assertEquals(0, limiter.tryAcquire("dave"));
+        assertEquals(2, limiter.size());
+        assertTrue(limiter.tryAcquire("dave") > 0);
+    }
+}